@@ -0,0 +1,139 @@
+package simplerestclient.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import simplerestclient.Base64;
+
+/**
+ * Compares simplerestclient.Base64 with java.util.Base64 on the same input.  Pairs of benchmarks
+ * differ only in the codec: allocating encode/decode, encode/decode into a caller's array, direct
+ * ByteBuffers, and MIME style line breaks.
+ *
+ * @author kgilmer
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class Base64Benchmark {
+	@Param({ "64", "1024", "65536", "1048576" })
+	public int size;
+
+	private byte[] raw;
+	private byte[] encoded;
+	private byte[] encodedLines;
+	private byte[] rawOut;
+	private byte[] encodedOut;
+	private ByteBuffer rawDirect;
+	private ByteBuffer encodedDirect;
+
+	private final java.util.Base64.Encoder jdkEncoder = java.util.Base64.getEncoder();
+	private final java.util.Base64.Decoder jdkDecoder = java.util.Base64.getDecoder();
+	private final java.util.Base64.Encoder jdkMimeEncoder = java.util.Base64.getMimeEncoder(76, new byte[] { '\n' });
+	private final java.util.Base64.Decoder jdkMimeDecoder = java.util.Base64.getMimeDecoder();
+
+	@Setup
+	public void setup() throws IOException {
+		raw = new byte[size];
+		new Random(size).nextBytes(raw);
+		encoded = jdkEncoder.encode(raw);
+		encodedLines = Base64.encodeBytesToBytes(raw, 0, raw.length, Base64.DO_BREAK_LINES);
+
+		rawOut = new byte[size];
+		encodedOut = new byte[encodedLines.length];
+		rawDirect = ByteBuffer.allocateDirect(size);
+		encodedDirect = ByteBuffer.allocateDirect(encodedLines.length);
+	}
+
+	@Benchmark
+	public byte[] encode() throws IOException {
+		return Base64.encodeBytesToBytes(raw, 0, raw.length, Base64.NO_OPTIONS);
+	}
+
+	@Benchmark
+	public byte[] encodeJdk() {
+		return jdkEncoder.encode(raw);
+	}
+
+	@Benchmark
+	public byte[] decode() throws IOException {
+		return Base64.decode(encoded, 0, encoded.length, Base64.NO_OPTIONS);
+	}
+
+	@Benchmark
+	public byte[] decodeJdk() {
+		return jdkDecoder.decode(encoded);
+	}
+
+	@Benchmark
+	public int encodeIntoArray() {
+		return Base64.encode(raw, 0, raw.length, encodedOut, 0, Base64.NO_OPTIONS);
+	}
+
+	@Benchmark
+	public int encodeIntoArrayJdk() {
+		return jdkEncoder.encode(raw, encodedOut);
+	}
+
+	@Benchmark
+	public int decodeIntoArray() throws IOException {
+		return Base64.decode(encoded, 0, encoded.length, rawOut, 0, Base64.NO_OPTIONS);
+	}
+
+	@Benchmark
+	public int decodeIntoArrayJdk() {
+		return jdkDecoder.decode(encoded, rawOut);
+	}
+
+	@Benchmark
+	public ByteBuffer encodeDirect() {
+		rawDirect.clear();
+		encodedDirect.clear();
+		Base64.encode(rawDirect, encodedDirect, Base64.NO_OPTIONS);
+		return encodedDirect;
+	}
+
+	@Benchmark
+	public ByteBuffer encodeDirectJdk() {
+		rawDirect.clear();
+		return jdkEncoder.encode(rawDirect);
+	}
+
+	@Benchmark
+	public byte[] encodeLines() throws IOException {
+		return Base64.encodeBytesToBytes(raw, 0, raw.length, Base64.DO_BREAK_LINES);
+	}
+
+	@Benchmark
+	public byte[] encodeLinesJdk() {
+		return jdkMimeEncoder.encode(raw);
+	}
+
+	@Benchmark
+	public byte[] decodeLines() throws IOException {
+		return Base64.decode(encodedLines, 0, encodedLines.length, Base64.NO_OPTIONS);
+	}
+
+	@Benchmark
+	public byte[] decodeLinesJdk() {
+		return jdkMimeDecoder.decode(encodedLines);
+	}
+}
@@ -0,0 +1,172 @@
+package simplerestclient.benchmark;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import simplerestclient.FormFile;
+import simplerestclient.HTTPRequest;
+import simplerestclient.HTTPResponse;
+import simplerestclient.IHTTPRequest;
+import simplerestclient.RateLimitedHTTPRequest;
+import simplerestclient.SimpleHTTPRequest;
+
+/**
+ * Request round trips against a LocalServer, for each client: HTTPRequest, the static
+ * SimpleHTTPRequest methods and RateLimitedHTTPRequest with no wait, so the numbers show
+ * the limiter's own overhead.
+ *
+ * Throughput and SampleTime (latency percentiles) are both reported.  Add -prof gc for
+ * allocation rate and -t for concurrent callers; see README.txt.
+ *
+ * @author kgilmer
+ *
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HTTPClientBenchmark {
+	public static final int MULTIPART_FILE = 64 * 1024;
+
+	@Param({ "HTTPRequest", "SimpleHTTPRequest", "RateLimitedHTTPRequest" })
+	public String client;
+
+	private LocalServer server;
+	private Client c;
+	private String smallUrl;
+	private String largeUrl;
+	private String echoUrl;
+	private String form;
+	private byte[] largeBody;
+	private Map<String, Object> multipart;
+
+	@Setup
+	public void setup() throws IOException {
+		server = new LocalServer(Math.max(4, Runtime.getRuntime().availableProcessors()));
+		smallUrl = server.getBaseUrl() + "/small";
+		largeUrl = server.getBaseUrl() + "/large";
+		echoUrl = server.getBaseUrl() + "/echo";
+
+		Random r = new Random(2);
+		largeBody = new byte[LocalServer.LARGE_BODY];
+		r.nextBytes(largeBody);
+		byte[] file = new byte[MULTIPART_FILE];
+		r.nextBytes(file);
+
+		form = "name=benchmark&value=" + Long.toHexString(r.nextLong());
+		multipart = new HashMap<String, Object>();
+		multipart.put("name", "benchmark");
+		multipart.put("description", "multipart request from HTTPClientBenchmark");
+		multipart.put("file", new FormFile("data.bin", "application/octet-stream", file));
+
+		if (client.equals("HTTPRequest"))
+			c = new RequestClient(new HTTPRequest());
+		else if (client.equals("RateLimitedHTTPRequest"))
+			c = new RequestClient(new RateLimitedHTTPRequest(0));
+		else
+			c = new StaticClient();
+	}
+
+	@TearDown
+	public void tearDown() {
+		server.stop();
+	}
+
+	@Benchmark
+	public byte[] get() throws IOException {
+		return c.get(smallUrl).getBytes();
+	}
+
+	@Benchmark
+	public byte[] getLarge() throws IOException {
+		return c.get(largeUrl).getBytes();
+	}
+
+	@Benchmark
+	public byte[] post() throws IOException {
+		return c.post(echoUrl, form).getBytes();
+	}
+
+	@Benchmark
+	public byte[] postLarge() throws IOException {
+		return c.post(echoUrl, largeBody).getBytes();
+	}
+
+	@Benchmark
+	public byte[] postMultipart() throws IOException {
+		return c.postMultipart(echoUrl, multipart).getBytes();
+	}
+
+	/**
+	 * The operations measured, so one set of benchmarks covers every client.
+	 */
+	private interface Client {
+		HTTPResponse get(String url) throws IOException;
+
+		HTTPResponse post(String url, String data) throws IOException;
+
+		HTTPResponse post(String url, byte[] data) throws IOException;
+
+		HTTPResponse postMultipart(String url, Map<String, Object> parameters) throws IOException;
+	}
+
+	private static class RequestClient implements Client {
+		private final IHTTPRequest request;
+
+		RequestClient(IHTTPRequest request) {
+			this.request = request;
+		}
+
+		public HTTPResponse get(String url) throws IOException {
+			return request.get(url);
+		}
+
+		public HTTPResponse post(String url, String data) throws IOException {
+			return request.post(url, data);
+		}
+
+		public HTTPResponse post(String url, byte[] data) throws IOException {
+			return request.post(url, data);
+		}
+
+		public HTTPResponse postMultipart(String url, Map<String, Object> parameters) throws IOException {
+			return request.postMultipart(url, parameters);
+		}
+	}
+
+	private static class StaticClient implements Client {
+		public HTTPResponse get(String url) throws IOException {
+			return SimpleHTTPRequest.get(url);
+		}
+
+		public HTTPResponse post(String url, String data) throws IOException {
+			return SimpleHTTPRequest.post(url, data);
+		}
+
+		public HTTPResponse post(String url, byte[] data) throws IOException {
+			return SimpleHTTPRequest.post(url, data);
+		}
+
+		public HTTPResponse postMultipart(String url, Map<String, Object> parameters) throws IOException {
+			return SimpleHTTPRequest.postMultipart(url, parameters);
+		}
+	}
+}
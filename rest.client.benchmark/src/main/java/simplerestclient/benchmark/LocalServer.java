@@ -0,0 +1,113 @@
+package simplerestclient.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process HTTP server on an ephemeral loopback port for benchmarks.
+ *
+ * /small and /large answer with a fixed body of SMALL_BODY and LARGE_BODY bytes; /echo reads the
+ * request body and answers with its length.  Responses are sent with Content-Length, so connections
+ * are kept alive.
+ *
+ * @author kgilmer
+ *
+ */
+public class LocalServer {
+	public static final int SMALL_BODY = 128;
+	public static final int LARGE_BODY = 1024 * 1024;
+
+	static {
+		// Without this every keep-alive response waits out the client's delayed ACK.
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	/**
+	 * @param threads number of server threads
+	 * @throws IOException
+	 */
+	public LocalServer(int threads) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+		executor = Executors.newFixedThreadPool(threads);
+		server.setExecutor(executor);
+
+		Random r = new Random(1);
+		byte[] small = new byte[SMALL_BODY];
+		byte[] large = new byte[LARGE_BODY];
+		r.nextBytes(small);
+		r.nextBytes(large);
+
+		server.createContext("/small", new FixedHandler(small));
+		server.createContext("/large", new FixedHandler(large));
+		server.createContext("/echo", new EchoHandler());
+		server.start();
+	}
+
+	/**
+	 * @return http://127.0.0.1:port, no trailing slash
+	 */
+	public String getBaseUrl() {
+		return "http://" + server.getAddress().getAddress().getHostAddress() + ":" + server.getAddress().getPort();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private static void drain(InputStream in) throws IOException {
+		byte[] buf = new byte[8192];
+		while (in.read(buf) != -1)
+			;
+		in.close();
+	}
+
+	private static class FixedHandler implements HttpHandler {
+		private final byte[] body;
+
+		FixedHandler(byte[] body) {
+			this.body = body;
+		}
+
+		public void handle(HttpExchange exchange) throws IOException {
+			drain(exchange.getRequestBody());
+			exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+			exchange.sendResponseHeaders(200, body.length);
+			OutputStream os = exchange.getResponseBody();
+			os.write(body);
+			os.close();
+		}
+	}
+
+	private static class EchoHandler implements HttpHandler {
+		public void handle(HttpExchange exchange) throws IOException {
+			InputStream in = exchange.getRequestBody();
+			byte[] buf = new byte[8192];
+			long total = 0;
+			int n;
+			while ((n = in.read(buf)) != -1)
+				total += n;
+			in.close();
+
+			byte[] body = String.valueOf(total).getBytes("US-ASCII");
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=US-ASCII");
+			exchange.sendResponseHeaders(200, body.length);
+			OutputStream os = exchange.getResponseBody();
+			os.write(body);
+			os.close();
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package simplerestclient.http2.test;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A minimal h2c server for the transport tests.  It takes the HTTP/1.1 Upgrade: h2c of the first
+ * request on a connection, then answers every stream with 200 and "viola" over HTTP/2.  Request
+ * headers are not decoded.  Requests that don't ask for the upgrade get an HTTP/1.1 answer.
+ *
+ * Responses can be held back until a number of streams are open at once, which only a connection
+ * that multiplexes them can do.
+ * @author kgilmer
+ *
+ */
+class H2CServer extends Thread {
+	static final byte[] BODY = { 'v', 'i', 'o', 'l', 'a' };
+
+	private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes();
+	private static final int DATA = 0;
+	private static final int HEADERS = 1;
+	private static final int SETTINGS = 4;
+	private static final int PING = 6;
+	private static final int GOAWAY = 7;
+	private static final int CONTINUATION = 9;
+	private static final int END_STREAM = 0x1;
+	private static final int ACK = 0x1;
+	private static final int END_HEADERS = 0x4;
+	/**
+	 * HPACK indexed field 8 of the static table, :status 200.
+	 */
+	private static final byte STATUS_200 = (byte) 0x88;
+
+	private final ServerSocket socket = new ServerSocket(0);
+	private final List<Socket> connections = new ArrayList<Socket>();
+	private int batch = 1;
+	private int maxOpenStreams;
+
+	H2CServer() throws IOException {
+		setDaemon(true);
+		start();
+	}
+
+	String getURL() {
+		return "http://localhost:" + socket.getLocalPort() + "/test";
+	}
+
+	/**
+	 * @param streams hold responses until this many streams are open on a connection
+	 */
+	synchronized void setBatch(int streams) {
+		batch = streams;
+	}
+
+	synchronized int getConnectionCount() {
+		return connections.size();
+	}
+
+	/**
+	 * @return most streams that were open at once on a connection
+	 */
+	synchronized int getMaxOpenStreams() {
+		return maxOpenStreams;
+	}
+
+	void close() throws IOException {
+		socket.close();
+		synchronized (this) {
+			for (int i = 0; i < connections.size(); ++i)
+				connections.get(i).close();
+		}
+	}
+
+	public void run() {
+		try {
+			while (true) {
+				final Socket s = socket.accept();
+				synchronized (this) {
+					connections.add(s);
+				}
+				new Thread() {
+					public void run() {
+						try {
+							serve(s);
+						} catch (IOException e) {
+							//Closed
+						} finally {
+							try {
+								s.close();
+							} catch (IOException e) {
+								//Ignore
+							}
+						}
+					}
+				}.start();
+			}
+		} catch (IOException e) {
+			//Closed
+		}
+	}
+
+	private void serve(Socket s) throws IOException {
+		DataInputStream in = new DataInputStream(s.getInputStream());
+		OutputStream out = s.getOutputStream();
+
+		String head = readHead(in);
+		if (head.toLowerCase().indexOf("upgrade: h2c") == -1) {
+			int cl = head.toLowerCase().indexOf("content-length:");
+			if (cl != -1)
+				in.readFully(new byte[Integer.parseInt(head.substring(cl + 15, head.indexOf('\r', cl)).trim())]);
+			out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + BODY.length + "\r\nConnection: close\r\n\r\n").getBytes());
+			out.write(BODY);
+			out.flush();
+			return;
+		}
+
+		out.write("HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\nUpgrade: h2c\r\n\r\n".getBytes());
+		writeFrame(out, SETTINGS, 0, 0, new byte[0]);
+		List<Integer> open = new ArrayList<Integer>();
+		// The upgraded request is stream 1.
+		open.add(1);
+		respond(out, open);
+
+		byte[] preface = new byte[PREFACE.length];
+		in.readFully(preface);
+		int headersStream = 0;
+		boolean headersEndStream = false;
+		while (true) {
+			int length = (in.readUnsignedShort() << 8) | in.readUnsignedByte();
+			int type = in.readUnsignedByte();
+			int flags = in.readUnsignedByte();
+			int stream = in.readInt() & 0x7fffffff;
+			byte[] payload = new byte[length];
+			in.readFully(payload);
+
+			switch (type) {
+			case SETTINGS:
+				if ((flags & ACK) == 0)
+					writeFrame(out, SETTINGS, ACK, 0, new byte[0]);
+				break;
+			case PING:
+				if ((flags & ACK) == 0)
+					writeFrame(out, PING, ACK, 0, payload);
+				break;
+			case HEADERS:
+				headersStream = stream;
+				headersEndStream = (flags & END_STREAM) != 0;
+				if (headersEndStream && (flags & END_HEADERS) != 0)
+					open.add(stream);
+				break;
+			case CONTINUATION:
+				if (stream == headersStream && headersEndStream && (flags & END_HEADERS) != 0)
+					open.add(stream);
+				break;
+			case DATA:
+				if ((flags & END_STREAM) != 0)
+					open.add(stream);
+				break;
+			case GOAWAY:
+				return;
+			}
+			respond(out, open);
+		}
+	}
+
+	/**
+	 * Answer the open streams, once there are enough of them.
+	 */
+	private void respond(OutputStream out, List<Integer> open) throws IOException {
+		synchronized (this) {
+			maxOpenStreams = Math.max(maxOpenStreams, open.size());
+			if (open.size() < batch)
+				return;
+		}
+
+		for (int i = 0; i < open.size(); ++i) {
+			writeFrame(out, HEADERS, END_HEADERS, open.get(i), new byte[] { STATUS_200 });
+			writeFrame(out, DATA, END_STREAM, open.get(i), BODY);
+		}
+		open.clear();
+	}
+
+	private static void writeFrame(OutputStream out, int type, int flags, int stream, byte[] payload) throws IOException {
+		byte[] header = { (byte) (payload.length >> 16), (byte) (payload.length >> 8), (byte) payload.length, (byte) type, (byte) flags,
+				(byte) (stream >> 24), (byte) (stream >> 16), (byte) (stream >> 8), (byte) stream };
+		out.write(header);
+		out.write(payload);
+		out.flush();
+	}
+
+	/**
+	 * @return the HTTP/1.1 request line and headers, up to the blank line
+	 */
+	private static String readHead(InputStream in) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		while (!sb.toString().endsWith("\r\n\r\n")) {
+			int c = in.read();
+			if (c == -1)
+				throw new EOFException();
+			sb.append((char) c);
+		}
+		return sb.toString();
+	}
+}
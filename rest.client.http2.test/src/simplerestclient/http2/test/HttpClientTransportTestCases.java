@@ -0,0 +1,178 @@
+package simplerestclient.http2.test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.TestCase;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.http.HttpService;
+import org.osgi.service.http.NamespaceException;
+
+import simplerestclient.HTTPRequest;
+import simplerestclient.HTTPResponse;
+import simplerestclient.HTTPResponseFuture;
+import simplerestclient.TransportResponse;
+import simplerestclient.http2.HttpClientTransport;
+
+/**
+ * Tests HTTPRequest and HTTPResponse over the HttpClient transport.  The client tries an h2c
+ * upgrade with the local HTTP Service, and speaks HTTP/1.1 if it is not taken up.
+ * @author kgilmer
+ *
+ */
+public class HttpClientTransportTestCases extends TestCase {
+	
+	//Set this to whatever port your OSGi HTTP Service is running on.
+	private static final int HTTP_SERVICE_PORT = 8095;
+	
+	public void testGET() throws ServletException, NamespaceException, IOException {
+		BundleContext context = Activator.getContext();
+		TestServlet testServlet = new TestServlet();
+		registerServlet(context, testServlet);
+		
+		HTTPRequest req = new HTTPRequest(new HttpClientTransport());
+		HTTPResponse resp = req.get("http://localhost:" + HTTP_SERVICE_PORT + "/test");
+		assertEquals(200, resp.getStatusCode());
+		assertEquals("value", resp.getHeaderField("X-Test"));
+		assertTrue(resp.getString().trim().equals("viola"));
+		assertTrue(testServlet.getCalled);
+		
+		unregisterServlet(context);
+	}
+	
+	public void testPOST() throws ServletException, NamespaceException, IOException {
+		BundleContext context = Activator.getContext();
+		TestServlet testServlet = new TestServlet();
+		registerServlet(context, testServlet);
+		
+		String url = "http://localhost:" + HTTP_SERVICE_PORT + "/test";
+		HTTPRequest req = new HTTPRequest(new HttpClientTransport());
+		HTTPResponse resp = req.post(url, "postdata");
+		assertEquals(200, resp.getStatusCode());
+		assertTrue(resp.getString().trim().equals("viola"));
+		assertEquals("postdata", new String(testServlet.body));
+		
+		byte[] data = new byte[100000];
+		new Random(1).nextBytes(data);
+		resp = req.post(url, data);
+		assertEquals(200, resp.getStatusCode());
+		assertTrue(resp.getString().trim().equals("viola"));
+		assertTrue(Arrays.equals(data, testServlet.body));
+		
+		unregisterServlet(context);
+	}
+	
+	public void testErrorStatus() throws ServletException, NamespaceException, IOException {
+		BundleContext context = Activator.getContext();
+		TestServlet testServlet = new TestServlet();
+		registerServlet(context, testServlet);
+		
+		HTTPRequest req = new HTTPRequest(new HttpClientTransport());
+		HTTPResponse resp = req.get("http://localhost:" + HTTP_SERVICE_PORT + "/test?missing=true");
+		assertEquals(404, resp.getStatusCode());
+		assertEquals("value", resp.getHeaderField("X-Test"));
+		assertEquals("missing", resp.getErrorMessage().trim());
+		try {
+			resp.getString();
+			fail("Expected an IOException for 404.");
+		} catch (IOException e) {
+			//Expected
+		}
+		
+		unregisterServlet(context);
+	}
+	
+	public void testH2C() throws Exception {
+		H2CServer server = new H2CServer();
+		try {
+			HttpClientTransport transport = new HttpClientTransport();
+			
+			// The first request upgrades the connection.
+			TransportResponse r = transport.send("GET", server.getURL(), Collections.<String, List<String>>emptyMap(), null, -1, 5000, 5000);
+			assertEquals("HTTP/2", r.getProtocol());
+			assertEquals(200, r.getStatusCode());
+			assertTrue(Arrays.equals(H2CServer.BODY, HTTPRequest.streamToByteArray(r.getBody())));
+			
+			HTTPRequest req = new HTTPRequest(transport);
+			HTTPResponse resp = req.get(server.getURL());
+			Map<String, List<String>> headers = resp.getHeaderFields();
+			assertEquals("HTTP/2 200", headers.get(null).get(0));
+			assertEquals("viola", resp.getString());
+			
+			// Held until all five are open, so they can only be answered as streams of one connection.
+			server.setBatch(5);
+			HTTPResponseFuture[] futures = new HTTPResponseFuture[5];
+			for (int i = 0; i < futures.length; ++i)
+				futures[i] = req.getAsync(server.getURL());
+			for (int i = 0; i < futures.length; ++i)
+				assertEquals("viola", futures[i].get(10, TimeUnit.SECONDS).getString());
+			
+			assertEquals(5, server.getMaxOpenStreams());
+			assertEquals(1, server.getConnectionCount());
+		} finally {
+			server.close();
+		}
+	}
+	
+	private ServiceReference registerServlet(BundleContext context, TestServlet testServlet) throws ServletException, NamespaceException {
+		ServiceReference sr = context.getServiceReference(HttpService.class.getName());
+		
+		assertTrue(sr != null);
+		
+		HttpService hs = (HttpService) context.getService(sr);
+		
+		hs.registerServlet("/test", testServlet, null, null);
+		
+		return sr;
+	}
+	
+	private ServiceReference unregisterServlet(BundleContext context) throws ServletException, NamespaceException {
+		ServiceReference sr = context.getServiceReference(HttpService.class.getName());
+		
+		assertTrue(sr != null);
+		
+		HttpService hs = (HttpService) context.getService(sr);
+		
+		assertTrue(hs != null);
+		
+		hs.unregister("/test");
+		
+		return sr;
+	}
+	
+	private class TestServlet extends HttpServlet {
+		private boolean getCalled;
+		private byte[] body;
+
+		@Override
+		protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+			getCalled = true;
+			resp.setHeader("X-Test", "value");
+			if (req.getParameter("missing") != null) {
+				resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+				resp.getWriter().write("missing");
+				return;
+			}
+			resp.getWriter().write("viola");
+		}
+		
+		@Override
+		protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+			body = HTTPRequest.streamToByteArray(req.getInputStream());
+			resp.setHeader("X-Test", "value");
+			resp.getWriter().write("viola");
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package simplerestclient.http2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+import simplerestclient.IHTTPTransport;
+import simplerestclient.TransportResponse;
+
+/**
+ * HTTP/2 transport on the JDK HttpClient.
+ *
+ * https requests negotiate h2 with ALPN, http requests attempt an h2c upgrade.  Servers
+ * without HTTP/2 are spoken to over HTTP/1.1.  Concurrent requests to the same host are
+ * multiplexed as streams over one connection, so many in-flight requests don't need
+ * as many sockets.
+ *
+ * HTTPRequest req = new HTTPRequest(new HttpClientTransport());
+ *
+ * @author kgilmer
+ *
+ */
+public class HttpClientTransport implements IHTTPTransport {
+	/**
+	 * Headers the HttpClient manages itself and refuses to have set.
+	 */
+	private static final Set<String> RESTRICTED_HEADERS = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+
+	static {
+		RESTRICTED_HEADERS.add("Connection");
+		RESTRICTED_HEADERS.add("Content-Length");
+		RESTRICTED_HEADERS.add("Expect");
+		RESTRICTED_HEADERS.add("Host");
+		RESTRICTED_HEADERS.add("Upgrade");
+	}
+
+	private final HttpClient client;
+
+	/**
+	 * Create a transport with a private HttpClient preferring HTTP/2.
+	 */
+	public HttpClientTransport() {
+		this(HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_2)
+				.followRedirects(HttpClient.Redirect.NORMAL)
+				.build());
+	}
+
+	/**
+	 * @param client client to send requests with.  Its connect timeout applies to all requests.
+	 */
+	public HttpClientTransport(HttpClient client) {
+		this.client = client;
+	}
+
+	/**
+	 * @return the underlying client
+	 */
+	public HttpClient getClient() {
+		return client;
+	}
+
+	/**
+	 * connectTimeout is ignored, the HttpClient sets it once for all connections.  The body is sent as
+	 * it is read.
+	 */
+	@Override
+	public TransportResponse send(String method, String url, Map<String, List<String>> headers, InputStream body, long length, int connectTimeout, int readTimeout) throws IOException {
+		HttpRequest.Builder builder;
+		try {
+			builder = HttpRequest.newBuilder(new URI(url));
+		} catch (URISyntaxException e) {
+			throw new IOException("Invalid URL: " + url, e);
+		}
+
+		builder.method(method, publisher(body, length));
+		if (readTimeout > 0)
+			builder.timeout(Duration.ofMillis(readTimeout));
+
+		for (Entry<String, List<String>> e : headers.entrySet()) {
+			if (e.getKey() == null || RESTRICTED_HEADERS.contains(e.getKey()))
+				continue;
+			for (String value : e.getValue())
+				builder.header(e.getKey(), value);
+		}
+
+		HttpResponse<InputStream> response;
+		try {
+			response = client.send(builder.build(), BodyHandlers.ofInputStream());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			InterruptedIOException ie = new InterruptedIOException("Interrupted waiting for response from " + url);
+			ie.initCause(e);
+			throw ie;
+		} catch (IllegalArgumentException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+
+		String protocol = response.version() == HttpClient.Version.HTTP_2 ? "HTTP/2" : "HTTP/1.1";
+
+		return new TransportResponse(protocol, response.statusCode(), "", response.headers().map(), response.body());
+	}
+
+	/**
+	 * Publish body as it is read.  An unknown length is sent chunked over HTTP/1.1.
+	 */
+	private static BodyPublisher publisher(final InputStream body, long length) {
+		if (body == null)
+			return BodyPublishers.noBody();
+
+		BodyPublisher publisher = BodyPublishers.ofInputStream(new Supplier<InputStream>() {
+			public InputStream get() {
+				return body;
+			}
+		});
+		return length < 0 ? publisher : BodyPublishers.fromPublisher(publisher, length);
+	}
+}
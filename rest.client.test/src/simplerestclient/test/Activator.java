@@ -24,6 +24,8 @@ public class Activator implements BundleActivator {
 		Activator.context = bundleContext;
 		sr = bundleContext.registerService(TestSuite.class.getName(), new TestSuite(SimpleRestClientTestCases.class), null);
 		sr = bundleContext.registerService(TestSuite.class.getName(), new TestSuite(NewRestClientAPITestCases.class), null);
+		sr = bundleContext.registerService(TestSuite.class.getName(), new TestSuite(PooledConnectionTestCases.class), null);
+		sr = bundleContext.registerService(TestSuite.class.getName(), new TestSuite(CachingHTTPRequestTestCases.class), null);
 	}
 
 	/*
@@ -0,0 +1,161 @@
+package simplerestclient.test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.TestCase;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.http.HttpService;
+import org.osgi.service.http.NamespaceException;
+
+import simplerestclient.CachingHTTPRequest;
+import simplerestclient.HTTPResponse;
+
+/**
+ * Tests for CachingHTTPRequest.
+ * @author kgilmer
+ *
+ */
+public class CachingHTTPRequestTestCases extends TestCase {
+
+	//Set this to whatever your OSGi HTTP Service is listening on.
+	private static final int HTTP_SERVICE_PORT = 8095;
+
+	/**
+	 * A fresh response should be served without contacting the server.
+	 */
+	public void testFreshResponseIsCached() throws ServletException, NamespaceException, IOException {
+		BundleContext context = Activator.getContext();
+		TestServlet testServlet = new TestServlet("max-age=60");
+		registerServlet(context, testServlet);
+
+		CachingHTTPRequest req = new CachingHTTPRequest(1024 * 1024);
+		for (int i = 0; i < 5; ++i) {
+			HTTPResponse resp = req.get("http://localhost:" + HTTP_SERVICE_PORT + "/test");
+			assertTrue(resp.getString().trim().equals("viola"));
+		}
+
+		assertTrue(testServlet.getCount == 1);
+		assertTrue(req.getHitCount() == 4);
+
+		req.post("http://localhost:" + HTTP_SERVICE_PORT + "/test", "postdata");
+		assertTrue(req.getEntryCount() == 0);
+
+		unregisterServlet(context);
+	}
+
+	/**
+	 * A stale response should be revalidated and served from the cache on 304.
+	 */
+	public void testRevalidation() throws ServletException, NamespaceException, IOException {
+		BundleContext context = Activator.getContext();
+		TestServlet testServlet = new TestServlet("no-cache");
+		registerServlet(context, testServlet);
+
+		CachingHTTPRequest req = new CachingHTTPRequest(1024 * 1024);
+		for (int i = 0; i < 3; ++i) {
+			HTTPResponse resp = req.get("http://localhost:" + HTTP_SERVICE_PORT + "/test");
+			assertTrue(resp.getStatusCode() == HTTPResponse.HTTP_CODE_OK);
+			assertTrue(resp.getString().trim().equals("viola"));
+		}
+
+		assertTrue(testServlet.getCount == 3);
+		assertTrue(testServlet.notModifiedCount == 2);
+
+		unregisterServlet(context);
+	}
+
+	/**
+	 * A response too large for the cache should be passed through, with or without a Content-Length.
+	 */
+	public void testLargeResponseIsNotCached() throws ServletException, NamespaceException, IOException {
+		BundleContext context = Activator.getContext();
+		TestServlet testServlet = new TestServlet("max-age=60");
+		testServlet.body = new byte[64 * 1024];
+		new Random(1).nextBytes(testServlet.body);
+		registerServlet(context, testServlet);
+
+		CachingHTTPRequest req = new CachingHTTPRequest(16 * 1024);
+		for (int i = 0; i < 2; ++i) {
+			testServlet.declareLength = i == 0;
+			HTTPResponse resp = req.get("http://localhost:" + HTTP_SERVICE_PORT + "/test");
+			assertTrue(Arrays.equals(testServlet.body, resp.getBytes()));
+			assertTrue(req.getEntryCount() == 0);
+		}
+
+		assertTrue(testServlet.getCount == 2);
+
+		unregisterServlet(context);
+	}
+
+	private ServiceReference registerServlet(BundleContext context, TestServlet testServlet) throws ServletException, NamespaceException {
+		ServiceReference sr = context.getServiceReference(HttpService.class.getName());
+
+		assertTrue(sr != null);
+
+		HttpService hs = (HttpService) context.getService(sr);
+
+		hs.registerServlet("/test", testServlet, null, null);
+
+		return sr;
+	}
+
+	private ServiceReference unregisterServlet(BundleContext context) throws ServletException, NamespaceException {
+		ServiceReference sr = context.getServiceReference(HttpService.class.getName());
+
+		assertTrue(sr != null);
+
+		HttpService hs = (HttpService) context.getService(sr);
+
+		assertTrue(hs != null);
+		assertTrue(hs instanceof HttpService);
+
+		hs.unregister("/test");
+
+		return sr;
+	}
+
+	private class TestServlet extends HttpServlet {
+		private final String cacheControl;
+		private int getCount;
+		private int notModifiedCount;
+		private byte[] body;
+		private boolean declareLength;
+
+		TestServlet(String cacheControl) {
+			this.cacheControl = cacheControl;
+		}
+
+		@Override
+		protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+			getCount++;
+			resp.setHeader("Cache-Control", cacheControl);
+			resp.setHeader("ETag", "\"v1\"");
+			if ("\"v1\"".equals(req.getHeader("If-None-Match"))) {
+				notModifiedCount++;
+				resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return;
+			}
+			if (body != null) {
+				if (declareLength)
+					resp.setContentLength(body.length);
+				resp.getOutputStream().write(body);
+				return;
+			}
+			resp.getWriter().write("viola");
+		}
+
+		@Override
+		protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+			resp.getWriter().write("viola");
+		}
+	}
+}
@@ -1,6 +1,33 @@
 package simplerestclient.test;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URLEncoder;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -14,8 +41,42 @@ import org.osgi.framework.ServiceReference;
 import org.osgi.service.http.HttpService;
 import org.osgi.service.http.NamespaceException;
 
+import simplerestclient.AIMDLimit;
+import simplerestclient.AbstractGCRARateLimiter;
+import simplerestclient.AdaptiveRateLimiter;
+import simplerestclient.Base64;
+import simplerestclient.BulkExecution;
+import simplerestclient.BulkRequest;
+import simplerestclient.BulkResult;
+import simplerestclient.ConcurrencyLimitException;
+import simplerestclient.ConcurrencyLimitedHTTPRequest;
+import simplerestclient.DeadlineExceededException;
+import simplerestclient.FairQueue;
+import simplerestclient.FileChannelFormFile;
+import simplerestclient.FileFormFile;
+import simplerestclient.FormEncoder;
+import simplerestclient.FormFile;
+import simplerestclient.GCRARateLimiter;
+import simplerestclient.GradientLimit;
+import simplerestclient.HTTPException;
+import simplerestclient.HTTPRequest;
 import simplerestclient.HTTPResponse;
+import simplerestclient.HTTPResponseFuture;
+import simplerestclient.HierarchicalRateLimiter;
+import simplerestclient.IConcurrencyLimit;
+import simplerestclient.IFormFile;
+import simplerestclient.IHTTPRequest;
+import simplerestclient.IHTTPTransport;
+import simplerestclient.IRateLimiter;
+import simplerestclient.InputStreamFormFile;
+import simplerestclient.KeyedRateLimiter;
+import simplerestclient.RateLimitedHTTPRequest;
+import simplerestclient.RequestCompression;
+import simplerestclient.SharedRateLimiter;
 import simplerestclient.SimpleHTTPRequest;
+import simplerestclient.TokenBucket;
+import simplerestclient.TransportResponse;
+import simplerestclient.VegasLimit;
 
 /**
  * Tests to exercise alternate APIs
@@ -116,9 +177,841 @@ public class NewRestClientAPITestCases extends TestCase {
 		unregisterServlet(context);
 	}
 	
+	public void testBulkExecution() throws ServletException, NamespaceException, IOException, InterruptedException {
+		BundleContext context = Activator.getContext();
+		TestServlet testServlet = new TestServlet();
+		registerServlet(context, testServlet);
+		
+		List<BulkRequest> requests = new ArrayList<BulkRequest>();
+		for (int i = 0; i < 20; ++i)
+			requests.add(new BulkRequest(i % 2 == 0 ? "GET" : "POST", "http://localhost:" + HTTP_SERVICE_PORT + "/test", null, i % 2 == 0 ? null : "postdata"));
+		
+		BulkExecution execution = SimpleHTTPRequest.executeBulk(requests, 4);
+		int count = 0;
+		while (execution.hasNext()) {
+			BulkResult result = execution.take();
+			assertTrue(result.isSuccess());
+			assertTrue(result.getResponse().getString().trim().equals("viola"));
+			count++;
+		}
+		assertTrue(count == requests.size());
+		
+		assertTrue(testServlet.getCalled);
+		assertTrue(testServlet.postCalled);
+		
+		unregisterServlet(context);
+	}
+	
+	public void testStreamingBodies() throws ServletException, NamespaceException, IOException {
+		BundleContext context = Activator.getContext();
+		TestServlet testServlet = new TestServlet();
+		registerServlet(context, testServlet);
+		
+		byte[] data = new byte[100000];
+		new Random(1).nextBytes(data);
+		String url = "http://localhost:" + HTTP_SERVICE_PORT + "/test";
+		HTTPRequest req = new HTTPRequest();
+		
+		// Base64 encoded as before, but without buffering
+		req.post(url, new ByteArrayInputStream(data));
+		assertTrue(new String(testServlet.body, "US-ASCII").equals(Base64.encodeBytes(data)));
+		
+		// Raw, with a known and an unknown length
+		req.put(url, new ByteArrayInputStream(data), data.length, null);
+		assertTrue(Arrays.equals(testServlet.body, data));
+		req.post(url, new ByteArrayInputStream(data), -1, null);
+		assertTrue(Arrays.equals(testServlet.body, data));
+		
+		unregisterServlet(context);
+	}
+	
+	public void testStreamingModes() throws ServletException, NamespaceException, IOException, InterruptedException {
+		BundleContext context = Activator.getContext();
+		TestServlet testServlet = new TestServlet();
+		registerServlet(context, testServlet);
+		
+		byte[] data = new byte[100000];
+		new Random(3).nextBytes(data);
+		String text = Base64.encodeBytes(data);
+		String url = "http://localhost:" + HTTP_SERVICE_PORT + "/test";
+		HTTPRequest req = new HTTPRequest();
+		
+		// Bodies of known length go out with a Content-Length, not chunked
+		req.post(url, text);
+		assertStreamed(testServlet, text.length());
+		req.put(url, text);
+		assertStreamed(testServlet, text.length());
+		req.post(url, data);
+		assertStreamed(testServlet, data.length);
+		req.put(url, new ByteArrayInputStream(data), data.length, null);
+		assertStreamed(testServlet, data.length);
+		
+		SimpleHTTPRequest.post(url, text);
+		assertStreamed(testServlet, text.length());
+		SimpleHTTPRequest.put(url, text);
+		assertStreamed(testServlet, text.length());
+		SimpleHTTPRequest.post(url, data);
+		assertStreamed(testServlet, data.length);
+		
+		Map<String, String> params = new HashMap<String, String>();
+		params.put("name", text);
+		SimpleHTTPRequest.postMultipart(url, params);
+		assertStreamed(testServlet, testServlet.body.length);
+		assertTrue(testServlet.body.length > text.length());
+		
+		BulkExecution execution = SimpleHTTPRequest.executeBulk(Collections.singletonList(new BulkRequest("POST", url, null, text)));
+		assertTrue(execution.take().isSuccess());
+		assertStreamed(testServlet, text.length());
+		
+		// Unknown length is chunked
+		req.post(url, new ByteArrayInputStream(data), -1, null);
+		assertTrue(Arrays.equals(testServlet.body, data));
+		assertTrue("chunked".equalsIgnoreCase(testServlet.transferEncoding));
+		
+		unregisterServlet(context);
+	}
+	
+	public void testTransportStreaming() throws IOException {
+		byte[] data = new byte[1024 * 1024];
+		new Random(4).nextBytes(data);
+		final AtomicLong sourceRead = new AtomicLong();
+		InputStream source = new FilterInputStream(new ByteArrayInputStream(data)) {
+			public int read(byte[] b, int off, int len) throws IOException {
+				int n = super.read(b, off, len);
+				if (n > 0)
+					sourceRead.addAndGet(n);
+				return n;
+			}
+		};
+		
+		// Records the body, and how much of the source had been read when the body began to arrive
+		final ByteArrayOutputStream received = new ByteArrayOutputStream();
+		final long[] sent = new long[2];
+		final Thread[] sender = new Thread[1];
+		IHTTPTransport transport = new IHTTPTransport() {
+			public TransportResponse send(String method, String url, Map<String, List<String>> headers, InputStream body, long length, int connectTimeout, int readTimeout) throws IOException {
+				received.reset();
+				sent[0] = length;
+				sent[1] = -1;
+				sender[0] = Thread.currentThread();
+				byte[] buff = new byte[8192];
+				int n;
+				while ((n = body.read(buff)) != -1) {
+					if (sent[1] == -1)
+						sent[1] = sourceRead.get();
+					received.write(buff, 0, n);
+				}
+				return new TransportResponse("HTTP/1.1", 200, "OK", new HashMap<String, List<String>>(), new ByteArrayInputStream("viola".getBytes()));
+			}
+		};
+		HTTPRequest req = new HTTPRequest(transport);
+		String url = "http://localhost:" + HTTP_SERVICE_PORT + "/test";
+		
+		// A large body reaches the transport while it is still being read
+		assertEquals("viola", req.put(url, source, data.length, null).getString());
+		assertEquals(data.length, sent[0]);
+		assertTrue(Arrays.equals(data, received.toByteArray()));
+		assertTrue(sent[1] < data.length / 2);
+		assertTrue(sender[0] != Thread.currentThread());
+		
+		// A small one is sent whole from the calling thread
+		assertEquals("viola", req.post(url, "postdata").getString());
+		assertEquals(8, sent[0]);
+		assertEquals("postdata", new String(received.toByteArray()));
+		assertTrue(sender[0] == Thread.currentThread());
+	}
+	
+	private static void assertStreamed(TestServlet servlet, int length) {
+		assertEquals(length, servlet.body.length);
+		assertEquals(length, servlet.contentLength);
+		assertNull(servlet.transferEncoding);
+	}
+	
+	public void testStreamingMultipart() throws ServletException, NamespaceException, IOException {
+		BundleContext context = Activator.getContext();
+		TestServlet testServlet = new TestServlet();
+		registerServlet(context, testServlet);
+		
+		byte[] data = new byte[100000];
+		new Random(2).nextBytes(data);
+		File f = File.createTempFile("multipart", ".bin");
+		f.deleteOnExit();
+		FileOutputStream fos = new FileOutputStream(f);
+		fos.write(data);
+		fos.close();
+		String url = "http://localhost:" + HTTP_SERVICE_PORT + "/test";
+		HTTPRequest req = new HTTPRequest();
+		
+		// In memory, as before
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("file", new FormFile("data.bin", "application/octet-stream", data));
+		req.postMultipart(url, params);
+		int length = testServlet.body.length;
+		assertTrue(Arrays.equals(multipartContent(testServlet.body, data.length), data));
+		
+		// Streamed from a file, a FileChannel and a stream of unknown length
+		FileInputStream fis = new FileInputStream(f);
+		IFormFile[] files = {
+				new FileFormFile(f, "data.bin", "application/octet-stream"),
+				new FileChannelFormFile("data.bin", "application/octet-stream", fis.getChannel()),
+				new InputStreamFormFile("data.bin", "application/octet-stream", new ByteArrayInputStream(data), -1) };
+		for (int i = 0; i < files.length; ++i) {
+			params.put("file", files[i]);
+			req.postMultipart(url, params);
+			assertEquals(length, testServlet.body.length);
+			assertTrue(Arrays.equals(multipartContent(testServlet.body, data.length), data));
+		}
+		fis.close();
+		
+		// In memory from a stream, honoring the length and failing when the stream does
+		InputStreamFormFile part = new InputStreamFormFile("data.bin", "application/octet-stream", new ByteArrayInputStream(data), 10);
+		assertTrue(Arrays.equals(part.getBytes(), Arrays.copyOf(data, 10)));
+		InputStream failing = new InputStream() {
+			public int read() throws IOException {
+				throw new IOException("Read failed.");
+			}
+		};
+		try {
+			new InputStreamFormFile("data.bin", "application/octet-stream", failing, -1).getBytes();
+			fail("Expected an IllegalStateException.");
+		} catch (IllegalStateException e) {
+			//Expected
+		}
+		
+		unregisterServlet(context);
+	}
+	
+	/**
+	 * @return the content of the single file part in body
+	 */
+	private static byte[] multipartContent(byte[] body, int length) throws IOException {
+		int start = new String(body, "ISO-8859-1").indexOf("\r\n\r\n") + 4;
+		return Arrays.copyOfRange(body, start, start + length);
+	}
+	
+	public void testRequestCompression() throws ServletException, NamespaceException, IOException {
+		BundleContext context = Activator.getContext();
+		TestServlet testServlet = new TestServlet();
+		registerServlet(context, testServlet);
+		
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < 1000; ++i)
+			sb.append("{\"id\":" + i + ",\"name\":\"item\"},");
+		String json = sb.toString();
+		byte[] noise = new byte[10000];
+		new Random(3).nextBytes(noise);
+		String url = "http://localhost:" + HTTP_SERVICE_PORT + "/test";
+		HTTPRequest req = new HTTPRequest();
+		RequestCompression compression = new RequestCompression();
+		req.setRequestCompression(compression);
+		
+		// Compressible bodies are sent gzipped
+		req.post(url, json);
+		assertTrue(testServlet.body.length < json.length());
+		assertEquals(json, new String(HTTPRequest.streamToByteArray(new GZIPInputStream(new ByteArrayInputStream(testServlet.body)))));
+		
+		// Small and incompressible bodies are sent as they are
+		req.put(url, "small");
+		assertEquals("small", new String(testServlet.body));
+		req.post(url, noise);
+		assertTrue(Arrays.equals(testServlet.body, noise));
+		
+		// Nor are bodies for a host that rejected compression
+		compression.setRejected(url);
+		assertFalse(compression.isAccepted(url));
+		req.post(url, json);
+		assertEquals(json, new String(testServlet.body));
+		
+		unregisterServlet(context);
+		
+		// A host that answers 415 gets the body again uncompressed, with the caller's headers, and is remembered
+		TestServlet rejectingServlet = new TestServlet();
+		rejectingServlet.rejectEncoded = true;
+		registerServlet(context, rejectingServlet);
+		compression.clearRejected(url);
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put("Authorization", "Bearer token");
+		headers.put("Content-Type", "application/json");
+		HTTPResponse resp = req.post(url, json, headers);
+		assertEquals(200, resp.getStatusCode());
+		assertTrue(resp.getString().trim().equals("viola"));
+		assertEquals(1, rejectingServlet.rejected);
+		assertEquals(json, new String(rejectingServlet.body));
+		assertEquals("Bearer token", rejectingServlet.authorization);
+		assertEquals("application/json", rejectingServlet.contentType);
+		assertFalse(compression.isAccepted(url));
+		
+		// Later bodies for the host are not compressed
+		req.put(url, json, headers);
+		assertEquals(1, rejectingServlet.rejected);
+		assertEquals(json, new String(rejectingServlet.body));
+		
+		unregisterServlet(context);
+	}
 	
+	public void testFormEncoder() throws ServletException, NamespaceException, IOException {
+		BundleContext context = Activator.getContext();
+		TestServlet testServlet = new TestServlet();
+		registerServlet(context, testServlet);
+		
+		String value = "a b&c=d/\u00e9\u20ac\ud83d\ude00*-._~";
+		Map<String, Object> single = new HashMap<String, Object>();
+		single.put("key one", value);
+		assertEquals(URLEncoder.encode("key one", "UTF-8") + "=" + URLEncoder.encode(value, "UTF-8"), HTTPRequest.propertyString(single));
+		
+		// Repeated names, from arrays and lists or added one by one
+		Map<String, Object> multi = new LinkedHashMap<String, Object>();
+		multi.put("tag", new String[] { "a", "b c" });
+		multi.put("id", Arrays.asList("1", "2"));
+		FormEncoder form = new FormEncoder(multi);
+		assertEquals("tag=a&tag=b+c&id=1&id=2", form.toString());
+		assertEquals(form.toString().length(), form.getLength());
+		form.add("tag", "d");
+		assertEquals("tag=a&tag=b+c&id=1&id=2&tag=d", form.toString());
+		
+		String url = "http://localhost:" + HTTP_SERVICE_PORT + "/test";
+		HTTPRequest req = new HTTPRequest();
+		req.post(url, multi);
+		assertEquals("tag=a&tag=b+c&id=1&id=2", new String(testServlet.body));
+		req.put(url, form);
+		assertEquals(form.toString(), new String(testServlet.body));
+		
+		unregisterServlet(context);
+	}
+	
+	public void testRateLimiters() throws InterruptedException {
+		IRateLimiter[] limiters = { new TokenBucket(1, 3), new GCRARateLimiter(1, 3) };
+		for (int i = 0; i < limiters.length; ++i) {
+			assertTrue(limiters[i].tryAcquire());
+			assertTrue(limiters[i].tryAcquire());
+			assertTrue(limiters[i].tryAcquire());
+			assertFalse(limiters[i].tryAcquire());
+			assertFalse(limiters[i].tryAcquire(10, TimeUnit.MILLISECONDS));
+			assertTrue(limiters[i].tryAcquire(2, TimeUnit.SECONDS));
+		}
+	}
+	
+	public void testKeyedRateLimiter() throws InterruptedException {
+		KeyedRateLimiter keyed = new KeyedRateLimiter(1, 1);
+		assertTrue(keyed.tryAcquire("http://a.example.com/path"));
+		assertFalse(keyed.tryAcquire("http://user@A.example.com?q=1"));
+		assertTrue(keyed.tryAcquire("http://b.example.com/path"));
+		assertTrue(keyed.getKeyCount() == 2);
 
-	private ServiceReference registerServlet(BundleContext context, TestServlet testServlet) throws ServletException, NamespaceException {
+		// An idle limiter is kept until it has refilled, so dropping it grants no extra permits
+		keyed = new KeyedRateLimiter(KeyedRateLimiter.HOST, new KeyedRateLimiter.Factory() {
+			public IRateLimiter create(String key) {
+				return new GCRARateLimiter(0.1, 2);
+			}
+		}, 200);
+		keyed.setRate("b.example.com", 100, 2);
+		assertTrue(keyed.tryAcquire("http://a.example.com/"));
+		assertTrue(keyed.tryAcquire("http://a.example.com/"));
+		assertTrue(keyed.tryAcquire("http://b.example.com/"));
+		Thread.sleep(300);
+		keyed.evictIdle();
+		assertEquals(1, keyed.getKeyCount());
+		assertFalse(keyed.tryAcquire("http://a.example.com/"));
+	}
+	
+	public void testHierarchicalRateLimiter() throws InterruptedException {
+		// A global cap of 2 and 1 per tenant; a refused request charges neither
+		HierarchicalRateLimiter quotas = new HierarchicalRateLimiter();
+		quotas.addRule("global", null, null, null, HierarchicalRateLimiter.GLOBAL, 1, 2);
+		quotas.addRule("tenant", null, null, null, HierarchicalRateLimiter.PER_TENANT, 1, 1);
+		quotas.addRule("writes", ".*/orders", "POST", null, HierarchicalRateLimiter.GLOBAL, 1, 1);
+		assertTrue(quotas.getMatchingRules("GET", "http://a.example.com/orders", "a").size() == 2);
+		assertTrue(quotas.getMatchingRules("POST", "http://a.example.com/orders", "a").size() == 3);
+		assertTrue(quotas.tryAcquire("GET", "http://a.example.com/", "a", 0, TimeUnit.SECONDS));
+		assertFalse(quotas.tryAcquire("GET", "http://a.example.com/", "a", 0, TimeUnit.SECONDS));
+		assertTrue(quotas.tryAcquire("GET", "http://a.example.com/", "b", 0, TimeUnit.SECONDS));
+		assertFalse(quotas.tryAcquire("GET", "http://a.example.com/", "c", 0, TimeUnit.SECONDS));
+	}
+	
+	public void testSharedRateLimiter() throws IOException {
+		// Two limiters on one file share its permits
+		File rateFile = File.createTempFile("ratelimit", ".rate");
+		rateFile.deleteOnExit();
+		SharedRateLimiter shared1 = new SharedRateLimiter(rateFile, 1, 2);
+		SharedRateLimiter shared2 = new SharedRateLimiter(rateFile, 1, 2);
+		assertTrue(shared1.tryAcquire());
+		assertTrue(shared2.tryAcquire());
+		assertFalse(shared1.tryAcquire());
+		assertFalse(shared2.tryAcquire());
+		shared1.close();
+		try {
+			shared1.tryAcquire();
+			fail();
+		} catch (IllegalStateException e) {
+			//Ignore
+		}
+		shared2.close();
+	}
+	
+	public void testRateLimitedRequests() throws ServletException, NamespaceException, IOException, InterruptedException {
+		BundleContext context = Activator.getContext();
+		TestServlet testServlet = new TestServlet();
+		registerServlet(context, testServlet);
+		
+		// 5 requests, a burst of 3 then 2 more at 20 per second
+		RateLimitedHTTPRequest req = new RateLimitedHTTPRequest(20, 3);
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 5; ++i) {
+			HTTPResponse resp = req.get("http://localhost:" + HTTP_SERVICE_PORT + "/test");
+			assertTrue(resp.getString().trim().equals("viola"));
+		}
+		assertTrue(System.currentTimeMillis() - start >= 90);
+		assertTrue(testServlet.getCalled);
+		
+		unregisterServlet(context);
+	}
+	
+	public void testRateLimitedAsyncRequests() throws ServletException, NamespaceException, IOException, InterruptedException {
+		BundleContext context = Activator.getContext();
+		TestServlet testServlet = new TestServlet();
+		registerServlet(context, testServlet);
+		
+		// 5 requests queued without waiting in this thread, a burst of 3 then 2 more at 20 per second
+		RateLimitedHTTPRequest req = new RateLimitedHTTPRequest(20, 3);
+		long start = System.currentTimeMillis();
+		HTTPResponseFuture[] futures = new HTTPResponseFuture[5];
+		for (int i = 0; i < futures.length; ++i)
+			futures[i] = req.getAsync("http://localhost:" + HTTP_SERVICE_PORT + "/test");
+		assertTrue(System.currentTimeMillis() - start < 90);
+		for (int i = 0; i < futures.length; ++i)
+			assertTrue(futures[i].getResponse().getString().trim().equals("viola"));
+		assertTrue(System.currentTimeMillis() - start >= 90);
+		
+		unregisterServlet(context);
+	}
+	
+	public void testRateLimitWaitInterval() throws ServletException, NamespaceException, IOException, InterruptedException {
+		BundleContext context = Activator.getContext();
+		TestServlet testServlet = new TestServlet();
+		registerServlet(context, testServlet);
+		
+		// In wait interval mode blocking and async requests share one interval
+		RateLimitedHTTPRequest req = new RateLimitedHTTPRequest(200);
+		long start = System.currentTimeMillis();
+		HTTPResponseFuture[] futures = new HTTPResponseFuture[2];
+		for (int i = 0; i < 2; ++i) {
+			futures[i] = req.getAsync("http://localhost:" + HTTP_SERVICE_PORT + "/test");
+			assertTrue(req.get("http://localhost:" + HTTP_SERVICE_PORT + "/test").getString().trim().equals("viola"));
+		}
+		for (int i = 0; i < 2; ++i)
+			assertTrue(futures[i].getResponse().getString().trim().equals("viola"));
+		assertTrue(System.currentTimeMillis() - start >= 550);
+		
+		unregisterServlet(context);
+	}
+	
+	public void testRateLimitQueueWait() throws ServletException, NamespaceException, IOException, InterruptedException {
+		BundleContext context = Activator.getContext();
+		TestServlet testServlet = new TestServlet();
+		registerServlet(context, testServlet);
+		
+		// A request that can not get a permit within its wait is dropped without taking one
+		GCRARateLimiter slow = new GCRARateLimiter(2, 1);
+		assertTrue(slow.tryAcquire());
+		RateLimitedHTTPRequest req = new RateLimitedHTTPRequest(slow, new HTTPRequest());
+		try {
+			req.withMaxQueueWait(10).get("http://localhost:" + HTTP_SERVICE_PORT + "/test");
+			fail();
+		} catch (DeadlineExceededException e) {
+			//Expected
+		}
+		assertTrue(req.withMaxQueueWait(1000).get("http://localhost:" + HTTP_SERVICE_PORT + "/test") != null);
+		
+		unregisterServlet(context);
+	}
+	
+	
+	public void testAdaptiveRateLimiter() throws ServletException, NamespaceException, IOException, InterruptedException {
+		BundleContext context = Activator.getContext();
+		QuotaServlet quota = new QuotaServlet();
+		registerServlet(context, quota);
+		String url = "http://localhost:" + HTTP_SERVICE_PORT + "/test";
+		HTTPRequest plain = new HTTPRequest();
+		
+		// 429 with Retry-After in seconds halves the rate and holds every permit back
+		AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(10, 1, 100, 1);
+		RateLimitedHTTPRequest req = new RateLimitedHTTPRequest(limiter, plain);
+		quota.reply(429, "Retry-After", "1");
+		assertEquals(429, req.get(url).getStatusCode());
+		assertEquals(5.0, limiter.getRate(), 0.001);
+		assertFalse(limiter.tryAcquire());
+		assertWait(limiter.reserve(5, TimeUnit.SECONDS), 800, 1000);
+		
+		// Only one decrease a second, so requests already in flight count once
+		limiter = new AdaptiveRateLimiter(10, 1, 100, 1);
+		quota.reply(503);
+		limiter.responseReceived(plain.get(url));
+		limiter.responseReceived(plain.get(url));
+		limiter.requestFailed(new HTTPException(503, "Service Unavailable"));
+		assertEquals(5.0, limiter.getRate(), 0.001);
+		Thread.sleep(1100);
+		limiter.requestFailed(new HTTPException(429, "Too Many Requests"));
+		assertEquals(2.5, limiter.getRate(), 0.001);
+		limiter.requestFailed(new IOException());
+		assertEquals(2.5, limiter.getRate(), 0.001);
+		
+		// Retry-After as an HTTP date
+		limiter = new AdaptiveRateLimiter(10, 1, 100, 1);
+		SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		quota.reply(503, "Retry-After", format.format(new Date(System.currentTimeMillis() + 3000)));
+		limiter.responseReceived(plain.get(url));
+		assertWait(limiter.reserve(5, TimeUnit.SECONDS), 1500, 3000);
+		
+		// 429 without Retry-After waits for the advertised reset
+		limiter = new AdaptiveRateLimiter(10, 1, 100, 1);
+		quota.reply(429, "RateLimit-Reset", "2");
+		limiter.responseReceived(plain.get(url));
+		assertWait(limiter.reserve(5, TimeUnit.SECONDS), 1800, 2000);
+		
+		// The remaining quota is spread over the time to reset, in each header form
+		limiter = new AdaptiveRateLimiter(10, 1, 100, 1);
+		quota.reply(200, "RateLimit-Remaining", "20", "RateLimit-Reset", "10");
+		limiter.responseReceived(plain.get(url));
+		assertEquals(2.0, limiter.getRate(), 0.001);
+		quota.reply(200, "X-RateLimit-Remaining", "50", "X-RateLimit-Reset", "10");
+		limiter.responseReceived(plain.get(url));
+		assertEquals(5.0, limiter.getRate(), 0.001);
+		quota.reply(200, "RateLimit", "\"default\";r=30;t=10");
+		limiter.responseReceived(plain.get(url));
+		assertEquals(3.0, limiter.getRate(), 0.001);
+		
+		// A large reset is epoch seconds, a small one seconds from now
+		quota.reply(200, "RateLimit-Remaining", "40", "RateLimit-Reset", String.valueOf(System.currentTimeMillis() / 1000 + 20));
+		limiter.responseReceived(plain.get(url));
+		assertTrue(limiter.getRate() >= 2.0 && limiter.getRate() < 2.2);
+		
+		// Nothing remaining pauses until the reset
+		quota.reply(200, "RateLimit-Remaining", "0", "RateLimit-Reset", "2");
+		limiter.responseReceived(plain.get(url));
+		assertFalse(limiter.tryAcquire());
+		assertWait(limiter.reserve(5, TimeUnit.SECONDS), 1800, 2000);
+		
+		// Plain successes raise the rate additively, up to maxRate
+		limiter = new AdaptiveRateLimiter(10, 1, 10.5, 1);
+		quota.reply(200);
+		limiter.responseReceived(plain.get(url));
+		assertEquals(10.1, limiter.getRate(), 0.001);
+		for (int i = 0; i < 10; ++i)
+			limiter.responseReceived(plain.get(url));
+		assertEquals(10.5, limiter.getRate(), 0.001);
+		
+		// pause() holds back the next permit, which then comes without a burst
+		limiter = new AdaptiveRateLimiter(10, 1, 100, 5);
+		limiter.pause(500);
+		assertFalse(limiter.tryAcquire());
+		assertWait(limiter.reserve(1, TimeUnit.SECONDS), 400, 500);
+		assertWait(limiter.reserve(1, TimeUnit.SECONDS), 500, 600);
+		
+		unregisterServlet(context);
+	}
+	
+	/**
+	 * Assert a permit was reserved with a wait between min and max millis.
+	 */
+	private static void assertWait(long nanos, long min, long max) {
+		long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+		assertTrue(millis + " ms", millis >= min && millis <= max);
+	}
+	
+	public void testSharedRateLimiterAcrossProcesses() throws IOException, InterruptedException {
+		File rateFile = File.createTempFile("ratelimit", ".rate");
+		rateFile.deleteOnExit();
+		SharedRateLimiter limiter = new SharedRateLimiter(rateFile, 10, 1);
+		
+		// The child takes 20 permits from the same file while this JVM takes 20
+		File classes = copyClasses(new Class[] { SharedRateLimiterProcess.class, SharedRateLimiter.class, AbstractGCRARateLimiter.class, IRateLimiter.class });
+		ProcessBuilder pb = new ProcessBuilder(new File(System.getProperty("java.home"), "bin" + File.separator + "java").getPath(),
+				"-cp", classes.getPath() + File.pathSeparator + System.getProperty("java.class.path"),
+				SharedRateLimiterProcess.class.getName(), rateFile.getPath(), "10", "1", "20");
+		pb.redirectErrorStream(true);
+		Process child = pb.start();
+		BufferedReader out = new BufferedReader(new InputStreamReader(child.getInputStream()));
+		assertEquals("ready", out.readLine());
+		
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 20; ++i)
+			limiter.acquire();
+		assertEquals(0, child.waitFor());
+		long elapsed = System.currentTimeMillis() - start;
+		limiter.close();
+		
+		// 40 permits at 10 per second between both, where either alone would take under 2 s
+		assertTrue(elapsed + " ms", elapsed >= 3500);
+		assertTrue(elapsed + " ms", elapsed < 8000);
+	}
+	
+	/**
+	 * Copy the class files of classes to a new directory, so a child JVM can load them even when
+	 * they come from a bundle rather than java.class.path.
+	 */
+	private static File copyClasses(Class[] classes) throws IOException {
+		File dir = File.createTempFile("classes", "");
+		dir.delete();
+		dir.mkdir();
+		dir.deleteOnExit();
+		for (int i = 0; i < classes.length; ++i) {
+			String name = classes[i].getName().replace('.', '/') + ".class";
+			InputStream in = classes[i].getClassLoader().getResourceAsStream(name);
+			// Registered outermost first, so they are deleted innermost first
+			String[] path = name.split("/");
+			File f = dir;
+			for (int j = 0; j < path.length; ++j) {
+				f = new File(f, path[j]);
+				f.deleteOnExit();
+			}
+			f.getParentFile().mkdirs();
+			FileOutputStream fos = new FileOutputStream(f);
+			fos.write(HTTPRequest.streamToByteArray(in));
+			fos.close();
+			in.close();
+		}
+		return dir;
+	}
+	
+	/**
+	 * Run by testSharedRateLimiterAcrossProcesses in a child JVM: takes count permits from a
+	 * SharedRateLimiter on file.
+	 */
+	public static class SharedRateLimiterProcess {
+		public static void main(String[] args) throws IOException, InterruptedException {
+			SharedRateLimiter limiter = new SharedRateLimiter(new File(args[0]), Double.parseDouble(args[1]), Integer.parseInt(args[2]));
+			System.out.println("ready");
+			System.out.flush();
+			int count = Integer.parseInt(args[3]);
+			for (int i = 0; i < count; ++i)
+				limiter.acquire();
+			limiter.close();
+		}
+	}
+	
+	public void testFairQueue() throws InterruptedException {
+		final FairQueue queue = new FairQueue();
+		queue.setWeight("interactive", 10);
+		final List<String> order = new ArrayList<String>();
+		
+		// Hold the turn while 3 bulk callers and then 1 interactive caller queue up
+		queue.enter("bulk");
+		List<Thread> threads = new ArrayList<Thread>();
+		String[] classes = { "bulk", "bulk", "bulk", "interactive" };
+		for (int i = 0; i < classes.length; ++i) {
+			final String callerClass = classes[i];
+			Thread t = new Thread() {
+				public void run() {
+					try {
+						queue.enter(callerClass);
+					} catch (InterruptedException e) {
+						return;
+					}
+					synchronized (order) {
+						order.add(callerClass);
+					}
+					queue.exit();
+				}
+			};
+			threads.add(t);
+			t.start();
+			while (queue.getQueueLength(callerClass) < (callerClass.equals("bulk") ? i + 1 : 1))
+				Thread.sleep(5);
+		}
+		queue.exit();
+		for (int i = 0; i < threads.size(); ++i)
+			threads.get(i).join(5000);
+		
+		// The interactive caller goes after one bulk turn, not after all three
+		assertTrue(order.size() == 4);
+		assertTrue(order.get(1).equals("interactive"));
+	}
+	
+	public void testRateLimitedCallerClasses() throws ServletException, NamespaceException, IOException, InterruptedException {
+		BundleContext context = Activator.getContext();
+		TestServlet testServlet = new TestServlet();
+		registerServlet(context, testServlet);
+		
+		FairQueue queue = new FairQueue();
+		queue.setWeight("interactive", 10);
+		RateLimitedHTTPRequest req = new RateLimitedHTTPRequest(new GCRARateLimiter(10, 1), new HTTPRequest(), queue);
+		String url = "http://localhost:" + HTTP_SERVICE_PORT + "/test?caller=";
+		
+		// Hold the turn while a backlog of 3 bulk requests and then 1 interactive request queue up
+		queue.enter("bulk");
+		List<Thread> threads = new ArrayList<Thread>();
+		String[] classes = { "bulk", "bulk", "bulk", "interactive" };
+		for (int i = 0; i < classes.length; ++i) {
+			threads.add(getInThread(req.forCallerClass(classes[i]), url + classes[i], new String[1]));
+			while (queue.getQueueLength(classes[i]) < (classes[i].equals("bulk") ? i + 1 : 1))
+				Thread.sleep(5);
+		}
+		queue.exit();
+		for (int i = 0; i < threads.size(); ++i)
+			threads.get(i).join(5000);
+		
+		// The interactive request is sent after one bulk request, not after the backlog
+		assertEquals(4, testServlet.callers.size());
+		assertEquals("interactive", testServlet.callers.get(1));
+		
+		unregisterServlet(context);
+	}
+	
+	public void testRateLimitedTenants() throws ServletException, NamespaceException, IOException, InterruptedException {
+		BundleContext context = Activator.getContext();
+		TestServlet testServlet = new TestServlet();
+		registerServlet(context, testServlet);
+		
+		// One request per tenant, each view tagging its requests with its tenant
+		HierarchicalRateLimiter quotas = new HierarchicalRateLimiter();
+		quotas.addRule("tenant", null, null, null, HierarchicalRateLimiter.PER_TENANT, 0.1, 1);
+		RateLimitedHTTPRequest req = new RateLimitedHTTPRequest(quotas, new HTTPRequest()).withMaxQueueWait(10);
+		String url = "http://localhost:" + HTTP_SERVICE_PORT + "/test";
+		assertTrue(req.forTenant("a").get(url).getString().trim().equals("viola"));
+		try {
+			req.forTenant("a").get(url);
+			fail();
+		} catch (DeadlineExceededException e) {
+			//Expected
+		}
+		assertTrue(req.forTenant("b").get(url).getString().trim().equals("viola"));
+		
+		unregisterServlet(context);
+	}
+	
+	public void testConcurrencyLimits() throws ServletException, NamespaceException, IOException, InterruptedException {
+		IConcurrencyLimit[] limits = { new AIMDLimit(10, 100), new VegasLimit(10, 100), new GradientLimit(10, 100) };
+		for (int i = 0; i < limits.length; ++i) {
+			limits[i].onSample(1000000, 10, true);
+			assertTrue(limits[i].getLimit() < 10);
+			assertTrue(limits[i].getLimit() >= 1);
+		}
+		
+		AIMDLimit aimd = new AIMDLimit(1, 1, 2, 0.5, 1000);
+		aimd.onSample(1000000, 1, false);
+		assertTrue(aimd.getLimit() == 2);
+		aimd.onSample(1000000, 2, false);
+		assertTrue(aimd.getLimit() == 2);
+		
+		BundleContext context = Activator.getContext();
+		TestServlet testServlet = new TestServlet();
+		registerServlet(context, testServlet);
+		
+		IConcurrencyLimit.Factory factory = new IConcurrencyLimit.Factory() {
+			public IConcurrencyLimit create(String key) {
+				return new AIMDLimit(1, 1, 1, 0.5, 10000);
+			}
+		};
+		ConcurrencyLimitedHTTPRequest req = new ConcurrencyLimitedHTTPRequest(factory, new HTTPRequest());
+		String url = "http://localhost:" + HTTP_SERVICE_PORT + "/test";
+		assertTrue(req.get(url).getString().trim().equals("viola"));
+		assertTrue(req.getInFlight(url) == 0);
+		assertTrue(req.getLimit(url) == 1);
+		
+		// A response holds its slot until the body is read or closed
+		HTTPResponse unread = req.get(url);
+		assertTrue(req.getInFlight(url) == 1);
+		try {
+			req.get(url);
+			fail("Expected a ConcurrencyLimitException.");
+		} catch (ConcurrencyLimitException e) {
+			//Expected
+		}
+		unread.close();
+		assertTrue(req.getInFlight(url) == 0);
+		assertTrue(req.get(url).getString().trim().equals("viola"));
+		
+		// Destinations keyed per URL are dropped once idle, as requests are made or on demand
+		req = new ConcurrencyLimitedHTTPRequest(new KeyedRateLimiter.KeyFunction() {
+			public String getKey(String u) {
+				return u;
+			}
+		}, factory, new HTTPRequest(), 0, 100);
+		for (int i = 0; i < 3; ++i)
+			assertTrue(req.get(url + "?page=" + i).getString().trim().equals("viola"));
+		assertEquals(3, req.getDestinationCount());
+		Thread.sleep(150);
+		assertTrue(req.get(url + "?page=3").getString().trim().equals("viola"));
+		assertEquals(1, req.getDestinationCount());
+		Thread.sleep(150);
+		req.evictIdle();
+		assertEquals(0, req.getDestinationCount());
+		assertTrue(req.get(url + "?page=0").getString().trim().equals("viola"));
+		
+		unregisterServlet(context);
+	}
+
+	public void testConcurrencyLimitExceeded() throws ServletException, NamespaceException, IOException, InterruptedException {
+		BundleContext context = Activator.getContext();
+		HoldServlet holdServlet = new HoldServlet();
+		registerServlet(context, holdServlet);
+		
+		IConcurrencyLimit.Factory factory = new IConcurrencyLimit.Factory() {
+			public IConcurrencyLimit create(String key) {
+				return new AIMDLimit(1, 1, 1, 0.5, 10000);
+			}
+		};
+		String url = "http://localhost:" + HTTP_SERVICE_PORT + "/test";
+		
+		// With no wait, a request over the limit is refused at once
+		ConcurrencyLimitedHTTPRequest req = new ConcurrencyLimitedHTTPRequest(factory, new HTTPRequest());
+		String[] held = new String[1];
+		Thread holder = getInThread(req, url, held);
+		assertTrue(holdServlet.entered.tryAcquire(5, TimeUnit.SECONDS));
+		assertTrue(req.getInFlight(url) == 1);
+		try {
+			req.get(url);
+			fail("Expected a ConcurrencyLimitException.");
+		} catch (ConcurrencyLimitException e) {
+			//Expected
+			assertTrue(e.getLimit() == 1);
+		}
+		holdServlet.release();
+		holder.join(5000);
+		assertEquals("viola", held[0]);
+		assertTrue(req.getInFlight(url) == 0);
+		
+		// A request that may wait is let through when the held one completes
+		holdServlet.hold();
+		req = new ConcurrencyLimitedHTTPRequest(KeyedRateLimiter.HOST, factory, new HTTPRequest(), 10000);
+		holder = getInThread(req, url, held);
+		assertTrue(holdServlet.entered.tryAcquire(5, TimeUnit.SECONDS));
+		String[] waited = new String[1];
+		Thread waiter = getInThread(req, url, waited);
+		Thread.sleep(200);
+		assertTrue(waiter.isAlive());
+		assertTrue(holdServlet.entered.availablePermits() == 0);
+		
+		long start = System.currentTimeMillis();
+		holdServlet.release();
+		waiter.join(5000);
+		assertEquals("viola", waited[0]);
+		assertTrue(System.currentTimeMillis() - start < 5000);
+		holder.join(5000);
+		assertTrue(req.getInFlight(url) == 0);
+		
+		unregisterServlet(context);
+	}
+	
+	/**
+	 * GET url with req in a new thread, storing the body in result[0].
+	 */
+	private Thread getInThread(final IHTTPRequest req, final String url, final String[] result) {
+		Thread t = new Thread() {
+			public void run() {
+				try {
+					result[0] = req.get(url).getString().trim();
+				} catch (IOException e) {
+					result[0] = e.toString();
+				}
+			}
+		};
+		t.start();
+		return t;
+	}
+
+	private ServiceReference registerServlet(BundleContext context, HttpServlet testServlet) throws ServletException, NamespaceException {
 		ServiceReference sr = context.getServiceReference(HttpService.class.getName());
 		
 		assertTrue(sr != null);
@@ -150,6 +1043,14 @@ public class NewRestClientAPITestCases extends TestCase {
 		private boolean postCalled;
 		private boolean putCalled;
 		private boolean deleteCalled;
+		private byte[] body;
+		private int contentLength;
+		private String transferEncoding;
+		private String authorization;
+		private String contentType;
+		private boolean rejectEncoded;
+		private int rejected;
+		private final List<String> callers = Collections.synchronizedList(new ArrayList<String>());
 
 		public TestServlet() {
 			getCalled = false;
@@ -161,6 +1062,8 @@ public class NewRestClientAPITestCases extends TestCase {
 		@Override
 		protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
 			getCalled = true;
+			if (req.getParameter("caller") != null)
+				callers.add(req.getParameter("caller"));
 			resp.getWriter().write("viola");
 		}
 		
@@ -173,12 +1076,90 @@ public class NewRestClientAPITestCases extends TestCase {
 		@Override
 		protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
 			postCalled = true;
+			body = HTTPRequest.streamToByteArray(req.getInputStream());
+			contentLength = req.getContentLength();
+			transferEncoding = req.getHeader("Transfer-Encoding");
+			if (reject(req, resp))
+				return;
+			authorization = req.getHeader("Authorization");
+			contentType = req.getContentType();
 			resp.getWriter().write("viola");
 		}
 		
 		@Override
 		protected void doPut(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
 			putCalled = true;
+			body = HTTPRequest.streamToByteArray(req.getInputStream());
+			contentLength = req.getContentLength();
+			transferEncoding = req.getHeader("Transfer-Encoding");
+			if (reject(req, resp))
+				return;
+			authorization = req.getHeader("Authorization");
+			contentType = req.getContentType();
+			resp.getWriter().write("viola");
+		}
+		
+		/**
+		 * Answer 415 to a body with a Content-Encoding, when rejectEncoded is set.
+		 */
+		private boolean reject(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+			if (!rejectEncoded || req.getHeader("Content-Encoding") == null)
+				return false;
+			
+			rejected++;
+			resp.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+			return true;
+		}
+	}
+
+	/**
+	 * Answers every request with the status and headers last given to reply().
+	 */
+	private class QuotaServlet extends HttpServlet {
+		private volatile int status = HttpServletResponse.SC_OK;
+		private volatile String[] headers = new String[0];
+		
+		/**
+		 * @param headers names and values, alternating
+		 */
+		void reply(int status, String... headers) {
+			this.status = status;
+			this.headers = headers;
+		}
+		
+		@Override
+		protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+			String[] h = headers;
+			for (int i = 0; i < h.length; i += 2)
+				resp.setHeader(h[i], h[i + 1]);
+			resp.setStatus(status);
+			resp.getWriter().write("viola");
+		}
+	}
+
+	/**
+	 * Holds every GET until release() is called.
+	 */
+	private class HoldServlet extends HttpServlet {
+		private final Semaphore entered = new Semaphore(0);
+		private volatile CountDownLatch released = new CountDownLatch(1);
+		
+		void hold() {
+			released = new CountDownLatch(1);
+		}
+		
+		void release() {
+			released.countDown();
+		}
+		
+		@Override
+		protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+			entered.release();
+			try {
+				released.await();
+			} catch (InterruptedException e) {
+				throw new IOException(e.toString());
+			}
 			resp.getWriter().write("viola");
 		}
 	}
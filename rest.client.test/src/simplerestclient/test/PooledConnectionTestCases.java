@@ -0,0 +1,289 @@
+package simplerestclient.test;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.TestCase;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.http.HttpService;
+import org.osgi.service.http.NamespaceException;
+
+import simplerestclient.ConnectionPool;
+import simplerestclient.HTTPRequest;
+import simplerestclient.HTTPResponse;
+import simplerestclient.PooledConnectionProvider;
+
+/**
+ * Tests for PooledConnectionProvider keep-alive reuse.
+ * @author kgilmer
+ *
+ */
+public class PooledConnectionTestCases extends TestCase {
+
+	//Set this to whatever your OSGi HTTP Service is listening on.
+	private static final int HTTP_SERVICE_PORT = 8095;
+
+	/**
+	 * Sequential requests should be served by a single socket.
+	 */
+	public void testConnectionReuse() throws ServletException, NamespaceException, IOException {
+		BundleContext context = Activator.getContext();
+		TestServlet testServlet = new TestServlet();
+		registerServlet(context, testServlet);
+
+		ConnectionPool pool = new ConnectionPool(2, 10, 30000);
+		HTTPRequest req = new HTTPRequest(new PooledConnectionProvider(pool));
+		for (int i = 0; i < 10; ++i) {
+			HTTPResponse resp = req.get("http://localhost:" + HTTP_SERVICE_PORT + "/test");
+			assertTrue(resp.getString().trim().equals("viola"));
+			assertTrue(pool.getLeasedCount() == 0);
+
+			resp = req.post("http://localhost:" + HTTP_SERVICE_PORT + "/test", "postdata");
+			assertTrue(resp.getString().trim().equals("viola"));
+		}
+
+		assertTrue(testServlet.remotePorts.size() == 1);
+		assertTrue(pool.getIdleCount() == 1);
+
+		unregisterServlet(context);
+	}
+
+	/**
+	 * Closing an unread response should free the socket.
+	 */
+	public void testCloseReleasesConnection() throws ServletException, NamespaceException, IOException {
+		BundleContext context = Activator.getContext();
+		TestServlet testServlet = new TestServlet();
+		registerServlet(context, testServlet);
+
+		ConnectionPool pool = new ConnectionPool(1, 1, 30000);
+		pool.setMaxWait(5000);
+		HTTPRequest req = new HTTPRequest(new PooledConnectionProvider(pool));
+		for (int i = 0; i < 5; ++i) {
+			HTTPResponse resp = req.get("http://localhost:" + HTTP_SERVICE_PORT + "/test");
+			assertTrue(pool.getLeasedCount() == 1);
+			resp.close();
+			assertTrue(pool.getLeasedCount() == 0);
+		}
+
+		pool.close();
+		assertTrue(pool.getIdleCount() == 0);
+
+		unregisterServlet(context);
+	}
+
+	/**
+	 * A socket the server closed while it sat idle is replaced, for bodies sent whole and streamed.
+	 */
+	public void testStaleConnectionRetry() throws IOException, InterruptedException {
+		KeepAliveCloseServer server = new KeepAliveCloseServer();
+		ConnectionPool pool = new ConnectionPool(1, 1, 30000);
+		// Leave stale sockets to the connection rather than the pool's own check
+		pool.setValidateAfterInactivity(Long.MAX_VALUE);
+		HTTPRequest req = new HTTPRequest(new PooledConnectionProvider(pool));
+		try {
+			assertTrue(req.get(server.getURL()).getString().equals("viola"));
+			
+			Thread.sleep(100);
+			assertTrue(req.post(server.getURL(), "postdata").getString().equals("viola"));
+			assertEquals(8, server.lastLength);
+			
+			Thread.sleep(100);
+			assertTrue(req.post(server.getURL(), new byte[200000]).getString().equals("viola"));
+			assertEquals(200000, server.lastLength);
+			
+			assertEquals(3, server.connections);
+		} finally {
+			pool.close();
+			server.close();
+		}
+	}
+
+	/**
+	 * The pool should drop an idle socket the server has closed and open another in its place.
+	 */
+	public void testValidateIdleConnection() throws IOException, InterruptedException {
+		KeepAliveCloseServer server = new KeepAliveCloseServer();
+		ConnectionPool pool = new ConnectionPool(1, 1, 30000);
+		pool.setValidateAfterInactivity(0);
+		HTTPRequest req = new HTTPRequest(new PooledConnectionProvider(pool));
+		try {
+			for (int i = 0; i < 3; ++i) {
+				assertTrue(req.get(server.getURL()).getString().equals("viola"));
+				assertTrue(pool.getIdleCount() == 1);
+				Thread.sleep(100);
+			}
+
+			assertEquals(3, server.connections);
+			assertTrue(pool.getLeasedCount() == 0);
+		} finally {
+			pool.close();
+			server.close();
+		}
+	}
+
+	/**
+	 * Redirects should be followed on the pool unless the connection turns them off.
+	 */
+	public void testRedirect() throws ServletException, NamespaceException, IOException {
+		BundleContext context = Activator.getContext();
+		TestServlet testServlet = new TestServlet();
+		registerServlet(context, testServlet);
+
+		ConnectionPool pool = new ConnectionPool(2, 10, 30000);
+		PooledConnectionProvider provider = new PooledConnectionProvider(pool);
+		HTTPRequest req = new HTTPRequest(provider);
+		String url = "http://localhost:" + HTTP_SERVICE_PORT + "/test";
+		try {
+			assertTrue(req.get(url + "?redirect=true").getString().trim().equals("viola"));
+			assertTrue(testServlet.methods.equals(Arrays.asList("GET", "GET")));
+
+			// A POST is redirected to a GET.
+			testServlet.methods.clear();
+			assertTrue(req.post(url + "?redirect=true", "postdata").getString().trim().equals("viola"));
+			assertTrue(testServlet.methods.equals(Arrays.asList("POST", "GET")));
+			assertTrue(testServlet.remotePorts.size() == 1);
+
+			HttpURLConnection connection = provider.getConnection(url + "?redirect=true");
+			connection.setInstanceFollowRedirects(false);
+			assertEquals(HttpURLConnection.HTTP_MOVED_TEMP, connection.getResponseCode());
+			assertTrue(connection.getHeaderField("Location").endsWith("/test"));
+			connection.disconnect();
+		} finally {
+			pool.close();
+			unregisterServlet(context);
+		}
+	}
+
+	private ServiceReference registerServlet(BundleContext context, TestServlet testServlet) throws ServletException, NamespaceException {
+		ServiceReference sr = context.getServiceReference(HttpService.class.getName());
+
+		assertTrue(sr != null);
+
+		HttpService hs = (HttpService) context.getService(sr);
+
+		hs.registerServlet("/test", testServlet, null, null);
+
+		return sr;
+	}
+
+	private ServiceReference unregisterServlet(BundleContext context) throws ServletException, NamespaceException {
+		ServiceReference sr = context.getServiceReference(HttpService.class.getName());
+
+		assertTrue(sr != null);
+
+		HttpService hs = (HttpService) context.getService(sr);
+
+		assertTrue(hs != null);
+		assertTrue(hs instanceof HttpService);
+
+		hs.unregister("/test");
+
+		return sr;
+	}
+
+	private class TestServlet extends HttpServlet {
+		private Set<Integer> remotePorts = new HashSet<Integer>();
+		private List<String> methods = new ArrayList<String>();
+
+		@Override
+		protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+			respond(req, resp);
+		}
+
+		@Override
+		protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+			respond(req, resp);
+		}
+
+		private void respond(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+			remotePorts.add(req.getRemotePort());
+			methods.add(req.getMethod());
+			if (req.getParameter("redirect") != null) {
+				resp.setStatus(HttpServletResponse.SC_MOVED_TEMPORARILY);
+				resp.setHeader("Location", "/test");
+			} else {
+				resp.getWriter().write("viola");
+			}
+		}
+	}
+
+	/**
+	 * Answers one request per connection with a keep-alive response, then closes the connection
+	 * as a server whose keep-alive timeout ran out would.
+	 */
+	private static class KeepAliveCloseServer extends Thread {
+		private final ServerSocket socket = new ServerSocket(0);
+		private volatile int connections;
+		private volatile int lastLength;
+
+		KeepAliveCloseServer() throws IOException {
+			setDaemon(true);
+			start();
+		}
+
+		String getURL() {
+			return "http://localhost:" + socket.getLocalPort() + "/test";
+		}
+
+		void close() throws IOException {
+			socket.close();
+		}
+
+		public void run() {
+			try {
+				while (true) {
+					Socket s = socket.accept();
+					connections++;
+					DataInputStream in = new DataInputStream(s.getInputStream());
+					int length = 0;
+					String line;
+					while ((line = readLine(in)).length() > 0)
+						if (line.toLowerCase().startsWith("content-length:"))
+							length = Integer.parseInt(line.substring(15).trim());
+					in.readFully(new byte[length]);
+					lastLength = length;
+					OutputStream out = s.getOutputStream();
+					out.write("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nviola".getBytes("ISO-8859-1"));
+					out.flush();
+					Thread.sleep(20);
+					s.close();
+				}
+			} catch (IOException e) {
+				//Closed
+			} catch (InterruptedException e) {
+				//Stopped
+			}
+		}
+
+		private static String readLine(InputStream in) throws IOException {
+			StringBuilder sb = new StringBuilder();
+			int c;
+			while ((c = in.read()) != '\n') {
+				if (c == -1)
+					throw new EOFException();
+				if (c != '\r')
+					sb.append((char) c);
+			}
+			return sb.toString();
+		}
+	}
+}
@@ -1,6 +1,21 @@
 package simplerestclient.test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -12,8 +27,17 @@ import org.osgi.framework.ServiceReference;
 import org.osgi.service.http.HttpService;
 import org.osgi.service.http.NamespaceException;
 
+import simplerestclient.AsyncHTTPEngine;
+import simplerestclient.Base64;
+import simplerestclient.BasicAuthenticationConnectionProvider;
+import simplerestclient.DefaultConnectionProvider;
+import simplerestclient.GCRARateLimiter;
 import simplerestclient.HTTPRequest;
 import simplerestclient.HTTPResponse;
+import simplerestclient.HTTPResponseFuture;
+import simplerestclient.IHTTPResponseListener;
+import simplerestclient.NIOConnectionProvider;
+import simplerestclient.RateLimitedHTTPRequest;
 
 import junit.framework.TestCase;
 
@@ -118,6 +142,223 @@ public class SimpleRestClientTestCases extends TestCase {
 	}
 	
 	
+	public void testHTTPGETAsync() throws ServletException, NamespaceException, IOException {
+		BundleContext context = Activator.getContext();
+		TestServlet testServlet = new TestServlet();
+		registerServlet(context, testServlet);
+		
+		AsyncHTTPEngine engine = new AsyncHTTPEngine(1);
+		try {
+			HTTPRequest req = new HTTPRequest(new DefaultConnectionProvider(), engine);
+			List<HTTPResponseFuture> futures = new ArrayList<HTTPResponseFuture>();
+			for (int i = 0; i < 10; ++i)
+				futures.add(req.getAsync("http://localhost:" + HTTP_SERVICE_PORT + "/test"));
+			
+			for (HTTPResponseFuture future : futures) {
+				HTTPResponse resp = future.getResponse();
+				assertTrue(future.isDone());
+				assertTrue(resp.getErrorMessage().length() == 0);
+				assertTrue(resp.getString().trim().equals("viola"));
+			}
+		} finally {
+			engine.shutdown();
+		}
+		
+		assertTrue(testServlet.getCalled);
+		assertFalse(testServlet.postCalled);
+		
+		unregisterServlet(context);
+	}
+
+	public void testHTTPGETAsyncAuthorization() throws ServletException, NamespaceException, IOException {
+		BundleContext context = Activator.getContext();
+		TestServlet testServlet = new TestServlet();
+		registerServlet(context, testServlet);
+		String url = "http://localhost:" + HTTP_SERVICE_PORT + "/test";
+		
+		AsyncHTTPEngine engine = new AsyncHTTPEngine(1);
+		try {
+			// Preset by the connection provider
+			HTTPRequest req = new HTTPRequest(new BasicAuthenticationConnectionProvider("foo", "bar"), engine);
+			assertTrue(req.getAsync(url).getResponse().getString().trim().equals("viola"));
+			assertEquals("Basic " + Base64.encodeBytes("foo:bar".getBytes()), testServlet.authorization);
+			
+			// Through the rate limiter's async path
+			testServlet.authorization = null;
+			RateLimitedHTTPRequest limited = new RateLimitedHTTPRequest(new GCRARateLimiter(100, 1), req);
+			assertTrue(limited.getAsync(url).getResponse().getString().trim().equals("viola"));
+			assertEquals("Basic " + Base64.encodeBytes("foo:bar".getBytes()), testServlet.authorization);
+			
+			// Passed by the caller
+			req = new HTTPRequest(new DefaultConnectionProvider(), engine);
+			Map<String, String> headers = new HashMap<String, String>();
+			headers.put("Authorization", "Bearer token");
+			assertTrue(req.getAsync(url, headers).getResponse().getString().trim().equals("viola"));
+			assertEquals("Bearer token", testServlet.authorization);
+		} finally {
+			engine.shutdown();
+		}
+		
+		unregisterServlet(context);
+	}
+
+	public void testHTTPGETAsyncListener() throws ServletException, NamespaceException, IOException, InterruptedException {
+		BundleContext context = Activator.getContext();
+		TestServlet testServlet = new TestServlet();
+		registerServlet(context, testServlet);
+		final String url = "http://localhost:" + HTTP_SERVICE_PORT + "/test";
+		
+		// With one event loop, a listener that blocks on the same engine would hang it if called on the loop
+		AsyncHTTPEngine engine = new AsyncHTTPEngine(1);
+		final HTTPRequest req = new HTTPRequest(new DefaultConnectionProvider(), engine);
+		final HTTPRequest blocking = new HTTPRequest(new NIOConnectionProvider(engine));
+		final CountDownLatch done = new CountDownLatch(1);
+		final List<String> results = new ArrayList<String>();
+		req.getAsync(url).addListener(new IHTTPResponseListener() {
+			public void responseReceived(HTTPResponse response) {
+				try {
+					results.add(blocking.get(url).getString());
+					results.add(req.getAsync(url).getResponse().getString());
+				} catch (IOException e) {
+					results.add(e.toString());
+				}
+				done.countDown();
+			}
+			
+			public void requestFailed(IOException e) {
+				results.add(e.toString());
+				done.countDown();
+			}
+		});
+		
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals(2, results.size());
+		assertEquals("viola", results.get(0).trim());
+		assertEquals("viola", results.get(1).trim());
+		
+		engine.shutdown();
+		unregisterServlet(context);
+	}
+
+	public void testHTTPGETAsyncMalformedResponse() throws IOException {
+		RawServer server = new RawServer();
+		AsyncHTTPEngine engine = new AsyncHTTPEngine(1);
+		HTTPRequest req = new HTTPRequest(new DefaultConnectionProvider(), engine);
+		String[] responses = {
+				"HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n-5\r\nhello\r\n0\r\n\r\n",
+				"HTTP/1.1 200 OK\r\nContent-Length: -3\r\n\r\nabc",
+				"HTTP/1.1 200 OK\r\nContent-Length: 9999999999\r\n\r\nabc",
+				"HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\nFFFFFFFFF\r\nabc" };
+		
+		// Each fails only its own request; the one event loop goes on serving the next
+		for (int i = 0; i < responses.length; ++i) {
+			server.response = responses[i];
+			try {
+				req.getAsync(server.getURL()).getResponse();
+				fail();
+			} catch (ProtocolException e) {
+				//Expected
+			}
+			server.response = "HTTP/1.1 200 OK\r\nContent-Length: 5\r\nConnection: close\r\n\r\nviola";
+			assertTrue(req.getAsync(server.getURL()).getResponse().getString().equals("viola"));
+		}
+		
+		engine.shutdown();
+		try {
+			req.getAsync(server.getURL());
+			fail();
+		} catch (IOException e) {
+			//Expected
+		}
+		server.close();
+	}
+
+	public void testHTTPGETAsyncConnectTimeout() throws IOException {
+		// Once the backlog of a socket that never accepts is full, further connects hang
+		ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+		List<Socket> backlog = new ArrayList<Socket>();
+		AsyncHTTPEngine engine = new AsyncHTTPEngine(1);
+		try {
+			boolean full = false;
+			while (!full && backlog.size() < 100) {
+				Socket s = new Socket();
+				backlog.add(s);
+				try {
+					s.connect(server.getLocalSocketAddress(), 200);
+				} catch (SocketTimeoutException e) {
+					full = true;
+				}
+			}
+			assertTrue(full);
+			
+			String url = "http://127.0.0.1:" + server.getLocalPort() + "/test";
+			try {
+				engine.execute("GET", url, new HashMap<String, List<String>>(), null, 200, 10000).getResponse();
+				fail();
+			} catch (SocketTimeoutException e) {
+				assertEquals("connect timed out", e.getMessage());
+			}
+		} finally {
+			engine.shutdown();
+			for (Socket s : backlog)
+				s.close();
+			server.close();
+		}
+	}
+
+	public void testHTTPNIOProvider() throws ServletException, NamespaceException, IOException {
+		BundleContext context = Activator.getContext();
+		TestServlet testServlet = new TestServlet();
+		registerServlet(context, testServlet);
+		
+		AsyncHTTPEngine engine = new AsyncHTTPEngine(2);
+		HTTPRequest req = new HTTPRequest(new NIOConnectionProvider(engine));
+		HTTPResponse resp = req.get("http://localhost:" + HTTP_SERVICE_PORT + "/test");
+		assertTrue(resp.getString().trim().equals("viola"));
+		
+		resp = req.post("http://localhost:" + HTTP_SERVICE_PORT + "/test", "postdata");
+		assertTrue(resp.getString().trim().equals("viola"));
+		
+		assertTrue(testServlet.getCalled);
+		assertTrue(testServlet.postCalled);
+		
+		engine.shutdown();
+		unregisterServlet(context);
+	}
+
+	public void testHTTPGETTransferTo() throws ServletException, NamespaceException, IOException {
+		BundleContext context = Activator.getContext();
+		TestServlet testServlet = new TestServlet();
+		registerServlet(context, testServlet);
+		
+		HTTPRequest req = new HTTPRequest();
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		long count = req.get("http://localhost:" + HTTP_SERVICE_PORT + "/test").transferTo(os);
+		assertTrue(count == os.size());
+		assertTrue(new String(os.toByteArray()).trim().equals("viola"));
+		
+		File file = File.createTempFile("simplerestclient", ".tmp");
+		count = req.get("http://localhost:" + HTTP_SERVICE_PORT + "/test").transferTo(file);
+		assertTrue(count == file.length());
+		file.delete();
+		
+		unregisterServlet(context);
+	}
+
+	public void testHTTPGETBytes() throws ServletException, NamespaceException, IOException {
+		BundleContext context = Activator.getContext();
+		TestServlet testServlet = new TestServlet();
+		registerServlet(context, testServlet);
+		
+		HTTPRequest req = new HTTPRequest();
+		HTTPResponse resp = req.get("http://localhost:" + HTTP_SERVICE_PORT + "/test");
+		byte[] bytes = resp.getBytes();
+		assertTrue(new String(bytes, resp.getCharset()).equals("viola"));
+		assertTrue(resp.getCharSequence().toString().equals("viola"));
+		assertTrue(resp.getString().equals("viola"));
+		
+		unregisterServlet(context);
+	}
 
 	private ServiceReference registerServlet(BundleContext context, TestServlet testServlet) throws ServletException, NamespaceException {
 		ServiceReference sr = context.getServiceReference(HttpService.class.getName());
@@ -146,11 +387,53 @@ public class SimpleRestClientTestCases extends TestCase {
 		return sr;
 	}
 
+	/**
+	 * Answers each connection with response, whatever it is, and closes it.
+	 */
+	private static class RawServer extends Thread {
+		private final ServerSocket socket = new ServerSocket(0);
+		private volatile String response;
+		
+		RawServer() throws IOException {
+			setDaemon(true);
+			start();
+		}
+		
+		String getURL() {
+			return "http://localhost:" + socket.getLocalPort() + "/test";
+		}
+		
+		public void run() {
+			try {
+				while (true) {
+					Socket s = socket.accept();
+					InputStream in = s.getInputStream();
+					// Read up to the blank line ending the request head
+					int matched = 0;
+					int c;
+					while (matched < 4 && (c = in.read()) != -1)
+						matched = c == (matched % 2 == 0 ? '\r' : '\n') ? matched + 1 : c == '\r' ? 1 : 0;
+					OutputStream out = s.getOutputStream();
+					out.write(response.getBytes("ISO-8859-1"));
+					out.flush();
+					s.close();
+				}
+			} catch (IOException e) {
+				//Closed
+			}
+		}
+		
+		void close() throws IOException {
+			socket.close();
+		}
+	}
+
 	private class TestServlet extends HttpServlet {
 		private boolean getCalled;
 		private boolean postCalled;
 		private boolean putCalled;
 		private boolean deleteCalled;
+		private String authorization;
 
 		public TestServlet() {
 			getCalled = false;
@@ -162,6 +445,7 @@ public class SimpleRestClientTestCases extends TestCase {
 		@Override
 		protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
 			getCalled = true;
+			authorization = req.getHeader("Authorization");
 			resp.getWriter().write("viola");
 		}
 		
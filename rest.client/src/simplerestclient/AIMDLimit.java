@@ -0,0 +1,66 @@
+package simplerestclient;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Additive increase, multiplicative decrease: the limit grows by one for each successful request
+ * sent while at least half the limit was in use, and is multiplied by the backoff factor when a
+ * request is dropped or takes longer than the timeout.
+ *
+ * @author kgilmer
+ *
+ */
+public class AIMDLimit implements IConcurrencyLimit {
+	public static final double DEFAULT_BACKOFF = 0.9;
+
+	private final int minLimit;
+	private final int maxLimit;
+	private final double backoff;
+	private final long timeoutNanos;
+	private double limit;
+
+	/**
+	 * @param initialLimit
+	 * @param maxLimit
+	 */
+	public AIMDLimit(int initialLimit, int maxLimit) {
+		this(initialLimit, 1, maxLimit, DEFAULT_BACKOFF, Long.MAX_VALUE);
+	}
+
+	/**
+	 * @param initialLimit
+	 * @param minLimit at least 1
+	 * @param maxLimit
+	 * @param backoff limit multiplier on a drop, between 0 and 1
+	 * @param timeoutMillis requests slower than this count as dropped
+	 */
+	public AIMDLimit(int initialLimit, int minLimit, int maxLimit, double backoff, long timeoutMillis) {
+		checkLimits(initialLimit, minLimit, maxLimit);
+		if (!(backoff > 0 && backoff < 1))
+			throw new IllegalArgumentException("backoff must be between 0 and 1.");
+
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.backoff = backoff;
+		this.timeoutNanos = timeoutMillis == Long.MAX_VALUE ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		this.limit = initialLimit;
+	}
+
+	@Override
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	@Override
+	public synchronized void onSample(long rttNanos, int inFlight, boolean dropped) {
+		if (dropped || rttNanos > timeoutNanos)
+			limit = Math.max(minLimit, limit * backoff);
+		else if (inFlight * 2 >= limit)
+			limit = Math.min(maxLimit, limit + 1);
+	}
+
+	static void checkLimits(int initialLimit, int minLimit, int maxLimit) {
+		if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit)
+			throw new IllegalArgumentException("Limits must satisfy 1 <= minLimit <= initialLimit <= maxLimit.");
+	}
+}
@@ -0,0 +1,141 @@
+package simplerestclient;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The Generic Cell Rate Algorithm shared by GCRARateLimiter, AdaptiveRateLimiter and
+ * SharedRateLimiter.
+ *
+ * The whole state is one theoretical arrival time (TAT).  A permit taken at time t moves the TAT
+ * to max(TAT, t) + interval, and is due at that new TAT less the interval and the burst tolerance
+ * of burst - 1 intervals.  Subclasses supply the interval, which may change between permits.  The
+ * TAT is kept in System.nanoTime() units in an AtomicLong and claimed with a compare and set, unless
+ * a subclass keeps it elsewhere by overriding now(), getTAT() and compareAndSetTAT().
+ *
+ * @author kgilmer
+ *
+ */
+public abstract class AbstractGCRARateLimiter implements IRateLimiter {
+	private final int burst;
+	private final AtomicLong tat = new AtomicLong(System.nanoTime());
+
+	/**
+	 * @param burst permits that may be taken at once after an idle period, at least 1
+	 */
+	protected AbstractGCRARateLimiter(int burst) {
+		if (burst < 1)
+			throw new IllegalArgumentException("burst must be at least 1.");
+
+		this.burst = burst;
+	}
+
+	public int getBurst() {
+		return burst;
+	}
+
+	@Override
+	public void acquire() throws InterruptedException {
+		sleep(reserve(Long.MAX_VALUE));
+	}
+
+	@Override
+	public boolean tryAcquire() {
+		return reserve(0) == 0;
+	}
+
+	@Override
+	public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+		long wait = reserve(Math.max(0, unit.toNanos(timeout)));
+		if (wait < 0)
+			return false;
+
+		sleep(wait);
+		return true;
+	}
+
+	@Override
+	public long reserve(long timeout, TimeUnit unit) {
+		return reserve(Math.max(0, unit.toNanos(timeout)));
+	}
+
+	/**
+	 * Send nothing for millis, then resume at the current rate without a burst.
+	 *
+	 * @param millis
+	 */
+	public void pause(long millis) {
+		long until = now() + TimeUnit.MILLISECONDS.toNanos(millis);
+		while (true) {
+			long current = getTAT();
+			// The next permit is due tolerance before the TAT.
+			long target = until + getInterval() * (burst - 1);
+			if (current - target >= 0 || compareAndSetTAT(current, target))
+				return;
+		}
+	}
+
+	/**
+	 * @return true if the whole burst is available, as it is in a new limiter
+	 */
+	public boolean isAtFullCapacity() {
+		return getTAT() - now() <= 0;
+	}
+
+	/**
+	 * Claim the next permit if it is due within maxWait.
+	 *
+	 * @return nanos until the permit is due, 0 if now, or -1 if it is not due within maxWait and was not taken
+	 */
+	protected long reserve(long maxWait) {
+		while (true) {
+			long interval = getInterval();
+			long now = now();
+			long current = getTAT();
+			long start = current - now > 0 ? current : now;
+			long wait = start - interval * (burst - 1) - now;
+			if (wait < 0)
+				wait = 0;
+			if (wait > maxWait)
+				return -1;
+
+			if (compareAndSetTAT(current, start + interval))
+				return wait;
+		}
+	}
+
+	/**
+	 * @return nanos between permits at the current rate
+	 */
+	protected abstract long getInterval();
+
+	/**
+	 * @return the clock, in nanos
+	 */
+	protected long now() {
+		return System.nanoTime();
+	}
+
+	protected long getTAT() {
+		return tat.get();
+	}
+
+	/**
+	 * @return true if the TAT was expect and is now update
+	 */
+	protected boolean compareAndSetTAT(long expect, long update) {
+		return tat.compareAndSet(expect, update);
+	}
+
+	/**
+	 * @return nanos between permits at permitsPerSecond
+	 */
+	protected static long interval(double permitsPerSecond) {
+		return Math.max(1, Math.round(TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+	}
+
+	private static void sleep(long nanos) throws InterruptedException {
+		if (nanos > 0)
+			TimeUnit.NANOSECONDS.sleep(nanos);
+	}
+}
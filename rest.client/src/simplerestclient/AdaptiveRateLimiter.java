@@ -0,0 +1,243 @@
+package simplerestclient;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A GCRA rate limiter whose rate follows the server's signals, to run as close to its quota as
+ * possible without tripping it.
+ *
+ * RateLimitedHTTPRequest reports every response and failure to the limiter it took the permit
+ * from.  The rate is adjusted additively up and multiplicatively down (AIMD):
+ * <ul>
+ * <li>429 or 503, as a response status or HTTPException error code: the rate is cut by the decrease
+ * factor, at most once a second so that requests already in flight count once, and sending pauses
+ * for Retry-After (seconds or an HTTP date), or for a 429, until the advertised reset.</li>
+ * <li>RateLimit-Remaining and RateLimit-Reset, the X-RateLimit- forms, or the combined RateLimit
+ * header with r= and t= parameters: the rate is set to spread the remaining quota over the time to
+ * reset, and sending pauses until the reset when nothing remains.  A reset larger than 10^9 is taken
+ * as epoch seconds, otherwise seconds from now.</li>
+ * <li>Any other successful response: the rate rises by increase / rate, so by about increase
+ * permits per second for each second of traffic at the full rate.</li>
+ * </ul>
+ * The rate stays between minRate and maxRate.  Use one per host with KeyedRateLimiter:
+ *
+ * new KeyedRateLimiter(KeyedRateLimiter.HOST, new KeyedRateLimiter.Factory() {
+ *     public IRateLimiter create(String key) {
+ *         return new AdaptiveRateLimiter(10, 1, 100, 10);
+ *     }
+ * }, KeyedRateLimiter.DEFAULT_IDLE_TIMEOUT_MILLIS);
+ *
+ * @author kgilmer
+ *
+ */
+public class AdaptiveRateLimiter extends AbstractGCRARateLimiter implements IHTTPResponseListener {
+	public static final double DEFAULT_INCREASE = 1;
+	public static final double DEFAULT_DECREASE_FACTOR = 0.5;
+
+	private static final int TOO_MANY_REQUESTS = 429;
+	private static final long DECREASE_HOLDOFF = TimeUnit.SECONDS.toNanos(1);
+	private static final long EPOCH_SECONDS_THRESHOLD = 1000000000L;
+
+	private final double minRate;
+	private final double maxRate;
+	private final double increase;
+	private final double decreaseFactor;
+
+	private volatile double rate;
+	private volatile long interval;
+	private long lastDecrease;
+
+	/**
+	 * @param initialRate permits per second to start at
+	 * @param minRate
+	 * @param maxRate
+	 * @param burst permits that may be taken at once after an idle period, at least 1
+	 */
+	public AdaptiveRateLimiter(double initialRate, double minRate, double maxRate, int burst) {
+		this(initialRate, minRate, maxRate, burst, DEFAULT_INCREASE, DEFAULT_DECREASE_FACTOR);
+	}
+
+	/**
+	 * @param initialRate permits per second to start at
+	 * @param minRate
+	 * @param maxRate
+	 * @param burst permits that may be taken at once after an idle period, at least 1
+	 * @param increase permits per second added for each second of successful traffic
+	 * @param decreaseFactor rate multiplier on 429 or 503, between 0 and 1
+	 */
+	public AdaptiveRateLimiter(double initialRate, double minRate, double maxRate, int burst, double increase, double decreaseFactor) {
+		super(burst);
+		if (!(minRate > 0) || maxRate < minRate)
+			throw new IllegalArgumentException("Rates must be positive with minRate <= maxRate.");
+		if (!(decreaseFactor > 0 && decreaseFactor < 1))
+			throw new IllegalArgumentException("decreaseFactor must be between 0 and 1.");
+
+		this.minRate = minRate;
+		this.maxRate = maxRate;
+		this.increase = increase;
+		this.decreaseFactor = decreaseFactor;
+		this.lastDecrease = System.nanoTime() - DECREASE_HOLDOFF;
+		setRate(initialRate);
+	}
+
+	/**
+	 * @return current permits per second
+	 */
+	public double getRate() {
+		return rate;
+	}
+
+	/**
+	 * Adjust to a response of any status.
+	 */
+	@Override
+	public void responseReceived(HTTPResponse response) {
+		int status;
+		try {
+			status = response.getStatusCode();
+		} catch (IOException e) {
+			return;
+		}
+
+		if (status == TOO_MANY_REQUESTS || status == HttpURLConnection.HTTP_UNAVAILABLE) {
+			decrease();
+			long pause = retryAfterMillis(response.getHeaderField("Retry-After"));
+			if (pause < 0 && status == TOO_MANY_REQUESTS)
+				pause = quotaResetMillis(response);
+			if (pause > 0)
+				pause(pause);
+			return;
+		}
+
+		if (status >= 400 || status < 0)
+			return;
+
+		long remaining = quotaRemaining(response);
+		long reset = remaining >= 0 ? quotaResetMillis(response) : -1;
+		if (reset > 0) {
+			if (remaining == 0)
+				pause(reset);
+			else
+				setRate(remaining * 1000.0 / reset);
+			return;
+		}
+
+		increase();
+	}
+
+	/**
+	 * Adjust to a failure; only an HTTPException with error code 429 or 503 counts.
+	 */
+	@Override
+	public void requestFailed(IOException e) {
+		if (e instanceof HTTPException) {
+			int code = ((HTTPException) e).getErrorCode();
+			if (code == TOO_MANY_REQUESTS || code == HttpURLConnection.HTTP_UNAVAILABLE)
+				decrease();
+		}
+	}
+
+	private synchronized void increase() {
+		setRate(rate + increase / rate);
+	}
+
+	private synchronized void decrease() {
+		long now = System.nanoTime();
+		if (now - lastDecrease < DECREASE_HOLDOFF)
+			return;
+
+		lastDecrease = now;
+		setRate(rate * decreaseFactor);
+	}
+
+	private synchronized void setRate(double permitsPerSecond) {
+		rate = Math.max(minRate, Math.min(maxRate, permitsPerSecond));
+		interval = interval(rate);
+	}
+
+	@Override
+	protected long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * @return millis to wait from a Retry-After of seconds or an HTTP date, or -1
+	 */
+	static long retryAfterMillis(String value) {
+		if (value == null)
+			return -1;
+
+		long seconds = parseLong(value);
+		if (seconds >= 0)
+			return seconds * 1000;
+
+		long date = CachingHTTPRequest.parseDate(value);
+		if (date < 0)
+			return -1;
+
+		return Math.max(0, date - System.currentTimeMillis());
+	}
+
+	private static long quotaRemaining(HTTPResponse response) {
+		long remaining = parseLong(header(response, "RateLimit-Remaining"));
+		if (remaining < 0)
+			remaining = parseParameter(response.getHeaderField("RateLimit"), "r");
+		return remaining;
+	}
+
+	/**
+	 * @return millis until the quota resets, or -1
+	 */
+	private static long quotaResetMillis(HTTPResponse response) {
+		long reset = parseLong(header(response, "RateLimit-Reset"));
+		if (reset < 0)
+			reset = parseParameter(response.getHeaderField("RateLimit"), "t");
+		if (reset < 0)
+			return -1;
+
+		if (reset > EPOCH_SECONDS_THRESHOLD)
+			return Math.max(0, reset * 1000 - System.currentTimeMillis());
+
+		return reset * 1000;
+	}
+
+	/**
+	 * @return the header, or its X- form
+	 */
+	private static String header(HTTPResponse response, String name) {
+		String value = response.getHeaderField(name);
+		if (value == null)
+			value = response.getHeaderField("X-" + name);
+		return value;
+	}
+
+	/**
+	 * @return integer value of name=value in a RateLimit header such as "default";r=50;t=30, or -1
+	 */
+	private static long parseParameter(String header, String name) {
+		if (header == null)
+			return -1;
+
+		String[] params = header.split("[;,]");
+		for (int i = 0; i < params.length; ++i) {
+			String p = params[i].trim();
+			if (p.startsWith(name + "="))
+				return parseLong(p.substring(name.length() + 1));
+		}
+
+		return -1;
+	}
+
+	private static long parseLong(String value) {
+		if (value == null)
+			return -1;
+
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,746 @@
+package simplerestclient;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking HTTP/1.1 client engine.  A fixed number of event loop threads each run a
+ * Selector that multiplexes any number of in-flight requests, so concurrency is not bound to threads.
+ * By default there is one event loop per available processor.
+ *
+ * Used by the HTTPRequest async methods:
+ * HTTPRequest req = new HTTPRequest(new DefaultConnectionProvider(), new AsyncHTTPEngine(2));
+ * req.getAsync("http://some.url").addListener(myListener);
+ *
+ * or as the transport for blocking requests:
+ * HTTPRequest req = new HTTPRequest(new NIOConnectionProvider(engine));
+ *
+ * Connections are kept alive and reused per host within each event loop, in an IChannelPool.  Request and
+ * response bodies are held in memory: a body streamed to send() is read fully before it is sent, and a
+ * response is received fully before the request completes.  Host names are resolved on the calling thread.
+ *
+ * Only http URLs are supported, there is no TLS.  HTTPRequest sends async requests to https URLs with
+ * its connection provider on a callback thread instead, and NIOConnectionProvider gives them a JDK
+ * connection, so those requests each hold a thread until they complete.
+ *
+ * Futures from execute() are completed, and their listeners called, on callback threads of the engine
+ * rather than on an event loop, so a listener may block or make further requests on the same engine.
+ *
+ * @author kgilmer
+ *
+ */
+public class AsyncHTTPEngine implements IHTTPTransport {
+	/**
+	 * Default time in millis a kept-alive connection is held idle.
+	 */
+	public static final long DEFAULT_IDLE_TIMEOUT = 30000;
+
+	private static final int READ_BUFFER_SIZE = 16 * 1024;
+	private static final int REQUEST_BUFFER_SIZE = 8 * 1024;
+	private static final int MAX_POOLED_REQUEST_BUFFERS = 256;
+	/**
+	 * Interval in millis at which timeouts are checked.
+	 */
+	private static final long TIMEOUT_RESOLUTION = 100;
+
+	private static AsyncHTTPEngine defaultEngine;
+
+	private final EventLoop[] loops;
+	private final ByteBufferPool requestBuffers = new ByteBufferPool(REQUEST_BUFFER_SIZE, MAX_POOLED_REQUEST_BUFFERS);
+	private final AtomicInteger nextLoop = new AtomicInteger();
+	private final ExecutorService callbacks;
+	private volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+	private volatile boolean shutdown;
+
+	/**
+	 * @return a shared engine with one event loop per processor, created on first use.
+	 * @throws IOException if the selector can't be opened
+	 */
+	public static synchronized AsyncHTTPEngine getDefault() throws IOException {
+		if (defaultEngine == null)
+			defaultEngine = new AsyncHTTPEngine();
+
+		return defaultEngine;
+	}
+
+	/**
+	 * Create an engine with an event loop thread per available processor.
+	 * @throws IOException if a selector can't be opened
+	 */
+	public AsyncHTTPEngine() throws IOException {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param eventLoops number of event loop threads
+	 * @throws IOException if a selector can't be opened
+	 */
+	public AsyncHTTPEngine(int eventLoops) throws IOException {
+		this(eventLoops, ChannelPool.factory(ChannelPool.DEFAULT_MAX_IDLE_PER_HOST));
+	}
+
+	/**
+	 * @param eventLoops number of event loop threads
+	 * @param poolFactory creates the idle connection pool of each event loop
+	 * @throws IOException if a selector can't be opened
+	 */
+	public AsyncHTTPEngine(int eventLoops, IChannelPool.Factory poolFactory) throws IOException {
+		if (eventLoops < 1)
+			throw new IllegalArgumentException("At least one event loop is required.");
+
+		callbacks = Executors.newCachedThreadPool(new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "AsyncHTTPEngine-callback-" + count.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		loops = new EventLoop[eventLoops];
+		try {
+			for (int i = 0; i < eventLoops; ++i)
+				loops[i] = new EventLoop(i, poolFactory.createPool());
+		} catch (IOException e) {
+			shutdown();
+			throw e;
+		}
+
+		for (int i = 0; i < eventLoops; ++i)
+			loops[i].thread.start();
+	}
+
+	/**
+	 * @param millis time an idle kept-alive connection is held before it is closed.  0 disables connection reuse.
+	 */
+	public void setIdleTimeout(long millis) {
+		this.idleTimeout = millis;
+	}
+
+	/**
+	 * @return number of event loop threads
+	 */
+	public int getEventLoopCount() {
+		return loops.length;
+	}
+
+	/**
+	 * Start a request.
+	 *
+	 * @param method HTTP method
+	 * @param url http URL
+	 * @param properties request headers, as returned by URLConnection.getRequestProperties()
+	 * @param body request body, or null
+	 * @param connectTimeout millis, 0 for no timeout
+	 * @param readTimeout millis without data from the server before failing, 0 for no timeout
+	 * @return future completed with the response
+	 * @throws IOException if the URL is not supported or the host can't be resolved
+	 */
+	public HTTPResponseFuture execute(String method, String url, Map<String, List<String>> properties, byte[] body, int connectTimeout, int readTimeout) throws IOException {
+		FutureExchange x = new FutureExchange(new URL(url), method, properties, callbacks);
+		submit(x, body, connectTimeout, readTimeout);
+		return x.future;
+	}
+
+	/**
+	 * Run a blocking request on a callback thread, for requests the engine can't send itself.
+	 *
+	 * @param request sends the request and returns its response
+	 * @return future completed with the response, or the failure of request
+	 * @throws IOException if the engine has been shut down
+	 */
+	HTTPResponseFuture executeBlocking(final Callable<HTTPResponse> request) throws IOException {
+		if (shutdown)
+			throw new IOException("Engine has been shut down.");
+
+		final HTTPResponseFuture future = new HTTPResponseFuture();
+		try {
+			callbacks.execute(new Runnable() {
+				public void run() {
+					if (future.isCancelled())
+						return;
+					if (shutdown) {
+						future.fail(new IOException("Engine has been shut down."));
+						return;
+					}
+
+					try {
+						future.complete(request.call());
+					} catch (IOException e) {
+						future.fail(e);
+					} catch (Exception e) {
+						future.fail(new IOException("Request failed.", e));
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			throw new IOException("Engine has been shut down.");
+		}
+		return future;
+	}
+
+	/**
+	 * @return true if the engine can send a request to url itself, which it can for plain http only
+	 */
+	public static boolean isSupported(URL url) {
+		return url.getProtocol().equalsIgnoreCase("http");
+	}
+
+	/**
+	 * Send a request and wait for the response.  Unlike execute() error statuses are returned, not thrown.
+	 * The body is read into memory before anything is sent.
+	 */
+	public TransportResponse send(String method, String url, Map<String, List<String>> headers, InputStream body, long length, int connectTimeout, int readTimeout) throws IOException {
+		BlockingExchange x = new BlockingExchange(new URL(url), method, headers);
+		submit(x, body == null ? null : readBody(body, length), connectTimeout, readTimeout);
+		return x.await();
+	}
+
+	/**
+	 * @param length bytes in body, or -1 to read to its end
+	 */
+	private static byte[] readBody(InputStream body, long length) throws IOException {
+		if (length < 0) {
+			ByteArrayOutputStream os = new ByteArrayOutputStream();
+			byte[] buff = new byte[8192];
+			int n;
+			while ((n = body.read(buff)) != -1)
+				os.write(buff, 0, n);
+			return os.toByteArray();
+		}
+
+		if (length > Integer.MAX_VALUE)
+			throw new IOException("Request body of " + length + " bytes is too large to send.");
+		byte[] b = new byte[(int) length];
+		new DataInputStream(body).readFully(b);
+		return b;
+	}
+
+	private void submit(Exchange x, byte[] body, int connectTimeout, int readTimeout) throws IOException {
+		if (shutdown)
+			throw new IOException("Engine has been shut down.");
+
+		if (!isSupported(x.url))
+			throw new MalformedURLException("Unsupported protocol: " + x.url.getProtocol());
+
+		x.address = new InetSocketAddress(x.url.getHost(), ConnectionPool.getPort(x.url));
+		if (x.address.isUnresolved())
+			throw new UnknownHostException(x.url.getHost());
+
+		byte[] head = HTTPProtocol.requestHead(x.method, x.url, x.properties, body == null ? -1 : body.length, false);
+		ByteBuffer headBuffer;
+		if (head.length <= requestBuffers.getBufferSize()) {
+			headBuffer = requestBuffers.acquire();
+			headBuffer.put(head);
+			headBuffer.flip();
+			x.pooledBuffer = headBuffer;
+		} else {
+			headBuffer = ByteBuffer.wrap(head);
+		}
+
+		// The body is written straight from the caller's array with a gathering write.
+		x.request = body == null || body.length == 0 ? new ByteBuffer[] { headBuffer } : new ByteBuffer[] { headBuffer, ByteBuffer.wrap(body) };
+		x.connectTimeout = connectTimeout;
+		x.readTimeout = readTimeout;
+
+		try {
+			loops[(nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length].submit(x);
+		} catch (IOException e) {
+			if (x.pooledBuffer != null)
+				requestBuffers.release(x.pooledBuffer);
+			throw e;
+		}
+	}
+
+	/**
+	 * Stop the event loops and the callback threads.  Requests in flight fail, and further requests
+	 * are refused.
+	 */
+	public void shutdown() {
+		shutdown = true;
+		for (int i = 0; i < loops.length; ++i)
+			if (loops[i] != null)
+				loops[i].stop();
+		callbacks.shutdown();
+	}
+
+	/**
+	 * State of one request on an event loop.
+	 */
+	private abstract static class Exchange {
+		final URL url;
+		final String key;
+		final String method;
+		final Map<String, List<String>> properties;
+		InetSocketAddress address;
+		ByteBuffer[] request;
+		ByteBuffer pooledBuffer;
+		int connectTimeout;
+		int readTimeout;
+
+		SocketChannel channel;
+		SelectionKey selectionKey;
+		ResponseParser parser;
+		boolean reused;
+		long deadline;
+
+		Exchange(URL url, String method, Map<String, List<String>> properties) {
+			this.url = url;
+			this.key = ConnectionPool.getKey(url);
+			this.method = method;
+			this.properties = properties;
+		}
+
+		void touch(int timeout) {
+			deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+		}
+
+		void rewind() {
+			for (int i = 0; i < request.length; ++i)
+				request[i].rewind();
+		}
+
+		boolean isWritten() {
+			return !request[request.length - 1].hasRemaining();
+		}
+
+		abstract boolean isCancelled();
+
+		/**
+		 * Called on the event loop with the complete response in parser.
+		 */
+		abstract void completed();
+
+		abstract void failed(IOException e);
+	}
+
+	/**
+	 * Exchange completing an HTTPResponseFuture, for execute().  The future is completed on a callback
+	 * thread, as its listeners may block.
+	 */
+	private static class FutureExchange extends Exchange {
+		final HTTPResponseFuture future = new HTTPResponseFuture();
+		private final ExecutorService callbacks;
+
+		FutureExchange(URL url, String method, Map<String, List<String>> properties, ExecutorService callbacks) {
+			super(url, method, properties);
+			this.callbacks = callbacks;
+		}
+
+		boolean isCancelled() {
+			return future.isCancelled();
+		}
+
+		void completed() {
+			try {
+				final HTTPResponse response = new HTTPResponse(new ResponseURLConnection(url, method, parser.getHeaders(),
+						new ByteArrayInputStream(parser.getBody())));
+				response.checkStatus();
+				dispatch(new Runnable() {
+					public void run() {
+						future.complete(response);
+					}
+				});
+			} catch (IOException e) {
+				failed(e);
+			}
+		}
+
+		void failed(final IOException e) {
+			dispatch(new Runnable() {
+				public void run() {
+					future.fail(e);
+				}
+			});
+		}
+
+		/**
+		 * Once the engine is shut down there are no callback threads, and the stopping loop completes
+		 * the future itself.
+		 */
+		private void dispatch(Runnable r) {
+			try {
+				callbacks.execute(r);
+			} catch (RejectedExecutionException e) {
+				r.run();
+			}
+		}
+	}
+
+	/**
+	 * Exchange a calling thread waits on, for send().
+	 */
+	private static class BlockingExchange extends Exchange {
+		private TransportResponse response;
+		private IOException failure;
+		private boolean done;
+		private boolean cancelled;
+
+		BlockingExchange(URL url, String method, Map<String, List<String>> properties) {
+			super(url, method, properties);
+		}
+
+		synchronized boolean isCancelled() {
+			return cancelled;
+		}
+
+		void completed() {
+			HeaderList headers = parser.getHeaders();
+			String statusLine = headers.getValue(0);
+			int sp = statusLine.indexOf(' ');
+			TransportResponse r = new TransportResponse(statusLine.substring(0, sp), parser.getStatusCode(),
+					HTTPProtocol.parseReasonPhrase(statusLine), headers.toMap(), new ByteArrayInputStream(parser.getBody()));
+
+			synchronized (this) {
+				response = r;
+				done = true;
+				notifyAll();
+			}
+		}
+
+		synchronized void failed(IOException e) {
+			failure = e;
+			done = true;
+			notifyAll();
+		}
+
+		synchronized TransportResponse await() throws IOException {
+			try {
+				while (!done)
+					wait();
+			} catch (InterruptedException e) {
+				// The event loop drops the request on its next sweep.
+				cancelled = true;
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted waiting for response from " + url);
+			}
+
+			if (failure != null)
+				throw failure;
+
+			return response;
+		}
+	}
+
+	/**
+	 * Marks the selection key of a channel held idle in the pool.
+	 */
+	private static class IdleChannel {
+		final String key;
+		final SocketChannel channel;
+
+		IdleChannel(String key, SocketChannel channel) {
+			this.key = key;
+			this.channel = channel;
+		}
+	}
+
+	private class EventLoop implements Runnable {
+		final Thread thread;
+		final Selector selector;
+		final Queue<Exchange> submitted = new ConcurrentLinkedQueue<Exchange>();
+		final Set<Exchange> active = new HashSet<Exchange>();
+		final IChannelPool pool;
+		final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+		volatile boolean running = true;
+		long lastSweep;
+
+		EventLoop(int index, IChannelPool pool) throws IOException {
+			this.pool = pool;
+			selector = Selector.open();
+			thread = new Thread(this, "AsyncHTTPEngine-" + index);
+			thread.setDaemon(true);
+		}
+
+		/**
+		 * @throws IOException if the loop has stopped
+		 */
+		void submit(Exchange x) throws IOException {
+			if (!running)
+				throw stopped();
+
+			submitted.add(x);
+			selector.wakeup();
+			// close() stops the loop before it fails what was submitted, so x is either failed there or refused here.
+			if (!running && submitted.remove(x))
+				throw stopped();
+		}
+
+		private IOException stopped() {
+			return new IOException(shutdown ? "Engine has been shut down." : thread.getName() + " has stopped.");
+		}
+
+		void stop() {
+			running = false;
+			selector.wakeup();
+		}
+
+		public void run() {
+			IOException failure = null;
+			try {
+				while (running) {
+					boolean waiting = !active.isEmpty() || !selector.keys().isEmpty();
+					selector.select(waiting ? TIMEOUT_RESOLUTION : 0);
+
+					Exchange x;
+					while ((x = submitted.poll()) != null)
+						start(x);
+
+					Iterator<SelectionKey> i = selector.selectedKeys().iterator();
+					while (i.hasNext()) {
+						SelectionKey key = i.next();
+						i.remove();
+						handle(key);
+					}
+
+					long now = System.currentTimeMillis();
+					if (now - lastSweep >= TIMEOUT_RESOLUTION) {
+						lastSweep = now;
+						sweep(now);
+					}
+				}
+			} catch (IOException e) {
+				// The selector itself failed, nothing on this loop can proceed.
+				failure = e;
+			} catch (RuntimeException e) {
+				failure = new IOException(thread.getName() + " failed.", e);
+			} finally {
+				close(failure);
+			}
+		}
+
+		private void start(Exchange x) {
+			if (x.isCancelled()) {
+				release(x);
+				return;
+			}
+
+			active.add(x);
+			x.parser = new ResponseParser(x.method, x.properties);
+			x.rewind();
+
+			try {
+				SocketChannel channel;
+				while ((channel = pool.acquire(x.key)) != null) {
+					SelectionKey key = channel.keyFor(selector);
+					if (key != null && key.isValid()) {
+						x.channel = channel;
+						x.selectionKey = key;
+						key.attach(x);
+						key.interestOps(SelectionKey.OP_WRITE);
+						x.reused = true;
+						x.touch(x.readTimeout);
+						return;
+					}
+					closeChannel(channel);
+				}
+
+				x.reused = false;
+				x.channel = SocketChannel.open();
+				x.channel.configureBlocking(false);
+				x.channel.socket().setTcpNoDelay(true);
+				if (x.channel.connect(x.address)) {
+					x.selectionKey = x.channel.register(selector, SelectionKey.OP_WRITE, x);
+					x.touch(x.readTimeout);
+				} else {
+					x.selectionKey = x.channel.register(selector, SelectionKey.OP_CONNECT, x);
+					x.touch(x.connectTimeout);
+				}
+			} catch (IOException e) {
+				fail(x, e);
+			} catch (RuntimeException e) {
+				fail(x, new IOException("Request to " + x.url + " failed.", e));
+			}
+		}
+
+		private void handle(SelectionKey key) {
+			Object att = key.attachment();
+			if (att instanceof IdleChannel) {
+				// An idle connection became readable: the server closed it or sent garbage.
+				IdleChannel ic = (IdleChannel) att;
+				pool.remove(ic.key, ic.channel);
+				closeChannel(ic.channel);
+				return;
+			}
+
+			Exchange x = (Exchange) att;
+			try {
+				if (key.isConnectable()) {
+					x.channel.finishConnect();
+					key.interestOps(SelectionKey.OP_WRITE);
+					x.touch(x.readTimeout);
+				} else if (key.isWritable()) {
+					x.channel.write(x.request);
+					if (x.isWritten())
+						key.interestOps(SelectionKey.OP_READ);
+					x.touch(x.readTimeout);
+				} else if (key.isReadable()) {
+					read(x);
+				}
+			} catch (CancelledKeyException e) {
+				fail(x, new IOException("Connection was closed."));
+			} catch (IOException e) {
+				if (x.reused && !x.parser.hasReceivedData())
+					retry(x);
+				else
+					fail(x, e);
+			} catch (RuntimeException e) {
+				// Only this exchange is affected, the loop carries on with the others.
+				fail(x, new IOException("Request to " + x.url + " failed.", e));
+			}
+		}
+
+		private void read(Exchange x) throws IOException {
+			readBuffer.clear();
+			int n = x.channel.read(readBuffer);
+			if (n == -1) {
+				if (x.reused && !x.parser.hasReceivedData()) {
+					retry(x);
+				} else {
+					x.parser.endOfInput();
+					complete(x, false);
+				}
+				return;
+			}
+
+			readBuffer.flip();
+			x.touch(x.readTimeout);
+			if (x.parser.parse(readBuffer))
+				complete(x, x.parser.isKeepAlive() && !readBuffer.hasRemaining());
+		}
+
+		/**
+		 * A kept-alive connection was closed by the server before it got the request, send it again on a new one.
+		 */
+		private void retry(Exchange x) {
+			closeChannel(x.channel);
+			active.remove(x);
+			start(x);
+		}
+
+		private void complete(Exchange x, boolean reusable) {
+			active.remove(x);
+			release(x);
+
+			long ka = HTTPProtocol.getKeepAliveTimeout(x.parser.getHeaders());
+			long timeout = ka >= 0 && ka < idleTimeout ? ka : idleTimeout;
+			if (reusable && timeout > 0 && running && pool.release(x.key, x.channel, System.currentTimeMillis() + timeout)) {
+				x.selectionKey.attach(new IdleChannel(x.key, x.channel));
+				x.selectionKey.interestOps(SelectionKey.OP_READ);
+			} else {
+				closeChannel(x.channel);
+			}
+
+			x.completed();
+		}
+
+		private void fail(Exchange x, IOException e) {
+			active.remove(x);
+			release(x);
+			if (x.channel != null)
+				closeChannel(x.channel);
+			x.failed(e);
+		}
+
+		/**
+		 * Return the pooled request buffer of a finished exchange.
+		 */
+		private void release(Exchange x) {
+			if (x.pooledBuffer != null) {
+				requestBuffers.release(x.pooledBuffer);
+				x.pooledBuffer = null;
+			}
+		}
+
+		/**
+		 * Fail requests that timed out or were cancelled, and close expired idle connections.
+		 */
+		private void sweep(long now) {
+			for (Iterator<Exchange> i = active.iterator(); i.hasNext();) {
+				Exchange x = i.next();
+				if (x.isCancelled()) {
+					i.remove();
+					release(x);
+					closeChannel(x.channel);
+				} else if (x.deadline > 0 && now >= x.deadline) {
+					// Closing the channel cancels its key, so see what it waited for first.
+					boolean connecting = x.selectionKey != null && x.selectionKey.isValid()
+							&& (x.selectionKey.interestOps() & SelectionKey.OP_CONNECT) != 0;
+					i.remove();
+					release(x);
+					closeChannel(x.channel);
+					x.failed(new SocketTimeoutException(connecting ? "connect timed out" : "Read timed out"));
+				}
+			}
+
+			pool.evictExpired(now);
+		}
+
+		/**
+		 * @param cause why the loop stopped, or null if it was shut down
+		 */
+		private void close(IOException cause) {
+			running = false;
+			IOException e = cause != null ? cause : new IOException("Engine has been shut down.");
+			for (Exchange x : active) {
+				release(x);
+				closeChannel(x.channel);
+				x.failed(e);
+			}
+			active.clear();
+
+			Exchange x;
+			while ((x = submitted.poll()) != null) {
+				release(x);
+				x.failed(e);
+			}
+
+			pool.close();
+
+			try {
+				selector.close();
+			} catch (IOException e1) {
+				//Ignore
+			}
+		}
+
+		private void closeChannel(SocketChannel channel) {
+			if (channel == null)
+				return;
+
+			try {
+				channel.close();
+			} catch (IOException e) {
+				//Ignore
+			}
+		}
+	}
+}
@@ -33,6 +33,12 @@
  * Change Log:
  * </p>
  * <ul>
+ *  <li>v2.3.8 - Bulk encoding and decoding. Encoding converts 24 bytes per
+ *   step through a table of character pairs and decoding converts eight
+ *   characters per step, dropping to the old quantum at a time path only
+ *   around white space and padding. Added {@link #encode(byte[], int, int, byte[], int, int)},
+ *   {@link #decode(byte[], int, int, byte[], int, int)}, {@link #encodedLength(int, int)}
+ *   and ByteBuffer methods that take options. Output is unchanged.</li>
  *  <li>v2.3.7 - Fixed subtle bug when base 64 input stream contained the
  *   value 01111111, which is an invalid base 64 character but should not
  *   throw an ArrayIndexOutOfBoundsException either. Led to discovery of
@@ -143,7 +149,7 @@
  *
  * @author Robert Harder
  * @author rob@iharder.net
- * @version 2.3.7
+ * @version 2.3.8
  */
 package simplerestclient;
 
@@ -199,6 +205,14 @@ public class Base64
     private final static int MAX_LINE_LENGTH = 76;
     
     
+    /** Bytes of input on a full line of Base64 output (57). */
+    private final static int LINE_BYTES = MAX_LINE_LENGTH / 4 * 3;
+
+
+    /** Bytes of input encoded per step through a non-array ByteBuffer, a whole number of lines. */
+    private final static int BUFFER_CHUNK = LINE_BYTES * 144;
+    
+    
     /** The equals sign (=) as a byte. */
     private final static byte EQUALS_SIGN = (byte)'=';
     
@@ -438,6 +452,39 @@ public class Base64
     }	// end getAlphabet
 
 
+    /**
+     * Returns the pair table for the alphabet selected by the options.
+     * Entry <var>i</var> holds the two Base64 characters for the twelve
+     * bits <var>i</var>, high character in the upper byte, so the bulk
+     * encoder does one lookup per two output characters.
+     */
+    private final static short[] getPairTable( int options ) {
+        if ((options & URL_SAFE) == URL_SAFE) {
+            return PairTables.URL_SAFE;
+        } else if ((options & ORDERED) == ORDERED) {
+            return PairTables.ORDERED;
+        } else {
+            return PairTables.STANDARD;
+        }
+    }	// end getPairTable
+
+
+    /** Pair tables, built the first time something is bulk encoded. */
+    private static class PairTables {
+        final static short[] STANDARD = build( _STANDARD_ALPHABET );
+        final static short[] URL_SAFE = build( _URL_SAFE_ALPHABET );
+        final static short[] ORDERED  = build( _ORDERED_ALPHABET );
+
+        private static short[] build( byte[] alphabet ) {
+            short[] table = new short[ 4096 ];
+            for( int i = 0; i < 4096; i++ ) {
+                table[i] = (short)( (alphabet[ i >>> 6 ] << 8) | alphabet[ i & 0x3f ] );
+            }   // end for: each twelve bits
+            return table;
+        }
+    }   // end class PairTables
+
+
     
     /** Defeats instantiation. */
     private Base64(){}
@@ -543,6 +590,162 @@ public class Base64
 
 
 
+    /**
+     * Returns the exact number of bytes {@link #encode(byte[], int, int, byte[], int, int)}
+     * and {@link #encodeBytesToBytes(byte[], int, int, int)} produce for
+     * <var>len</var> bytes of input without the {@link #GZIP} option,
+     * including the newlines added by {@link #DO_BREAK_LINES}.
+     *
+     * @param len Length of data to convert
+     * @param options Specified options
+     * @return the encoded length
+     * @since 2.3.8
+     */
+    public static int encodedLength( int len, int options ) {
+        int encLen = ( len / 3 ) * 4 + ( len % 3 > 0 ? 4 : 0 );
+        if( (options & DO_BREAK_LINES) != 0 ){
+            encLen += len / LINE_BYTES;  // A newline after every full line
+        }
+        return encLen;
+    }   // end encodedLength
+
+
+    /**
+     * Encodes <var>len</var> bytes of <var>source</var> into the caller's
+     * <var>destination</var> array and returns the number of bytes written.
+     * This is the bulk path under {@link #encodeBytesToBytes(byte[], int, int, int)}:
+     * it converts 24 bytes per step through a table of character pairs.
+     * The alphabet options and {@link #DO_BREAK_LINES} are honored;
+     * {@link #GZIP} is ignored.
+     *
+     * @param source The data to convert
+     * @param off Offset in array where conversion should begin
+     * @param len Length of data to convert
+     * @param destination the array to hold the conversion
+     * @param destOffset the index where output will be put
+     * @param options Specified options
+     * @return the number of bytes written, always {@link #encodedLength(int, int)}
+     * @throws NullPointerException if either array is null
+     * @throws IllegalArgumentException if the offsets or length are invalid
+     *         or there is not enough room in the destination array
+     * @since 2.3.8
+     */
+    public static int encode( byte[] source, int off, int len, byte[] destination, int destOffset, int options ) {
+        if( source == null ){
+            throw new NullPointerException( "Cannot serialize a null array." );
+        }   // end if: null
+        if( destination == null ){
+            throw new NullPointerException( "Destination array was null." );
+        }   // end if: null
+        if( off < 0 || len < 0 || off + len > source.length ){
+            throw new IllegalArgumentException( String.format(
+            "Cannot have offset of %d and length of %d with array of length %d", off, len, source.length ) );
+        }   // end if: bad source range
+        int encLen = encodedLength( len, options );
+        if( destOffset < 0 || destOffset + encLen > destination.length ){
+            throw new IllegalArgumentException( String.format(
+            "Destination array with length %d cannot have offset of %d and still store %d bytes.", destination.length, destOffset, encLen ) );
+        }   // end if: not enough room
+
+        return encodeBulk( source, off, len, destination, destOffset, options );
+    }   // end encode
+
+
+    /**
+     * Encodes without checking bounds; the caller has made room for
+     * {@link #encodedLength(int, int)} bytes.
+     */
+    private static int encodeBulk( byte[] source, int off, int len, byte[] destination, int destOffset, int options ) {
+        short[] PAIRS = getPairTable( options );
+        int end = off + len;
+        int e = destOffset;
+
+        if( (options & DO_BREAK_LINES) != 0 ) {
+            while( end - off >= LINE_BYTES ) {
+                e = encodeQuanta( source, off, LINE_BYTES, destination, e, PAIRS );
+                destination[ e++ ] = NEW_LINE;
+                off += LINE_BYTES;
+            }   // end while: full lines
+        }   // end if: breaking lines
+
+        int full = ( end - off ) / 3 * 3;
+        e = encodeQuanta( source, off, full, destination, e, PAIRS );
+        off += full;
+
+        if( off < end ) {
+            encode3to4( source, off, end - off, destination, e, options );
+            e += 4;
+        }   // end if: some padding needed
+
+        return e - destOffset;
+    }   // end encodeBulk
+
+
+    /**
+     * Encodes <var>len</var> bytes, a multiple of three, with no padding
+     * or line breaks and returns the destination index after the output.
+     * Six bytes are read into a long at a time and written as eight
+     * characters with four pair lookups.
+     */
+    private static int encodeQuanta( byte[] source, int off, int len, byte[] destination, int e, short[] PAIRS ) {
+        int end = off + len;
+
+        // 24 bytes in, 32 characters out
+        while( end - off >= 24 ) {
+            e = encode6to8( read6( source, off      ), PAIRS, destination, e );
+            e = encode6to8( read6( source, off +  6 ), PAIRS, destination, e );
+            e = encode6to8( read6( source, off + 12 ), PAIRS, destination, e );
+            e = encode6to8( read6( source, off + 18 ), PAIRS, destination, e );
+            off += 24;
+        }   // end while: blocks
+
+        while( end - off >= 6 ) {
+            e = encode6to8( read6( source, off ), PAIRS, destination, e );
+            off += 6;
+        }   // end while: words
+
+        if( off < end ) {
+            int inBuff = ( (source[ off ] & 0xFF) << 16 ) | ( (source[ off + 1 ] & 0xFF) << 8 ) | ( source[ off + 2 ] & 0xFF );
+            short hi = PAIRS[ inBuff >>> 12 ];
+            short lo = PAIRS[ inBuff & 0xfff ];
+            destination[ e     ] = (byte)( hi >>> 8 );
+            destination[ e + 1 ] = (byte)hi;
+            destination[ e + 2 ] = (byte)( lo >>> 8 );
+            destination[ e + 3 ] = (byte)lo;
+            e += 4;
+        }   // end if: last three bytes
+
+        return e;
+    }   // end encodeQuanta
+
+
+    /** Reads six bytes, big-endian, into the low 48 bits of a long. */
+    private static long read6( byte[] source, int off ) {
+        int hi = ( (source[ off     ] & 0xFF) << 16 ) | ( (source[ off + 1 ] & 0xFF) << 8 ) | ( source[ off + 2 ] & 0xFF );
+        int lo = ( (source[ off + 3 ] & 0xFF) << 16 ) | ( (source[ off + 4 ] & 0xFF) << 8 ) | ( source[ off + 5 ] & 0xFF );
+        return ( (long)hi << 24 ) | lo;
+    }   // end read6
+
+
+    /** Writes the 48 bits as eight Base64 characters. */
+    private static int encode6to8( long bits, short[] PAIRS, byte[] destination, int e ) {
+        short p0 = PAIRS[ (int)( bits >>> 36 ) & 0xfff ];
+        short p1 = PAIRS[ (int)( bits >>> 24 ) & 0xfff ];
+        short p2 = PAIRS[ (int)( bits >>> 12 ) & 0xfff ];
+        short p3 = PAIRS[ (int)( bits        ) & 0xfff ];
+        destination[ e     ] = (byte)( p0 >>> 8 );
+        destination[ e + 1 ] = (byte)p0;
+        destination[ e + 2 ] = (byte)( p1 >>> 8 );
+        destination[ e + 3 ] = (byte)p1;
+        destination[ e + 4 ] = (byte)( p2 >>> 8 );
+        destination[ e + 5 ] = (byte)p2;
+        destination[ e + 6 ] = (byte)( p3 >>> 8 );
+        destination[ e + 7 ] = (byte)p3;
+        return e + 8;
+    }   // end encode6to8
+
+
+
     /**
      * Performs Base64 encoding on the <code>raw</code> ByteBuffer,
      * writing it to the <code>encoded</code> ByteBuffer.
@@ -555,14 +758,46 @@ public class Base64
      * @since 2.3
      */
     public static void encode( java.nio.ByteBuffer raw, java.nio.ByteBuffer encoded ){
-        byte[] raw3 = new byte[3];
-        byte[] enc4 = new byte[4];
+        encode( raw, encoded, NO_OPTIONS );
+    }
+
 
+    /**
+     * Performs Base64 encoding on the remaining bytes of the <code>raw</code>
+     * ByteBuffer, writing it to the <code>encoded</code> ByteBuffer.
+     * Array-backed buffers are encoded in place; others are
+     * copied through a scratch array a few lines at a time.
+     * The alphabet options and {@link #DO_BREAK_LINES} are honored;
+     * {@link #GZIP} is ignored.
+     *
+     * @param raw input buffer
+     * @param encoded output buffer
+     * @param options Specified options
+     * @throws java.nio.BufferOverflowException if <code>encoded</code> has
+     *         less than {@link #encodedLength(int, int)} bytes remaining;
+     *         neither buffer is modified
+     * @since 2.3.8
+     */
+    public static void encode( java.nio.ByteBuffer raw, java.nio.ByteBuffer encoded, int options ){
+        int len = raw.remaining();
+        if( encoded.remaining() < encodedLength( len, options ) ){
+            throw new java.nio.BufferOverflowException();
+        }   // end if: not enough room
+
+        if( raw.hasArray() && encoded.hasArray() ){
+            int e = encodeBulk( raw.array(), raw.arrayOffset() + raw.position(), len,
+                    encoded.array(), encoded.arrayOffset() + encoded.position(), options );
+            raw.position( raw.limit() );
+            encoded.position( encoded.position() + e );
+            return;
+        }   // end if: both arrays
+
+        byte[] in  = new byte[ Math.min( len, BUFFER_CHUNK ) ];
+        byte[] out = new byte[ encodedLength( in.length, options ) ];
         while( raw.hasRemaining() ){
-            int rem = Math.min(3,raw.remaining());
-            raw.get(raw3,0,rem);
-            Base64.encode3to4(enc4, raw3, rem, Base64.NO_OPTIONS );
-            encoded.put(enc4);
+            int n = Math.min( in.length, raw.remaining() );
+            raw.get( in, 0, n );
+            encoded.put( out, 0, encodeBulk( in, 0, n, out, 0, options ) );
         }   // end input remaining
     }
 
@@ -579,16 +814,22 @@ public class Base64
      * @since 2.3
      */
     public static void encode( java.nio.ByteBuffer raw, java.nio.CharBuffer encoded ){
-        byte[] raw3 = new byte[3];
-        byte[] enc4 = new byte[4];
-
+        int len = raw.remaining();
+        if( encoded.remaining() < encodedLength( len, NO_OPTIONS ) ){
+            throw new java.nio.BufferOverflowException();
+        }   // end if: not enough room
+
+        byte[] in    = new byte[ Math.min( len, BUFFER_CHUNK ) ];
+        byte[] out   = new byte[ encodedLength( in.length, NO_OPTIONS ) ];
+        char[] chars = new char[ out.length ];
         while( raw.hasRemaining() ){
-            int rem = Math.min(3,raw.remaining());
-            raw.get(raw3,0,rem);
-            Base64.encode3to4(enc4, raw3, rem, Base64.NO_OPTIONS );
-            for( int i = 0; i < 4; i++ ){
-                encoded.put( (char)(enc4[i] & 0xFF) );
+            int n = Math.min( in.length, raw.remaining() );
+            raw.get( in, 0, n );
+            int e = encodeBulk( in, 0, n, out, 0, NO_OPTIONS );
+            for( int i = 0; i < e; i++ ){
+                chars[i] = (char)( out[i] & 0xFF );
             }
+            encoded.put( chars, 0, e );
         }   // end input remaining
     }
 
@@ -935,58 +1176,10 @@ public class Base64
 
         // Else, don't compress. Better not to use streams at all then.
         else {
-            boolean breakLines = (options & DO_BREAK_LINES) != 0;
-
-            //int    len43   = len * 4 / 3;
-            //byte[] outBuff = new byte[   ( len43 )                      // Main 4:3
-            //                           + ( (len % 3) > 0 ? 4 : 0 )      // Account for padding
-            //                           + (breakLines ? ( len43 / MAX_LINE_LENGTH ) : 0) ]; // New lines
-            // Try to determine more precisely how big the array needs to be.
-            // If we get it right, we don't have to do an array copy, and
-            // we save a bunch of memory.
-            int encLen = ( len / 3 ) * 4 + ( len % 3 > 0 ? 4 : 0 ); // Bytes needed for actual encoding
-            if( breakLines ){
-                encLen += encLen / MAX_LINE_LENGTH; // Plus extra newline characters
-            }
-            byte[] outBuff = new byte[ encLen ];
-
-
-            int d = 0;
-            int e = 0;
-            int len2 = len - 2;
-            int lineLength = 0;
-            for( ; d < len2; d+=3, e+=4 ) {
-                encode3to4( source, d+off, 3, outBuff, e, options );
-
-                lineLength += 4;
-                if( breakLines && lineLength >= MAX_LINE_LENGTH )
-                {
-                    outBuff[e+4] = NEW_LINE;
-                    e++;
-                    lineLength = 0;
-                }   // end if: end of line
-            }   // en dfor: each piece of array
-
-            if( d < len ) {
-                encode3to4( source, d+off, len - d, outBuff, e, options );
-                e += 4;
-            }   // end if: some padding needed
-
-
-            // Only resize array if we didn't guess it right.
-            if( e <= outBuff.length - 1 ){
-                // If breaking lines and the last byte falls right at
-                // the line length (76 bytes per line), there will be
-                // one extra byte, and the array will need to be resized.
-                // Not too bad of an estimate on array size, I'd say.
-                byte[] finalOut = new byte[e];
-                System.arraycopy(outBuff,0, finalOut,0,e);
-                //System.err.println("Having to resize array from " + outBuff.length + " to " + e );
-                return finalOut;
-            } else {
-                //System.err.println("No need to resize array.");
-                return outBuff;
-            }
+            // Size the array exactly and do the whole thing in one pass.
+            byte[] outBuff = new byte[ encodedLength( len, options ) ];
+            encodeBulk( source, off, len, outBuff, 0, options );
+            return outBuff;
         
         }   // end else: don't compress
 
@@ -1164,18 +1357,186 @@ public class Base64
             "Base64-encoded string must have at least four characters, but length specified was " + len );
         }   // end if
         
-        byte[] DECODABET = getDecodabet( options );
+        // Upper limit on size of output, exact for unbroken input
+        int max = maxDecodedLength( len );
+        if( len % 4 == 0 && source[ off + len - 1 ] == EQUALS_SIGN ) {
+            max -= source[ off + len - 2 ] == EQUALS_SIGN ? 2 : 1;
+        }   // end if: padded
+
+        byte[] outBuff = new byte[ max ];
+        int    outBuffPosn = decodeBulk( source, off, len, outBuff, 0, outBuff.length, options );
+        if( outBuffPosn == outBuff.length ){
+            return outBuff;
+        }   // end if: no white space or padding
+                                   
+        byte[] out = new byte[ outBuffPosn ];
+        System.arraycopy( outBuff, 0, out, 0, outBuffPosn ); 
+        return out;
+    }   // end decode
+    
+    
+	
 	
-        int    len34   = len * 3 / 4;       // Estimate on array size
-        byte[] outBuff = new byte[ len34 ]; // Upper limit on size of output
-        int    outBuffPosn = 0;             // Keep track of where we're writing
+    /**
+     * Decodes <var>len</var> Base64 characters of <var>source</var> into the
+     * caller's <var>destination</var> array and returns the number of bytes
+     * written. White space is skipped and decoding stops after padding, as with
+     * {@link #decode(byte[], int, int, int)}. <strong>Ignores GUNZIP option, if
+     * it's set.</strong> At most <code>len / 4 * 3</code> bytes are written.
+     *
+     * @param source The Base64 encoded data
+     * @param off    The offset of where to begin decoding
+     * @param len    The length of characters to decode
+     * @param destination the array to hold the decoded data
+     * @param destOffset the index where output will be put
+     * @param options Can specify options such as alphabet type to use
+     * @return the number of decoded bytes
+     * @throws java.io.IOException If bogus characters exist in source data
+     * @throws IllegalArgumentException if the offsets or length are invalid
+     *         or the decoded data does not fit in the destination array
+     * @since 2.3.8
+     */
+    public static int decode( byte[] source, int off, int len, byte[] destination, int destOffset, int options )
+    throws java.io.IOException {
+        if( source == null ){
+            throw new NullPointerException( "Cannot decode null source array." );
+        }   // end if
+        if( destination == null ){
+            throw new NullPointerException( "Destination array was null." );
+        }   // end if
+        if( off < 0 || len < 0 || off + len > source.length ){
+            throw new IllegalArgumentException( String.format(
+            "Source array with length %d cannot have offset of %d and process %d bytes.", source.length, off, len ) );
+        }   // end if
+        if( destOffset < 0 || destOffset > destination.length ){
+            throw new IllegalArgumentException( String.format(
+            "Destination array with length %d cannot have offset of %d.", destination.length, destOffset ) );
+        }   // end if
+
+        if( len == 0 ){
+            return 0;
+        }else if( len < 4 ){
+            throw new IllegalArgumentException( 
+            "Base64-encoded string must have at least four characters, but length specified was " + len );
+        }   // end if
+
+        return decodeBulk( source, off, len, destination, destOffset, destination.length - destOffset, options );
+    }   // end decode
+
+
+    /**
+     * Decodes the remaining characters of the <code>encoded</code> ByteBuffer,
+     * writing the bytes to the <code>raw</code> ByteBuffer. Array-backed
+     * buffers are decoded in place.
+     * <strong>Ignores GUNZIP option, if it's set.</strong>
+     *
+     * @param encoded Base64 encoded input buffer, consumed entirely
+     * @param raw output buffer
+     * @param options Can specify options such as alphabet type to use
+     * @throws java.io.IOException If bogus characters exist in the encoded data
+     * @throws java.nio.BufferOverflowException if the decoded data does not fit in <code>raw</code>
+     * @since 2.3.8
+     */
+    public static void decode( java.nio.ByteBuffer encoded, java.nio.ByteBuffer raw, int options )
+    throws java.io.IOException {
+        int len = encoded.remaining();
+        byte[] source;
+        int    off;
+        if( encoded.hasArray() ){
+            source = encoded.array();
+            off    = encoded.arrayOffset() + encoded.position();
+        } else {
+            source = new byte[ len ];
+            off    = 0;
+            encoded.duplicate().get( source );
+        }   // end else: copy out
+
+        int max = maxDecodedLength( len );
+        if( raw.hasArray() && raw.remaining() >= max ){
+            int n = decodeBulk( source, off, len, raw.array(), raw.arrayOffset() + raw.position(), max, options );
+            raw.position( raw.position() + n );
+        } else {
+            byte[] out = new byte[ max ];
+            raw.put( out, 0, decodeBulk( source, off, len, out, 0, max, options ) );
+        }   // end else: through a scratch array
+        encoded.position( encoded.limit() );
+    }   // end decode
+
+
+    /**
+     * The most bytes <var>len</var> Base64 characters can decode to.
+     * Only full quartets produce output.
+     */
+    private static int maxDecodedLength( int len ) {
+        return len / 4 * 3;
+    }   // end maxDecodedLength
+
+
+    /**
+     * Decodes into <var>destination</var>, writing at most <var>room</var>
+     * bytes from <var>destOffset</var>, and returns the number written.
+     * Runs of clean characters are decoded a quartet at a time, 32
+     * characters per step where there are enough; white space, padding and bad characters drop
+     * to the quantum at a time loop, which resumes the fast path at the
+     * next quartet boundary.
+     */
+    private static int decodeBulk( byte[] source, int off, int len,
+    byte[] destination, int destOffset, int room, int options )
+    throws java.io.IOException {
         
+        byte[] DECODABET = getDecodabet( options );
+        
+        int    end       = off + len;
+        int    d         = destOffset;         // Keep track of where we're writing
+        int    destEnd   = destOffset + room;
         byte[] b4        = new byte[4];     // Four byte buffer from source, eliminating white space
+        byte[] b3        = new byte[3];     // Output of a quartet decoded the slow way
         int    b4Posn    = 0;               // Keep track of four byte input buffer
-        int    i         = 0;               // Source array counter
+        int    i         = off;             // Source array counter
         byte   sbiDecode = 0;               // Special value from DECODABET
         
-        for( i = off; i < off+len; i++ ) {  // Loop through source
+        while( i < end ) {
+            
+            if( b4Posn == 0 ) {
+                // 32 characters in, 24 bytes out
+                while( end - i >= 32 && destEnd - d >= 24 ) {
+                    int q0 = decode4( source, i,      DECODABET );
+                    int q1 = decode4( source, i +  4, DECODABET );
+                    int q2 = decode4( source, i +  8, DECODABET );
+                    int q3 = decode4( source, i + 12, DECODABET );
+                    int q4 = decode4( source, i + 16, DECODABET );
+                    int q5 = decode4( source, i + 20, DECODABET );
+                    int q6 = decode4( source, i + 24, DECODABET );
+                    int q7 = decode4( source, i + 28, DECODABET );
+                    if( ( q0 | q1 | q2 | q3 | q4 | q5 | q6 | q7 ) < 0 ) {
+                        break;
+                    }   // end if: something other than Base64 characters
+                    write3( q0, destination, d      );
+                    write3( q1, destination, d +  3 );
+                    write3( q2, destination, d +  6 );
+                    write3( q3, destination, d +  9 );
+                    write3( q4, destination, d + 12 );
+                    write3( q5, destination, d + 15 );
+                    write3( q6, destination, d + 18 );
+                    write3( q7, destination, d + 21 );
+                    i += 32;
+                    d += 24;
+                }   // end while: blocks
+
+                while( end - i >= 4 && destEnd - d >= 3 ) {
+                    int q = decode4( source, i, DECODABET );
+                    if( q < 0 ) {
+                        break;
+                    }   // end if: something other than Base64 characters
+                    write3( q, destination, d );
+                    i += 4;
+                    d += 3;
+                }   // end while: quartets
+
+                if( i >= end ) {
+                    break;
+                }   // end if: all decoded
+            }   // end if: on a quartet boundary
             
             sbiDecode = DECODABET[ source[i]&0xFF ];
             
@@ -1186,7 +1547,13 @@ public class Base64
                 if( sbiDecode >= EQUALS_SIGN_ENC ) {
                     b4[ b4Posn++ ] = source[i];         // Save non-whitespace
                     if( b4Posn > 3 ) {                  // Time to decode?
-                        outBuffPosn += decode4to3( b4, 0, outBuff, outBuffPosn, options );
+                        int n = decode4to3( b4, 0, b3, 0, options );
+                        if( n > destEnd - d ) {
+                            throw new IllegalArgumentException( String.format(
+                            "Destination array with length %d cannot store the decoded data.", destination.length ) );
+                        }   // end if: out of room
+                        System.arraycopy( b3, 0, destination, d, n );
+                        d += n;
                         b4Posn = 0;
                         
                         // If that was the equals sign, break out of 'for' loop
@@ -1201,12 +1568,32 @@ public class Base64
                 throw new java.io.IOException( String.format(
                 "Bad Base64 input character decimal %d in array position %d", ((int)source[i])&0xFF, i ) );
             }   // end else: 
+            i++;
         }   // each input character
-                                   
-        byte[] out = new byte[ outBuffPosn ];
-        System.arraycopy( outBuff, 0, out, 0, outBuffPosn ); 
-        return out;
-    }   // end decode
+        
+        return d - destOffset;
+    }   // end decodeBulk
+
+
+    /**
+     * Decodes four characters into the low 24 bits of an int, or
+     * returns a negative number if any of them is not a Base64 character:
+     * the DECODABET values for those are negative and stay negative when shifted.
+     */
+    private static int decode4( byte[] source, int i, byte[] DECODABET ) {
+        return ( DECODABET[ source[ i     ] & 0xFF ] << 18 )
+             | ( DECODABET[ source[ i + 1 ] & 0xFF ] << 12 )
+             | ( DECODABET[ source[ i + 2 ] & 0xFF ] <<  6 )
+             | ( DECODABET[ source[ i + 3 ] & 0xFF ]       );
+    }   // end decode4
+
+
+    /** Writes the low 24 bits, big-endian. */
+    private static void write3( int bits, byte[] destination, int d ) {
+        destination[ d     ] = (byte)( bits >>> 16 );
+        destination[ d + 1 ] = (byte)( bits >>>  8 );
+        destination[ d + 2 ] = (byte)bits;
+    }   // end write3
     
     
 	
@@ -1863,6 +2250,8 @@ public class Base64
         private boolean suspendEncoding;
         private int     options;    // Record for later
         private byte[]  decodabet;  // Local copies to avoid extra method calls
+        private short[] pairs;
+        private byte[]  scratch;    // Bulk encoded output, allocated on first use
         
         /**
          * Constructs a {@link Base64.OutputStream} in ENCODE mode.
@@ -1968,7 +2357,10 @@ public class Base64
         
         
         /**
-         * Calls {@link #write(int)} repeatedly until <var>len</var> 
+         * Writes <var>len</var> bytes after converting to/from Base64 notation.
+         * When encoding, whole quanta are converted in bulk into a scratch
+         * buffer and written to the output stream a few lines at a time;
+         * otherwise calls {@link #write(int)} repeatedly until <var>len</var> 
          * bytes are written.
          *
          * @param theBytes array from which to read bytes
@@ -1985,6 +2377,39 @@ public class Base64
                 return;
             }   // end if: supsended
             
+            if( encode ) {
+                // Finish a partly buffered quantum first
+                while( position > 0 && len > 0 ) {
+                    write( theBytes[ off++ ] );
+                    len--;
+                }   // end while: partial quantum
+
+                if( len >= 3 && scratch == null ) {
+                    scratch = new byte[ ( MAX_LINE_LENGTH + 1 ) * 64 ];
+                    pairs   = getPairTable( options );
+                }   // end if: first bulk write
+
+                while( len >= 3 ) {
+                    int e = 0;
+                    while( len >= 3 && scratch.length - e > MAX_LINE_LENGTH ) {
+                        int n = breakLines ? ( MAX_LINE_LENGTH - lineLength ) / 4 * 3 : ( scratch.length - e ) / 4 * 3;
+                        n = Math.min( n, len / 3 * 3 );
+                        e = encodeQuanta( theBytes, off, n, scratch, e, pairs );
+                        off += n;
+                        len -= n;
+
+                        if( breakLines ) {
+                            lineLength += n / 3 * 4;
+                            if( lineLength >= MAX_LINE_LENGTH ) {
+                                scratch[ e++ ] = NEW_LINE;
+                                lineLength = 0;
+                            }   // end if: end of line
+                        }   // end if: breaking lines
+                    }   // end while: room in scratch
+                    this.out.write( scratch, 0, e );
+                }   // end while: whole quanta left
+            }   // end if: encoding
+
             for( int i = 0; i < len; i++ ) {
                 write( theBytes[ off + i ] );
             }   // end for: each byte written
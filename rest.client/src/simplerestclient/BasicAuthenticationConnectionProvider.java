@@ -25,6 +25,8 @@ package simplerestclient;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.util.Collections;
+import java.util.Map;
 
 
 /**
@@ -37,7 +39,9 @@ import java.net.HttpURLConnection;
  * @author bballantine
  *
  */
-public class BasicAuthenticationConnectionProvider extends DefaultConnectionProvider {
+public class BasicAuthenticationConnectionProvider extends DefaultConnectionProvider implements IRequestPropertiesProvider {
+
+	private static final String AUTHORIZATION = "Authorization";
 
 	String credentials;
 	
@@ -48,8 +52,12 @@ public class BasicAuthenticationConnectionProvider extends DefaultConnectionProv
 
 	public HttpURLConnection getConnection(String urlStr) throws IOException {
 		HttpURLConnection connection = super.getConnection(urlStr);
-		connection.setRequestProperty("Authorization", "Basic " + credentials);
+		connection.setRequestProperty(AUTHORIZATION, "Basic " + credentials);
 		return connection;
 	}
 
+	public Map<String, String> getRequestProperties(String urlStr) {
+		return Collections.singletonMap(AUTHORIZATION, "Basic " + credentials);
+	}
+
 }
@@ -0,0 +1,194 @@
+package simplerestclient;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A set of requests running concurrently, started by SimpleHTTPRequest.executeBulk().
+ *
+ * Each request runs on its own virtual thread when the JVM has them (Java 21 and later), otherwise
+ * on a bounded pool of platform threads.  At most maxConcurrency requests are in flight at once.
+ * Results are taken in the order the requests complete:
+ *
+ * BulkExecution e = SimpleHTTPRequest.executeBulk(requests, 1000);
+ * while (e.hasNext())
+ *     handle(e.take());
+ *
+ * @author kgilmer
+ *
+ */
+public class BulkExecution {
+	/**
+	 * Platform threads used at most when virtual threads aren't available.
+	 */
+	public static final int MAX_PLATFORM_THREADS = 200;
+
+	private static final AtomicInteger poolNumber = new AtomicInteger();
+
+	private final BlockingQueue<BulkResult> results = new LinkedBlockingQueue<BulkResult>();
+	private final ExecutorService executor;
+	private final boolean virtual;
+	private final Semaphore permits;
+	private final IConnectionProvider provider;
+	private int remaining;
+
+	BulkExecution(Collection<BulkRequest> requests, int maxConcurrency, IConnectionProvider provider) {
+		if (maxConcurrency < 1)
+			throw new IllegalArgumentException("maxConcurrency must be at least 1.");
+
+		ExecutorService es = newVirtualThreadExecutor();
+		virtual = es != null;
+		if (es == null)
+			es = newPlatformThreadExecutor(Math.min(maxConcurrency, MAX_PLATFORM_THREADS));
+		executor = es;
+		this.provider = provider;
+
+		// Virtual threads are cheap to park, so every request gets one and waits for a permit.
+		permits = new Semaphore(maxConcurrency);
+		for (BulkRequest request : requests) {
+			remaining++;
+			executor.execute(new Task(request));
+		}
+
+		executor.shutdown();
+	}
+
+	/**
+	 * @return true if requests run on virtual threads
+	 */
+	public boolean isVirtual() {
+		return virtual;
+	}
+
+	/**
+	 * @return true if there are results not yet taken
+	 */
+	public synchronized boolean hasNext() {
+		return remaining > 0;
+	}
+
+	/**
+	 * @return number of results not yet taken
+	 */
+	public synchronized int getRemaining() {
+		return remaining;
+	}
+
+	/**
+	 * Wait for the next request to complete.
+	 *
+	 * @return the result
+	 * @throws InterruptedException
+	 * @throws IllegalStateException if all results have been taken
+	 */
+	public BulkResult take() throws InterruptedException {
+		synchronized (this) {
+			if (remaining == 0)
+				throw new IllegalStateException("All results have been taken.");
+		}
+
+		BulkResult r = results.take();
+		taken();
+		return r;
+	}
+
+	/**
+	 * Wait up to timeout for the next request to complete.
+	 *
+	 * @return the result, or null if none completed in time or all have been taken
+	 * @throws InterruptedException
+	 */
+	public BulkResult poll(long timeout, TimeUnit unit) throws InterruptedException {
+		synchronized (this) {
+			if (remaining == 0)
+				return null;
+		}
+
+		BulkResult r = results.poll(timeout, unit);
+		if (r != null)
+			taken();
+		return r;
+	}
+
+	/**
+	 * Interrupt requests in flight.  Requests not yet started complete with an InterruptedIOException.
+	 */
+	public void cancel() {
+		for (Runnable r : executor.shutdownNow())
+			((Task) r).cancelled();
+	}
+
+	private synchronized void taken() {
+		remaining--;
+	}
+
+	private class Task implements Runnable {
+		private final BulkRequest request;
+
+		Task(BulkRequest request) {
+			this.request = request;
+		}
+
+		public void run() {
+			try {
+				permits.acquire();
+			} catch (InterruptedException e) {
+				cancelled();
+				return;
+			}
+
+			try {
+				results.add(new BulkResult(request, SimpleHTTPRequest.execute(provider, request), null));
+			} catch (IOException e) {
+				results.add(new BulkResult(request, null, e));
+			} catch (RuntimeException e) {
+				results.add(new BulkResult(request, null, new IOException(e.getMessage(), e)));
+			} finally {
+				permits.release();
+			}
+		}
+
+		void cancelled() {
+			results.add(new BulkResult(request, null, new InterruptedIOException("Bulk execution was cancelled.")));
+		}
+	}
+
+	/**
+	 * @return Executors.newVirtualThreadPerTaskExecutor(), or null on a JVM without virtual threads
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) m.invoke(null);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	private static ExecutorService newPlatformThreadExecutor(int threads) {
+		final int pool = poolNumber.incrementAndGet();
+		ThreadPoolExecutor tpe = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "BulkExecution-" + pool + "-" + count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		tpe.allowCoreThreadTimeOut(true);
+		return tpe;
+	}
+}
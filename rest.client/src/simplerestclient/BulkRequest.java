@@ -0,0 +1,82 @@
+package simplerestclient;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Map;
+
+/**
+ * Description of one request for SimpleHTTPRequest.executeBulk().
+ *
+ * @author kgilmer
+ *
+ */
+public class BulkRequest {
+	private final String method;
+	private final String url;
+	private final Map<String, String> headers;
+	private final byte[] body;
+	private final Object tag;
+
+	/**
+	 * @param method HTTP method
+	 * @param url
+	 */
+	public BulkRequest(String method, String url) {
+		this(method, url, null, (byte[]) null, null);
+	}
+
+	/**
+	 * @param method HTTP method
+	 * @param url
+	 * @param headers request headers, or null
+	 * @param body request body as UTF-8, or null
+	 */
+	public BulkRequest(String method, String url, Map<String, String> headers, String body) {
+		this(method, url, headers, toBytes(body), null);
+	}
+
+	/**
+	 * @param method HTTP method
+	 * @param url
+	 * @param headers request headers, or null
+	 * @param body request body, or null
+	 * @param tag caller object to identify the result by, or null
+	 */
+	public BulkRequest(String method, String url, Map<String, String> headers, byte[] body, Object tag) {
+		this.method = method;
+		this.url = url;
+		this.headers = headers;
+		this.body = body;
+		this.tag = tag;
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+
+	public byte[] getBody() {
+		return body;
+	}
+
+	public Object getTag() {
+		return tag;
+	}
+
+	private static byte[] toBytes(String body) {
+		if (body == null)
+			return null;
+
+		try {
+			return body.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package simplerestclient;
+
+import java.io.IOException;
+
+/**
+ * Outcome of one BulkRequest: either a response or the exception the request failed with.
+ *
+ * @author kgilmer
+ *
+ */
+public class BulkResult {
+	private final BulkRequest request;
+	private final HTTPResponse response;
+	private final IOException exception;
+
+	BulkResult(BulkRequest request, HTTPResponse response, IOException exception) {
+		this.request = request;
+		this.response = response;
+		this.exception = exception;
+	}
+
+	/**
+	 * @return the request this is the result of
+	 */
+	public BulkRequest getRequest() {
+		return request;
+	}
+
+	/**
+	 * @return the response, or null if the request failed
+	 */
+	public HTTPResponse getResponse() {
+		return response;
+	}
+
+	/**
+	 * @return the failure, an HTTPException for error statuses, or null if the request succeeded
+	 */
+	public IOException getException() {
+		return exception;
+	}
+
+	public boolean isSuccess() {
+		return exception == null;
+	}
+}
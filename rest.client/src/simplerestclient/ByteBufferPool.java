@@ -0,0 +1,61 @@
+package simplerestclient;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of same sized direct buffers.  Direct buffers are costly to allocate and free, and avoid a copy
+ * on every channel read and write.  Safe for use from multiple threads.
+ *
+ * @author kgilmer
+ *
+ */
+class ByteBufferPool {
+	private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final AtomicInteger pooled = new AtomicInteger();
+	private final int bufferSize;
+	private final int maxPooled;
+
+	/**
+	 * @param bufferSize capacity of each buffer
+	 * @param maxPooled buffers kept for reuse, further released buffers are left to the garbage collector
+	 */
+	ByteBufferPool(int bufferSize, int maxPooled) {
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+	}
+
+	int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * @return a cleared buffer
+	 */
+	ByteBuffer acquire() {
+		ByteBuffer buf = buffers.poll();
+		if (buf == null)
+			return ByteBuffer.allocateDirect(bufferSize);
+
+		pooled.decrementAndGet();
+		return buf;
+	}
+
+	/**
+	 * Return a buffer from acquire().  It must not be used afterwards.
+	 */
+	void release(ByteBuffer buf) {
+		if (buf.capacity() != bufferSize || !buf.isDirect())
+			return;
+
+		if (pooled.incrementAndGet() > maxPooled) {
+			pooled.decrementAndGet();
+			return;
+		}
+
+		buf.clear();
+		buffers.add(buf);
+	}
+}
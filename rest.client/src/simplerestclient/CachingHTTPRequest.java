@@ -0,0 +1,584 @@
+package simplerestclient;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TimeZone;
+
+/**
+ * An HTTPRequest type that keeps GET responses in memory and serves them while they are fresh,
+ * following the caching rules of RFC 7234 for a private cache.
+ *
+ * Freshness comes from Cache-Control max-age, Expires, or failing those a tenth of the time since
+ * Last-Modified.  Stale responses with an ETag or Last-Modified are revalidated with a conditional
+ * request, and a 304 answer is served from the cached body.  Responses are stored per Vary variant.
+ * Unsafe methods invalidate the cached responses of their URL.
+ *
+ * Cached bodies are held in a least recently used map limited to a byte budget.  A response whose
+ * Content-Length exceeds the budget is passed through without being read, and one without a length is
+ * read no further than the budget before it is found too large and passed through, so large downloads
+ * stream as they would without the cache.  Safe for use from multiple threads.
+ *
+ * IHTTPRequest req = new CachingHTTPRequest(new HTTPRequest(), 16 * 1024 * 1024);
+ *
+ * @author kgilmer
+ *
+ */
+public class CachingHTTPRequest implements IHTTPRequest {
+	private static final String[] DATE_FORMATS = { "EEE, dd MMM yyyy HH:mm:ss zzz", "EEEE, dd-MMM-yy HH:mm:ss zzz", "EEE MMM d HH:mm:ss yyyy" };
+	/**
+	 * Response headers that a 304 does not update, see RFC 7234 4.3.4.
+	 */
+	private static final String[] NOT_UPDATED_HEADERS = { "Content-Length", "Content-Encoding", "Transfer-Encoding", "Content-Range" };
+
+	private final IHTTPRequest httpRequest;
+	private final long maxBytes;
+	private final Map<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+	private final Map<String, String[]> varyByUrl = new HashMap<String, String[]>();
+	private long size;
+	private long hitCount;
+	private long missCount;
+
+	/**
+	 * @param maxBytes budget for cached bodies and headers
+	 */
+	public CachingHTTPRequest(long maxBytes) {
+		this(new HTTPRequest(), maxBytes);
+	}
+
+	/**
+	 * @param httpRequest requests misses and revalidations are sent with
+	 * @param maxBytes budget for cached bodies and headers
+	 */
+	public CachingHTTPRequest(IHTTPRequest httpRequest, long maxBytes) {
+		this.httpRequest = httpRequest;
+		this.maxBytes = maxBytes;
+	}
+
+	@Override
+	public HTTPResponse get(String url) throws IOException {
+		return get(url, null);
+	}
+
+	@Override
+	public HTTPResponse get(String url, Map<String, String> headers) throws IOException {
+		if (requestHasDirective(headers, "Cache-Control", "no-store"))
+			return send(url, headers);
+
+		boolean noCache = requestHasDirective(headers, "Cache-Control", "no-cache") || requestHasDirective(headers, "Pragma", "no-cache");
+		String key;
+		CacheEntry entry;
+		synchronized (this) {
+			key = variantKey(url, varyByUrl.get(url), headers);
+			entry = entries.get(key);
+			if (entry != null && !noCache && entry.isFresh(System.currentTimeMillis())) {
+				hitCount++;
+				return entry.toResponse(url);
+			}
+			missCount++;
+		}
+
+		Map<String, String> requestHeaders = headers;
+		if (entry != null && entry.hasValidator()) {
+			requestHeaders = headers == null ? new HashMap<String, String>() : new HashMap<String, String>(headers);
+			if (entry.etag != null)
+				requestHeaders.put("If-None-Match", entry.etag);
+			if (entry.lastModified != null)
+				requestHeaders.put("If-Modified-Since", entry.lastModified);
+		}
+
+		long requestTime = System.currentTimeMillis();
+		HTTPResponse response = send(url, requestHeaders);
+		long responseTime = System.currentTimeMillis();
+		int status = response.getStatusCode();
+
+		if (status == HttpURLConnection.HTTP_NOT_MODIFIED && entry != null) {
+			response.close();
+			synchronized (this) {
+				entry.revalidated(response.getHeaderFields(), requestTime, responseTime);
+				return entry.toResponse(url);
+			}
+		}
+
+		if (!isCacheable(status, response))
+			return response;
+
+		// Don't read what can't be stored, the response it replaces is out of date either way.
+		if (parseLong(getHeader(response.getHeaderFields(), "Content-Length")) > maxBytes) {
+			discard(key);
+			return response;
+		}
+
+		InputStream is = response.getInputStream();
+		byte[] body = readAtMost(is, maxBytes);
+		if (body.length > maxBytes) {
+			discard(key);
+			return new HTTPResponse(new ResponseURLConnection(new URL(url), "GET", HeaderList.fromMap(response.getHeaderFields()),
+					new SequenceInputStream(new ByteArrayInputStream(body), is)));
+		}
+		is.close();
+
+		CacheEntry fresh = new CacheEntry(response.getHeaderFields(), body, requestTime, responseTime);
+		String[] vary = fresh.getVary();
+		synchronized (this) {
+			if (vary != null) {
+				varyByUrl.put(url, vary);
+				store(variantKey(url, vary, headers), fresh);
+			} else {
+				// Vary: * can't be matched, drop what we had.
+				invalidate(url);
+			}
+		}
+
+		return fresh.toResponse(url);
+	}
+
+	@Override
+	public HTTPResponse post(String url, String data) throws IOException {
+		return invalidating(url, httpRequest.post(url, data));
+	}
+
+	@Override
+	public HTTPResponse post(String url, String data, Map headers) throws IOException {
+		return invalidating(url, httpRequest.post(url, data, headers));
+	}
+
+	@Override
+	public HTTPResponse post(String url, InputStream stream) throws IOException {
+		return invalidating(url, httpRequest.post(url, stream));
+	}
+
+	@Override
+	public HTTPResponse post(String url, Map properties) throws IOException {
+		return invalidating(url, httpRequest.post(url, properties));
+	}
+
+	@Override
+	public HTTPResponse post(String url, byte[] data) throws IOException {
+		return invalidating(url, httpRequest.post(url, data));
+	}
+
+	@Override
+	public HTTPResponse postMultipart(String url, Map parameters) throws IOException {
+		return invalidating(url, httpRequest.postMultipart(url, parameters));
+	}
+
+	@Override
+	public HTTPResponse put(String url, String data) throws IOException {
+		return invalidating(url, httpRequest.put(url, data));
+	}
+
+	@Override
+	public HTTPResponse put(String url, String data, Map headers) throws IOException {
+		return invalidating(url, httpRequest.put(url, data, headers));
+	}
+
+	@Override
+	public HTTPResponse put(String url, InputStream stream) throws IOException {
+		return invalidating(url, httpRequest.put(url, stream));
+	}
+
+	@Override
+	public HTTPResponse delete(String url) throws IOException {
+		return invalidating(url, httpRequest.delete(url));
+	}
+
+	@Override
+	public HTTPResponse put(String url, Map properties) throws IOException {
+		return invalidating(url, httpRequest.put(url, properties));
+	}
+
+	@Override
+	public HTTPResponse head(String url) throws IOException {
+		return httpRequest.head(url);
+	}
+
+	/**
+	 * Remove all cached responses for url.
+	 *
+	 * @param url
+	 */
+	public synchronized void invalidate(String url) {
+		varyByUrl.remove(url);
+		for (Iterator<Entry<String, CacheEntry>> i = entries.entrySet().iterator(); i.hasNext();) {
+			Entry<String, CacheEntry> e = i.next();
+			if (e.getKey().equals(url) || e.getKey().startsWith(url + '\0')) {
+				size -= e.getValue().size;
+				i.remove();
+			}
+		}
+	}
+
+	/**
+	 * Remove all cached responses.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		varyByUrl.clear();
+		size = 0;
+	}
+
+	/**
+	 * @return bytes held by cached responses
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return number of cached responses
+	 */
+	public synchronized int getEntryCount() {
+		return entries.size();
+	}
+
+	/**
+	 * @return number of requests served without contacting the server
+	 */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * @return number of requests sent to the server, including revalidations
+	 */
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	private HTTPResponse send(String url, Map<String, String> headers) throws IOException {
+		return headers == null ? httpRequest.get(url) : httpRequest.get(url, headers);
+	}
+
+	private HTTPResponse invalidating(String url, HTTPResponse response) throws IOException {
+		int status = response.getStatusCode();
+		if (status >= 200 && status < 400)
+			invalidate(url);
+
+		return response;
+	}
+
+	private synchronized void discard(String key) {
+		CacheEntry old = entries.remove(key);
+		if (old != null)
+			size -= old.size;
+	}
+
+	private void store(String key, CacheEntry entry) {
+		CacheEntry old = entries.remove(key);
+		if (old != null)
+			size -= old.size;
+
+		if (entry.size > maxBytes)
+			return;
+
+		entries.put(key, entry);
+		size += entry.size;
+
+		for (Iterator<CacheEntry> i = entries.values().iterator(); size > maxBytes && i.hasNext();) {
+			size -= i.next().size;
+			i.remove();
+		}
+	}
+
+	/**
+	 * @return true if the response may be stored, RFC 7234 section 3.
+	 */
+	private static boolean isCacheable(int status, HTTPResponse response) {
+		if (status != HttpURLConnection.HTTP_OK && status != HttpURLConnection.HTTP_NOT_AUTHORITATIVE
+				&& status != HttpURLConnection.HTTP_MULT_CHOICE && status != HttpURLConnection.HTTP_MOVED_PERM)
+			return false;
+
+		Map<String, List<String>> headers = response.getHeaderFields();
+		if (hasDirective(headers, "Cache-Control", "no-store"))
+			return false;
+
+		// Without explicit freshness or a validator the response could never be served.
+		return getDirective(headers, "Cache-Control", "max-age") != null || getHeader(headers, "Expires") != null
+				|| getHeader(headers, "ETag") != null || getHeader(headers, "Last-Modified") != null;
+	}
+
+	private static String variantKey(String url, String[] vary, Map<String, String> requestHeaders) {
+		if (vary == null || vary.length == 0)
+			return url;
+
+		StringBuilder sb = new StringBuilder(url);
+		for (int i = 0; i < vary.length; ++i) {
+			String value = null;
+			if (requestHeaders != null)
+				for (Entry<String, String> e : requestHeaders.entrySet())
+					if (e.getKey() != null && e.getKey().equalsIgnoreCase(vary[i]))
+						value = e.getValue();
+			sb.append('\0').append(vary[i].toLowerCase(Locale.US)).append('=');
+			if (value != null)
+				sb.append(value.trim());
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * Read is to the end, unless it holds more than limit bytes.  The stream is closed if reading fails.
+	 *
+	 * @return the whole content, or the first bytes read once there were more than limit
+	 */
+	private static byte[] readAtMost(InputStream is, long limit) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		byte[] buff = new byte[8192];
+		int read;
+		boolean done = false;
+		try {
+			while (os.size() <= limit && (read = is.read(buff)) != -1)
+				os.write(buff, 0, read);
+			done = true;
+		} finally {
+			if (!done)
+				is.close();
+		}
+		return os.toByteArray();
+	}
+
+	private static String getHeader(Map<String, List<String>> headers, String key) {
+		if (headers == null)
+			return null;
+
+		for (Entry<String, List<String>> e : headers.entrySet())
+			if (e.getKey() != null && e.getKey().equalsIgnoreCase(key) && !e.getValue().isEmpty())
+				return e.getValue().get(0);
+
+		return null;
+	}
+
+	/**
+	 * @return value of directive in a comma separated header such as Cache-Control, empty if it has no value, or null if absent
+	 */
+	private static String getDirective(Map<String, List<String>> headers, String key, String directive) {
+		if (headers == null)
+			return null;
+
+		for (Entry<String, List<String>> e : headers.entrySet()) {
+			if (e.getKey() == null || !e.getKey().equalsIgnoreCase(key))
+				continue;
+			for (String value : e.getValue()) {
+				String[] elems = value.split(",");
+				for (int i = 0; i < elems.length; ++i) {
+					String d = elems[i].trim();
+					int eq = d.indexOf('=');
+					String name = eq == -1 ? d : d.substring(0, eq).trim();
+					if (name.equalsIgnoreCase(directive))
+						return eq == -1 ? "" : unquote(d.substring(eq + 1).trim());
+				}
+			}
+		}
+
+		return null;
+	}
+
+	private static boolean hasDirective(Map<String, List<String>> headers, String key, String directive) {
+		return getDirective(headers, key, directive) != null;
+	}
+
+	private static boolean requestHasDirective(Map<String, String> headers, String key, String directive) {
+		if (headers == null)
+			return false;
+
+		for (Entry<String, String> e : headers.entrySet()) {
+			if (e.getKey() != null && e.getKey().equalsIgnoreCase(key) && e.getValue() != null) {
+				String[] elems = e.getValue().split(",");
+				for (int i = 0; i < elems.length; ++i)
+					if (elems[i].trim().equalsIgnoreCase(directive))
+						return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static String unquote(String s) {
+		if (s.length() >= 2 && s.charAt(0) == '"' && s.charAt(s.length() - 1) == '"')
+			return s.substring(1, s.length() - 1);
+		return s;
+	}
+
+	/**
+	 * @return millis since the epoch, or -1 if date is missing or invalid
+	 */
+	static long parseDate(String date) {
+		if (date == null)
+			return -1;
+
+		for (int i = 0; i < DATE_FORMATS.length; ++i) {
+			SimpleDateFormat f = new SimpleDateFormat(DATE_FORMATS[i], Locale.US);
+			f.setTimeZone(TimeZone.getTimeZone("GMT"));
+			try {
+				Date d = f.parse(date.trim());
+				return d.getTime();
+			} catch (ParseException e) {
+				//Ignore
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * @return value as a number, or -1 if it is missing or invalid
+	 */
+	private static long parseLong(String value) {
+		if (value == null)
+			return -1;
+
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * A stored response.  Mutated only while holding the cache lock.
+	 */
+	private static class CacheEntry {
+		private final byte[] body;
+		private final long size;
+		private HeaderList headers;
+		private String etag;
+		private String lastModified;
+		private long freshnessLifetime;
+		private long correctedInitialAge;
+		private long responseTime;
+		private boolean noCache;
+
+		CacheEntry(Map<String, List<String>> responseHeaders, byte[] body, long requestTime, long responseTime) {
+			this.body = body;
+			setHeaders(HeaderList.fromMap(responseHeaders), requestTime, responseTime);
+
+			long headerSize = 0;
+			for (int i = 0; i < headers.size(); ++i)
+				headerSize += (headers.getKey(i) == null ? 0 : headers.getKey(i).length()) + headers.getValue(i).length() + 4;
+			size = body.length + headerSize;
+		}
+
+		boolean hasValidator() {
+			return etag != null || lastModified != null;
+		}
+
+		/**
+		 * @return the Vary field names, empty if the response doesn't vary, or null for Vary: *
+		 */
+		String[] getVary() {
+			String vary = null;
+			for (int i = 1; i < headers.size(); ++i) {
+				if (headers.getKey(i).equalsIgnoreCase("Vary"))
+					vary = vary == null ? headers.getValue(i) : vary + "," + headers.getValue(i);
+			}
+
+			if (vary == null || vary.trim().length() == 0)
+				return new String[0];
+			if (vary.trim().equals("*"))
+				return null;
+
+			String[] names = vary.split(",");
+			for (int i = 0; i < names.length; ++i)
+				names[i] = names[i].trim();
+			return names;
+		}
+
+		boolean isFresh(long now) {
+			return !noCache && freshnessLifetime > currentAge(now);
+		}
+
+		/**
+		 * Apply the headers of a 304 response.
+		 */
+		void revalidated(Map<String, List<String>> notModifiedHeaders, long requestTime, long responseTime) {
+			HeaderList update = HeaderList.fromMap(notModifiedHeaders);
+			HeaderList merged = new HeaderList();
+			merged.add(null, headers.getValue(0));
+			for (int i = 1; i < headers.size(); ++i)
+				if (!isUpdated(headers.getKey(i), update))
+					merged.add(headers.getKey(i), headers.getValue(i));
+			for (int i = 1; i < update.size(); ++i)
+				if (isUpdated(update.getKey(i), update))
+					merged.add(update.getKey(i), update.getValue(i));
+
+			setHeaders(merged, requestTime, responseTime);
+		}
+
+		HTTPResponse toResponse(String url) throws IOException {
+			HeaderList h = new HeaderList();
+			for (int i = 0; i < headers.size(); ++i)
+				if (headers.getKey(i) == null || !headers.getKey(i).equalsIgnoreCase("Age"))
+					h.add(headers.getKey(i), headers.getValue(i));
+			h.add("Age", Long.toString(currentAge(System.currentTimeMillis()) / 1000));
+
+			return new HTTPResponse(new ResponseURLConnection(new URL(url), "GET", h, new ByteArrayInputStream(body)));
+		}
+
+		/**
+		 * RFC 7234 4.2.3
+		 */
+		private long currentAge(long now) {
+			return correctedInitialAge + (now - responseTime);
+		}
+
+		private void setHeaders(HeaderList headers, long requestTime, long responseTime) {
+			this.headers = headers;
+			this.responseTime = responseTime;
+
+			Map<String, List<String>> map = headers.toMap();
+			etag = getHeader(map, "ETag");
+			lastModified = getHeader(map, "Last-Modified");
+			noCache = hasDirective(map, "Cache-Control", "no-cache") || hasDirective(map, "Pragma", "no-cache");
+
+			long date = parseDate(getHeader(map, "Date"));
+			if (date == -1)
+				date = responseTime;
+
+			long apparentAge = Math.max(0, responseTime - date);
+			long ageValue = Math.max(0, parseLong(getHeader(map, "Age"))) * 1000;
+			correctedInitialAge = Math.max(apparentAge, ageValue + (responseTime - requestTime));
+
+			long maxAge = parseLong(getDirective(map, "Cache-Control", "max-age"));
+			String expiresHeader = getHeader(map, "Expires");
+			long lm = parseDate(lastModified);
+			if (maxAge >= 0) {
+				freshnessLifetime = maxAge * 1000;
+			} else if (expiresHeader != null) {
+				// An invalid Expires, such as 0, means already expired.
+				long expires = parseDate(expiresHeader);
+				freshnessLifetime = expires == -1 ? 0 : Math.max(0, expires - date);
+			} else if (lm != -1) {
+				// Heuristic freshness, RFC 7234 4.2.2.
+				freshnessLifetime = Math.max(0, (date - lm) / 10);
+			} else {
+				freshnessLifetime = 0;
+			}
+		}
+
+		private static boolean isUpdated(String key, HeaderList update) {
+			if (key == null)
+				return false;
+
+			for (int i = 0; i < NOT_UPDATED_HEADERS.length; ++i)
+				if (NOT_UPDATED_HEADERS[i].equalsIgnoreCase(key))
+					return false;
+
+			return update.get(key) != null;
+		}
+	}
+}
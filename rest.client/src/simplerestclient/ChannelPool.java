@@ -0,0 +1,151 @@
+package simplerestclient;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Default IChannelPool.  Keeps up to a fixed number of idle channels per host and reuses the most
+ * recently used first, so surplus channels expire.
+ *
+ * @author kgilmer
+ *
+ */
+public class ChannelPool implements IChannelPool {
+	/**
+	 * Default maximum idle channels per host for each event loop.
+	 */
+	public static final int DEFAULT_MAX_IDLE_PER_HOST = 32;
+
+	private final int maxIdlePerHost;
+	private final Map<String, LinkedList<Entry>> idle = new HashMap<String, LinkedList<Entry>>();
+
+	/**
+	 * @return a factory creating pools that keep up to maxIdlePerHost channels per host
+	 */
+	public static IChannelPool.Factory factory(final int maxIdlePerHost) {
+		return new IChannelPool.Factory() {
+			public IChannelPool createPool() {
+				return new ChannelPool(maxIdlePerHost);
+			}
+		};
+	}
+
+	public ChannelPool() {
+		this(DEFAULT_MAX_IDLE_PER_HOST);
+	}
+
+	/**
+	 * @param maxIdlePerHost idle channels kept per host, 0 disables reuse
+	 */
+	public ChannelPool(int maxIdlePerHost) {
+		this.maxIdlePerHost = maxIdlePerHost;
+	}
+
+	public SocketChannel acquire(String key) {
+		LinkedList<Entry> l = idle.get(key);
+		if (l == null)
+			return null;
+
+		long now = System.currentTimeMillis();
+		SocketChannel channel = null;
+		while (!l.isEmpty()) {
+			Entry e = l.removeFirst();
+			if (e.expires > now && e.channel.isOpen()) {
+				channel = e.channel;
+				break;
+			}
+			close(e.channel);
+		}
+
+		if (l.isEmpty())
+			idle.remove(key);
+
+		return channel;
+	}
+
+	public boolean release(String key, SocketChannel channel, long expires) {
+		LinkedList<Entry> l = idle.get(key);
+		if (l == null) {
+			if (maxIdlePerHost < 1)
+				return false;
+			l = new LinkedList<Entry>();
+			idle.put(key, l);
+		} else if (l.size() >= maxIdlePerHost) {
+			return false;
+		}
+
+		l.addFirst(new Entry(channel, expires));
+		return true;
+	}
+
+	public void remove(String key, SocketChannel channel) {
+		LinkedList<Entry> l = idle.get(key);
+		if (l == null)
+			return;
+
+		for (Iterator<Entry> i = l.iterator(); i.hasNext();) {
+			if (i.next().channel == channel) {
+				i.remove();
+				break;
+			}
+		}
+
+		if (l.isEmpty())
+			idle.remove(key);
+	}
+
+	public void evictExpired(long now) {
+		for (Iterator<LinkedList<Entry>> i = idle.values().iterator(); i.hasNext();) {
+			LinkedList<Entry> l = i.next();
+			for (Iterator<Entry> j = l.iterator(); j.hasNext();) {
+				Entry e = j.next();
+				if (now >= e.expires) {
+					j.remove();
+					close(e.channel);
+				}
+			}
+			if (l.isEmpty())
+				i.remove();
+		}
+	}
+
+	public void close() {
+		for (LinkedList<Entry> l : idle.values())
+			for (Entry e : l)
+				close(e.channel);
+		idle.clear();
+	}
+
+	/**
+	 * @return number of idle channels held
+	 */
+	public int getIdleCount() {
+		int count = 0;
+		for (LinkedList<Entry> l : idle.values())
+			count += l.size();
+
+		return count;
+	}
+
+	private static void close(SocketChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			//Ignore
+		}
+	}
+
+	private static class Entry {
+		final SocketChannel channel;
+		final long expires;
+
+		Entry(SocketChannel channel, long expires) {
+			this.channel = channel;
+			this.expires = expires;
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package simplerestclient;
+
+import java.io.IOException;
+
+/**
+ * Thrown by ConcurrencyLimitedHTTPRequest when a request is refused because its destination
+ * already has as many requests in flight as its limit allows.
+ *
+ * @author kgilmer
+ *
+ */
+public class ConcurrencyLimitException extends IOException {
+	private static final long serialVersionUID = 3870329160428614582L;
+	private final String key;
+	private final int limit;
+
+	public ConcurrencyLimitException(String key, int limit) {
+		super("Concurrency limit of " + limit + " reached for " + key + ".");
+		this.key = key;
+		this.limit = limit;
+	}
+
+	/**
+	 * @return destination key of the refused request
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * @return limit when the request was refused
+	 */
+	public int getLimit() {
+		return limit;
+	}
+}
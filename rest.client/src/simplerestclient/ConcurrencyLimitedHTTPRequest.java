@@ -0,0 +1,587 @@
+package simplerestclient;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An IHTTPRequest that caps the requests in flight to each destination, by default each host, with
+ * a limit that adapts to the latency and failures it observes, so that a degrading destination
+ * does not tie up every calling thread.
+ *
+ * A request over the limit waits up to maxWaitMillis for another to complete, and is then refused
+ * with a ConcurrencyLimitException.  With a wait of 0 requests are refused at once.
+ *
+ * IHTTPRequest req = new ConcurrencyLimitedHTTPRequest(new IConcurrencyLimit.Factory() {
+ *     public IConcurrencyLimit create(String key) {
+ *         return new GradientLimit(10, 200);
+ *     }
+ * }, new HTTPRequest());
+ *
+ * Failures with a 429 or 503 HTTPException, and socket timeouts, count as drops; other failures
+ * count as ordinary samples.
+ *
+ * A request stays in flight until its response body has been read to the end or closed, and its
+ * latency is measured up to then, so callers must consume or close() every response.  Error
+ * responses and responses without a body complete when they are returned.
+ *
+ * Destinations with nothing in flight that are not used for the idle timeout are dropped, along
+ * with what their limit has learned.
+ *
+ * @author kgilmer
+ *
+ */
+public class ConcurrencyLimitedHTTPRequest implements IHTTPRequest {
+	private static final int TOO_MANY_REQUESTS = 429;
+
+	private final KeyedRateLimiter.KeyFunction keyFunction;
+	private final IConcurrencyLimit.Factory factory;
+	private final IHTTPRequest httpRequest;
+	private final long maxWaitNanos;
+	private final long idleTimeoutNanos;
+	private final ConcurrentMap<String, Destination> destinations = new ConcurrentHashMap<String, Destination>();
+	private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+
+	/**
+	 * Limit each host, refusing requests over the limit at once.
+	 *
+	 * @param factory creates the limit of each host
+	 * @param httpRequest requests are sent with
+	 */
+	public ConcurrencyLimitedHTTPRequest(IConcurrencyLimit.Factory factory, IHTTPRequest httpRequest) {
+		this(KeyedRateLimiter.HOST, factory, httpRequest, 0);
+	}
+
+	/**
+	 * @param keyFunction maps request URLs to the destinations limited separately
+	 * @param factory creates the limit of each destination
+	 * @param httpRequest requests are sent with
+	 * @param maxWaitMillis time a request over the limit may wait for a slot
+	 */
+	public ConcurrencyLimitedHTTPRequest(KeyedRateLimiter.KeyFunction keyFunction, IConcurrencyLimit.Factory factory, IHTTPRequest httpRequest, long maxWaitMillis) {
+		this(keyFunction, factory, httpRequest, maxWaitMillis, KeyedRateLimiter.DEFAULT_IDLE_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * @param keyFunction maps request URLs to the destinations limited separately
+	 * @param factory creates the limit of each destination
+	 * @param httpRequest requests are sent with
+	 * @param maxWaitMillis time a request over the limit may wait for a slot
+	 * @param idleTimeoutMillis destinations idle for this long are dropped
+	 */
+	public ConcurrencyLimitedHTTPRequest(KeyedRateLimiter.KeyFunction keyFunction, IConcurrencyLimit.Factory factory, IHTTPRequest httpRequest, long maxWaitMillis, long idleTimeoutMillis) {
+		if (keyFunction == null || factory == null || httpRequest == null)
+			throw new IllegalArgumentException("keyFunction, factory and httpRequest must not be null.");
+		if (maxWaitMillis < 0)
+			throw new IllegalArgumentException("maxWaitMillis must not be negative.");
+		if (idleTimeoutMillis < 1)
+			throw new IllegalArgumentException("idleTimeoutMillis must be positive.");
+
+		this.keyFunction = keyFunction;
+		this.factory = factory;
+		this.httpRequest = httpRequest;
+		this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+		this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+	}
+
+	/**
+	 * @param url
+	 * @return current limit of the destination of url
+	 */
+	public int getLimit(String url) {
+		return getDestination(url).limit.getLimit();
+	}
+
+	/**
+	 * @param url
+	 * @return requests in flight to the destination of url
+	 */
+	public int getInFlight(String url) {
+		return getDestination(url).getInFlight();
+	}
+
+	/**
+	 * @return number of destinations with a limit
+	 */
+	public int getDestinationCount() {
+		return destinations.size();
+	}
+
+	/**
+	 * Drop destinations with nothing in flight that were not used for the idle timeout.  Called as
+	 * requests are made, at most once per half timeout.
+	 */
+	public void evictIdle() {
+		long now = System.nanoTime();
+		lastSweep.set(now);
+		sweep(now);
+	}
+
+	/* (non-Javadoc)
+	 * @see simplerestclient.IHTTPRequest#get(java.lang.String)
+	 */
+	@Override
+	public HTTPResponse get(String url) throws IOException {
+		Destination d = acquire(url);
+		long start = System.nanoTime();
+		try {
+			return d.received(start, url, "GET", httpRequest.get(url));
+		} catch (IOException e) {
+			throw d.failed(start, e);
+		} finally {
+			d.release();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see simplerestclient.IHTTPRequest#get(java.lang.String, java.util.Map)
+	 */
+	@Override
+	public HTTPResponse get(String url, Map<String, String> headers) throws IOException {
+		Destination d = acquire(url);
+		long start = System.nanoTime();
+		try {
+			return d.received(start, url, "GET", httpRequest.get(url, headers));
+		} catch (IOException e) {
+			throw d.failed(start, e);
+		} finally {
+			d.release();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see simplerestclient.IHTTPRequest#post(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public HTTPResponse post(String url, String data) throws IOException {
+		Destination d = acquire(url);
+		long start = System.nanoTime();
+		try {
+			return d.received(start, url, "POST", httpRequest.post(url, data));
+		} catch (IOException e) {
+			throw d.failed(start, e);
+		} finally {
+			d.release();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see simplerestclient.IHTTPRequest#post(java.lang.String, java.lang.String, java.util.Map)
+	 */
+	@Override
+	public HTTPResponse post(String url, String data, Map headers) throws IOException {
+		Destination d = acquire(url);
+		long start = System.nanoTime();
+		try {
+			return d.received(start, url, "POST", httpRequest.post(url, data, headers));
+		} catch (IOException e) {
+			throw d.failed(start, e);
+		} finally {
+			d.release();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see simplerestclient.IHTTPRequest#post(java.lang.String, java.io.InputStream)
+	 */
+	@Override
+	public HTTPResponse post(String url, InputStream stream) throws IOException {
+		Destination d = acquire(url);
+		long start = System.nanoTime();
+		try {
+			return d.received(start, url, "POST", httpRequest.post(url, stream));
+		} catch (IOException e) {
+			throw d.failed(start, e);
+		} finally {
+			d.release();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see simplerestclient.IHTTPRequest#post(java.lang.String, java.util.Map)
+	 */
+	@Override
+	public HTTPResponse post(String url, Map properties) throws IOException {
+		Destination d = acquire(url);
+		long start = System.nanoTime();
+		try {
+			return d.received(start, url, "POST", httpRequest.post(url, properties));
+		} catch (IOException e) {
+			throw d.failed(start, e);
+		} finally {
+			d.release();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see simplerestclient.IHTTPRequest#post(java.lang.String, byte[])
+	 */
+	@Override
+	public HTTPResponse post(String url, byte[] data) throws IOException {
+		Destination d = acquire(url);
+		long start = System.nanoTime();
+		try {
+			return d.received(start, url, "POST", httpRequest.post(url, data));
+		} catch (IOException e) {
+			throw d.failed(start, e);
+		} finally {
+			d.release();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see simplerestclient.IHTTPRequest#postMultipart(java.lang.String, java.util.Map)
+	 */
+	@Override
+	public HTTPResponse postMultipart(String url, Map parameters) throws IOException {
+		Destination d = acquire(url);
+		long start = System.nanoTime();
+		try {
+			return d.received(start, url, "POST", httpRequest.postMultipart(url, parameters));
+		} catch (IOException e) {
+			throw d.failed(start, e);
+		} finally {
+			d.release();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see simplerestclient.IHTTPRequest#put(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public HTTPResponse put(String url, String data) throws IOException {
+		Destination d = acquire(url);
+		long start = System.nanoTime();
+		try {
+			return d.received(start, url, "PUT", httpRequest.put(url, data));
+		} catch (IOException e) {
+			throw d.failed(start, e);
+		} finally {
+			d.release();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see simplerestclient.IHTTPRequest#put(java.lang.String, java.lang.String, java.util.Map)
+	 */
+	@Override
+	public HTTPResponse put(String url, String data, Map headers) throws IOException {
+		Destination d = acquire(url);
+		long start = System.nanoTime();
+		try {
+			return d.received(start, url, "PUT", httpRequest.put(url, data, headers));
+		} catch (IOException e) {
+			throw d.failed(start, e);
+		} finally {
+			d.release();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see simplerestclient.IHTTPRequest#put(java.lang.String, java.io.InputStream)
+	 */
+	@Override
+	public HTTPResponse put(String url, InputStream stream) throws IOException {
+		Destination d = acquire(url);
+		long start = System.nanoTime();
+		try {
+			return d.received(start, url, "PUT", httpRequest.put(url, stream));
+		} catch (IOException e) {
+			throw d.failed(start, e);
+		} finally {
+			d.release();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see simplerestclient.IHTTPRequest#put(java.lang.String, java.util.Map)
+	 */
+	@Override
+	public HTTPResponse put(String url, Map properties) throws IOException {
+		Destination d = acquire(url);
+		long start = System.nanoTime();
+		try {
+			return d.received(start, url, "PUT", httpRequest.put(url, properties));
+		} catch (IOException e) {
+			throw d.failed(start, e);
+		} finally {
+			d.release();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see simplerestclient.IHTTPRequest#delete(java.lang.String)
+	 */
+	@Override
+	public HTTPResponse delete(String url) throws IOException {
+		Destination d = acquire(url);
+		long start = System.nanoTime();
+		try {
+			return d.received(start, url, "DELETE", httpRequest.delete(url));
+		} catch (IOException e) {
+			throw d.failed(start, e);
+		} finally {
+			d.release();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see simplerestclient.IHTTPRequest#head(java.lang.String)
+	 */
+	@Override
+	public HTTPResponse head(String url) throws IOException {
+		Destination d = acquire(url);
+		long start = System.nanoTime();
+		try {
+			return d.received(start, url, "HEAD", httpRequest.head(url));
+		} catch (IOException e) {
+			throw d.failed(start, e);
+		} finally {
+			d.release();
+		}
+	}
+
+	/**
+	 * Take a slot for url, waiting up to maxWait; release() must follow.
+	 */
+	private Destination acquire(String url) throws IOException {
+		long now = System.nanoTime();
+		evictIdle(now);
+
+		while (true) {
+			Destination d = getDestination(url);
+			int result;
+			try {
+				result = d.acquire(maxWaitNanos);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted waiting for a request slot.");
+			}
+
+			if (result == Destination.ACQUIRED)
+				return d;
+			if (result == Destination.REFUSED)
+				throw new ConcurrencyLimitException(d.key, d.limit.getLimit());
+			// Evicted since it was looked up; make sure it is gone and look again.
+			destinations.remove(d.key, d);
+		}
+	}
+
+	private void evictIdle(long now) {
+		long last = lastSweep.get();
+		if (now - last < idleTimeoutNanos / 2 || !lastSweep.compareAndSet(last, now))
+			return;
+
+		sweep(now);
+	}
+
+	private void sweep(long now) {
+		for (Iterator<Destination> i = destinations.values().iterator(); i.hasNext();) {
+			if (i.next().evictIfIdle(now, idleTimeoutNanos))
+				i.remove();
+		}
+	}
+
+	private Destination getDestination(String url) {
+		String key = keyFunction.getKey(url);
+		Destination d = destinations.get(key);
+		if (d == null) {
+			Destination created = new Destination(key, factory.create(key));
+			d = destinations.putIfAbsent(key, created);
+			if (d == null)
+				d = created;
+		}
+
+		return d;
+	}
+
+	private static boolean isDrop(int status) {
+		return status == TOO_MANY_REQUESTS || status == HttpURLConnection.HTTP_UNAVAILABLE;
+	}
+
+	private static boolean hasBody(String method, int status, HTTPResponse response) {
+		return HTTPProtocol.hasBody(method, status) && !"0".equals(response.getHeaderField("Content-Length"));
+	}
+
+	/**
+	 * Response body that takes the sample and releases the slot of its request once read to the
+	 * end, failed or closed.
+	 */
+	private static class Body extends FilterInputStream {
+		private final Destination destination;
+		private final long start;
+		private boolean done;
+
+		Body(InputStream in, Destination destination, long start) {
+			super(in);
+			this.destination = destination;
+			this.start = start;
+		}
+
+		@Override
+		public int read() throws IOException {
+			try {
+				int r = super.read();
+				if (r == -1)
+					complete(false);
+				return r;
+			} catch (IOException e) {
+				complete(e instanceof SocketTimeoutException);
+				throw e;
+			}
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			try {
+				int r = super.read(b, off, len);
+				if (r == -1)
+					complete(false);
+				return r;
+			} catch (IOException e) {
+				complete(e instanceof SocketTimeoutException);
+				throw e;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				complete(false);
+			}
+		}
+
+		private synchronized void complete(boolean dropped) {
+			if (done)
+				return;
+			done = true;
+
+			destination.completed(start, dropped);
+			destination.release();
+		}
+	}
+
+	private static class Destination {
+		static final int ACQUIRED = 0;
+		static final int REFUSED = 1;
+		static final int EVICTED = 2;
+
+		final String key;
+		final IConcurrencyLimit limit;
+		private int inFlight;
+		private long lastUsed = System.nanoTime();
+		private boolean evicted;
+
+		Destination(String key, IConcurrencyLimit limit) {
+			this.key = key;
+			this.limit = limit;
+		}
+
+		/**
+		 * @return ACQUIRED, REFUSED if no slot came free within maxWaitNanos, or EVICTED if this
+		 * destination was dropped and must be looked up again
+		 */
+		synchronized int acquire(long maxWaitNanos) throws InterruptedException {
+			if (evicted)
+				return EVICTED;
+
+			long deadline = System.nanoTime() + maxWaitNanos;
+			while (inFlight >= Math.max(1, limit.getLimit())) {
+				long wait = deadline - System.nanoTime();
+				if (wait <= 0)
+					return REFUSED;
+				TimeUnit.NANOSECONDS.timedWait(this, wait);
+			}
+
+			inFlight++;
+			lastUsed = System.nanoTime();
+			return ACQUIRED;
+		}
+
+		/**
+		 * Count a request whose slot is kept past its call, until the matching release().
+		 */
+		synchronized void hold() {
+			inFlight++;
+		}
+
+		synchronized void release() {
+			inFlight--;
+			lastUsed = System.nanoTime();
+			// The limit may have grown, so wake every waiter.
+			notifyAll();
+		}
+
+		/**
+		 * Mark this destination evicted if nothing is in flight and it was last used before the idle
+		 * timeout.  Once marked it is never used again.
+		 *
+		 * @return true if marked
+		 */
+		synchronized boolean evictIfIdle(long now, long idleTimeoutNanos) {
+			if (inFlight == 0 && now - lastUsed > idleTimeoutNanos)
+				evicted = true;
+			return evicted;
+		}
+
+		synchronized int getInFlight() {
+			return inFlight;
+		}
+
+		/**
+		 * Take the sample of a response now, or once its body has been read or closed.  In that case
+		 * the request stays in flight, through hold(), after its call returns.
+		 */
+		HTTPResponse received(long start, String url, String method, HTTPResponse response) throws IOException {
+			if (response == null) {
+				completed(start, false);
+				return null;
+			}
+
+			int status;
+			try {
+				status = response.getStatusCode();
+			} catch (IOException e) {
+				completed(start, false);
+				return response;
+			}
+
+			if (status >= 400 || !hasBody(method, status, response)) {
+				completed(start, isDrop(status));
+				return response;
+			}
+
+			InputStream body = response.getInputStream();
+			if (body == null) {
+				completed(start, false);
+				return response;
+			}
+
+			hold();
+			return new HTTPResponse(new ResponseURLConnection(new URL(url), method, HeaderList.fromMap(response.getHeaderFields()),
+					new Body(body, this, start)));
+		}
+
+		void completed(long start, boolean dropped) {
+			limit.onSample(System.nanoTime() - start, getInFlight(), dropped);
+		}
+
+		IOException failed(long start, IOException e) {
+			boolean dropped = e instanceof SocketTimeoutException || (e instanceof HTTPException && isDrop(((HTTPException) e).getErrorCode()));
+			limit.onSample(System.nanoTime() - start, getInFlight(), dropped);
+			return e;
+		}
+	}
+}
@@ -0,0 +1,446 @@
+package simplerestclient;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+import javax.net.SocketFactory;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * A pool of keep-alive sockets, kept idle per host (scheme, host and port) between requests.
+ *
+ * Limits the number of open sockets per host and in total.  Idle sockets are evicted once they
+ * exceed the idle timeout, and sockets that sat idle longer than the validation interval are
+ * checked before they are handed out again.
+ *
+ * Use with PooledConnectionProvider:
+ * HTTPRequest req = new HTTPRequest(new PooledConnectionProvider(new ConnectionPool(10, 100, 30000)));
+ *
+ * @author kgilmer
+ *
+ */
+public class ConnectionPool {
+	/**
+	 * Default maximum sockets per host, same as the JDK http.maxConnections default.
+	 */
+	public static final int DEFAULT_MAX_PER_HOST = 5;
+	/**
+	 * Default maximum sockets across all hosts.
+	 */
+	public static final int DEFAULT_MAX_TOTAL = 50;
+	/**
+	 * Default time in millis an idle socket is kept open.
+	 */
+	public static final long DEFAULT_IDLE_TIMEOUT = 30000;
+	/**
+	 * Default time in millis a socket may sit idle before it's validated on borrow.
+	 */
+	public static final long DEFAULT_VALIDATE_AFTER_INACTIVITY = 2000;
+
+	private static final Method SET_ENDPOINT_IDENTIFICATION = findEndpointIdentification();
+
+	private final int maxPerHost;
+	private final int maxTotal;
+	private final long idleTimeout;
+	private long validateAfterInactivity = DEFAULT_VALIDATE_AFTER_INACTIVITY;
+	private long maxWait = 0;
+	private SocketFactory socketFactory = SocketFactory.getDefault();
+	private SSLSocketFactory sslSocketFactory;
+
+	private final Map<String, HostPool> hosts = new HashMap<String, HostPool>();
+	private int total;
+	private long lastEviction;
+	private boolean closed;
+
+	public ConnectionPool() {
+		this(DEFAULT_MAX_PER_HOST, DEFAULT_MAX_TOTAL, DEFAULT_IDLE_TIMEOUT);
+	}
+
+	/**
+	 * @param maxPerHost maximum open sockets (leased and idle) per host
+	 * @param maxTotal maximum open sockets (leased and idle) across all hosts
+	 * @param idleTimeout millis an idle socket is kept before it is closed
+	 */
+	public ConnectionPool(int maxPerHost, int maxTotal, long idleTimeout) {
+		if (maxPerHost < 1 || maxTotal < 1)
+			throw new IllegalArgumentException("Pool limits must be positive.");
+
+		this.maxPerHost = maxPerHost;
+		this.maxTotal = maxTotal;
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * @param millis idle time after which a socket is checked for a peer close before reuse.  0 validates on every borrow.
+	 */
+	public synchronized void setValidateAfterInactivity(long millis) {
+		this.validateAfterInactivity = millis;
+	}
+
+	/**
+	 * @param millis maximum time to wait for a free socket when the pool is at its limits.  0 waits indefinitely.
+	 */
+	public synchronized void setMaxWait(long millis) {
+		this.maxWait = millis;
+	}
+
+	public synchronized void setSocketFactory(SocketFactory socketFactory) {
+		this.socketFactory = socketFactory;
+	}
+
+	public synchronized void setSSLSocketFactory(SSLSocketFactory sslSocketFactory) {
+		this.sslSocketFactory = sslSocketFactory;
+	}
+
+	/**
+	 * @return number of sockets currently in use by requests
+	 */
+	public synchronized int getLeasedCount() {
+		int leased = 0;
+		for (HostPool hp : hosts.values())
+			leased += hp.leased;
+
+		return leased;
+	}
+
+	/**
+	 * @return number of sockets idle in the pool
+	 */
+	public synchronized int getIdleCount() {
+		int idle = 0;
+		for (HostPool hp : hosts.values())
+			idle += hp.idle.size();
+
+		return idle;
+	}
+
+	/**
+	 * Close idle sockets that have passed their idle timeout or keep-alive expiry.
+	 *
+	 * @return number of sockets closed
+	 */
+	public synchronized int evictIdleConnections() {
+		long now = System.currentTimeMillis();
+		int evicted = 0;
+		lastEviction = now;
+
+		for (Iterator<HostPool> hi = hosts.values().iterator(); hi.hasNext();) {
+			HostPool hp = hi.next();
+			for (Iterator<PooledSocket> i = hp.idle.iterator(); i.hasNext();) {
+				PooledSocket ps = i.next();
+				if (isExpired(ps, now)) {
+					i.remove();
+					discard(ps);
+					evicted++;
+				}
+			}
+
+			if (hp.isEmpty())
+				hi.remove();
+		}
+
+		if (evicted > 0)
+			notifyAll();
+
+		return evicted;
+	}
+
+	/**
+	 * Close all idle sockets and refuse further borrows.  Leased sockets are closed as they are released.
+	 */
+	public synchronized void close() {
+		closed = true;
+		for (HostPool hp : hosts.values()) {
+			for (PooledSocket ps : hp.idle)
+				discard(ps);
+			hp.idle.clear();
+		}
+
+		notifyAll();
+	}
+
+	/**
+	 * Lease a socket for url, reusing an idle one when possible.
+	 *
+	 * @param url
+	 * @param connectTimeout millis, 0 for no timeout
+	 * @return leased socket, must be passed back to release()
+	 * @throws IOException
+	 */
+	PooledSocket borrow(URL url, int connectTimeout) throws IOException {
+		String key = getKey(url);
+		long deadline = 0;
+
+		for (;;) {
+			HostPool hp;
+			PooledSocket idle = null;
+
+			synchronized (this) {
+				long now = System.currentTimeMillis();
+				if (now - lastEviction > idleTimeout / 2)
+					evictIdleConnections();
+
+				if (deadline == 0 && maxWait > 0)
+					deadline = now + maxWait;
+				for (;;) {
+					if (closed)
+						throw new IOException("Connection pool is closed.");
+
+					hp = hosts.get(key);
+					if (hp == null) {
+						hp = new HostPool();
+						hosts.put(key, hp);
+					}
+
+					idle = takeIdle(hp, now);
+					if (idle != null) {
+						hp.leased++;
+						break;
+					}
+
+					if (hp.leased < maxPerHost && (total < maxTotal || closeOldestIdle())) {
+						// Reserve the slot and open the socket outside of the lock.
+						hp.leased++;
+						total++;
+						break;
+					}
+
+					long wait = 0;
+					if (deadline > 0) {
+						wait = deadline - System.currentTimeMillis();
+						if (wait <= 0)
+							throw new IOException("Timed out waiting for a pooled connection to " + key);
+					}
+
+					try {
+						wait(wait);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new IOException("Interrupted waiting for a pooled connection to " + key);
+					}
+					now = System.currentTimeMillis();
+				}
+			}
+
+			if (idle != null) {
+				// The probe blocks briefly, so the socket is validated after it has been leased.
+				if (System.currentTimeMillis() - idle.getLastUsed() < validateAfterInactivity || idle.isUsable())
+					return idle;
+
+				synchronized (this) {
+					hp.leased--;
+					discard(idle);
+					if (hp.isEmpty())
+						hosts.remove(key);
+					notifyAll();
+				}
+				continue;
+			}
+
+			try {
+				return new PooledSocket(key, openSocket(url, connectTimeout));
+			} catch (IOException e) {
+				synchronized (this) {
+					hp.leased--;
+					total--;
+					if (hp.isEmpty())
+						hosts.remove(key);
+					notifyAll();
+				}
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Return a leased socket.
+	 *
+	 * @param ps
+	 * @param reusable true if the socket is positioned at the start of the next response and may be kept alive.
+	 * @param keepAlive millis the server will keep the socket open, or -1 to use the pool idle timeout.
+	 */
+	synchronized void release(PooledSocket ps, boolean reusable, long keepAlive) {
+		HostPool hp = hosts.get(ps.getKey());
+		if (hp == null) {
+			// Not ours or already released.
+			ps.close();
+			return;
+		}
+		hp.leased--;
+
+		long timeout = idleTimeout;
+		if (keepAlive >= 0 && keepAlive < timeout)
+			timeout = keepAlive;
+
+		if (reusable && !closed && timeout > 0 && !ps.getSocket().isClosed()) {
+			ps.idle(System.currentTimeMillis() + timeout);
+			hp.idle.addFirst(ps);
+		} else {
+			discard(ps);
+			if (hp.isEmpty())
+				hosts.remove(ps.getKey());
+		}
+
+		notifyAll();
+	}
+
+	/**
+	 * Take the most recently used idle socket for host that has not expired.  It is not validated
+	 * here, so the probe does not hold up other borrowers.
+	 * Called with the pool lock held.
+	 */
+	private PooledSocket takeIdle(HostPool hp, long now) {
+		while (!hp.idle.isEmpty()) {
+			PooledSocket ps = hp.idle.removeFirst();
+			if (isExpired(ps, now)) {
+				discard(ps);
+				continue;
+			}
+
+			return ps;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Make room under the total limit by closing the least recently used idle socket of any host.
+	 * Called with the pool lock held.
+	 *
+	 * @return true if a socket was closed
+	 */
+	private boolean closeOldestIdle() {
+		HostPool oldestPool = null;
+		PooledSocket oldest = null;
+		for (HostPool hp : hosts.values()) {
+			if (!hp.idle.isEmpty()) {
+				PooledSocket ps = hp.idle.getLast();
+				if (oldest == null || ps.getLastUsed() < oldest.getLastUsed()) {
+					oldest = ps;
+					oldestPool = hp;
+				}
+			}
+		}
+
+		if (oldest == null)
+			return false;
+
+		oldestPool.idle.removeLast();
+		discard(oldest);
+		return true;
+	}
+
+	private boolean isExpired(PooledSocket ps, long now) {
+		return now >= ps.getExpires();
+	}
+
+	/**
+	 * Close a socket that is no longer idle or leased.  Called with the pool lock held.
+	 */
+	private void discard(PooledSocket ps) {
+		ps.close();
+		total--;
+	}
+
+	private Socket openSocket(URL url, int connectTimeout) throws IOException {
+		String host = url.getHost();
+		int port = getPort(url);
+
+		Socket socket;
+		if ("https".equalsIgnoreCase(url.getProtocol())) {
+			SSLSocketFactory sslf;
+			synchronized (this) {
+				if (sslSocketFactory == null)
+					sslSocketFactory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+				sslf = sslSocketFactory;
+			}
+			Socket plain = socketFactory.createSocket();
+			SSLSocket ssl = null;
+			try {
+				plain.connect(new InetSocketAddress(host, port), connectTimeout);
+				ssl = (SSLSocket) sslf.createSocket(plain, host, port, true);
+				boolean identified = requireEndpointIdentification(ssl);
+				ssl.startHandshake();
+				if (!identified && !HttpsURLConnection.getDefaultHostnameVerifier().verify(host, ssl.getSession()))
+					throw new SSLPeerUnverifiedException("Certificate does not match " + host + ".");
+				socket = ssl;
+			} catch (IOException e) {
+				if (ssl != null)
+					ssl.close();
+				plain.close();
+				throw e;
+			}
+		} else {
+			socket = socketFactory.createSocket();
+			try {
+				socket.connect(new InetSocketAddress(host, port), connectTimeout);
+			} catch (IOException e) {
+				socket.close();
+				throw e;
+			}
+		}
+
+		socket.setTcpNoDelay(true);
+		return socket;
+	}
+
+	/**
+	 * Have the handshake check the certificate against the host, as HttpsURLConnection does.  The
+	 * setting is only available from Java 7.  Before that the certificate is left to the default
+	 * HostnameVerifier, which refuses every host unless the application installed its own.
+	 *
+	 * @return false if the certificate must be checked after the handshake
+	 */
+	private static boolean requireEndpointIdentification(SSLSocket ssl) {
+		if (SET_ENDPOINT_IDENTIFICATION == null)
+			return false;
+
+		try {
+			SSLParameters params = ssl.getSSLParameters();
+			SET_ENDPOINT_IDENTIFICATION.invoke(params, "HTTPS");
+			ssl.setSSLParameters(params);
+			return true;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	private static Method findEndpointIdentification() {
+		try {
+			return SSLParameters.class.getMethod("setEndpointIdentificationAlgorithm", String.class);
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	static int getPort(URL url) {
+		return url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+	}
+
+	static String getKey(URL url) {
+		return url.getProtocol().toLowerCase() + "://" + url.getHost().toLowerCase() + ":" + getPort(url);
+	}
+
+	/**
+	 * Sockets for one host.  Idle sockets are ordered most recently used first.
+	 */
+	private static class HostPool {
+		final LinkedList<PooledSocket> idle = new LinkedList<PooledSocket>();
+		int leased;
+
+		boolean isEmpty() {
+			return leased == 0 && idle.isEmpty();
+		}
+	}
+}
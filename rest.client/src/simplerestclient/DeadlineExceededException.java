@@ -0,0 +1,18 @@
+package simplerestclient;
+
+import java.io.IOException;
+
+/**
+ * Thrown by RateLimitedHTTPRequest when a request's maximum queue wait would pass before it could
+ * be sent.  The request was not sent and took no permit.
+ *
+ * @author kgilmer
+ *
+ */
+public class DeadlineExceededException extends IOException {
+	private static final long serialVersionUID = -2274158230930318307L;
+
+	public DeadlineExceededException(String message) {
+		super(message);
+	}
+}
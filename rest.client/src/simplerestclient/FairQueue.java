@@ -0,0 +1,202 @@
+package simplerestclient;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Grants a turn to one caller at a time, choosing among waiting callers by deficit round robin
+ * over their caller classes, so a class that queues thousands of requests can not starve the
+ * others.
+ *
+ * Each class with waiters is visited in turn and serves up to its weight of callers, in arrival
+ * order, before the next class is visited; an idle class keeps no credit.  Classes not given a
+ * weight have weight 1.  With an interactive class of weight 10 and a bulk class of weight 1, a
+ * waiting interactive caller is at most one bulk turn from its own, and bulk callers get every
+ * turn that nobody else wants.
+ *
+ * RateLimitedHTTPRequest takes a turn for each permit, see RateLimitedHTTPRequest.forCallerClass().
+ *
+ * @author kgilmer
+ *
+ */
+public class FairQueue {
+	public static final String DEFAULT_CLASS = "default";
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Map<String, Flow> flows = new HashMap<String, Flow>();
+	private final LinkedList<Flow> active = new LinkedList<Flow>();
+	private boolean busy;
+
+	/**
+	 * @param callerClass
+	 * @param weight turns per round, at least 1
+	 */
+	public void setWeight(String callerClass, int weight) {
+		if (weight < 1)
+			throw new IllegalArgumentException("weight must be at least 1.");
+
+		lock.lock();
+		try {
+			getFlow(callerClass).weight = weight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @param callerClass
+	 * @return callers of callerClass waiting for a turn
+	 */
+	public int getQueueLength(String callerClass) {
+		lock.lock();
+		try {
+			Flow f = flows.get(callerClass);
+			return f == null ? 0 : f.waiters.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Wait for a turn; exit() must follow.
+	 *
+	 * @param callerClass
+	 * @throws InterruptedException if interrupted before the turn was granted
+	 */
+	public void enter(String callerClass) throws InterruptedException {
+		enter(callerClass, -1);
+	}
+
+	/**
+	 * Wait up to timeout for a turn; exit() must follow when true is returned.
+	 *
+	 * @param callerClass
+	 * @param timeout
+	 * @param unit
+	 * @return false if no turn was granted in time
+	 * @throws InterruptedException if interrupted before the turn was granted
+	 */
+	public boolean enter(String callerClass, long timeout, TimeUnit unit) throws InterruptedException {
+		return enter(callerClass, Math.max(0, unit.toNanos(timeout)));
+	}
+
+	/**
+	 * @param timeoutNanos negative to wait without limit
+	 */
+	private boolean enter(String callerClass, long timeoutNanos) throws InterruptedException {
+		lock.lock();
+		try {
+			if (!busy && active.isEmpty()) {
+				busy = true;
+				return true;
+			}
+			if (timeoutNanos == 0)
+				return false;
+
+			Flow f = getFlow(callerClass);
+			Waiter w = new Waiter(lock.newCondition());
+			if (f.waiters.isEmpty())
+				active.addLast(f);
+			f.waiters.addLast(w);
+
+			try {
+				long remaining = timeoutNanos;
+				while (!w.granted) {
+					if (timeoutNanos < 0) {
+						w.condition.await();
+					} else {
+						if (remaining <= 0) {
+							withdraw(f, w);
+							return false;
+						}
+						remaining = w.condition.awaitNanos(remaining);
+					}
+				}
+			} catch (InterruptedException e) {
+				if (w.granted) {
+					// Too late to withdraw, pass the turn on.
+					grantNext();
+				} else {
+					withdraw(f, w);
+				}
+				throw e;
+			}
+
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * End a turn, granting the next one.
+	 */
+	public void exit() {
+		lock.lock();
+		try {
+			grantNext();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void withdraw(Flow f, Waiter w) {
+		f.waiters.remove(w);
+		if (f.waiters.isEmpty()) {
+			active.remove(f);
+			f.deficit = 0;
+		}
+	}
+
+	private void grantNext() {
+		if (active.isEmpty()) {
+			busy = false;
+			return;
+		}
+
+		Flow f = active.getFirst();
+		if (f.deficit < 1)
+			f.deficit += f.weight;
+
+		Waiter w = f.waiters.removeFirst();
+		f.deficit--;
+		if (f.waiters.isEmpty()) {
+			active.removeFirst();
+			f.deficit = 0;
+		} else if (f.deficit < 1) {
+			active.addLast(active.removeFirst());
+		}
+
+		w.granted = true;
+		w.condition.signal();
+	}
+
+	private Flow getFlow(String callerClass) {
+		Flow f = flows.get(callerClass);
+		if (f == null) {
+			f = new Flow();
+			flows.put(callerClass, f);
+		}
+
+		return f;
+	}
+
+	private static class Flow {
+		final LinkedList<Waiter> waiters = new LinkedList<Waiter>();
+		int weight = 1;
+		int deficit;
+	}
+
+	private static class Waiter {
+		final Condition condition;
+		boolean granted;
+
+		Waiter(Condition condition) {
+			this.condition = condition;
+		}
+	}
+}
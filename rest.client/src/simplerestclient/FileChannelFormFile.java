@@ -0,0 +1,103 @@
+package simplerestclient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A multipart file part read from a region of a FileChannel as it is sent.  Reads are positional,
+ * so the channel's own position is left alone and the part can be sent more than once.  The
+ * channel is not closed.
+ *
+ * @author kgilmer
+ *
+ */
+public class FileChannelFormFile implements IStreamingFormFile {
+	private final FileChannel channel;
+	private final long position;
+	private final long length;
+	private final String filename;
+	private final String contentType;
+
+	/**
+	 * Send the whole file.
+	 *
+	 * @param filename
+	 * @param contentType
+	 * @param channel
+	 * @throws IOException
+	 */
+	public FileChannelFormFile(String filename, String contentType, FileChannel channel) throws IOException {
+		this(filename, contentType, channel, 0, channel.size());
+	}
+
+	/**
+	 * @param filename
+	 * @param contentType
+	 * @param channel
+	 * @param position first byte to send
+	 * @param length bytes to send
+	 */
+	public FileChannelFormFile(String filename, String contentType, FileChannel channel, long position, long length) {
+		if (position < 0 || length < 0)
+			throw new IllegalArgumentException("position and length must not be negative.");
+
+		this.filename = filename;
+		this.contentType = contentType;
+		this.channel = channel;
+		this.position = position;
+		this.length = length;
+	}
+
+	@Override
+	public String getFilename() {
+		return filename;
+	}
+
+	@Override
+	public String getContentType() {
+		return contentType;
+	}
+
+	@Override
+	public long getLength() {
+		return length;
+	}
+
+	@Override
+	public void writeTo(OutputStream out, byte[] buffer) throws IOException {
+		ByteBuffer bb = ByteBuffer.wrap(buffer);
+		long offset = position;
+		long remaining = length;
+		while (remaining > 0) {
+			bb.clear();
+			if (remaining < buffer.length)
+				bb.limit((int) remaining);
+
+			int read = channel.read(bb, offset);
+			if (read < 0)
+				throw new EOFException("File ended " + remaining + " bytes short.");
+
+			out.write(buffer, 0, read);
+			offset += read;
+			remaining -= read;
+		}
+	}
+
+	/**
+	 * Read the region into memory.
+	 */
+	@Override
+	public byte[] getBytes() {
+		try {
+			ByteArrayOutputStream os = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE, length));
+			writeTo(os, new byte[8192]);
+			return os.toByteArray();
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to read " + filename + ".", e);
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package simplerestclient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A multipart file part read from a file as it is sent.  The file is opened each time the part is
+ * written, so the part can be sent more than once.
+ *
+ * @author kgilmer
+ *
+ */
+public class FileFormFile implements IStreamingFormFile {
+	private final File file;
+	private final String filename;
+	private final String contentType;
+
+	/**
+	 * @param file
+	 * @param contentType
+	 */
+	public FileFormFile(File file, String contentType) {
+		this(file, file.getName(), contentType);
+	}
+
+	/**
+	 * @param file
+	 * @param filename name sent for the file
+	 * @param contentType
+	 */
+	public FileFormFile(File file, String filename, String contentType) {
+		this.file = file;
+		this.filename = filename;
+		this.contentType = contentType;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	public String getFilename() {
+		return filename;
+	}
+
+	@Override
+	public String getContentType() {
+		return contentType;
+	}
+
+	@Override
+	public long getLength() throws IOException {
+		if (!file.isFile())
+			throw new IOException("Not a file: " + file);
+
+		return file.length();
+	}
+
+	@Override
+	public void writeTo(OutputStream out, byte[] buffer) throws IOException {
+		long length = getLength();
+		InputStream in = new FileInputStream(file);
+		try {
+			InputStreamFormFile.copy(in, out, length, buffer);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read the whole file into memory.
+	 */
+	@Override
+	public byte[] getBytes() {
+		try {
+			ByteArrayOutputStream os = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE, getLength()));
+			writeTo(os, new byte[8192]);
+			return os.toByteArray();
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to read " + file + ".", e);
+		}
+	}
+}
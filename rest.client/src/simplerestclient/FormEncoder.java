@@ -0,0 +1,246 @@
+package simplerestclient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds an application/x-www-form-urlencoded body.  Names and values are percent-encoded as
+ * UTF-8, the same as URLEncoder.encode(s, "UTF-8"), but straight into the output through one
+ * buffer, and the exact length is known before anything is written.  A name may be added any
+ * number of times:
+ *
+ * FormEncoder form = new FormEncoder().add("tag", "a").add("tag", "b").add("q", "x y");
+ * req.post(url, form);
+ *
+ * @author kgilmer
+ *
+ */
+public class FormEncoder {
+	private static final int BUFFER_SIZE = 8192;
+	private static final byte[] HEX = "0123456789ABCDEF".getBytes();
+
+	/**
+	 * Names and values, alternating.
+	 */
+	private final List<String> pairs = new ArrayList<String>();
+	private long length = -1;
+
+	public FormEncoder() {
+	}
+
+	/**
+	 * @param form see addAll()
+	 */
+	public FormEncoder(Map form) {
+		addAll(form);
+	}
+
+	/**
+	 * @param name
+	 * @param value
+	 * @return this
+	 */
+	public FormEncoder add(String name, String value) {
+		if (name == null || value == null)
+			throw new IllegalArgumentException("name and value must not be null.");
+
+		pairs.add(name);
+		pairs.add(value);
+		length = -1;
+		return this;
+	}
+
+	/**
+	 * Add every entry of form, in the map's order.  A value that is an array or an Iterable adds
+	 * the name once for each element; other values are added with toString().  Null values are
+	 * skipped.
+	 *
+	 * @param form
+	 * @return this
+	 */
+	public FormEncoder addAll(Map form) {
+		for (Iterator i = form.entrySet().iterator(); i.hasNext();) {
+			Map.Entry e = (Map.Entry) i.next();
+			String name = e.getKey().toString();
+			Object value = e.getValue();
+			if (value instanceof Object[]) {
+				Object[] values = (Object[]) value;
+				for (int j = 0; j < values.length; ++j)
+					addValue(name, values[j]);
+			} else if (value instanceof Iterable) {
+				for (Iterator j = ((Iterable) value).iterator(); j.hasNext();)
+					addValue(name, j.next());
+			} else {
+				addValue(name, value);
+			}
+		}
+
+		return this;
+	}
+
+	private void addValue(String name, Object value) {
+		if (value != null)
+			add(name, value.toString());
+	}
+
+	/**
+	 * @return number of name, value pairs
+	 */
+	public int size() {
+		return pairs.size() / 2;
+	}
+
+	/**
+	 * @return bytes written by writeTo()
+	 */
+	public long getLength() {
+		if (length < 0) {
+			long total = pairs.isEmpty() ? 0 : size() * 2 - 1;
+			for (int i = 0; i < pairs.size(); ++i)
+				total += encodedLength(pairs.get(i));
+			length = total;
+		}
+
+		return length;
+	}
+
+	/**
+	 * Write the encoded form.  out is not closed.
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		Encoder encoder = new Encoder(out, (int) Math.min(BUFFER_SIZE, Math.max(16, getLength())));
+		for (int i = 0; i < pairs.size(); ++i) {
+			if (i > 0)
+				encoder.put(i % 2 == 1 ? '=' : '&');
+			encoder.encode(pairs.get(i));
+		}
+		encoder.flush();
+	}
+
+	/**
+	 * @return the encoded form, in an array of exactly getLength() bytes
+	 */
+	public byte[] toByteArray() {
+		long len = getLength();
+		if (len > Integer.MAX_VALUE)
+			throw new IllegalStateException("Form is too large for an array.");
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream((int) len);
+		try {
+			writeTo(os);
+		} catch (IOException e) {
+			//Ignore, ByteArrayOutputStream does not throw.
+		}
+		return os.toByteArray();
+	}
+
+	/**
+	 * @return the encoded form
+	 */
+	@Override
+	public String toString() {
+		byte[] b = toByteArray();
+		char[] c = new char[b.length];
+		for (int i = 0; i < b.length; ++i)
+			c[i] = (char) b[i];
+		return new String(c);
+	}
+
+	private static boolean isUnreserved(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+			|| c == '.' || c == '-' || c == '*' || c == '_';
+	}
+
+	private static long encodedLength(String s) {
+		long total = 0;
+		int n = s.length();
+		for (int i = 0; i < n; ++i) {
+			char c = s.charAt(i);
+			if (isUnreserved(c) || c == ' ') {
+				total += 1;
+			} else if (c < 0x80) {
+				total += 3;
+			} else if (c < 0x800) {
+				total += 6;
+			} else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+				total += 12;
+				++i;
+			} else if (Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
+				// Unpaired, encoded as '?' like String.getBytes() does.
+				total += 3;
+			} else {
+				total += 9;
+			}
+		}
+
+		return total;
+	}
+
+	/**
+	 * Percent-encodes into a buffer, writing it to out whenever it fills.
+	 */
+	private static class Encoder {
+		private final OutputStream out;
+		private final byte[] buf;
+		private int pos;
+
+		Encoder(OutputStream out, int size) {
+			this.out = out;
+			this.buf = new byte[size];
+		}
+
+		void encode(String s) throws IOException {
+			int n = s.length();
+			for (int i = 0; i < n; ++i) {
+				char c = s.charAt(i);
+				if (isUnreserved(c)) {
+					put(c);
+				} else if (c == ' ') {
+					put('+');
+				} else if (c < 0x80) {
+					escape(c);
+				} else if (c < 0x800) {
+					escape(0xC0 | (c >> 6));
+					escape(0x80 | (c & 0x3F));
+				} else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+					int cp = Character.toCodePoint(c, s.charAt(++i));
+					escape(0xF0 | (cp >> 18));
+					escape(0x80 | ((cp >> 12) & 0x3F));
+					escape(0x80 | ((cp >> 6) & 0x3F));
+					escape(0x80 | (cp & 0x3F));
+				} else if (Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
+					escape('?');
+				} else {
+					escape(0xE0 | (c >> 12));
+					escape(0x80 | ((c >> 6) & 0x3F));
+					escape(0x80 | (c & 0x3F));
+				}
+			}
+		}
+
+		void put(int b) throws IOException {
+			if (pos == buf.length)
+				flush();
+			buf[pos++] = (byte) b;
+		}
+
+		private void escape(int b) throws IOException {
+			put('%');
+			put(HEX[(b >> 4) & 0xF]);
+			put(HEX[b & 0xF]);
+		}
+
+		void flush() throws IOException {
+			out.write(buf, 0, pos);
+			pos = 0;
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package simplerestclient;
+
+/**
+ * A lock free rate limiter using the Generic Cell Rate Algorithm.
+ *
+ * The whole state is one theoretical arrival time (TAT) in System.nanoTime() units.  A permit
+ * taken at time t moves the TAT to max(TAT, t) + interval, and is due at that new TAT less
+ * the interval and the burst tolerance.  Callers claim their slot with a compare and set and
+ * sleep without holding anything, so concurrent callers never queue on a lock.
+ *
+ * A permit reserved by a caller interrupted while waiting is not returned; its slot goes unused.
+ *
+ * @author kgilmer
+ *
+ */
+public class GCRARateLimiter extends AbstractGCRARateLimiter {
+	private final double permitsPerSecond;
+	/**
+	 * Nanos between permits at the steady rate.
+	 */
+	private final long interval;
+
+	/**
+	 * @param permitsPerSecond long run rate
+	 * @param burst permits that may be taken at once after an idle period, at least 1
+	 */
+	public GCRARateLimiter(double permitsPerSecond, int burst) {
+		super(burst);
+		if (!(permitsPerSecond > 0))
+			throw new IllegalArgumentException("permitsPerSecond must be positive.");
+
+		this.permitsPerSecond = permitsPerSecond;
+		this.interval = interval(permitsPerSecond);
+	}
+
+	public double getPermitsPerSecond() {
+		return permitsPerSecond;
+	}
+
+	@Override
+	protected long getInterval() {
+		return interval;
+	}
+}
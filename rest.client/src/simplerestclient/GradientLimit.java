@@ -0,0 +1,94 @@
+package simplerestclient;
+
+/**
+ * Limit following the gradient between a short and a long running average of latency.  While
+ * the short average is no worse than tolerance times the long one the limit grows by about
+ * sqrt(limit); as it gets worse the limit is scaled down by long * tolerance / short, to at most
+ * half per sample.  Each new limit is smoothed into the old one.  A drop halves the new limit.
+ *
+ * The long average is pulled down when it is more than twice the short one, so that recovery from
+ * a slow period is not held back by it.
+ *
+ * @author kgilmer
+ *
+ */
+public class GradientLimit implements IConcurrencyLimit {
+	public static final double DEFAULT_TOLERANCE = 1.5;
+	public static final double DEFAULT_SMOOTHING = 0.2;
+
+	private static final double SHORT_WINDOW = 10;
+	private static final double LONG_WINDOW = 600;
+
+	private final int minLimit;
+	private final int maxLimit;
+	private final double tolerance;
+	private final double smoothing;
+	private double limit;
+	private double shortRtt;
+	private double longRtt;
+
+	/**
+	 * @param initialLimit
+	 * @param maxLimit
+	 */
+	public GradientLimit(int initialLimit, int maxLimit) {
+		this(initialLimit, 1, maxLimit, DEFAULT_TOLERANCE, DEFAULT_SMOOTHING);
+	}
+
+	/**
+	 * @param initialLimit
+	 * @param minLimit at least 1
+	 * @param maxLimit
+	 * @param tolerance ratio of short to long latency tolerated before the limit is cut, at least 1
+	 * @param smoothing weight of each new limit, between 0 and 1
+	 */
+	public GradientLimit(int initialLimit, int minLimit, int maxLimit, double tolerance, double smoothing) {
+		AIMDLimit.checkLimits(initialLimit, minLimit, maxLimit);
+		if (!(tolerance >= 1))
+			throw new IllegalArgumentException("tolerance must be at least 1.");
+		if (!(smoothing > 0 && smoothing <= 1))
+			throw new IllegalArgumentException("smoothing must be between 0 and 1.");
+
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.tolerance = tolerance;
+		this.smoothing = smoothing;
+		this.limit = initialLimit;
+	}
+
+	@Override
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	@Override
+	public synchronized void onSample(long rttNanos, int inFlight, boolean dropped) {
+		double next;
+		if (dropped) {
+			next = limit / 2;
+		} else {
+			if (rttNanos <= 0)
+				return;
+
+			if (longRtt == 0) {
+				shortRtt = rttNanos;
+				longRtt = rttNanos;
+			} else {
+				shortRtt += (rttNanos - shortRtt) / SHORT_WINDOW;
+				longRtt += (rttNanos - longRtt) / LONG_WINDOW;
+				if (longRtt > shortRtt * 2)
+					longRtt *= 0.95;
+			}
+
+			// Leave the limit alone while it is not being used.
+			if (inFlight * 2 < limit)
+				return;
+
+			double gradient = Math.max(0.5, Math.min(1, tolerance * longRtt / shortRtt));
+			next = limit * gradient + Math.sqrt(limit);
+		}
+
+		next = limit * (1 - smoothing) + next * smoothing;
+		limit = Math.max(minLimit, Math.min(maxLimit, next));
+	}
+}
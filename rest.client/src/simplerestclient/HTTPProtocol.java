@@ -0,0 +1,233 @@
+package simplerestclient;
+
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * HTTP/1.1 message helpers shared by the socket based transports.
+ *
+ * @author kgilmer
+ *
+ */
+final class HTTPProtocol {
+	static final String CRLF = "\r\n";
+
+	private HTTPProtocol() {
+	}
+
+	/**
+	 * Format the request line and headers.
+	 *
+	 * @param method
+	 * @param url
+	 * @param properties request properties, as returned by URLConnection.getRequestProperties()
+	 * @param contentLength length of the body, or -1 if there is no body or it is chunked
+	 * @param chunked true if the body is sent with chunked transfer encoding
+	 * @return ISO-8859-1 bytes of the request head, including the blank line
+	 */
+	static byte[] requestHead(String method, URL url, Map<String, List<String>> properties, long contentLength, boolean chunked) {
+		StringBuilder sb = new StringBuilder(256);
+		String file = url.getFile();
+		sb.append(method).append(' ').append(file.length() == 0 ? "/" : file).append(" HTTP/1.1").append(CRLF);
+
+		if (!hasKey(properties, "Host")) {
+			sb.append("Host: ").append(url.getHost());
+			if (url.getPort() != -1 && url.getPort() != url.getDefaultPort())
+				sb.append(':').append(url.getPort());
+			sb.append(CRLF);
+		}
+		if (!hasKey(properties, "User-Agent"))
+			sb.append("User-Agent: Java/").append(System.getProperty("java.version")).append(CRLF);
+		if (!hasKey(properties, "Accept"))
+			sb.append("Accept: */*").append(CRLF);
+
+		boolean hasBody = contentLength != -1 || chunked;
+		if (hasBody && !hasKey(properties, "Content-Type"))
+			sb.append("Content-Type: application/x-www-form-urlencoded").append(CRLF);
+
+		for (Entry<String, List<String>> e : properties.entrySet()) {
+			String key = e.getKey();
+			if (key == null || key.equalsIgnoreCase("Content-Length") || key.equalsIgnoreCase("Transfer-Encoding"))
+				continue;
+			for (String value : e.getValue())
+				sb.append(key).append(": ").append(value).append(CRLF);
+		}
+
+		if (chunked)
+			sb.append("Transfer-Encoding: chunked").append(CRLF);
+		else if (contentLength != -1)
+			sb.append("Content-Length: ").append(contentLength).append(CRLF);
+		else if (method.equals("POST") || method.equals("PUT"))
+			sb.append("Content-Length: 0").append(CRLF);
+
+		sb.append(CRLF);
+		try {
+			return sb.toString().getBytes("ISO-8859-1");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * @param statusLine e.g. HTTP/1.1 200 OK
+	 * @return status code
+	 * @throws ProtocolException
+	 */
+	static int parseStatusCode(String statusLine) throws ProtocolException {
+		int sp1 = statusLine.indexOf(' ');
+		if (!statusLine.startsWith("HTTP/") || sp1 == -1)
+			throw new ProtocolException("Invalid status line: " + statusLine);
+		int sp2 = statusLine.indexOf(' ', sp1 + 1);
+		try {
+			return Integer.parseInt(statusLine.substring(sp1 + 1, sp2 == -1 ? statusLine.length() : sp2).trim());
+		} catch (NumberFormatException e) {
+			throw new ProtocolException("Invalid status line: " + statusLine);
+		}
+	}
+
+	/**
+	 * @param statusLine e.g. HTTP/1.1 200 OK
+	 * @return reason phrase, or an empty string
+	 */
+	static String parseReasonPhrase(String statusLine) {
+		int sp1 = statusLine.indexOf(' ');
+		int sp2 = sp1 == -1 ? -1 : statusLine.indexOf(' ', sp1 + 1);
+		return sp2 == -1 ? "" : statusLine.substring(sp2 + 1).trim();
+	}
+
+	/**
+	 * Parse a header line into headers.
+	 *
+	 * @param line
+	 * @param headers
+	 * @param lastKey key of the previous line, for obsolete line folding
+	 * @return key of the line
+	 * @throws ProtocolException
+	 */
+	static String parseHeaderLine(String line, HeaderList headers, String lastKey) throws ProtocolException {
+		if ((line.charAt(0) == ' ' || line.charAt(0) == '\t') && lastKey != null) {
+			headers.add(lastKey, line.trim());
+			return lastKey;
+		}
+
+		int colon = line.indexOf(':');
+		if (colon < 1)
+			throw new ProtocolException("Invalid header line: " + line);
+
+		String key = line.substring(0, colon).trim();
+		headers.add(key, line.substring(colon + 1).trim());
+		return key;
+	}
+
+	/**
+	 * @return true if the response to method with status code carries a body
+	 */
+	static boolean hasBody(String method, int code) {
+		return !method.equals("HEAD") && code != HttpURLConnection.HTTP_NO_CONTENT && code != HttpURLConnection.HTTP_NOT_MODIFIED
+				&& (code < 100 || code >= 200);
+	}
+
+	/**
+	 * @return true if the connection may carry another request once the response body is read
+	 */
+	static boolean isKeepAlive(HeaderList headers, Map<String, List<String>> requestProperties) {
+		String statusLine = headers.getValue(0);
+		boolean keepAlive;
+		if (statusLine != null && statusLine.startsWith("HTTP/1.0"))
+			keepAlive = headers.containsToken("Connection", "keep-alive");
+		else
+			keepAlive = !headers.containsToken("Connection", "close");
+
+		for (Entry<String, List<String>> e : requestProperties.entrySet())
+			if (e.getKey() != null && e.getKey().equalsIgnoreCase("Connection"))
+				for (String v : e.getValue())
+					if (v.trim().equalsIgnoreCase("close"))
+						keepAlive = false;
+
+		return keepAlive;
+	}
+
+	/**
+	 * @return millis from a Keep-Alive: timeout=n header, or -1
+	 */
+	static long getKeepAliveTimeout(HeaderList headers) {
+		String ka = headers.get("Keep-Alive");
+		if (ka == null)
+			return -1;
+
+		String[] params = ka.split(",");
+		for (int i = 0; i < params.length; ++i) {
+			String p = params[i].trim();
+			if (p.startsWith("timeout=")) {
+				try {
+					return Long.parseLong(p.substring(8).trim()) * 1000;
+				} catch (NumberFormatException e) {
+					return -1;
+				}
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * @return value of the Content-Length header, or -1 if not present
+	 * @throws ProtocolException if the value is not a non-negative number
+	 */
+	static long getContentLength(HeaderList headers) throws ProtocolException {
+		String cl = headers.get("Content-Length");
+		if (cl == null)
+			return -1;
+
+		long length = parseDigits(cl.trim(), 10);
+		if (length < 0)
+			throw new ProtocolException("Invalid Content-Length: " + cl);
+
+		return length;
+	}
+
+	/**
+	 * @return value of a chunk size line, ignoring extensions
+	 * @throws ProtocolException if the size is not a non-negative hex number
+	 */
+	static long parseChunkSize(String line) throws ProtocolException {
+		int semi = line.indexOf(';');
+		if (semi != -1)
+			line = line.substring(0, semi);
+
+		long size = parseDigits(line.trim(), 16);
+		if (size < 0)
+			throw new ProtocolException("Invalid chunk size: " + line);
+
+		return size;
+	}
+
+	/**
+	 * Long.parseLong() also takes a sign, which a length never has.
+	 *
+	 * @return value of s, or -1 if it is empty, signed, not a number in radix or too large
+	 */
+	private static long parseDigits(String s, int radix) {
+		if (s.length() == 0 || Character.digit(s.charAt(0), radix) == -1)
+			return -1;
+
+		try {
+			return Long.parseLong(s, radix);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static boolean hasKey(Map<String, List<String>> properties, String key) {
+		for (String k : properties.keySet())
+			if (k != null && k.equalsIgnoreCase(key))
+				return true;
+
+		return false;
+	}
+}
@@ -27,13 +27,14 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.net.HttpURLConnection;
-import java.net.URLEncoder;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
 
 
 /**
@@ -55,14 +56,15 @@ public class HTTPRequest implements IHTTPRequest {
 	////////////////////////////////////////////////  HTTP REQUEST METHODS	
 	
 	private static final String HEADER_TYPE  = "Content-Type";
-    private static final String HEADER_PARA  = "Content-Disposition: form-data";
     private static final String CONTENT_TYPE = "multipart/form-data";
-    private static final String LINE_ENDING  = "\r\n";
+    private static final String FORM_TYPE    = "application/x-www-form-urlencoded";
     private static final String BOUNDARY     = "boundary=";
-    private static final String PARA_NAME    = "name";
-    private static final String FILE_NAME    = "filename";
+    private static final String HEADER_ENCODING = "Content-Encoding";
+    private static final int    STREAM_CHUNK = 8192;
 	
 	private IConnectionProvider _connectionProvider;
+	private AsyncHTTPEngine _asyncEngine;
+	private volatile RequestCompression _compression;
 	
 	/**
 	 * constructor where client provides connectionProvider
@@ -72,6 +74,28 @@ public class HTTPRequest implements IHTTPRequest {
 		_connectionProvider = connectionProvider;
 	}
 	
+	/**
+	 * constructor where client provides connectionProvider and the engine for async requests
+	 * 
+	 * @param connectionProvider
+	 * @param asyncEngine engine used by the *Async methods
+	 */
+	public HTTPRequest(IConnectionProvider connectionProvider, AsyncHTTPEngine asyncEngine) {
+		_connectionProvider = connectionProvider;
+		_asyncEngine = asyncEngine;
+	}
+	
+	/**
+	 * constructor where client provides the transport requests are sent on.  Unless transport is an
+	 * AsyncHTTPEngine, the *Async methods send on it from a callback thread of the default engine, so
+	 * each request in flight holds a thread.
+	 * 
+	 * @param transport
+	 */
+	public HTTPRequest(IHTTPTransport transport) {
+		_connectionProvider = new TransportConnectionProvider(transport);
+	}
+	
 	/**
 	 * constructor that uses default connection provider
 	 */
@@ -138,27 +162,34 @@ public class HTTPRequest implements IHTTPRequest {
 				conn.setRequestProperty(key, headers.get(key).toString()); 
 			}
 		}		
-		conn.setDoOutput(true);
-		OutputStreamWriter osr = new OutputStreamWriter(conn.getOutputStream());
-		osr.write(data);
-		osr.flush();
-		osr.close();
-		return connect(conn);
+		return send(conn, data.getBytes(), headers);
 	}
 	
     /**
-     * Do an HTTP POST to url
+     * Do an HTTP POST to url, Base64 encoding the stream as it is sent
      * 
      * @param url       String URL to connect to
-     * @param stream    InputStream data to post 
+     * @param stream    InputStream data to post, read to the end but not closed
      * @return          HttpURLConnection ready with response data
      */
 	public HTTPResponse post(String url, InputStream stream) throws IOException {
-		byte[] buff = streamToByteArray(stream);
-		String data = Base64.encodeBytes(buff);
-		return post(url, data);
+		return send("POST", url, stream, -1, true, null);
 	}	
 	
+	/**
+	 * Do an HTTP POST to url, sending the stream as it is read without encoding it
+	 * 
+	 * @param url
+	 * @param stream data to post, read to the end but not closed
+	 * @param length number of bytes in stream, or -1 if not known
+	 * @param headers extra http headers, or null
+	 * @return
+	 * @throws IOException
+	 */
+	public HTTPResponse post(String url, InputStream stream, long length, Map headers) throws IOException {
+		return send("POST", url, stream, length, false, headers);
+	}
+	
 	
 	/**
 	 * Posts a Map of key, value pair properties, like a web form
@@ -169,10 +200,19 @@ public class HTTPRequest implements IHTTPRequest {
 	 * @throws IOException
 	 */
 	public HTTPResponse post(String url, Map properties) throws IOException {
-		String data = propertyString(properties);
-		HashMap<String, String> headers = new HashMap<String, String>(); 
-		headers.put("Content-Type", "application/x-www-form-urlencoded");		
-		return post(url, data, headers);
+		return send("POST", url, new FormEncoder(properties));
+	}
+	
+	/**
+	 * Posts a form, which may repeat names
+	 * 
+	 * @param url
+	 * @param form
+	 * @return
+	 * @throws IOException
+	 */
+	public HTTPResponse post(String url, FormEncoder form) throws IOException {
+		return send("POST", url, form);
 	}
 
 	
@@ -186,12 +226,8 @@ public class HTTPRequest implements IHTTPRequest {
 	 */
 	public HTTPResponse post(String url, byte[] data) throws IOException {
 		HttpURLConnection conn = _connectionProvider.getConnection(url);
-		conn.setRequestProperty("Content-Length", String.valueOf(data.length));
 		conn.setRequestMethod("POST");
-		conn.setDoOutput(true);
-		OutputStream os = conn.getOutputStream();
-		os.write(data);
-		return connect(conn);
+		return send(conn, data, null);
 	}
 	
 	/**
@@ -209,44 +245,14 @@ public class HTTPRequest implements IHTTPRequest {
 		conn.setRequestMethod("POST");
 		String boundary = createMultipartBoundary();
 		conn.setRequestProperty(HEADER_TYPE, CONTENT_TYPE +"; "+ BOUNDARY + boundary);
-        conn.setDoOutput(true);		
+        conn.setDoOutput(true);
 		
-		// write things out to connection
-        OutputStream os = conn.getOutputStream();
-        
-		// add parameters
-        Object [] elems = parameters.keySet().toArray();
-        StringBuffer buf; // lil helper
-        IFormFile file;
-	    for (int i=0; i < elems.length; i++) {
-	    	String key = (String)elems[i];
-	    	Object obj = parameters.get(key);
-	    	//System.out.println("--" + key);
-
-	    	buf = new StringBuffer();
-	    	if (obj instanceof IFormFile) {
-	    		file = (IFormFile)obj;
-	    		buf.append("--"+ boundary+LINE_ENDING);
-	    		buf.append(HEADER_PARA);
-	    		buf.append("; "+ PARA_NAME +"=\""+ key +"\"");
-	    		buf.append("; "+ FILE_NAME +"=\""+ file.getFilename() +"\""+ LINE_ENDING);
-	    		buf.append(HEADER_TYPE + ": " + file.getContentType() + ";");
-	    		buf.append(LINE_ENDING);
-	    		buf.append(LINE_ENDING);
-	    		os.write(buf.toString().getBytes());
-		    	os.write(file.getBytes());	    		
-	    	} else if (obj != null) {
-		    	buf.append("--"+ boundary+LINE_ENDING);
-		    	buf.append(HEADER_PARA);
-		    	buf.append("; "+ PARA_NAME +"=\""+ key +"\"");
-		    	buf.append(LINE_ENDING);
-		    	buf.append(LINE_ENDING);
-		    	buf.append(obj.toString());
-		    	os.write(buf.toString().getBytes());
-	    	}
-	    	os.write(LINE_ENDING.getBytes());
-	    }
-	    os.write(("--"+ boundary+"--"+LINE_ENDING).getBytes());	
+		MultipartEncoder body = new MultipartEncoder(parameters, boundary);
+		setStreamingMode(conn, body.getLength());
+		
+		OutputStream os = conn.getOutputStream();
+		body.writeTo(os);
+		os.close();
 		return connect(conn);
 	}
 	
@@ -281,28 +287,35 @@ public class HTTPRequest implements IHTTPRequest {
 				connection.setRequestProperty(key, headers.get(key).toString()); 
 			}
 		}
-		connection.setDoOutput(true);
 		connection.setRequestMethod("PUT");
-		OutputStreamWriter osr = new OutputStreamWriter(connection.getOutputStream());
-		osr.write(data);
-		osr.flush();
-		osr.close();
-		return connect(connection);		
+		return send(connection, data.getBytes(), headers);
 	}
 	
 	/**
      * Do an HTTP PUT to url
      * 
      * @param url       String URL to connect to
-     * @param stream    InputStream data to put 
+     * @param stream    InputStream data to put, Base64 encoded as it is sent, read to the end but not closed
      * @return          HttpURLConnection ready with response data
      */	
 	public HTTPResponse put(String url, InputStream stream) throws IOException {
-		byte[] buff = streamToByteArray(stream);
-		String data = Base64.encodeBytes(buff);
-		return put(url, data);		
+		return send("PUT", url, stream, -1, true, null);
 	}	
 	
+	/**
+	 * Do an HTTP PUT to url, sending the stream as it is read without encoding it
+	 * 
+	 * @param url
+	 * @param stream data to put, read to the end but not closed
+	 * @param length number of bytes in stream, or -1 if not known
+	 * @param headers extra http headers, or null
+	 * @return
+	 * @throws IOException
+	 */
+	public HTTPResponse put(String url, InputStream stream, long length, Map headers) throws IOException {
+		return send("PUT", url, stream, length, false, headers);
+	}
+	
 	/**
 	 * Do an HTTP DELETE to url
 	 * 
@@ -326,11 +339,20 @@ public class HTTPRequest implements IHTTPRequest {
 	 * @throws IOException
 	 */
 	public HTTPResponse put(String url, Map properties) throws IOException {
-		String data = propertyString(properties);
-		HashMap<String, String> headers = new HashMap<String, String>(); 
-		headers.put("Content-Type", "application/x-www-form-urlencoded");
-		return put(url, data, headers);
+		return send("PUT", url, new FormEncoder(properties));
 	}	
+	
+	/**
+	 * Puts a form, which may repeat names
+	 * 
+	 * @param url
+	 * @param form
+	 * @return
+	 * @throws IOException
+	 */
+	public HTTPResponse put(String url, FormEncoder form) throws IOException {
+		return send("PUT", url, form);
+	}
 
     /**
      * Do an HTTP HEAD to url
@@ -346,7 +368,351 @@ public class HTTPRequest implements IHTTPRequest {
 	}
 	
 	
+	/**
+	 * Compress String and byte[] bodies of synchronous requests, see RequestCompression.
+	 * 
+	 * @param compression or null to send bodies as they are
+	 */
+	public void setRequestCompression(RequestCompression compression) {
+		_compression = compression;
+	}
+	
+	public RequestCompression getRequestCompression() {
+		return _compression;
+	}
+	
+	
+	////////////////////////////////////////////////  ASYNC HTTP REQUEST METHODS
+	
+	/**
+	 * Do an HTTP GET from url without blocking the calling thread
+	 * 
+	 * The async engine speaks plain http only.  Requests to https URLs are sent by the connection
+	 * provider on one of the engine's callback threads, which each of them holds until it completes.
+	 * 
+	 * @param url   String URL to connect to
+	 * @return      future completed with the response
+	 * @throws IOException if the request can't be started
+	 */
+	public HTTPResponseFuture getAsync(String url) throws IOException {
+		return executeAsync("GET", url, null, null);
+	}
+	
+	/**
+	 * Do an HTTP GET from url w/ extra http headers without blocking the calling thread
+	 * 
+	 * https URLs are sent on a callback thread, see getAsync(String).
+	 * 
+	 * @param url
+	 * @param headers
+	 * @return
+	 * @throws IOException if the request can't be started
+	 */
+	public HTTPResponseFuture getAsync(String url, Map<String, String> headers) throws IOException {
+		return executeAsync("GET", url, headers, null);
+	}
+	
+	/**
+	 * Do an HTTP POST to url without blocking the calling thread
+	 * 
+	 * https URLs are sent on a callback thread, see getAsync(String).
+	 * 
+	 * @param url
+	 * @param data
+	 * @return
+	 * @throws IOException if the request can't be started
+	 */
+	public HTTPResponseFuture postAsync(String url, String data) throws IOException {
+		return postAsync(url, data, null);
+	}
+	
+	/**
+	 * Do an HTTP POST to url w/ extra http headers without blocking the calling thread
+	 * 
+	 * https URLs are sent on a callback thread, see getAsync(String).
+	 * 
+	 * @param url
+	 * @param data
+	 * @param headers
+	 * @return
+	 * @throws IOException if the request can't be started
+	 */
+	public HTTPResponseFuture postAsync(String url, String data, Map headers) throws IOException {
+		return executeAsync("POST", url, headers, data.getBytes());
+	}
+	
+	/**
+	 * Post byte data to a url without blocking the calling thread
+	 * 
+	 * https URLs are sent on a callback thread, see getAsync(String).
+	 * 
+	 * @param url
+	 * @param data
+	 * @return
+	 * @throws IOException if the request can't be started
+	 */
+	public HTTPResponseFuture postAsync(String url, byte[] data) throws IOException {
+		return executeAsync("POST", url, null, data);
+	}
+	
+	/**
+	 * Do an HTTP PUT to url without blocking the calling thread
+	 * 
+	 * https URLs are sent on a callback thread, see getAsync(String).
+	 * 
+	 * @param url
+	 * @param data
+	 * @return
+	 * @throws IOException if the request can't be started
+	 */
+	public HTTPResponseFuture putAsync(String url, String data) throws IOException {
+		return putAsync(url, data, null);
+	}
+	
+	/**
+	 * Do an HTTP PUT to url w/ extra http headers without blocking the calling thread
+	 * 
+	 * https URLs are sent on a callback thread, see getAsync(String).
+	 * 
+	 * @param url
+	 * @param data
+	 * @param headers
+	 * @return
+	 * @throws IOException if the request can't be started
+	 */
+	public HTTPResponseFuture putAsync(String url, String data, Map headers) throws IOException {
+		return executeAsync("PUT", url, headers, data.getBytes());
+	}
+	
+	/**
+	 * Do an HTTP DELETE to url without blocking the calling thread
+	 * 
+	 * https URLs are sent on a callback thread, see getAsync(String).
+	 * 
+	 * @param url
+	 * @return
+	 * @throws IOException if the request can't be started
+	 */
+	public HTTPResponseFuture deleteAsync(String url) throws IOException {
+		return executeAsync("DELETE", url, null, null);
+	}
+	
+	/**
+	 * Do an HTTP HEAD to url without blocking the calling thread
+	 * 
+	 * https URLs are sent on a callback thread, see getAsync(String).
+	 * 
+	 * @param url
+	 * @return
+	 * @throws IOException if the request can't be started
+	 */
+	public HTTPResponseFuture headAsync(String url) throws IOException {
+		return executeAsync("HEAD", url, null, null);
+	}
+	
 	////////////////////////////////////////////////////////////// THESE HELP
+	
+	/**
+	 * Send a body, compressed if compression is set and worth it.  A compressed body refused with
+	 * 415 is sent again as it is on a new connection from the provider, with the same method and
+	 * the caller's headers.  Those are replayed from headers, since the JDK connection does not
+	 * return Authorization from getRequestProperties().
+	 * 
+	 * @param headers headers the caller set on conn, or null
+	 */
+	private HTTPResponse send(HttpURLConnection conn, byte[] body, Map headers) throws IOException {
+		RequestCompression compression = _compression;
+		String url = conn.getURL().toString();
+		if (compression == null || conn.getRequestProperty(HEADER_ENCODING) != null || !compression.shouldCompress(url, body.length))
+			return write(conn, body);
+		
+		byte[] compressed = compression.compress(body);
+		if (compressed == null)
+			return write(conn, body);
+		
+		String method = conn.getRequestMethod();
+		conn.setRequestProperty(HEADER_ENCODING, compression.getEncoding());
+		try {
+			HTTPResponse response = write(conn, compressed);
+			if (response.getStatusCode() != HttpURLConnection.HTTP_UNSUPPORTED_TYPE)
+				return response;
+			response.close();
+		} catch (HTTPException e) {
+			if (e.getErrorCode() != HttpURLConnection.HTTP_UNSUPPORTED_TYPE)
+				throw e;
+		}
+		compression.setRejected(url);
+		
+		HttpURLConnection retry = _connectionProvider.getConnection(url);
+		if (headers != null) {
+			for (Iterator i = headers.entrySet().iterator(); i.hasNext();) {
+				Entry e = (Entry) i.next();
+				retry.setRequestProperty(e.getKey().toString(), e.getValue().toString());
+			}
+		}
+		retry.setRequestMethod(method);
+		return write(retry, body);
+	}
+	
+	/**
+	 * Send a body of known length.  HttpURLConnection would otherwise buffer it all again before
+	 * sending anything.
+	 */
+	private HTTPResponse write(HttpURLConnection conn, byte[] body) throws IOException {
+		conn.setDoOutput(true);
+		conn.setFixedLengthStreamingMode(body.length);
+		OutputStream os = conn.getOutputStream();
+		os.write(body);
+		os.close();
+		return connect(conn);
+	}
+	
+	/**
+	 * Stream the body with its length up front when it is known and small enough for
+	 * HttpURLConnection, otherwise chunked.
+	 * 
+	 * @param length body length, or -1 if not known
+	 */
+	static void setStreamingMode(HttpURLConnection conn, long length) {
+		if (length >= 0 && length <= Integer.MAX_VALUE)
+			conn.setFixedLengthStreamingMode((int) length);
+		else
+			conn.setChunkedStreamingMode(STREAM_CHUNK);
+	}
+	
+	/**
+	 * Copy stream to the connection as it is read, optionally through a Base64 encoder, so that the
+	 * body is never held in memory.
+	 * 
+	 * @param length bytes in stream before encoding, or -1 if not known
+	 */
+	private HTTPResponse send(String method, String url, InputStream stream, long length, boolean base64, Map headers) throws IOException {
+		HttpURLConnection conn = _connectionProvider.getConnection(url);
+		if (headers != null) {
+			Iterator iterator = headers.keySet().iterator();  
+			String key; 
+			while(iterator.hasNext()) {
+				key = iterator.next().toString(); 
+				conn.setRequestProperty(key, headers.get(key).toString()); 
+			}
+		}
+		conn.setDoOutput(true);
+		conn.setRequestMethod(method);
+		
+		setStreamingMode(conn, length < 0 || !base64 ? length : (length + 2) / 3 * 4);
+		
+		OutputStream os = conn.getOutputStream();
+		if (base64)
+			os = new Base64.OutputStream(os, Base64.ENCODE);
+		byte[] buff = new byte[STREAM_CHUNK];
+		int read;
+		while ((read = stream.read(buff)) != -1)
+			os.write(buff, 0, read);
+		os.close();
+		
+		return connect(conn);
+	}
+	
+	/**
+	 * Stream a form with its length up front.  It is encoded to an array instead when it will be
+	 * compressed, so that it can be sent again if the server refuses compression.
+	 */
+	private HTTPResponse send(String method, String url, FormEncoder form) throws IOException {
+		HttpURLConnection conn = _connectionProvider.getConnection(url);
+		conn.setRequestProperty(HEADER_TYPE, FORM_TYPE);
+		conn.setRequestMethod(method);
+		
+		long length = form.getLength();
+		RequestCompression compression = _compression;
+		if (compression != null && length <= Integer.MAX_VALUE && compression.shouldCompress(url, (int) length))
+			return send(conn, form.toByteArray(), Collections.singletonMap(HEADER_TYPE, FORM_TYPE));
+		
+		conn.setDoOutput(true);
+		setStreamingMode(conn, length);
+		OutputStream os = conn.getOutputStream();
+		form.writeTo(os);
+		os.close();
+		return connect(conn);
+	}
+	
+	/**
+	 * Hand a request to the async engine.  The connection provider is still asked for a connection so that
+	 * the properties it presets and its timeouts are applied; that connection is never opened.  The JDK
+	 * connection hides Authorization and Proxy-Authorization, so those come from an IRequestPropertiesProvider,
+	 * and the caller's headers are taken from headers rather than read back.  A URL the engine can't send
+	 * to, such as https, or a connection on some other IHTTPTransport, is sent on that connection from a
+	 * callback thread of the engine instead.
+	 */
+	HTTPResponseFuture executeAsync(String method, String url, Map headers, byte[] body) throws IOException {
+		HttpURLConnection conn = _connectionProvider.getConnection(url);
+		if (!isForEngine(conn))
+			return getAsyncEngine().executeBlocking(blocking(conn, method, headers, body));
+		
+		Map<String, List<String>> properties = new LinkedHashMap<String, List<String>>(conn.getRequestProperties());
+		if (_connectionProvider instanceof IRequestPropertiesProvider)
+			putAll(properties, ((IRequestPropertiesProvider) _connectionProvider).getRequestProperties(url));
+		if (headers != null)
+			putAll(properties, headers);
+		
+		return getAsyncEngine().execute(method, url, properties, body, conn.getConnectTimeout(), conn.getReadTimeout());
+	}
+	
+	/**
+	 * @return true if the async engine can send the request conn was opened for, rather than conn itself
+	 */
+	private static boolean isForEngine(HttpURLConnection conn) {
+		if (conn instanceof TransportURLConnection)
+			return ((TransportURLConnection) conn).getTransport() instanceof AsyncHTTPEngine;
+		
+		return AsyncHTTPEngine.isSupported(conn.getURL());
+	}
+	
+	/**
+	 * A request the async engine can't send, to be sent on conn from a callback thread.
+	 */
+	private Callable<HTTPResponse> blocking(final HttpURLConnection conn, final String method, final Map headers, final byte[] body) {
+		return new Callable<HTTPResponse>() {
+			public HTTPResponse call() throws IOException {
+				if (headers != null) {
+					for (Iterator i = headers.entrySet().iterator(); i.hasNext();) {
+						Entry e = (Entry) i.next();
+						conn.setRequestProperty(e.getKey().toString(), e.getValue().toString());
+					}
+				}
+				conn.setRequestMethod(method);
+				return body == null ? connect(conn) : write(conn, body);
+			}
+		};
+	}
+	
+	/**
+	 * Set each of values in properties, replacing any value of the same name in any case.
+	 */
+	private static void putAll(Map<String, List<String>> properties, Map values) {
+		for (Iterator i = values.entrySet().iterator(); i.hasNext();) {
+			Entry e = (Entry) i.next();
+			String key = e.getKey().toString();
+			for (Iterator<String> j = properties.keySet().iterator(); j.hasNext();) {
+				String name = j.next();
+				if (name != null && name.equalsIgnoreCase(key))
+					j.remove();
+			}
+			properties.put(key, Collections.singletonList(e.getValue().toString()));
+		}
+	}
+	
+	/**
+	 * @return the engine given to the constructor, else the one the connection provider sends on, else the default
+	 */
+	private synchronized AsyncHTTPEngine getAsyncEngine() throws IOException {
+		if (_asyncEngine == null && _connectionProvider instanceof TransportConnectionProvider
+				&& ((TransportConnectionProvider) _connectionProvider).getTransport() instanceof AsyncHTTPEngine)
+			_asyncEngine = (AsyncHTTPEngine) ((TransportConnectionProvider) _connectionProvider).getTransport();
+		if (_asyncEngine == null)
+			_asyncEngine = AsyncHTTPEngine.getDefault();
+		
+		return _asyncEngine;
+	}
 
     
 	/**
@@ -383,16 +749,7 @@ public class HTTPRequest implements IHTTPRequest {
 	 *  turns a map into a key=value property string for sending to bugnet
 	 */
 	public static String propertyString(Map props) throws IOException {
-		String propstr = new String();
-		String key;
-		for (Iterator i = props.keySet().iterator(); i.hasNext();) {
-			key = (String) i.next();
-			propstr = propstr + URLEncoder.encode(key, "UTF-8") + "=" + URLEncoder.encode((String) props.get(key), "UTF-8");
-			if (i.hasNext()) {
-				propstr = propstr + "&";
-			}
-		}
-		return propstr;
+		return new FormEncoder(props).toString();
 	}
 	
 	/**
@@ -24,11 +24,24 @@
 package simplerestclient;
 
 
-import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -76,9 +89,23 @@ public class HTTPResponse {
 	public static final int HTTP_CODE_INTERNAL_ERROR		= HttpURLConnection.HTTP_INTERNAL_ERROR; // 500 internal/application error
 	
 	
+	private static final String DEFAULT_CHARSET = "UTF-8";
+	private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+	private static final int MAX_PREALLOCATE = 64 * 1024 * 1024;
+	private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+	private static final long TRANSFER_CHUNK = 8 * 1024 * 1024;
+	private static final ThreadLocal<ByteBuffer> TRANSFER_BUFFER = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(TRANSFER_BUFFER_SIZE);
+		}
+	};
+	
 	private static final String DEFAULT_ERROR_MESSAGE = "There was a connection error.  The server responded with status code ";
 	private HttpURLConnection _connection;
 	private String responseData;
+	private byte[] responseBytes;
+	private CharBuffer responseChars;
 	
 	/**
 	 * constructor must take in an HttpURLConnection
@@ -143,21 +170,187 @@ public class HTTPResponse {
 	}
 
 	/**
-	 * Read all bytes from response and load into a String.
-	 * Safe to call multiple times.
+	 * Read all bytes from response and load into a String, decoded with the charset
+	 * of the Content-Type header.  Safe to call multiple times.
 	 * 
 	 * @return
 	 * @throws IOException
 	 */
 	public String readResponse() throws IOException {
 		if (responseData == null) {
-			InputStream is = getStream();
-			responseData = inputStreamToString(is);
+			if (responseChars != null)
+				responseData = responseChars.toString();
+			else
+				responseData = decode(getBytes(), getCharset());
 		}
 		
 		return responseData;
 	}
 	
+	/**
+	 * Read all bytes from the response, exactly as sent.  Safe to call multiple times.
+	 * 
+	 * @return body of HTTP Response
+	 * @throws HTTPException
+	 * @throws IOException
+	 */
+	public byte[] getBytes() throws HTTPException, IOException {
+		if (responseBytes == null)
+			responseBytes = readBytes(getInputStream(), getContentLength());
+		
+		return responseBytes;
+	}
+	
+	/**
+	 * Body of the response decoded with the charset of the Content-Type header, without
+	 * the copy into a String.  Safe to call multiple times.
+	 * 
+	 * @return body of HTTP Response
+	 * @throws HTTPException
+	 * @throws IOException
+	 */
+	public CharSequence getCharSequence() throws HTTPException, IOException {
+		if (responseData != null)
+			return responseData;
+		
+		if (responseChars == null) {
+			byte[] b = getBytes();
+			Charset cs = Charset.forName(getCharset());
+			if (isAsciiCompatible(cs) && isAscii(b, b.length))
+				return readResponse();
+			responseChars = cs.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE).decode(ByteBuffer.wrap(b));
+		}
+		
+		return responseChars.duplicate();
+	}
+	
+	/**
+	 * @return charset parameter of the Content-Type header if supported, or UTF-8
+	 */
+	public String getCharset() {
+		String ct = _connection.getHeaderField("Content-Type");
+		if (ct != null) {
+			String[] params = ct.split(";");
+			for (int i = 1; i < params.length; ++i) {
+				String p = params[i].trim();
+				if (p.regionMatches(true, 0, "charset=", 0, 8)) {
+					String cs = p.substring(8).trim();
+					if (cs.length() > 1 && cs.charAt(0) == '"' && cs.charAt(cs.length() - 1) == '"')
+						cs = cs.substring(1, cs.length() - 1);
+					try {
+						if (Charset.isSupported(cs))
+							return cs;
+					} catch (IllegalCharsetNameException e) {
+						//Ignore
+					}
+				}
+			}
+		}
+		
+		return DEFAULT_CHARSET;
+	}
+
+	/**
+	 * Stream the response body to a channel without holding it in memory.  The body is
+	 * read through a direct buffer reused by the calling thread, and closed afterwards.
+	 * 
+	 * @param channel destination, left open
+	 * @return number of bytes transferred
+	 * @throws HTTPException
+	 * @throws IOException
+	 */
+	public long transferTo(WritableByteChannel channel) throws HTTPException, IOException {
+		InputStream is = getInputStream();
+		try {
+			ReadableByteChannel src = Channels.newChannel(is);
+			ByteBuffer buf = TRANSFER_BUFFER.get();
+			long total = 0;
+			buf.clear();
+			while (src.read(buf) != -1 || buf.position() > 0) {
+				buf.flip();
+				total += channel.write(buf);
+				buf.compact();
+			}
+			return total;
+		} finally {
+			is.close();
+		}
+	}
+	
+	/**
+	 * Stream the response body to a file, replacing its contents.  The body goes straight
+	 * from the connection into the file channel with FileChannel.transferFrom().
+	 * 
+	 * @param file
+	 * @return number of bytes written
+	 * @throws HTTPException
+	 * @throws IOException
+	 */
+	public long transferTo(File file) throws HTTPException, IOException {
+		InputStream is = getInputStream();
+		FileOutputStream fos = null;
+		try {
+			fos = new FileOutputStream(file);
+			FileChannel fc = fos.getChannel();
+			ReadableByteChannel src = Channels.newChannel(is);
+			long position = 0;
+			long n;
+			// transferFrom() only returns short at the end of the stream.
+			do {
+				n = fc.transferFrom(src, position, TRANSFER_CHUNK);
+				position += n;
+			} while (n == TRANSFER_CHUNK);
+			return position;
+		} finally {
+			is.close();
+			if (fos != null)
+				fos.close();
+		}
+	}
+	
+	/**
+	 * Stream the response body to an output stream without holding it in memory.  File streams are
+	 * written through their channel.
+	 * 
+	 * @param os destination, flushed but left open
+	 * @return number of bytes transferred
+	 * @throws HTTPException
+	 * @throws IOException
+	 */
+	public long transferTo(OutputStream os) throws HTTPException, IOException {
+		long total;
+		if (os instanceof FileOutputStream) {
+			total = transferTo(((FileOutputStream) os).getChannel());
+		} else {
+			total = transferTo(Channels.newChannel(os));
+			os.flush();
+		}
+		
+		return total;
+	}
+
+	/**
+	 * Close the response body without reading it.  Lets a pooled or keep-alive connection
+	 * be reused by the next request.  Safe to call multiple times, and after the body has been read.
+	 */
+	public void close() {
+		InputStream is = null;
+		try {
+			is = _connection.getInputStream();
+		} catch (IOException e) {
+			is = _connection.getErrorStream();
+		}
+
+		if (is != null) {
+			try {
+				is.close();
+			} catch (IOException e) {
+				//Ignore
+			}
+		}
+	}
+
 	/**
 	 * get response code from request
 	 * 
@@ -172,6 +365,24 @@ public class HTTPResponse {
     	return status;
 	}
 	
+	/**
+	 * Status code from the status line of the response.  Unlike getResponseCode() this
+	 * does not depend on a Status header being sent by the server.
+	 * 
+	 * @return status code, or -1 if the response is not valid HTTP
+	 * @throws IOException
+	 */
+	public int getStatusCode() throws IOException {
+		return _connection.getResponseCode();
+	}
+	
+	/**
+	 * @return all response headers, the status line under the null key
+	 */
+	public Map<String, List<String>> getHeaderFields() {
+		return _connection.getHeaderFields();
+	}
+	
 	/**
 	 * Gets a header value from the http response
 	 * 
@@ -194,7 +405,7 @@ public class HTTPResponse {
     	InputStream is = _connection.getErrorStream();
     	String errorStr = "";
     	if (is != null)
-    		errorStr = inputStreamToString(is);
+    		errorStr = decode(readBytes(is, getContentLength()), getCharset());
     	return errorStr;
     }
         
@@ -235,19 +446,87 @@ public class HTTPResponse {
 	}    
     
     /**
-     * convert input stream to string
+     * convert body bytes to string
      * 
-     * @param is
+     * @param b
+     * @param charset
      * @return
+     * @throws UnsupportedEncodingException
+     */
+    private static String decode(byte[] b, String charset) throws UnsupportedEncodingException {
+    	Charset cs = Charset.forName(charset);
+    	// Pure ASCII decodes the same in every ASCII compatible charset, and Latin-1 is the cheapest decoder.
+    	if (isAsciiCompatible(cs) && isAscii(b, b.length))
+    		return new String(b, 0, b.length, "ISO-8859-1");
+    	
+    	return new String(b, 0, b.length, charset);
+    }
+    
+    private static boolean isAsciiCompatible(Charset cs) {
+    	String name = cs.name();
+    	return name.equals("UTF-8") || name.equals("US-ASCII") || name.startsWith("ISO-8859-") || name.startsWith("windows-125");
+    }
+    
+    private static boolean isAscii(byte[] b, int len) {
+    	for (int i = 0; i < len; ++i)
+    		if (b[i] < 0)
+    			return false;
+    	
+    	return true;
+    }
+    
+    /**
+     * Read a stream to the end and close it.
+     * 
+     * @param is
+     * @param length expected length, or -1 if not known
+     * @return bytes read
      * @throws IOException
      */
-    private static String inputStreamToString(InputStream is) throws IOException {
-		BufferedReader rd = new BufferedReader(new InputStreamReader(is));
-		String line, resp = new String("");
-		while ((line = rd.readLine()) != null) {
-			resp = resp + line + "\n";
-		}
-		rd.close();
-		return resp;
+    private static byte[] readBytes(InputStream is, long length) throws IOException {
+    	try {
+    		byte[] b = new byte[length >= 0 && length <= MAX_PREALLOCATE ? (int) length : INITIAL_BUFFER_SIZE];
+    		int count = 0;
+    		while (true) {
+    			if (count == b.length) {
+    				// Content-Length was right or the buffer is full, check for more before growing.
+    				int next = is.read();
+    				if (next == -1)
+    					break;
+    				byte[] nb = new byte[Math.max(b.length * 2, INITIAL_BUFFER_SIZE)];
+    				System.arraycopy(b, 0, nb, 0, count);
+    				b = nb;
+    				b[count++] = (byte) next;
+    			}
+    			int n = is.read(b, count, b.length - count);
+    			if (n == -1)
+    				break;
+    			count += n;
+    		}
+    		
+    		if (count == b.length)
+    			return b;
+    		
+    		byte[] result = new byte[count];
+    		System.arraycopy(b, 0, result, 0, count);
+    		return result;
+    	} finally {
+    		is.close();
+    	}
+    }
+    
+    /**
+     * @return value of the Content-Length header, or -1
+     */
+    private long getContentLength() {
+    	String cl = _connection.getHeaderField("Content-Length");
+    	if (cl == null)
+    		return -1;
+    	
+    	try {
+    		return Long.parseLong(cl.trim());
+    	} catch (NumberFormatException e) {
+    		return -1;
+    	}
     }
 }
@@ -0,0 +1,183 @@
+package simplerestclient;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Result of an asynchronous request.
+ * 
+ * Block on it with get() or getResponse(), or register an IHTTPResponseListener to be called on completion.
+ * 
+ * @author kgilmer
+ *
+ */
+public class HTTPResponseFuture implements Future<HTTPResponse> {
+	private final List<IHTTPResponseListener> listeners = new ArrayList<IHTTPResponseListener>(1);
+	private HTTPResponse response;
+	private IOException failure;
+	private boolean done;
+	private boolean cancelled;
+	
+	/**
+	 * Add a listener to be called when the request completes.  If it has already completed the
+	 * listener is called immediately on the calling thread.  Not called if the request is cancelled.
+	 * 
+	 * Otherwise the listener is called on the thread that completes the request.  For requests sent on
+	 * an AsyncHTTPEngine that is one of its callback threads, never an event loop thread, so the listener
+	 * may block, wait on other futures or send further requests on the same engine.
+	 * 
+	 * @param listener
+	 */
+	public void addListener(IHTTPResponseListener listener) {
+		synchronized (this) {
+			if (!done) {
+				listeners.add(listener);
+				return;
+			}
+		}
+		
+		notifyListener(listener);
+	}
+
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		synchronized (this) {
+			if (done)
+				return false;
+			
+			cancelled = true;
+			done = true;
+			listeners.clear();
+			notifyAll();
+		}
+		
+		return true;
+	}
+
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	public synchronized boolean isDone() {
+		return done;
+	}
+
+	public synchronized HTTPResponse get() throws InterruptedException, ExecutionException {
+		while (!done)
+			wait();
+		
+		return report();
+	}
+
+	public synchronized HTTPResponse get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!done) {
+			long wait = deadline - System.nanoTime();
+			if (wait <= 0)
+				throw new TimeoutException();
+			TimeUnit.NANOSECONDS.timedWait(this, wait);
+		}
+		
+		return report();
+	}
+	
+	/**
+	 * Wait for the response the same way the blocking HTTPRequest methods do.
+	 * 
+	 * @return response
+	 * @throws IOException the request failure, or an HTTPException for an HTTP error status
+	 */
+	public HTTPResponse getResponse() throws IOException {
+		try {
+			return get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for response.");
+		} catch (CancellationException e) {
+			throw new InterruptedIOException("Request was cancelled.");
+		} catch (ExecutionException e) {
+			throw (IOException) e.getCause();
+		}
+	}
+	
+	/**
+	 * Complete the request with a response.
+	 * @return false if already done
+	 */
+	boolean complete(HTTPResponse response) {
+		List<IHTTPResponseListener> toNotify;
+		synchronized (this) {
+			if (done)
+				return false;
+			
+			this.response = response;
+			done = true;
+			toNotify = new ArrayList<IHTTPResponseListener>(listeners);
+			listeners.clear();
+			notifyAll();
+		}
+		
+		for (IHTTPResponseListener l : toNotify)
+			notifyListener(l);
+		
+		return true;
+	}
+	
+	/**
+	 * Complete the request with a failure.
+	 * @return false if already done
+	 */
+	boolean fail(IOException failure) {
+		List<IHTTPResponseListener> toNotify;
+		synchronized (this) {
+			if (done)
+				return false;
+			
+			this.failure = failure;
+			done = true;
+			toNotify = new ArrayList<IHTTPResponseListener>(listeners);
+			listeners.clear();
+			notifyAll();
+		}
+		
+		for (IHTTPResponseListener l : toNotify)
+			notifyListener(l);
+		
+		return true;
+	}
+
+	private HTTPResponse report() throws ExecutionException {
+		if (cancelled)
+			throw new CancellationException();
+		if (failure != null)
+			throw new ExecutionException(failure);
+		
+		return response;
+	}
+	
+	private void notifyListener(IHTTPResponseListener listener) {
+		HTTPResponse r;
+		IOException f;
+		synchronized (this) {
+			if (cancelled)
+				return;
+			r = response;
+			f = failure;
+		}
+		
+		try {
+			if (f != null)
+				listener.requestFailed(f);
+			else
+				listener.responseReceived(r);
+		} catch (RuntimeException e) {
+			// A failing listener must not take down the completing thread, nor keep the others from being called.
+		}
+	}
+}
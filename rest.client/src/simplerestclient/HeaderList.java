@@ -0,0 +1,118 @@
+package simplerestclient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ordered list of HTTP header fields with case-insensitive lookup.
+ *
+ * Mirrors the way HttpURLConnection exposes headers: index 0 holds the status line with a null key.
+ *
+ * @author kgilmer
+ *
+ */
+class HeaderList {
+	private final List<String> keys = new ArrayList<String>();
+	private final List<String> values = new ArrayList<String>();
+
+	/**
+	 * @param key field name, or null for the status line
+	 * @param value
+	 */
+	public void add(String key, String value) {
+		keys.add(key);
+		values.add(value);
+	}
+
+	/**
+	 * @param key
+	 * @return last value set for key, or null if not present.
+	 */
+	public String get(String key) {
+		for (int i = keys.size() - 1; i >= 0; --i) {
+			String k = keys.get(i);
+			if (k == null ? key == null : k.equalsIgnoreCase(key))
+				return values.get(i);
+		}
+
+		return null;
+	}
+
+	/**
+	 * @param key
+	 * @return true if any value of the (comma separated) field matches token, ignoring case.
+	 */
+	public boolean containsToken(String key, String token) {
+		for (int i = 0; i < keys.size(); ++i) {
+			String k = keys.get(i);
+			if (k != null && k.equalsIgnoreCase(key)) {
+				String[] elems = values.get(i).split(",");
+				for (int j = 0; j < elems.length; ++j)
+					if (elems[j].trim().equalsIgnoreCase(token))
+						return true;
+			}
+		}
+
+		return false;
+	}
+
+	public String getKey(int n) {
+		if (n < 0 || n >= keys.size())
+			return null;
+
+		return keys.get(n);
+	}
+
+	public String getValue(int n) {
+		if (n < 0 || n >= values.size())
+			return null;
+
+		return values.get(n);
+	}
+
+	public int size() {
+		return keys.size();
+	}
+
+	/**
+	 * @param map headers in the form of HttpURLConnection.getHeaderFields()
+	 * @return the headers, with a 200 status line if map has none
+	 */
+	public static HeaderList fromMap(Map<String, List<String>> map) {
+		HeaderList h = new HeaderList();
+		String statusLine = "HTTP/1.1 200 OK";
+		for (Map.Entry<String, List<String>> e : map.entrySet())
+			if (e.getKey() == null && !e.getValue().isEmpty())
+				statusLine = e.getValue().get(0);
+		h.add(null, statusLine);
+		for (Map.Entry<String, List<String>> e : map.entrySet())
+			if (e.getKey() != null)
+				for (String v : e.getValue())
+					h.add(e.getKey(), v);
+
+		return h;
+	}
+
+	/**
+	 * @return unmodifiable view in the form of HttpURLConnection.getHeaderFields()
+	 */
+	public Map<String, List<String>> toMap() {
+		Map<String, List<String>> map = new LinkedHashMap<String, List<String>>();
+		for (int i = 0; i < keys.size(); ++i) {
+			List<String> l = map.get(keys.get(i));
+			if (l == null) {
+				l = new ArrayList<String>();
+				map.put(keys.get(i), l);
+			}
+			l.add(values.get(i));
+		}
+
+		for (Map.Entry<String, List<String>> e : map.entrySet())
+			e.setValue(Collections.unmodifiableList(e.getValue()));
+
+		return Collections.unmodifiableMap(map);
+	}
+}
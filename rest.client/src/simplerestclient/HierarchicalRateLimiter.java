@@ -0,0 +1,246 @@
+package simplerestclient;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Layered quotas: a request takes a permit from every rule that matches it, all at once or not at
+ * all, so a global cap, per host limits, stricter limits for some endpoints and per tenant budgets
+ * are enforced together by one limiter instead of by stacked wrappers.
+ *
+ * A rule matches by URL pattern, HTTP method and tenant tag, each optional, and keeps one GCRA
+ * state for all matching requests (GLOBAL), or one per host (PER_HOST) or per tenant (PER_TENANT):
+ *
+ * HierarchicalRateLimiter quotas = new HierarchicalRateLimiter();
+ * quotas.addRule("egress", null, null, null, HierarchicalRateLimiter.GLOBAL, 500, 50);
+ * quotas.addRule("partner", null, null, null, HierarchicalRateLimiter.PER_HOST, 50, 10);
+ * quotas.addRule("orders-write", "http://api\\.example\\.com/orders(/.*)?", "POST", null, HierarchicalRateLimiter.GLOBAL, 5, 1);
+ * quotas.addRule("tenant", null, null, null, HierarchicalRateLimiter.PER_TENANT, 20, 20);
+ * RateLimitedHTTPRequest req = new RateLimitedHTTPRequest(quotas, new HTTPRequest());
+ * req.forTenant("customer-42").post(url, data);
+ *
+ * A request is sent when the last of its permits is due, and every matching rule is charged for
+ * that moment; if that is further off than the caller will wait, no rule is charged.  The checks
+ * for all rules are made under one lock.
+ *
+ * @author kgilmer
+ *
+ */
+public class HierarchicalRateLimiter {
+	/**
+	 * One state for every request the rule matches.
+	 */
+	public static final int GLOBAL = 0;
+	/**
+	 * One state per host[:port].
+	 */
+	public static final int PER_HOST = 1;
+	/**
+	 * One state per tenant tag; requests without a tag share one.
+	 */
+	public static final int PER_TENANT = 2;
+
+	private static final int SWEEP_INTERVAL = 1024;
+
+	private final List<Rule> rules = new ArrayList<Rule>();
+	private int calls;
+
+	/**
+	 * Add a rule, replacing any rule of the same name.
+	 *
+	 * @param name
+	 * @param urlPattern regular expression the whole URL must match, or null for any
+	 * @param method HTTP method, or null for any
+	 * @param tenant tenant tag, or null for any
+	 * @param scope GLOBAL, PER_HOST or PER_TENANT
+	 * @param permitsPerSecond
+	 * @param burst permits that may be taken at once after an idle period, at least 1
+	 */
+	public synchronized void addRule(String name, String urlPattern, String method, String tenant, int scope, double permitsPerSecond, int burst) {
+		if (name == null)
+			throw new IllegalArgumentException("name must not be null.");
+		if (scope < GLOBAL || scope > PER_TENANT)
+			throw new IllegalArgumentException("Invalid scope " + scope + ".");
+		if (!(permitsPerSecond > 0))
+			throw new IllegalArgumentException("permitsPerSecond must be positive.");
+		if (burst < 1)
+			throw new IllegalArgumentException("burst must be at least 1.");
+
+		removeRule(name);
+		rules.add(new Rule(name, urlPattern == null ? null : Pattern.compile(urlPattern), method, tenant, scope, permitsPerSecond, burst));
+	}
+
+	/**
+	 * @param name
+	 * @return true if there was a rule of that name
+	 */
+	public synchronized boolean removeRule(String name) {
+		for (Iterator<Rule> i = rules.iterator(); i.hasNext();) {
+			if (i.next().name.equals(name)) {
+				i.remove();
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return names of the rules that match the request
+	 */
+	public synchronized List<String> getMatchingRules(String method, String url, String tenant) {
+		List<String> names = new ArrayList<String>();
+		for (int i = 0; i < rules.size(); ++i) {
+			if (rules.get(i).matches(method, url, tenant))
+				names.add(rules.get(i).name);
+		}
+
+		return names;
+	}
+
+	/**
+	 * Take the permits for a request, waiting until they are all due.
+	 *
+	 * @param method
+	 * @param url
+	 * @param tenant tenant tag, or null
+	 * @throws InterruptedException
+	 */
+	public void acquire(String method, String url, String tenant) throws InterruptedException {
+		sleep(reserve(method, url, tenant, Long.MAX_VALUE));
+	}
+
+	/**
+	 * Take the permits for a request if they are all due within timeout, waiting for them.
+	 *
+	 * @return true if the permits were taken, false without waiting or taking any if they would not be due in time
+	 * @throws InterruptedException
+	 */
+	public boolean tryAcquire(String method, String url, String tenant, long timeout, TimeUnit unit) throws InterruptedException {
+		long wait = reserve(method, url, tenant, Math.max(0, unit.toNanos(timeout)));
+		if (wait < 0)
+			return false;
+
+		sleep(wait);
+		return true;
+	}
+
+	/**
+	 * Take the permits for a request if they are all due within timeout, without waiting.
+	 *
+	 * @return nanos until the permits are due, 0 if now, or -1 if they would not be due in time and none were taken
+	 */
+	public long reserve(String method, String url, String tenant, long timeout, TimeUnit unit) {
+		return reserve(method, url, tenant, Math.max(0, unit.toNanos(timeout)));
+	}
+
+	private synchronized long reserve(String method, String url, String tenant, long maxWait) {
+		long now = System.nanoTime();
+		if (++calls % SWEEP_INTERVAL == 0)
+			sweep(now);
+
+		List<Slot> slots = new ArrayList<Slot>(rules.size());
+		List<Rule> matched = new ArrayList<Rule>(rules.size());
+		long start = now;
+		for (int i = 0; i < rules.size(); ++i) {
+			Rule r = rules.get(i);
+			if (!r.matches(method, url, tenant))
+				continue;
+
+			Slot s = r.getSlot(r.key(url, tenant), now);
+			// GCRA: the permit is due tolerance before the theoretical arrival time.
+			long due = s.tat - r.tolerance;
+			if (due - start > 0)
+				start = due;
+			slots.add(s);
+			matched.add(r);
+		}
+
+		long wait = start - now;
+		if (wait > maxWait)
+			return -1;
+
+		for (int i = 0; i < slots.size(); ++i) {
+			Slot s = slots.get(i);
+			s.tat = (s.tat - start > 0 ? s.tat : start) + matched.get(i).interval;
+		}
+
+		return wait;
+	}
+
+	/**
+	 * Drop states that have caught up with the clock; a new state is the same as one of those.
+	 */
+	private void sweep(long now) {
+		for (int i = 0; i < rules.size(); ++i) {
+			for (Iterator<Slot> j = rules.get(i).slots.values().iterator(); j.hasNext();) {
+				if (j.next().tat - now <= 0)
+					j.remove();
+			}
+		}
+	}
+
+	private static void sleep(long nanos) throws InterruptedException {
+		if (nanos > 0)
+			TimeUnit.NANOSECONDS.sleep(nanos);
+	}
+
+	private static class Rule {
+		final String name;
+		final Pattern urlPattern;
+		final String method;
+		final String tenant;
+		final int scope;
+		final long interval;
+		final long tolerance;
+		final Map<String, Slot> slots = new HashMap<String, Slot>();
+
+		Rule(String name, Pattern urlPattern, String method, String tenant, int scope, double permitsPerSecond, int burst) {
+			this.name = name;
+			this.urlPattern = urlPattern;
+			this.method = method;
+			this.tenant = tenant;
+			this.scope = scope;
+			this.interval = AbstractGCRARateLimiter.interval(permitsPerSecond);
+			this.tolerance = interval * (burst - 1);
+		}
+
+		boolean matches(String method, String url, String tenant) {
+			return (this.method == null || this.method.equalsIgnoreCase(method))
+				&& (this.tenant == null || this.tenant.equals(tenant))
+				&& (urlPattern == null || urlPattern.matcher(url).matches());
+		}
+
+		String key(String url, String tenant) {
+			if (scope == PER_HOST)
+				return KeyedRateLimiter.host(url);
+			if (scope == PER_TENANT)
+				return tenant == null ? "" : tenant;
+
+			return "";
+		}
+
+		Slot getSlot(String key, long now) {
+			Slot s = slots.get(key);
+			if (s == null) {
+				s = new Slot(now);
+				slots.put(key, s);
+			}
+
+			return s;
+		}
+	}
+
+	private static class Slot {
+		long tat;
+
+		Slot(long tat) {
+			this.tat = tat;
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package simplerestclient;
+
+import java.nio.channels.SocketChannel;
+
+/**
+ * implement to control how AsyncHTTPEngine keeps idle connections alive.
+ *
+ * Each event loop of the engine gets its own pool from a Factory, and only ever calls it from
+ * the event loop thread, so implementations need not be thread safe.  Channels handed to a pool
+ * stay registered with the event loop's selector.
+ *
+ * @author kgilmer
+ *
+ */
+public interface IChannelPool {
+
+	/**
+	 * Creates a pool for each event loop.
+	 */
+	public interface Factory {
+		public IChannelPool createPool();
+	}
+
+	/**
+	 * @param key scheme://host:port
+	 * @return an idle open channel to reuse for key, or null to open a new one
+	 */
+	public SocketChannel acquire(String key);
+
+	/**
+	 * Offer a channel that can carry another request.
+	 *
+	 * @param key scheme://host:port
+	 * @param channel
+	 * @param expires time in millis after which the channel must not be reused
+	 * @return false if the channel was not kept, the caller closes it
+	 */
+	public boolean release(String key, SocketChannel channel, long expires);
+
+	/**
+	 * Forget a channel the server closed while it was idle.  The caller closes it.
+	 *
+	 * @param key scheme://host:port
+	 * @param channel
+	 */
+	public void remove(String key, SocketChannel channel);
+
+	/**
+	 * Close channels that expired.
+	 *
+	 * @param now current time in millis
+	 */
+	public void evictExpired(long now);
+
+	/**
+	 * Close all idle channels.
+	 */
+	public void close();
+}
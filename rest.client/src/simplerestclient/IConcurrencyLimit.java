@@ -0,0 +1,34 @@
+package simplerestclient;
+
+/**
+ * Decides how many requests to one destination may be in flight at once, from the latency and
+ * outcome of the requests that complete.
+ *
+ * ConcurrencyLimitedHTTPRequest calls onSample() from the threads that sent the requests, so
+ * implementations must be thread safe.  AIMDLimit, VegasLimit and GradientLimit are provided.
+ *
+ * @author kgilmer
+ *
+ */
+public interface IConcurrencyLimit {
+	/**
+	 * Creates the limit for a destination.
+	 */
+	public interface Factory {
+		public IConcurrencyLimit create(String key);
+	}
+
+	/**
+	 * @return requests that may be in flight now, at least 1
+	 */
+	public int getLimit();
+
+	/**
+	 * Record a completed request.
+	 *
+	 * @param rttNanos time from sending the request to its response or failure
+	 * @param inFlight requests in flight as it completed, including itself
+	 * @param dropped true if it failed or was refused for overload, such as a timeout or a 429 or 503
+	 */
+	public void onSample(long rttNanos, int inFlight, boolean dropped);
+}
@@ -0,0 +1,153 @@
+package simplerestclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Synchronous HTTP operations, implemented by HTTPRequest and the decorators that wrap it.
+ *
+ * @author kgilmer
+ *
+ */
+public interface IHTTPRequest {
+
+	/**
+	 * Do an HTTP GET from url
+	 *
+	 * @param url
+	 * @return
+	 * @throws IOException
+	 */
+	public HTTPResponse get(String url) throws IOException;
+
+	/**
+	 * Do an HTTP GET from url w/ extra http headers
+	 *
+	 * @param url
+	 * @param headers
+	 * @return
+	 * @throws IOException
+	 */
+	public HTTPResponse get(String url, Map<String, String> headers) throws IOException;
+
+	/**
+	 * Do an HTTP POST to url
+	 *
+	 * @param url
+	 * @param data
+	 * @return
+	 * @throws IOException
+	 */
+	public HTTPResponse post(String url, String data) throws IOException;
+
+	/**
+	 * Do an HTTP POST to url w/ extra http headers
+	 *
+	 * @param url
+	 * @param data
+	 * @param headers
+	 * @return
+	 * @throws IOException
+	 */
+	public HTTPResponse post(String url, String data, Map headers) throws IOException;
+
+	/**
+	 * Do an HTTP POST of Base64 encoded stream contents to url
+	 *
+	 * @param url
+	 * @param stream
+	 * @return
+	 * @throws IOException
+	 */
+	public HTTPResponse post(String url, InputStream stream) throws IOException;
+
+	/**
+	 * Posts a Map of key, value pair properties, like a web form
+	 *
+	 * @param url
+	 * @param properties
+	 * @return
+	 * @throws IOException
+	 */
+	public HTTPResponse post(String url, Map properties) throws IOException;
+
+	/**
+	 * Post byte data to a url
+	 *
+	 * @param url
+	 * @param data
+	 * @return
+	 * @throws IOException
+	 */
+	public HTTPResponse post(String url, byte[] data) throws IOException;
+
+	/**
+	 * Does a multipart post.  Values of parameters can be String or IFormFile.
+	 *
+	 * @param url
+	 * @param parameters
+	 * @return
+	 * @throws IOException
+	 */
+	public HTTPResponse postMultipart(String url, Map parameters) throws IOException;
+
+	/**
+	 * Do an HTTP PUT to url
+	 *
+	 * @param url
+	 * @param data
+	 * @return
+	 * @throws IOException
+	 */
+	public HTTPResponse put(String url, String data) throws IOException;
+
+	/**
+	 * Do an HTTP PUT to url with extra headers
+	 *
+	 * @param url
+	 * @param data
+	 * @param headers
+	 * @return
+	 * @throws IOException
+	 */
+	public HTTPResponse put(String url, String data, Map headers) throws IOException;
+
+	/**
+	 * Do an HTTP PUT of Base64 encoded stream contents to url
+	 *
+	 * @param url
+	 * @param stream
+	 * @return
+	 * @throws IOException
+	 */
+	public HTTPResponse put(String url, InputStream stream) throws IOException;
+
+	/**
+	 * Do an HTTP DELETE to url
+	 *
+	 * @param url
+	 * @return
+	 * @throws IOException
+	 */
+	public HTTPResponse delete(String url) throws IOException;
+
+	/**
+	 * Puts a Map of key, value pair properties, like a web form
+	 *
+	 * @param url
+	 * @param properties
+	 * @return
+	 * @throws IOException
+	 */
+	public HTTPResponse put(String url, Map properties) throws IOException;
+
+	/**
+	 * Do an HTTP HEAD to url
+	 *
+	 * @param url
+	 * @return
+	 * @throws IOException
+	 */
+	public HTTPResponse head(String url) throws IOException;
+}
@@ -0,0 +1,31 @@
+package simplerestclient;
+
+import java.io.IOException;
+
+/**
+ * Callback for the completion of an asynchronous request.
+ * 
+ * Listeners are called on the thread that completes the request.  For AsyncHTTPEngine that is one of its
+ * callback threads, never an event loop thread, so listeners may block or send further requests; see
+ * HTTPResponseFuture.addListener().  Limiters of a RateLimitedHTTPRequest are called on the thread that
+ * made a blocking request, or on the thread that completed an async one.
+ * 
+ * @author kgilmer
+ *
+ */
+public interface IHTTPResponseListener {
+	
+	/**
+	 * HTTPRequest and AsyncHTTPEngine report a status of 400 or above through requestFailed() instead,
+	 * but other IHTTPRequest implementations may hand any status here, including 429 and 503, so check
+	 * getStatusCode() where it matters.
+	 * 
+	 * @param response the response, not necessarily with a successful status.
+	 */
+	public void responseReceived(HTTPResponse response);
+	
+	/**
+	 * @param e cause of the failure.  An HTTPException carries the HTTP error code.
+	 */
+	public void requestFailed(IOException e);
+}
@@ -0,0 +1,42 @@
+package simplerestclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * implement to carry requests over something other than the JDK HttpURLConnection,
+ * e.g. a multiplexing HTTP/2 client.
+ * 
+ * HTTPRequest uses a transport through TransportConnectionProvider, so HTTPRequest and HTTPResponse
+ * work the same on every transport:
+ * 
+ * HTTPRequest req = new HTTPRequest(myTransport);
+ * 
+ * Implementations must be safe to call from multiple threads.
+ * 
+ * Request bodies are handed over as a stream, so a transport that sends them as they are read
+ * never holds a large body in memory; see TransportConnectionProvider for when bodies are buffered
+ * before they reach the transport.
+ * 
+ * @author kgilmer
+ *
+ */
+public interface IHTTPTransport {
+	
+	/**
+	 * Send a request and wait for the response status and headers.
+	 * 
+	 * @param method HTTP method
+	 * @param url
+	 * @param headers request headers
+	 * @param body request body, read to its end or until the transport fails, or null
+	 * @param length bytes in body, or -1 if not known
+	 * @param connectTimeout millis, 0 for no timeout
+	 * @param readTimeout millis, 0 for no timeout
+	 * @return response, with a body stream that must be read or closed
+	 * @throws IOException
+	 */
+	public TransportResponse send(String method, String url, Map<String, List<String>> headers, InputStream body, long length, int connectTimeout, int readTimeout) throws IOException;
+}
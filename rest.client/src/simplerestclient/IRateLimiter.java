@@ -0,0 +1,49 @@
+package simplerestclient;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when a rate limited request may be sent.  Each request takes one permit.
+ *
+ * Implementations must be safe for use from multiple threads.  The default is GCRARateLimiter;
+ * TokenBucket is the alternative.
+ *
+ * @author kgilmer
+ *
+ */
+public interface IRateLimiter {
+
+	/**
+	 * Take a permit, waiting until one is due.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void acquire() throws InterruptedException;
+
+	/**
+	 * Take a permit only if one is available now.
+	 *
+	 * @return true if a permit was taken
+	 */
+	public boolean tryAcquire();
+
+	/**
+	 * Take a permit if one is due within timeout, waiting for it.
+	 *
+	 * @param timeout
+	 * @param unit
+	 * @return true if a permit was taken, false without waiting if none would be due in time
+	 * @throws InterruptedException
+	 */
+	public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException;
+
+	/**
+	 * Take a permit that is due within timeout without waiting for it, for callers that schedule
+	 * their request instead.
+	 *
+	 * @param timeout
+	 * @param unit
+	 * @return nanos until the permit is due, 0 if now, or -1 if none would be due in time and none was taken
+	 */
+	public long reserve(long timeout, TimeUnit unit);
+}
@@ -0,0 +1,20 @@
+package simplerestclient;
+
+import java.util.Map;
+
+/**
+ * A connection provider that presets request properties on its connections, such as
+ * Authorization.  The JDK HttpURLConnection does not return Authorization or Proxy-Authorization
+ * from getRequestProperties(), so requests that are not sent on the provider's connection, such as
+ * async requests, take the presets from here instead.
+ *
+ * @author kgilmer
+ *
+ */
+public interface IRequestPropertiesProvider {
+	/**
+	 * @param urlStr
+	 * @return request properties set on every connection for urlStr
+	 */
+	public Map<String, String> getRequestProperties(String urlStr);
+}
@@ -0,0 +1,28 @@
+package simplerestclient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An IFormFile whose content is written to the request as it is read, so that postMultipart()
+ * never holds it in memory.  getBytes() still works, but reads all the content into memory.
+ *
+ * @author kgilmer
+ *
+ */
+public interface IStreamingFormFile extends IFormFile {
+	/**
+	 * @return bytes of content, or -1 if not known before it is written
+	 * @throws IOException
+	 */
+	public long getLength() throws IOException;
+
+	/**
+	 * Write the content to out, exactly getLength() bytes when that is known.
+	 *
+	 * @param out
+	 * @param buffer scratch space to copy through
+	 * @throws IOException
+	 */
+	public void writeTo(OutputStream out, byte[] buffer) throws IOException;
+}
@@ -0,0 +1,91 @@
+package simplerestclient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A multipart file part read from an InputStream as it is sent.  The stream is read once, and not
+ * closed.  When the length is not known the request is sent chunked.
+ *
+ * @author kgilmer
+ *
+ */
+public class InputStreamFormFile implements IStreamingFormFile {
+	private final InputStream in;
+	private final long length;
+	private final String filename;
+	private final String contentType;
+
+	/**
+	 * @param filename
+	 * @param contentType
+	 * @param in
+	 * @param length bytes to send from in, or -1 to send all of it
+	 */
+	public InputStreamFormFile(String filename, String contentType, InputStream in, long length) {
+		this.filename = filename;
+		this.contentType = contentType;
+		this.in = in;
+		this.length = length;
+	}
+
+	@Override
+	public String getFilename() {
+		return filename;
+	}
+
+	@Override
+	public String getContentType() {
+		return contentType;
+	}
+
+	@Override
+	public long getLength() {
+		return length;
+	}
+
+	@Override
+	public void writeTo(OutputStream out, byte[] buffer) throws IOException {
+		copy(in, out, length, buffer);
+	}
+
+	/**
+	 * Read the part into memory.
+	 *
+	 * @throws IllegalStateException if the stream can't be read or ends short of the length
+	 */
+	@Override
+	public byte[] getBytes() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(length < 0 || length > Integer.MAX_VALUE ? 4096 : (int) length);
+		try {
+			copy(in, out, length, new byte[4096]);
+			return out.toByteArray();
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to read " + filename + ".", e);
+		}
+	}
+
+	/**
+	 * Copy length bytes, or all of in when length is -1.
+	 *
+	 * @throws EOFException if in ends before length bytes
+	 */
+	static void copy(InputStream in, OutputStream out, long length, byte[] buffer) throws IOException {
+		long remaining = length;
+		while (length < 0 || remaining > 0) {
+			int want = length < 0 || remaining > buffer.length ? buffer.length : (int) remaining;
+			int read = in.read(buffer, 0, want);
+			if (read < 0) {
+				if (length < 0)
+					return;
+				throw new EOFException("Stream ended " + remaining + " bytes short.");
+			}
+
+			out.write(buffer, 0, read);
+			remaining -= read;
+		}
+	}
+}
@@ -0,0 +1,258 @@
+package simplerestclient;
+
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Independent rate limiters per key, by default the host of the request URL, so a slow or tightly
+ * limited host does not hold back requests to the others.
+ *
+ * Limiters are created on first use with the default rate, or the rate set for their key with
+ * setRate().  Limiters not used for the idle timeout are dropped once they have refilled their
+ * burst, so the new limiter that replaces one, which starts with a full burst, grants no more than
+ * the old one would have.  A GCRARateLimiter or AdaptiveRateLimiter paused past the idle timeout is
+ * kept until the pause is over.  Limiters of other types are dropped on the idle timeout alone.
+ *
+ * KeyedRateLimiter limiter = new KeyedRateLimiter(10, 20);
+ * limiter.setRate("api.example.com", 2, 5);
+ * IHTTPRequest req = new RateLimitedHTTPRequest(limiter, new HTTPRequest());
+ *
+ * @author kgilmer
+ *
+ */
+public class KeyedRateLimiter {
+	/**
+	 * Maps a request URL to the key its limiter is stored under.
+	 */
+	public interface KeyFunction {
+		public String getKey(String url);
+	}
+
+	/**
+	 * Creates the limiter for a key that has no rate of its own.
+	 */
+	public interface Factory {
+		public IRateLimiter create(String key);
+	}
+
+	/**
+	 * host[:port] of the URL, lower case, without user info.
+	 */
+	public static final KeyFunction HOST = new KeyFunction() {
+		@Override
+		public String getKey(String url) {
+			return host(url);
+		}
+	};
+
+	public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 5 * 60 * 1000;
+
+	private final KeyFunction keyFunction;
+	private final Factory factory;
+	private final long idleTimeoutNanos;
+	private final ConcurrentMap<String, Entry> limiters = new ConcurrentHashMap<String, Entry>();
+	private final ConcurrentMap<String, Factory> rates = new ConcurrentHashMap<String, Factory>();
+	private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+
+	/**
+	 * Per host GCRARateLimiters.
+	 *
+	 * @param permitsPerSecond default rate for each host
+	 * @param burst default burst for each host
+	 */
+	public KeyedRateLimiter(double permitsPerSecond, int burst) {
+		this(HOST, gcra(permitsPerSecond, burst), DEFAULT_IDLE_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * @param keyFunction
+	 * @param factory creates limiters for keys without a rate of their own
+	 * @param idleTimeoutMillis limiters unused for this long are dropped
+	 */
+	public KeyedRateLimiter(KeyFunction keyFunction, Factory factory, long idleTimeoutMillis) {
+		if (keyFunction == null || factory == null)
+			throw new IllegalArgumentException("keyFunction and factory must not be null.");
+		if (idleTimeoutMillis < 1)
+			throw new IllegalArgumentException("idleTimeoutMillis must be positive.");
+
+		this.keyFunction = keyFunction;
+		this.factory = factory;
+		this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+	}
+
+	/**
+	 * Give key its own rate, replacing its current limiter.
+	 *
+	 * @param key as returned by the key function, for HOST "host" or "host:port"
+	 * @param permitsPerSecond
+	 * @param burst
+	 */
+	public void setRate(String key, double permitsPerSecond, int burst) {
+		rates.put(key, gcra(permitsPerSecond, burst));
+		limiters.remove(key);
+	}
+
+	/**
+	 * Return key to the default rate, replacing its current limiter.
+	 *
+	 * @param key
+	 */
+	public void clearRate(String key) {
+		rates.remove(key);
+		limiters.remove(key);
+	}
+
+	/**
+	 * @param url
+	 * @return the limiter for the key of url, created if necessary
+	 */
+	public IRateLimiter getLimiter(String url) {
+		return getLimiterForKey(keyFunction.getKey(url));
+	}
+
+	/**
+	 * @param key
+	 * @return the limiter for key, created if necessary
+	 */
+	public IRateLimiter getLimiterForKey(String key) {
+		long now = System.nanoTime();
+		evictIdle(now);
+
+		Entry e = limiters.get(key);
+		if (e == null) {
+			Factory f = rates.get(key);
+			Entry created = new Entry((f != null ? f : factory).create(key));
+			e = limiters.putIfAbsent(key, created);
+			if (e == null)
+				e = created;
+		}
+		e.lastUsed = now;
+		return e.limiter;
+	}
+
+	/**
+	 * Take a permit for url, waiting until one is due.
+	 *
+	 * @param url
+	 * @throws InterruptedException
+	 */
+	public void acquire(String url) throws InterruptedException {
+		getLimiter(url).acquire();
+	}
+
+	/**
+	 * Take a permit for url only if one is available now.
+	 *
+	 * @param url
+	 * @return true if a permit was taken
+	 */
+	public boolean tryAcquire(String url) {
+		return getLimiter(url).tryAcquire();
+	}
+
+	/**
+	 * Take a permit for url if one is due within timeout, waiting for it.
+	 *
+	 * @return true if a permit was taken
+	 * @throws InterruptedException
+	 */
+	public boolean tryAcquire(String url, long timeout, TimeUnit unit) throws InterruptedException {
+		return getLimiter(url).tryAcquire(timeout, unit);
+	}
+
+	/**
+	 * @return number of keys with a limiter
+	 */
+	public int getKeyCount() {
+		return limiters.size();
+	}
+
+	/**
+	 * Drop limiters unused for the idle timeout that have refilled their burst.  Called as limiters
+	 * are used, at most once per half timeout.
+	 */
+	public void evictIdle() {
+		long now = System.nanoTime();
+		lastSweep.set(now);
+		sweep(now);
+	}
+
+	private void evictIdle(long now) {
+		long last = lastSweep.get();
+		if (now - last < idleTimeoutNanos / 2 || !lastSweep.compareAndSet(last, now))
+			return;
+
+		sweep(now);
+	}
+
+	private void sweep(long now) {
+		for (Iterator<Map.Entry<String, Entry>> i = limiters.entrySet().iterator(); i.hasNext();) {
+			Entry e = i.next().getValue();
+			if (now - e.lastUsed > idleTimeoutNanos && isAtFullCapacity(e.limiter))
+				i.remove();
+		}
+	}
+
+	/**
+	 * @return true if a new limiter would grant no more than limiter
+	 */
+	private static boolean isAtFullCapacity(IRateLimiter limiter) {
+		if (limiter instanceof AbstractGCRARateLimiter)
+			return ((AbstractGCRARateLimiter) limiter).isAtFullCapacity();
+		if (limiter instanceof TokenBucket)
+			return ((TokenBucket) limiter).getAvailable() >= ((TokenBucket) limiter).getBurst();
+
+		return true;
+	}
+
+	private static Factory gcra(final double permitsPerSecond, final int burst) {
+		// Fail on bad arguments now rather than at first use of a key.
+		new GCRARateLimiter(permitsPerSecond, burst);
+
+		return new Factory() {
+			@Override
+			public IRateLimiter create(String key) {
+				return new GCRARateLimiter(permitsPerSecond, burst);
+			}
+		};
+	}
+
+	/**
+	 * @return host[:port] of url in lower case, or url if it has no "://"
+	 */
+	static String host(String url) {
+		int start = url.indexOf("://");
+		if (start < 0)
+			return url;
+		start += 3;
+
+		int end = url.length();
+		for (int i = start; i < end; ++i) {
+			char c = url.charAt(i);
+			if (c == '/' || c == '?' || c == '#') {
+				end = i;
+				break;
+			}
+		}
+
+		int at = url.lastIndexOf('@', end - 1);
+		if (at >= start)
+			start = at + 1;
+
+		return url.substring(start, end).toLowerCase(Locale.ENGLISH);
+	}
+
+	private static class Entry {
+		final IRateLimiter limiter;
+		volatile long lastUsed;
+
+		Entry(IRateLimiter limiter) {
+			this.limiter = limiter;
+		}
+	}
+}
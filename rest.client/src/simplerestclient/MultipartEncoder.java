@@ -0,0 +1,124 @@
+package simplerestclient;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes a multipart/form-data body.  The part headers are encoded up front so the exact length is
+ * known before anything is written; file content from an IStreamingFormFile is only read while the
+ * body is written, through buffers reused for every part.
+ *
+ * Headers and String values are encoded as UTF-8.
+ *
+ * @author kgilmer
+ *
+ */
+class MultipartEncoder {
+	private static final String CHARSET      = "UTF-8";
+	private static final String HEADER_TYPE  = "Content-Type";
+	private static final String HEADER_PARA  = "Content-Disposition: form-data";
+	private static final String LINE_ENDING  = "\r\n";
+	private static final String PARA_NAME    = "name";
+	private static final String FILE_NAME    = "filename";
+	private static final int    BUFFER_SIZE  = 8192;
+
+	/**
+	 * byte[] or IStreamingFormFile, in the order they are written.
+	 */
+	private final List<Object> parts = new ArrayList<Object>();
+	private final long length;
+
+	/**
+	 * @param parameters Key-Value pairs in map.  Keys are always string.  Values can be string or IFormFile
+	 * @param boundary
+	 * @throws IOException if the length of a streaming part can not be read
+	 */
+	MultipartEncoder(Map parameters, String boundary) throws IOException {
+		long total = 0;
+		Object [] elems = parameters.keySet().toArray();
+		StringBuffer buf;
+		for (int i = 0; i < elems.length; i++) {
+			String key = (String) elems[i];
+			Object obj = parameters.get(key);
+
+			buf = new StringBuffer();
+			if (obj instanceof IFormFile) {
+				IFormFile file = (IFormFile) obj;
+				buf.append("--" + boundary + LINE_ENDING);
+				buf.append(HEADER_PARA);
+				buf.append("; " + PARA_NAME + "=\"" + key + "\"");
+				buf.append("; " + FILE_NAME + "=\"" + file.getFilename() + "\"" + LINE_ENDING);
+				buf.append(HEADER_TYPE + ": " + file.getContentType() + ";");
+				buf.append(LINE_ENDING);
+				buf.append(LINE_ENDING);
+				total = add(total, encode(buf.toString()));
+
+				if (file instanceof IStreamingFormFile) {
+					long partLength = ((IStreamingFormFile) file).getLength();
+					parts.add(file);
+					total = partLength < 0 || total < 0 ? -1 : total + partLength;
+				} else {
+					total = add(total, file.getBytes());
+				}
+			} else if (obj != null) {
+				buf.append("--" + boundary + LINE_ENDING);
+				buf.append(HEADER_PARA);
+				buf.append("; " + PARA_NAME + "=\"" + key + "\"");
+				buf.append(LINE_ENDING);
+				buf.append(LINE_ENDING);
+				buf.append(obj.toString());
+				total = add(total, encode(buf.toString()));
+			}
+			total = add(total, encode(LINE_ENDING));
+		}
+		total = add(total, encode("--" + boundary + "--" + LINE_ENDING));
+
+		this.length = total;
+	}
+
+	/**
+	 * @return exact body length, or -1 if a streaming part does not know its length
+	 */
+	long getLength() {
+		return length;
+	}
+
+	/**
+	 * Write the body.  os is not closed.
+	 *
+	 * @param os
+	 * @throws IOException
+	 */
+	void writeTo(OutputStream os) throws IOException {
+		// Headers collect in out; content copied through scratch in whole buffers goes straight to os.
+		OutputStream out = new BufferedOutputStream(os, BUFFER_SIZE);
+		byte[] scratch = new byte[BUFFER_SIZE];
+		for (int i = 0; i < parts.size(); ++i) {
+			Object part = parts.get(i);
+			if (part instanceof byte[])
+				out.write((byte[]) part);
+			else
+				((IStreamingFormFile) part).writeTo(out, scratch);
+		}
+		out.flush();
+	}
+
+	private long add(long total, byte[] part) {
+		parts.add(part);
+		return total < 0 ? total : total + part.length;
+	}
+
+	private static byte[] encode(String s) {
+		try {
+			return s.getBytes(CHARSET);
+		} catch (UnsupportedEncodingException e) {
+			// Every JVM supports UTF-8.
+			throw new IllegalStateException(e);
+		}
+	}
+}
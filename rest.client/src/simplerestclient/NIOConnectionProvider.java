@@ -0,0 +1,51 @@
+package simplerestclient;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * A connection provider that sends requests on an AsyncHTTPEngine rather than the JDK HttpURLConnection.
+ *
+ * HTTPRequest req = new HTTPRequest(new NIOConnectionProvider());
+ *
+ * Request and response bodies are held in memory, so streamed request bodies, such as those of
+ * HTTPRequest.post(String, InputStream) or file form parts, are read fully before they are sent.  The
+ * engine speaks plain http only, so https URLs get a JDK HttpsURLConnection.
+ *
+ * @author kgilmer
+ *
+ */
+public class NIOConnectionProvider extends TransportConnectionProvider {
+
+	/**
+	 * Use the shared default engine.
+	 * @throws IOException if the engine can't be started
+	 */
+	public NIOConnectionProvider() throws IOException {
+		this(AsyncHTTPEngine.getDefault());
+	}
+
+	/**
+	 * @param engine
+	 */
+	public NIOConnectionProvider(AsyncHTTPEngine engine) {
+		super(engine);
+	}
+
+	@Override
+	public HttpURLConnection getConnection(String urlStr) throws IOException {
+		URL url = new URL(urlStr);
+		if (!AsyncHTTPEngine.isSupported(url))
+			return (HttpURLConnection) url.openConnection();
+
+		return super.getConnection(urlStr);
+	}
+
+	/**
+	 * @return the engine requests are sent on
+	 */
+	public AsyncHTTPEngine getEngine() {
+		return (AsyncHTTPEngine) getTransport();
+	}
+}
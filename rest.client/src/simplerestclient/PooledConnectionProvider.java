@@ -0,0 +1,55 @@
+package simplerestclient;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * A connection provider that keeps sockets alive between requests in a ConnectionPool.
+ * 
+ * Sockets are returned to the pool when the response body has been read or the HTTPResponse is closed,
+ * so callers should always consume or close() their responses.
+ * 
+ * HTTPRequest req = new HTTPRequest(new PooledConnectionProvider());
+ * 
+ * Proxies are not supported, connections are made directly to the host in the URL.
+ * Redirects are followed as by HttpURLConnection, to the same scheme only.
+ * 
+ * @author kgilmer
+ *
+ */
+public class PooledConnectionProvider implements IConnectionProvider {
+
+	private final ConnectionPool pool;
+	
+	/**
+	 * Create a provider with a pool using the default limits.
+	 */
+	public PooledConnectionProvider() {
+		this(new ConnectionPool());
+	}
+	
+	/**
+	 * @param pool pool to lease sockets from, may be shared by several providers.
+	 */
+	public PooledConnectionProvider(ConnectionPool pool) {
+		this.pool = pool;
+	}
+	
+	public HttpURLConnection getConnection(String urlStr) throws IOException {
+		URL url = new URL(urlStr);
+		String protocol = url.getProtocol();
+		if (!protocol.equalsIgnoreCase("http") && !protocol.equalsIgnoreCase("https"))
+			throw new MalformedURLException("Unsupported protocol: " + protocol);
+		
+		return new PooledHttpURLConnection(url, pool);
+	}
+	
+	/**
+	 * @return the pool backing this provider
+	 */
+	public ConnectionPool getPool() {
+		return pool;
+	}
+}
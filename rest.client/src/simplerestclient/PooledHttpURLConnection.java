@@ -0,0 +1,698 @@
+package simplerestclient;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.SocketException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HTTP/1.1 HttpURLConnection that runs on a socket leased from a ConnectionPool.
+ *
+ * The socket goes back to the pool as soon as the response body has been read to the end or closed,
+ * so that HTTPResponse and HTTPRequest work unchanged on top of it.
+ *
+ * Like HttpURLConnection, redirects to the same scheme are followed unless instanceFollowRedirects
+ * is off.  A POST redirected with 301, 302 or 303 becomes a GET.  307 and 308 keep the method, and
+ * are returned as is when the body has already been streamed and can't be sent again.
+ *
+ * @author kgilmer
+ *
+ */
+class PooledHttpURLConnection extends HttpURLConnection {
+	/**
+	 * Unread response bytes that will be drained on close to keep a socket alive.
+	 */
+	private static final long MAX_DRAIN = 64 * 1024;
+	/**
+	 * Streamed request bodies up to this size are held back and sent with the head, so that the
+	 * request can be sent again if the pooled socket turns out to be stale.
+	 */
+	private static final int MAX_REPLAYABLE_BODY = 64 * 1024;
+	/**
+	 * Same limit as the JDK http.maxRedirects default.
+	 */
+	private static final int MAX_REDIRECTS = 20;
+
+	private final ConnectionPool pool;
+	private Map<String, List<String>> requestProperties;
+	private PooledSocket socket;
+	private ByteArrayOutputStream bufferedBody;
+	private StreamingBody streamingBody;
+	private long fixedLength = -1;
+	private int chunkSize = -1;
+
+	private HeaderList responseHeaders;
+	private ResponseBody responseBody;
+	private InputStream errorStream;
+	private IOException responseFailure;
+
+	PooledHttpURLConnection(URL url, ConnectionPool pool) {
+		super(url);
+		this.pool = pool;
+	}
+
+	@Override
+	public void setFixedLengthStreamingMode(int contentLength) {
+		super.setFixedLengthStreamingMode(contentLength);
+		fixedLength = contentLength;
+	}
+
+	/**
+	 * Overrides the long variant on JVMs that have it.
+	 */
+	public void setFixedLengthStreamingMode(long contentLength) {
+		if (connected)
+			throw new IllegalStateException("Already connected");
+		if (contentLength < 0)
+			throw new IllegalArgumentException("invalid content length");
+		if (chunkSize != -1)
+			throw new IllegalStateException("Chunked encoding streaming mode set");
+		fixedLength = contentLength;
+	}
+
+	@Override
+	public void setChunkedStreamingMode(int chunklen) {
+		super.setChunkedStreamingMode(chunklen);
+		chunkSize = chunklen <= 0 ? 4096 : chunklen;
+	}
+
+	@Override
+	public void connect() throws IOException {
+		if (connected)
+			return;
+
+		// Request properties are only readable before the connection is marked connected.
+		requestProperties = getRequestProperties();
+		socket = pool.borrow(url, getConnectTimeout());
+		socket.getSocket().setSoTimeout(getReadTimeout());
+		connected = true;
+	}
+
+	@Override
+	public void disconnect() {
+		if (responseBody != null)
+			responseBody.abort();
+		else if (socket != null)
+			pool.release(socket, false, -1);
+
+		socket = null;
+	}
+
+	@Override
+	public boolean usingProxy() {
+		return false;
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		if (!doOutput)
+			throw new ProtocolException("cannot write to a URLConnection if doOutput=false - call setDoOutput(true)");
+
+		if (method.equals("GET"))
+			method = "POST";
+
+		if (responseHeaders != null || responseFailure != null)
+			throw new ProtocolException("Cannot write output after reading input.");
+
+		if (bufferedBody != null)
+			return bufferedBody;
+		if (streamingBody != null)
+			return streamingBody;
+
+		connect();
+
+		if (fixedLength != -1 || chunkSize != -1) {
+			streamingBody = new StreamingBody();
+			return streamingBody;
+		}
+
+		bufferedBody = new ByteArrayOutputStream();
+		return bufferedBody;
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		readResponse();
+
+		if (responseCode >= 400) {
+			if (responseCode == HTTP_NOT_FOUND || responseCode == HTTP_GONE)
+				throw new FileNotFoundException(url.toString());
+			throw new IOException("Server returned HTTP response code: " + responseCode + " for URL: " + url);
+		}
+
+		return responseBody;
+	}
+
+	@Override
+	public InputStream getErrorStream() {
+		if (responseHeaders == null || responseCode < 400)
+			return null;
+
+		return errorStream;
+	}
+
+	@Override
+	public int getResponseCode() throws IOException {
+		readResponse();
+		return responseCode;
+	}
+
+	@Override
+	public String getResponseMessage() throws IOException {
+		readResponse();
+		return responseMessage;
+	}
+
+	@Override
+	public String getHeaderField(String name) {
+		if (!tryReadResponse())
+			return null;
+
+		return responseHeaders.get(name);
+	}
+
+	@Override
+	public String getHeaderField(int n) {
+		if (!tryReadResponse())
+			return null;
+
+		return responseHeaders.getValue(n);
+	}
+
+	@Override
+	public String getHeaderFieldKey(int n) {
+		if (!tryReadResponse())
+			return null;
+
+		return responseHeaders.getKey(n);
+	}
+
+	@Override
+	public Map<String, List<String>> getHeaderFields() {
+		if (!tryReadResponse())
+			return super.getHeaderFields();
+
+		return responseHeaders.toMap();
+	}
+
+	/**
+	 * Header accessors in HttpURLConnection swallow errors and return null.
+	 */
+	private boolean tryReadResponse() {
+		try {
+			readResponse();
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Send the request if it hasn't been sent and read the status line and headers.
+	 */
+	private void readResponse() throws IOException {
+		if (responseHeaders != null)
+			return;
+		if (responseFailure != null)
+			throw responseFailure;
+
+		try {
+			if (streamingBody != null && streamingBody.isStreaming()) {
+				streamingBody.close();
+				readHead();
+			} else {
+				sendBufferedAndReadHead();
+			}
+
+			for (int redirects = 0; followRedirect();) {
+				if (++redirects > MAX_REDIRECTS)
+					throw new ProtocolException("Server redirected too many times (" + MAX_REDIRECTS + ")");
+				sendBufferedAndReadHead();
+			}
+		} catch (IOException e) {
+			responseFailure = e;
+			if (socket != null) {
+				pool.release(socket, false, -1);
+				socket = null;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * If the response is a redirect that can be followed, close it and prepare the request for the
+	 * new location on another pooled socket.
+	 *
+	 * @return true if the request should be sent again
+	 */
+	private boolean followRedirect() throws IOException {
+		if (!getInstanceFollowRedirects())
+			return false;
+		if (responseCode != HTTP_MOVED_PERM && responseCode != HTTP_MOVED_TEMP && responseCode != HTTP_SEE_OTHER
+				&& responseCode != 307 && responseCode != 308)
+			return false;
+
+		String location = responseHeaders.get("Location");
+		if (location == null)
+			return false;
+		URL target = new URL(url, location);
+		if (!target.getProtocol().equalsIgnoreCase(url.getProtocol()))
+			return false;
+
+		boolean toGet = responseCode == HTTP_SEE_OTHER || (method.equals("POST") && responseCode < 307);
+		if (!toGet && streamingBody != null && streamingBody.isStreaming())
+			return false;
+
+		responseBody.close();
+		responseHeaders = null;
+		responseBody = null;
+		errorStream = null;
+
+		Map<String, List<String>> properties = new HashMap<String, List<String>>(requestProperties);
+		if (!target.getHost().equalsIgnoreCase(url.getHost()) || target.getPort() != url.getPort()) {
+			removeProperty(properties, "Host");
+			removeProperty(properties, "Authorization");
+			removeProperty(properties, "Cookie");
+		}
+		if (toGet) {
+			if (!method.equals("HEAD"))
+				method = "GET";
+			bufferedBody = null;
+			streamingBody = null;
+			removeProperty(properties, "Content-Type");
+		}
+		requestProperties = properties;
+		url = target;
+
+		socket = pool.borrow(url, getConnectTimeout());
+		socket.getSocket().setSoTimeout(getReadTimeout());
+		return true;
+	}
+
+	private static void removeProperty(Map<String, List<String>> properties, String name) {
+		for (Iterator<String> i = properties.keySet().iterator(); i.hasNext();)
+			if (name.equalsIgnoreCase(i.next()))
+				i.remove();
+	}
+
+	/**
+	 * Write the whole request and read the response head.  A pooled socket may have been closed by the
+	 * server while idle, so if nothing at all comes back on a reused socket, retry on another one.
+	 */
+	private void sendBufferedAndReadHead() throws IOException {
+		connect();
+		byte[] body = bufferedBody != null ? bufferedBody.toByteArray() : streamingBody != null ? streamingBody.finish() : null;
+
+		for (;;) {
+			boolean reused = socket.isReused();
+			try {
+				OutputStream os = socket.getOutputStream();
+				writeHead(os, body == null ? -1 : body.length, false);
+				if (body != null)
+					os.write(body);
+				os.flush();
+			} catch (IOException e) {
+				if (!reused)
+					throw e;
+				retryOnNewSocket();
+				continue;
+			}
+
+			try {
+				readHead();
+				return;
+			} catch (StatusLineException e) {
+				if (!reused || e.partial)
+					throw e;
+				retryOnNewSocket();
+			}
+		}
+	}
+
+	private void retryOnNewSocket() throws IOException {
+		pool.release(socket, false, -1);
+		socket = null;
+		socket = pool.borrow(url, getConnectTimeout());
+		socket.getSocket().setSoTimeout(getReadTimeout());
+	}
+
+	/**
+	 * @param length body length, or -1 for none or a chunked body
+	 */
+	private void writeHead(OutputStream os, long length, boolean chunked) throws IOException {
+		os.write(HTTPProtocol.requestHead(method, url, requestProperties, length, chunked));
+	}
+
+	private void readHead() throws IOException {
+		InputStream is = socket.getInputStream();
+		HeaderList headers;
+		String statusLine;
+
+		// Skip interim 1xx responses.
+		do {
+			statusLine = readLine(is, true);
+			headers = new HeaderList();
+			headers.add(null, statusLine);
+			String line;
+			String lastKey = null;
+			while ((line = readLine(is, false)).length() > 0)
+				lastKey = HTTPProtocol.parseHeaderLine(line, headers, lastKey);
+			responseCode = HTTPProtocol.parseStatusCode(statusLine);
+			responseMessage = HTTPProtocol.parseReasonPhrase(statusLine);
+		} while (responseCode >= 100 && responseCode < 200);
+
+		responseHeaders = headers;
+
+		boolean keepAlive = HTTPProtocol.isKeepAlive(headers, requestProperties);
+
+		long length = -1;
+		boolean chunked = false;
+		if (!HTTPProtocol.hasBody(method, responseCode)) {
+			length = 0;
+		} else if (headers.containsToken("Transfer-Encoding", "chunked")) {
+			chunked = true;
+		} else if ((length = HTTPProtocol.getContentLength(headers)) == -1) {
+			// Body is delimited by the server closing the connection.
+			keepAlive = false;
+		}
+
+		responseBody = new ResponseBody(socket, is, length, chunked, keepAlive, HTTPProtocol.getKeepAliveTimeout(headers));
+		socket = null;
+
+		if (length == 0)
+			responseBody.finish();
+		else if (responseCode >= 400)
+			bufferErrorBody();
+	}
+
+	/**
+	 * Callers rarely read error bodies, so read small ones up front to free the socket.
+	 */
+	private void bufferErrorBody() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		int r;
+		while (os.size() <= MAX_DRAIN && (r = responseBody.read(buf, 0, buf.length)) != -1)
+			os.write(buf, 0, r);
+
+		InputStream buffered = new ByteArrayInputStream(os.toByteArray());
+		if (os.size() <= MAX_DRAIN)
+			errorStream = buffered;
+		else
+			errorStream = new SequenceInputStream(buffered, responseBody);
+	}
+
+	/**
+	 * Read a CRLF (or LF) terminated ISO-8859-1 line.
+	 *
+	 * @param statusLine true when reading the status line, to tell an idle connection closed by the server apart from a broken response.
+	 */
+	static String readLine(InputStream is, boolean statusLine) throws IOException {
+		StringBuilder sb = new StringBuilder(64);
+		int c;
+		for (;;) {
+			try {
+				c = is.read();
+			} catch (SocketException e) {
+				// A reset before the first byte looks the same as an orderly close to the caller.
+				if (statusLine && sb.length() == 0)
+					throw new StatusLineException(false);
+				throw e;
+			}
+			if (c == -1)
+				break;
+
+			if (c == '\n') {
+				int len = sb.length();
+				if (len > 0 && sb.charAt(len - 1) == '\r')
+					sb.setLength(len - 1);
+				return sb.toString();
+			}
+			sb.append((char) c);
+		}
+
+		if (statusLine)
+			throw new StatusLineException(sb.length() > 0);
+		throw new EOFException("Unexpected end of response headers.");
+	}
+
+	/**
+	 * Thrown when the connection ends before a status line was read.
+	 */
+	private static class StatusLineException extends EOFException {
+		private static final long serialVersionUID = 1L;
+		final boolean partial;
+
+		StatusLineException(boolean partial) {
+			super("Connection closed before a response was received.");
+			this.partial = partial;
+		}
+	}
+
+	/**
+	 * Request body in fixed-length or chunked mode.  Up to MAX_REPLAYABLE_BODY it is held back, and
+	 * a body completed within that is sent with sendBufferedAndReadHead().  A larger one is then
+	 * written straight to the socket, on a socket checked to be usable since it can't be sent again.
+	 */
+	private class StreamingBody extends OutputStream {
+		private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+		private OutputStream out;
+		private long written;
+		private boolean closed;
+
+		/**
+		 * @return true once the body is being written to the socket
+		 */
+		boolean isStreaming() {
+			return out != null;
+		}
+
+		/**
+		 * @return the whole body, held back because it never grew past MAX_REPLAYABLE_BODY
+		 */
+		byte[] finish() throws IOException {
+			close();
+			return pending.toByteArray();
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (closed)
+				throw new IOException("Stream is closed");
+			if (len == 0)
+				return;
+			if (fixedLength != -1 && written + len > fixedLength)
+				throw new IOException("too many bytes written");
+			written += len;
+
+			if (out != null) {
+				writeBody(b, off, len);
+			} else {
+				pending.write(b, off, len);
+				if (pending.size() > MAX_REPLAYABLE_BODY)
+					startStreaming();
+			}
+		}
+
+		/**
+		 * Write the head and what was held back.  That can still be sent again if the socket turns
+		 * out to be stale, so an idle socket is also checked first.
+		 */
+		private void startStreaming() throws IOException {
+			byte[] b = pending.toByteArray();
+			pending = null;
+			if (socket.isReused() && !socket.isUsable())
+				retryOnNewSocket();
+
+			for (;;) {
+				boolean reused = socket.isReused();
+				try {
+					out = socket.getOutputStream();
+					writeHead(out, chunkSize != -1 ? -1 : fixedLength, chunkSize != -1);
+					writeBody(b, 0, b.length);
+					return;
+				} catch (IOException e) {
+					out = null;
+					if (!reused)
+						throw e;
+					retryOnNewSocket();
+				}
+			}
+		}
+
+		private void writeBody(byte[] b, int off, int len) throws IOException {
+			if (chunkSize == -1) {
+				out.write(b, off, len);
+			} else {
+				out.write(Integer.toHexString(len).getBytes("ISO-8859-1"));
+				out.write(HTTPProtocol.CRLF.getBytes("ISO-8859-1"));
+				out.write(b, off, len);
+				out.write(HTTPProtocol.CRLF.getBytes("ISO-8859-1"));
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed)
+				return;
+			closed = true;
+
+			if (fixedLength != -1 && written != fixedLength)
+				throw new IOException("insufficient data written");
+			if (out == null)
+				return;
+			if (chunkSize != -1)
+				out.write(("0" + HTTPProtocol.CRLF + HTTPProtocol.CRLF).getBytes("ISO-8859-1"));
+			out.flush();
+		}
+	}
+
+	/**
+	 * Response body that returns the socket to the pool once fully read or closed.
+	 */
+	private class ResponseBody extends InputStream {
+		private PooledSocket ps;
+		private final InputStream in;
+		private final boolean chunked;
+		private final boolean keepAlive;
+		private final long keepAliveTimeout;
+		private long remaining;
+		private boolean eof;
+
+		ResponseBody(PooledSocket ps, InputStream in, long length, boolean chunked, boolean keepAlive, long keepAliveTimeout) {
+			this.ps = ps;
+			this.in = in;
+			this.remaining = length;
+			this.chunked = chunked;
+			this.keepAlive = keepAlive;
+			this.keepAliveTimeout = keepAliveTimeout;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int r = read(b, 0, 1);
+			return r == -1 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (eof)
+				return -1;
+			if (ps == null)
+				throw new IOException("Stream is closed");
+			if (len == 0)
+				return 0;
+
+			try {
+				if (chunked && remaining <= 0) {
+					if (remaining == 0)
+						readLine(in, false); // CRLF after previous chunk
+					remaining = readChunkSize();
+					if (remaining == 0) {
+						// Skip trailers.
+						while (readLine(in, false).length() > 0)
+							;
+						finish();
+						return -1;
+					}
+				}
+
+				if (remaining == 0) {
+					finish();
+					return -1;
+				}
+
+				int max = remaining > 0 && remaining < len ? (int) remaining : len;
+				int r = in.read(b, off, max);
+				if (r == -1) {
+					if (remaining > 0)
+						throw new EOFException("Unexpected end of response body.");
+					finish();
+					return -1;
+				}
+
+				if (remaining > 0)
+					remaining -= r;
+				if (remaining == 0 && !chunked)
+					finish();
+
+				return r;
+			} catch (IOException e) {
+				abort();
+				throw e;
+			}
+		}
+
+		@Override
+		public int available() throws IOException {
+			if (eof || ps == null)
+				return 0;
+
+			int a = in.available();
+			return remaining > 0 && remaining < a ? (int) remaining : a;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (eof || ps == null)
+				return;
+
+			if (keepAlive && (remaining >= 0 || chunked) && remaining <= MAX_DRAIN) {
+				// Drain the rest so the socket can carry the next request.
+				byte[] buf = new byte[4096];
+				long drained = 0;
+				while (drained <= MAX_DRAIN) {
+					int r = read(buf, 0, buf.length);
+					if (r == -1)
+						return;
+					drained += r;
+				}
+			}
+
+			abort();
+		}
+
+		private long readChunkSize() throws IOException {
+			return HTTPProtocol.parseChunkSize(readLine(in, false));
+		}
+
+		/**
+		 * Body fully read, socket goes back to the pool.
+		 */
+		void finish() {
+			eof = true;
+			if (ps != null) {
+				pool.release(ps, keepAlive, keepAliveTimeout);
+				ps = null;
+			}
+		}
+
+		/**
+		 * Body abandoned, socket is closed.
+		 */
+		void abort() {
+			if (ps != null) {
+				pool.release(ps, false, -1);
+				ps = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package simplerestclient;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * A socket owned by a ConnectionPool, either leased to a single request or idle in the pool.
+ *
+ * @author kgilmer
+ *
+ */
+class PooledSocket {
+	private static final int BUFFER_SIZE = 8192;
+
+	private final String key;
+	private final Socket socket;
+	private final InputStream in;
+	private final OutputStream out;
+	private long lastUsed;
+	private long expires;
+	private boolean reused;
+
+	PooledSocket(String key, Socket socket) throws IOException {
+		this.key = key;
+		this.socket = socket;
+		this.in = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+		this.out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+		this.lastUsed = System.currentTimeMillis();
+	}
+
+	String getKey() {
+		return key;
+	}
+
+	Socket getSocket() {
+		return socket;
+	}
+
+	InputStream getInputStream() {
+		return in;
+	}
+
+	OutputStream getOutputStream() {
+		return out;
+	}
+
+	long getLastUsed() {
+		return lastUsed;
+	}
+
+	long getExpires() {
+		return expires;
+	}
+
+	/**
+	 * @return true if this socket served a previous request before being leased.
+	 */
+	boolean isReused() {
+		return reused;
+	}
+
+	/**
+	 * Mark the socket idle as of now.
+	 * @param expires time in millis after which the socket may no longer be reused.
+	 */
+	void idle(long expires) {
+		this.lastUsed = System.currentTimeMillis();
+		this.expires = expires;
+		this.reused = true;
+	}
+
+	/**
+	 * Check that the peer has not closed an idle connection.  An idle HTTP connection
+	 * must have nothing to read, so any data or an EOF means the socket is unusable.
+	 *
+	 * @return true if the socket can carry another request.
+	 */
+	boolean isUsable() {
+		if (socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown())
+			return false;
+
+		int timeout = 0;
+		try {
+			if (in.available() > 0)
+				return false;
+
+			timeout = socket.getSoTimeout();
+			socket.setSoTimeout(1);
+			in.read();
+
+			return false;
+		} catch (SocketTimeoutException e) {
+			return true;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			try {
+				if (!socket.isClosed())
+					socket.setSoTimeout(timeout);
+			} catch (IOException e) {
+				//Ignore
+			}
+		}
+	}
+
+	void close() {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			//Ignore
+		}
+	}
+}
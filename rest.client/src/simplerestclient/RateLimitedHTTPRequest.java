@@ -2,33 +2,273 @@ package simplerestclient;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * A stateful HTTPRequest type that will limit requests at one per defined interval.
+ * A stateful HTTPRequest type that limits the rate of requests.
  * 
  * Useful for web service providers that have request rate limits.
  * 
+ * Created with a wait interval, requests are serialized and each one waits the interval before it
+ * is sent.  Created with a rate and burst, or with any IRateLimiter, each request takes a permit
+ * and then runs without holding any lock, so many requests can be in flight at once while the
+ * average rate is respected:
+ * 
+ * IHTTPRequest req = new RateLimitedHTTPRequest(10, 20); // 10 per second, bursts of 20
+ * 
+ * Created with a KeyedRateLimiter, each host (or other key of the URL) is limited separately.
+ * 
+ * Limiters that are also an IHTTPResponseListener, such as AdaptiveRateLimiter, are told of every
+ * response and failure of the requests they gave permits to.
+ * 
+ * The *Async methods never wait in the calling thread.  Each takes the next permit at once and the
+ * request is handed to the HTTPRequest async engine when the permit is due, so any number of requests
+ * can be queued without a thread each.  A single scheduler thread shared by all instances releases
+ * them, and only passes each one to a pool of dispatch threads.  Those get the connection and resolve
+ * the host, so a slow connection provider or name lookup does not hold back other releases.
+ * In wait interval mode async requests are not serialized, but they and blocking requests draw
+ * from one permit source, so every request is sent at least waitMillis after the one before.
+ * 
+ * Created with a FairQueue, in wait interval mode or with an IRateLimiter, blocking requests take
+ * their turn for a permit by weighted fair queuing over caller classes instead of in arrival order.
+ * Each caller class uses its own view from forCallerClass():
+ * 
+ * FairQueue queue = new FairQueue();
+ * queue.setWeight("interactive", 10);
+ * RateLimitedHTTPRequest req = new RateLimitedHTTPRequest(new GCRARateLimiter(10, 1), new HTTPRequest(), queue);
+ * IHTTPRequest interactive = req.forCallerClass("interactive");
+ * IHTTPRequest bulk = req.forCallerClass("bulk");
+ * 
+ * Created with a HierarchicalRateLimiter, each request takes a permit from every quota rule that
+ * matches its method, URL and tenant; views from forTenant() tag their requests with a tenant.
+ * 
+ * Requests wait for their permit without limit unless made through a view from withMaxQueueWait().
+ * A request that could not be sent within its wait is dropped before it takes a permit, with a
+ * DeadlineExceededException.  A request interrupted while waiting throws InterruptedIOException.
+ * 
  * @author kgilmer
  *
  */
 public class RateLimitedHTTPRequest implements IHTTPRequest {
 
 	private final int waitMillis;
-	private HTTPRequest httpRequest;
+	private final IRateLimiter limiter;
+	private final KeyedRateLimiter keyedLimiter;
+	private final HierarchicalRateLimiter quotas;
+	private final IRateLimiter intervalLimiter;
+	private final FairQueue fairQueue;
+	private final String callerClass;
+	private final String tenant;
+	private final long maxWaitNanos;
+	private IHTTPRequest httpRequest;
 	private Lock lock;
+	
+	private static final long NO_DEADLINE = Long.MAX_VALUE;
+	private static ScheduledExecutorService scheduler;
+	private static ExecutorService dispatcher;
 
 	/**
+	 * Serialize requests, each one waiting waitMillis before it is sent.
+	 * 
 	 * @param waitMillis
 	 */
 	public RateLimitedHTTPRequest(int waitMillis) {
+		this(waitMillis, null);
+	}
+
+	/**
+	 * Serialize requests in the order chosen by queue, each one waiting waitMillis before it is sent.
+	 * 
+	 * @param waitMillis
+	 * @param queue fair queue requests take their turn from, or null for arrival order
+	 */
+	public RateLimitedHTTPRequest(int waitMillis, FairQueue queue) {
 		this.waitMillis = waitMillis;	
+		this.limiter = null;
+		this.keyedLimiter = null;
+		this.quotas = null;
+		this.intervalLimiter = waitMillis > 0 ? new GCRARateLimiter(1000.0 / waitMillis, 1) : null;
+		this.fairQueue = queue;
+		this.callerClass = FairQueue.DEFAULT_CLASS;
+		this.tenant = null;
+		this.maxWaitNanos = NO_DEADLINE;
 		this.httpRequest = new HTTPRequest();
-		lock = new ReentrantLock(true);
+		if (queue == null)
+			lock = new ReentrantLock(true);
+	}
+
+	/**
+	 * Limit requests with a GCRARateLimiter.
+	 * 
+	 * @param permitsPerSecond long run request rate
+	 * @param burst requests that may be sent at once after an idle period
+	 */
+	public RateLimitedHTTPRequest(double permitsPerSecond, int burst) {
+		this(new GCRARateLimiter(permitsPerSecond, burst), new HTTPRequest());
+	}
+
+	/**
+	 * Limit requests with a rate limiter, which may be shared with other instances.
+	 * 
+	 * @param limiter
+	 * @param httpRequest requests are sent with
+	 */
+	public RateLimitedHTTPRequest(IRateLimiter limiter, IHTTPRequest httpRequest) {
+		this(limiter, httpRequest, null);
+	}
+
+	/**
+	 * Limit requests with a rate limiter, taking turns for permits in the order chosen by queue.
+	 * 
+	 * @param limiter
+	 * @param httpRequest requests are sent with
+	 * @param queue fair queue requests take their turn from, or null for no queuing
+	 */
+	public RateLimitedHTTPRequest(IRateLimiter limiter, IHTTPRequest httpRequest, FairQueue queue) {
+		if (limiter == null)
+			throw new IllegalArgumentException("limiter must not be null.");
+		
+		this.waitMillis = 0;
+		this.limiter = limiter;
+		this.keyedLimiter = null;
+		this.quotas = null;
+		this.intervalLimiter = null;
+		this.fairQueue = queue;
+		this.callerClass = FairQueue.DEFAULT_CLASS;
+		this.tenant = null;
+		this.maxWaitNanos = NO_DEADLINE;
+		this.httpRequest = httpRequest;
+	}
+
+	/**
+	 * Limit requests with a separate limiter per key of the request URL.
+	 * 
+	 * @param keyedLimiter
+	 * @param httpRequest requests are sent with
+	 */
+	public RateLimitedHTTPRequest(KeyedRateLimiter keyedLimiter, IHTTPRequest httpRequest) {
+		if (keyedLimiter == null)
+			throw new IllegalArgumentException("keyedLimiter must not be null.");
+		
+		this.waitMillis = 0;
+		this.limiter = null;
+		this.keyedLimiter = keyedLimiter;
+		this.quotas = null;
+		this.intervalLimiter = null;
+		this.fairQueue = null;
+		this.callerClass = FairQueue.DEFAULT_CLASS;
+		this.tenant = null;
+		this.maxWaitNanos = NO_DEADLINE;
+		this.httpRequest = httpRequest;
+	}
+	
+	/**
+	 * Limit requests with layered quotas.
+	 * 
+	 * @param quotas
+	 * @param httpRequest requests are sent with
+	 */
+	public RateLimitedHTTPRequest(HierarchicalRateLimiter quotas, IHTTPRequest httpRequest) {
+		if (quotas == null)
+			throw new IllegalArgumentException("quotas must not be null.");
+		
+		this.waitMillis = 0;
+		this.limiter = null;
+		this.keyedLimiter = null;
+		this.quotas = quotas;
+		this.intervalLimiter = null;
+		this.fairQueue = null;
+		this.callerClass = FairQueue.DEFAULT_CLASS;
+		this.tenant = null;
+		this.maxWaitNanos = NO_DEADLINE;
+		this.httpRequest = httpRequest;
+	}
+	
+	/**
+	 * A view of source for one caller class, tenant and maximum wait, sharing its limiter and queue.
+	 */
+	private RateLimitedHTTPRequest(RateLimitedHTTPRequest source, String callerClass, String tenant, long maxWaitNanos) {
+		this.waitMillis = source.waitMillis;
+		this.limiter = source.limiter;
+		this.keyedLimiter = source.keyedLimiter;
+		this.quotas = source.quotas;
+		this.intervalLimiter = source.intervalLimiter;
+		this.fairQueue = source.fairQueue;
+		this.callerClass = callerClass;
+		this.tenant = tenant;
+		this.maxWaitNanos = maxWaitNanos;
+		this.httpRequest = source.httpRequest;
+		this.lock = source.lock;
+	}
+	
+	/**
+	 * @param callerClass class the requests of the returned view queue under
+	 * @return a view sharing this instance's limiter and queue; the class only matters with a FairQueue
+	 */
+	public RateLimitedHTTPRequest forCallerClass(String callerClass) {
+		if (callerClass == null)
+			throw new IllegalArgumentException("callerClass must not be null.");
+		
+		return new RateLimitedHTTPRequest(this, callerClass, tenant, maxWaitNanos);
+	}
+	
+	/**
+	 * @param tenant tenant tag HierarchicalRateLimiter rules match the requests of the returned view by
+	 * @return a view sharing this instance's limiter, queue, caller class and maximum wait
+	 */
+	public RateLimitedHTTPRequest forTenant(String tenant) {
+		return new RateLimitedHTTPRequest(this, callerClass, tenant, maxWaitNanos);
+	}
+	
+	/**
+	 * Requests of the returned view that could not be sent within maxWaitMillis of being made are
+	 * dropped with a DeadlineExceededException; create a view per request for per request deadlines.
+	 * 
+	 * @param maxWaitMillis
+	 * @return a view sharing this instance's limiter, queue and caller class
+	 */
+	public RateLimitedHTTPRequest withMaxQueueWait(long maxWaitMillis) {
+		if (maxWaitMillis < 0)
+			throw new IllegalArgumentException("maxWaitMillis must not be negative.");
+		
+		return new RateLimitedHTTPRequest(this, callerClass, tenant, TimeUnit.MILLISECONDS.toNanos(maxWaitMillis));
+	}
+	
+	/**
+	 * @return the fair queue requests take their turn from, or null
+	 */
+	public FairQueue getFairQueue() {
+		return fairQueue;
+	}
+
+	/**
+	 * @return the limiter requests take permits from, or null if created with a wait interval or keyed limiter
+	 */
+	public IRateLimiter getRateLimiter() {
+		return limiter;
+	}
+
+	/**
+	 * @return the keyed limiter requests take permits from, or null
+	 */
+	public KeyedRateLimiter getKeyedRateLimiter() {
+		return keyedLimiter;
+	}
+
+	/**
+	 * @return the quotas requests take permits from, or null
+	 */
+	public HierarchicalRateLimiter getQuotas() {
+		return quotas;
 	}
 	
 	/* (non-Javadoc)
@@ -36,14 +276,15 @@ public class RateLimitedHTTPRequest implements IHTTPRequest {
 	 */
 	@Override
 	public HTTPResponse get(String url) throws IOException {
-		if (!lockAndWait()) 
-			return null;
+		acquire("GET", url);
 		
 		try {		
 			//System.out.println("Getting " + url + " at " + System.currentTimeMillis());
-			return httpRequest.get(url);
+			return received(url, httpRequest.get(url));
+		} catch (IOException e) {
+			throw failed(url, e);
 		} finally {
-			lock.unlock();
+			release();
 		}		
 	}
 
@@ -52,13 +293,14 @@ public class RateLimitedHTTPRequest implements IHTTPRequest {
 	 */
 	@Override
 	public HTTPResponse get(String url, Map<String, String> headers) throws IOException {
-		if (!lockAndWait()) 
-			return null;
+		acquire("GET", url);
 		
 		try {				
-			return httpRequest.get(url, headers);
+			return received(url, httpRequest.get(url, headers));
+		} catch (IOException e) {
+			throw failed(url, e);
 		} finally {
-			lock.unlock();
+			release();
 		}
 	}
 
@@ -67,13 +309,14 @@ public class RateLimitedHTTPRequest implements IHTTPRequest {
 	 */
 	@Override
 	public HTTPResponse post(String url, String data) throws IOException {
-		if (!lockAndWait()) 
-			return null;
+		acquire("POST", url);
 		
 		try {				
-			return httpRequest.post(url, data);
+			return received(url, httpRequest.post(url, data));
+		} catch (IOException e) {
+			throw failed(url, e);
 		} finally {
-			lock.unlock();
+			release();
 		}
 	}
 
@@ -82,13 +325,14 @@ public class RateLimitedHTTPRequest implements IHTTPRequest {
 	 */
 	@Override
 	public HTTPResponse post(String url, String data, Map headers) throws IOException {
-		if (!lockAndWait()) 
-			return null;
+		acquire("POST", url);
 		
 		try {				
-			return httpRequest.post(url, data, headers);
+			return received(url, httpRequest.post(url, data, headers));
+		} catch (IOException e) {
+			throw failed(url, e);
 		} finally {
-			lock.unlock();
+			release();
 		}
 	}
 
@@ -97,13 +341,14 @@ public class RateLimitedHTTPRequest implements IHTTPRequest {
 	 */
 	@Override
 	public HTTPResponse post(String url, InputStream stream) throws IOException {
-		if (!lockAndWait()) 
-			return null;
+		acquire("POST", url);
 		
 		try {				
-			return httpRequest.post(url, stream);
+			return received(url, httpRequest.post(url, stream));
+		} catch (IOException e) {
+			throw failed(url, e);
 		} finally {
-			lock.unlock();
+			release();
 		}
 	}
 
@@ -112,13 +357,14 @@ public class RateLimitedHTTPRequest implements IHTTPRequest {
 	 */
 	@Override
 	public HTTPResponse post(String url, Map properties) throws IOException {
-		if (!lockAndWait()) 
-			return null;
+		acquire("POST", url);
 		
 		try {				
-			return httpRequest.post(url, properties);
+			return received(url, httpRequest.post(url, properties));
+		} catch (IOException e) {
+			throw failed(url, e);
 		} finally {
-			lock.unlock();
+			release();
 		}
 	}
 
@@ -127,13 +373,14 @@ public class RateLimitedHTTPRequest implements IHTTPRequest {
 	 */
 	@Override
 	public HTTPResponse post(String url, byte[] data) throws IOException {
-		if (!lockAndWait()) 
-			return null;
+		acquire("POST", url);
 		
 		try {				
-			return httpRequest.post(url, data);
+			return received(url, httpRequest.post(url, data));
+		} catch (IOException e) {
+			throw failed(url, e);
 		} finally {
-			lock.unlock();
+			release();
 		}
 	}
 
@@ -142,13 +389,14 @@ public class RateLimitedHTTPRequest implements IHTTPRequest {
 	 */
 	@Override
 	public HTTPResponse postMultipart(String url, Map parameters) throws IOException {
-		if (!lockAndWait()) 
-			return null;
+		acquire("POST", url);
 		
 		try {				
-			return httpRequest.postMultipart(url, parameters);
+			return received(url, httpRequest.postMultipart(url, parameters));
+		} catch (IOException e) {
+			throw failed(url, e);
 		} finally {
-			lock.unlock();
+			release();
 		}
 	}
 
@@ -157,13 +405,14 @@ public class RateLimitedHTTPRequest implements IHTTPRequest {
 	 */
 	@Override
 	public HTTPResponse put(String url, String data) throws IOException {
-		if (!lockAndWait()) 
-			return null;
+		acquire("PUT", url);
 		
 		try {				
-			return httpRequest.put(url, data);
+			return received(url, httpRequest.put(url, data));
+		} catch (IOException e) {
+			throw failed(url, e);
 		} finally {
-			lock.unlock();
+			release();
 		}
 	}
 
@@ -172,13 +421,14 @@ public class RateLimitedHTTPRequest implements IHTTPRequest {
 	 */
 	@Override
 	public HTTPResponse put(String url, String data, Map headers) throws IOException {
-		if (!lockAndWait()) 
-			return null;
+		acquire("PUT", url);
 		
 		try {				
-			return httpRequest.put(url, data, headers);
+			return received(url, httpRequest.put(url, data, headers));
+		} catch (IOException e) {
+			throw failed(url, e);
 		} finally {
-			lock.unlock();
+			release();
 		}
 	}
 
@@ -187,13 +437,14 @@ public class RateLimitedHTTPRequest implements IHTTPRequest {
 	 */
 	@Override
 	public HTTPResponse put(String url, InputStream stream) throws IOException {
-		if (!lockAndWait()) 
-			return null;
+		acquire("PUT", url);
 		
 		try {				
-			return httpRequest.put(url, stream);
+			return received(url, httpRequest.put(url, stream));
+		} catch (IOException e) {
+			throw failed(url, e);
 		} finally {
-			lock.unlock();
+			release();
 		}
 	}
 
@@ -202,13 +453,14 @@ public class RateLimitedHTTPRequest implements IHTTPRequest {
 	 */
 	@Override
 	public HTTPResponse delete(String url) throws IOException {
-		if (!lockAndWait()) 
-			return null;
+		acquire("DELETE", url);
 		
 		try {				
-			return httpRequest.delete(url);
+			return received(url, httpRequest.delete(url));
+		} catch (IOException e) {
+			throw failed(url, e);
 		} finally {
-			lock.unlock();
+			release();
 		}
 	}
 
@@ -217,13 +469,14 @@ public class RateLimitedHTTPRequest implements IHTTPRequest {
 	 */
 	@Override
 	public HTTPResponse put(String url, Map properties) throws IOException {
-		if (!lockAndWait()) 
-			return null;
+		acquire("PUT", url);
 		
 		try {				
-			return httpRequest.put(url, properties);
+			return received(url, httpRequest.put(url, properties));
+		} catch (IOException e) {
+			throw failed(url, e);
 		} finally {
-			lock.unlock();
+			release();
 		}
 	}
 
@@ -232,16 +485,118 @@ public class RateLimitedHTTPRequest implements IHTTPRequest {
 	 */
 	@Override
 	public HTTPResponse head(String url) throws IOException {
-		if (!lockAndWait()) 
-			return null;
+		acquire("HEAD", url);
 				
 		try {
-			return httpRequest.head(url);
-		} finally {			
-			lock.unlock();
+			return received(url, httpRequest.head(url));
+		} catch (IOException e) {
+			throw failed(url, e);
+		} finally {
+			release();
 		}
 	}
 	
+	////////////////////////////////////////////////  ASYNC HTTP REQUEST METHODS
+	
+	/**
+	 * Do an HTTP GET from url when its permit is due, without blocking the calling thread.
+	 * 
+	 * @param url
+	 * @return future completed with the response, or failed with the request failure
+	 * @throws UnsupportedOperationException if requests are not sent with an HTTPRequest
+	 */
+	public HTTPResponseFuture getAsync(String url) {
+		return executeAsync("GET", url, null, null);
+	}
+	
+	/**
+	 * Do an HTTP GET from url w/ extra http headers when its permit is due, without blocking the calling thread.
+	 * 
+	 * @param url
+	 * @param headers
+	 * @return
+	 */
+	public HTTPResponseFuture getAsync(String url, Map<String, String> headers) {
+		return executeAsync("GET", url, headers, null);
+	}
+	
+	/**
+	 * Do an HTTP POST to url when its permit is due, without blocking the calling thread.
+	 * 
+	 * @param url
+	 * @param data
+	 * @return
+	 */
+	public HTTPResponseFuture postAsync(String url, String data) {
+		return postAsync(url, data, null);
+	}
+	
+	/**
+	 * Do an HTTP POST to url w/ extra http headers when its permit is due, without blocking the calling thread.
+	 * 
+	 * @param url
+	 * @param data
+	 * @param headers
+	 * @return
+	 */
+	public HTTPResponseFuture postAsync(String url, String data, Map headers) {
+		return executeAsync("POST", url, headers, data.getBytes());
+	}
+	
+	/**
+	 * Post byte data to a url when its permit is due, without blocking the calling thread.
+	 * 
+	 * @param url
+	 * @param data
+	 * @return
+	 */
+	public HTTPResponseFuture postAsync(String url, byte[] data) {
+		return executeAsync("POST", url, null, data);
+	}
+	
+	/**
+	 * Do an HTTP PUT to url when its permit is due, without blocking the calling thread.
+	 * 
+	 * @param url
+	 * @param data
+	 * @return
+	 */
+	public HTTPResponseFuture putAsync(String url, String data) {
+		return putAsync(url, data, null);
+	}
+	
+	/**
+	 * Do an HTTP PUT to url w/ extra http headers when its permit is due, without blocking the calling thread.
+	 * 
+	 * @param url
+	 * @param data
+	 * @param headers
+	 * @return
+	 */
+	public HTTPResponseFuture putAsync(String url, String data, Map headers) {
+		return executeAsync("PUT", url, headers, data.getBytes());
+	}
+	
+	/**
+	 * Do an HTTP DELETE to url when its permit is due, without blocking the calling thread.
+	 * 
+	 * @param url
+	 * @return
+	 */
+	public HTTPResponseFuture deleteAsync(String url) {
+		return executeAsync("DELETE", url, null, null);
+	}
+	
+	/**
+	 * Do an HTTP HEAD to url when its permit is due, without blocking the calling thread.
+	 * 
+	 * @param url
+	 * @return
+	 */
+	public HTTPResponseFuture headAsync(String url) {
+		return executeAsync("HEAD", url, null, null);
+	}
+	
 	public static void main(String[] args) {
 		ExecutorService es = Executors.newFixedThreadPool(10);
 		
@@ -270,23 +625,293 @@ public class RateLimitedHTTPRequest implements IHTTPRequest {
 	
 
 	/**
-	 * Get the lock and sleep for predefined interval.
-	 * @return
+	 * Wait for permission to send a request to url, release() must follow.
+	 * @throws DeadlineExceededException if the request could not be sent within the maximum wait
+	 * @throws InterruptedIOException if interrupted
 	 */
-	private boolean lockAndWait() {
+	private void acquire(String method, String url) throws IOException {
+		long deadline = maxWaitNanos == NO_DEADLINE ? NO_DEADLINE : System.nanoTime() + maxWaitNanos;
 		try {
-			lock.lock();
-			Thread.sleep(waitMillis);
+			if (fairQueue != null)
+				enterAndWait(url, deadline);
+			else if (quotas != null)
+				takeQuotas(method, url, deadline);
+			else if (limiter == null && keyedLimiter == null)
+				lockAndWait(url, deadline);
+			else
+				takePermit(url, deadline);
 		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting to send " + url + ".");
+		}
+	}
+	
+	/**
+	 * Take a permit from the limiter for url, unless it would not be due before deadline.
+	 */
+	private void takePermit(String url, long deadline) throws InterruptedException, DeadlineExceededException {
+		IRateLimiter l = keyedLimiter != null ? keyedLimiter.getLimiter(url) : limiter;
+		if (deadline == NO_DEADLINE)
+			l.acquire();
+		else if (!l.tryAcquire(remaining(deadline), TimeUnit.NANOSECONDS))
+			throw expired(url);
+	}
+	
+	/**
+	 * Take the permits of every quota rule matching the request, unless they would not be due before deadline.
+	 */
+	private void takeQuotas(String method, String url, long deadline) throws InterruptedException, DeadlineExceededException {
+		if (deadline == NO_DEADLINE)
+			quotas.acquire(method, url, tenant);
+		else if (!quotas.tryAcquire(method, url, tenant, remaining(deadline), TimeUnit.NANOSECONDS))
+			throw expired(url);
+	}
+	
+	/**
+	 * @return nanos left until deadline
+	 */
+	private static long remaining(long deadline) {
+		return deadline == NO_DEADLINE ? NO_DEADLINE : deadline - System.nanoTime();
+	}
+	
+	private DeadlineExceededException expired(String url) {
+		return new DeadlineExceededException("No permit for " + url + " within " + TimeUnit.NANOSECONDS.toMillis(maxWaitNanos) + " ms.");
+	}
+	
+	/**
+	 * Report a response to the limiter the permit came from, if it listens.
+	 */
+	private HTTPResponse received(String url, HTTPResponse response) {
+		IHTTPResponseListener listener = getListener(url);
+		if (listener != null && response != null)
+			listener.responseReceived(response);
+		
+		return response;
+	}
+	
+	/**
+	 * Report a failure to the limiter the permit came from, if it listens.
+	 */
+	private IOException failed(String url, IOException e) {
+		IHTTPResponseListener listener = getListener(url);
+		if (listener != null)
+			listener.requestFailed(e);
+		
+		return e;
+	}
+	
+	private IHTTPResponseListener getListener(String url) {
+		IRateLimiter l = keyedLimiter != null ? keyedLimiter.getLimiter(url) : limiter;
+		if (l instanceof IHTTPResponseListener)
+			return (IHTTPResponseListener) l;
+		
+		return null;
+	}
+	
+	/**
+	 * Take a permit for url and send the request when it is due: now on the calling thread, otherwise
+	 * from the scheduler.
+	 */
+	private HTTPResponseFuture executeAsync(String method, String url, Map headers, byte[] body) {
+		if (!(httpRequest instanceof HTTPRequest))
+			throw new UnsupportedOperationException("Async requests must be sent with an HTTPRequest.");
+		
+		ScheduledRequest request = new ScheduledRequest(method, url, headers, body);
+		long wait = reserve(method, url);
+		if (wait < 0)
+			request.fail(expired(url));
+		else if (wait == 0)
+			request.run();
+		else
+			request.schedule(wait);
+		
+		return request;
+	}
+	
+	/**
+	 * @return nanos until the next permit for url is due, or -1 if it would not be due within the maximum wait
+	 */
+	private long reserve(String method, String url) {
+		if (quotas != null)
+			return quotas.reserve(method, url, tenant, maxWaitNanos, TimeUnit.NANOSECONDS);
+		
+		IRateLimiter l = keyedLimiter != null ? keyedLimiter.getLimiter(url) : limiter != null ? limiter : intervalLimiter;
+		if (l == null)
+			return 0;
+		
+		return l.reserve(maxWaitNanos, TimeUnit.NANOSECONDS);
+	}
+	
+	private static synchronized ScheduledExecutorService getScheduler() {
+		if (scheduler == null)
+			scheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads("RateLimitedHTTPRequest-scheduler"));
+		
+		return scheduler;
+	}
+	
+	/**
+	 * @return threads that start scheduled requests once their permit is due
+	 */
+	private static synchronized ExecutorService getDispatcher() {
+		if (dispatcher == null)
+			dispatcher = Executors.newCachedThreadPool(daemonThreads("RateLimitedHTTPRequest-dispatcher"));
+		
+		return dispatcher;
+	}
+	
+	private static ThreadFactory daemonThreads(final String name) {
+		return new ThreadFactory() {
+			private int count;
+			
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name + "-" + count++);
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+	
+	/**
+	 * An async request waiting for its permit, and then the future of its response.  Cancelling it
+	 * removes it from the scheduler, or cancels the request if it has been sent.  The permit is not
+	 * returned.
+	 */
+	private class ScheduledRequest extends HTTPResponseFuture implements Runnable, IHTTPResponseListener {
+		private final String method;
+		private final String url;
+		private final Map headers;
+		private final byte[] body;
+		private volatile Future<?> task;
+		private volatile HTTPResponseFuture sent;
+		
+		ScheduledRequest(String method, String url, Map headers, byte[] body) {
+			this.method = method;
+			this.url = url;
+			this.headers = headers;
+			this.body = body;
+		}
+		
+		/**
+		 * Start the request from the dispatcher in nanos.  The scheduler thread only hands it over.
+		 */
+		void schedule(long nanos) {
+			task = getScheduler().schedule(new Runnable() {
+				@Override
+				public void run() {
+					if (!isDone())
+						getDispatcher().execute(ScheduledRequest.this);
+				}
+			}, nanos, TimeUnit.NANOSECONDS);
+			if (isCancelled())
+				task.cancel(false);
+		}
+
+		@Override
+		public void run() {
+			if (isDone())
+				return;
+			
 			try {
-				lock.unlock();
-			} catch (IllegalMonitorStateException e2) {
-				//Ignore
+				sent = ((HTTPRequest) httpRequest).executeAsync(method, url, headers, body);
+			} catch (IOException e) {
+				requestFailed(e);
+				return;
 			}
 			
-			return false;
+			sent.addListener(this);
+			if (isCancelled())
+				sent.cancel(true);
+		}
+
+		@Override
+		public void responseReceived(HTTPResponse response) {
+			complete(received(url, response));
+		}
+
+		@Override
+		public void requestFailed(IOException e) {
+			fail(failed(url, e));
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			if (!super.cancel(mayInterruptIfRunning))
+				return false;
+			
+			Future<?> t = task;
+			if (t != null)
+				t.cancel(false);
+			HTTPResponseFuture s = sent;
+			if (s != null)
+				s.cancel(mayInterruptIfRunning);
+			
+			return true;
+		}
+	}
+	
+	private void release() {
+		if (limiter != null || keyedLimiter != null || quotas != null)
+			return;
+		
+		if (fairQueue != null)
+			fairQueue.exit();
+		else
+			lock.unlock();
+	}
+
+	/**
+	 * Take a turn from the fair queue, then a permit or the wait interval.  With a limiter the turn
+	 * ends with the permit, otherwise it is held until release().
+	 */
+	private void enterAndWait(String url, long deadline) throws InterruptedException, DeadlineExceededException {
+		if (deadline == NO_DEADLINE)
+			fairQueue.enter(callerClass);
+		else if (!fairQueue.enter(callerClass, remaining(deadline), TimeUnit.NANOSECONDS))
+			throw expired(url);
+		
+		boolean done = false;
+		try {
+			if (limiter != null)
+				takePermit(url, deadline);
+			else
+				waitInterval(url, deadline);
+			done = true;
+		} finally {
+			if (!done || limiter != null)
+				fairQueue.exit();
 		}
+	}
+
+	/**
+	 * Get the lock and sleep for predefined interval, unless that would end after deadline.
+	 */
+	private void lockAndWait(String url, long deadline) throws InterruptedException, DeadlineExceededException {
+		if (deadline == NO_DEADLINE)
+			lock.lock();
+		else if (!lock.tryLock(remaining(deadline), TimeUnit.NANOSECONDS))
+			throw expired(url);
+		
+		boolean done = false;
+		try {
+			waitInterval(url, deadline);
+			done = true;
+		} finally {
+			if (!done)
+				lock.unlock();
+		}
+	}
+	
+	/**
+	 * Sleep for the predefined interval, then take the permit async requests also draw from, so a
+	 * request is never sent within waitMillis of an async one.
+	 */
+	private void waitInterval(String url, long deadline) throws InterruptedException, DeadlineExceededException {
+		if (remaining(deadline) < TimeUnit.MILLISECONDS.toNanos(waitMillis))
+			throw expired(url);
+		Thread.sleep(waitMillis);
 		
-		return true;
+		if (intervalLimiter != null && !intervalLimiter.tryAcquire(remaining(deadline), TimeUnit.NANOSECONDS))
+			throw expired(url);
 	}
 }
@@ -0,0 +1,188 @@
+package simplerestclient;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.Deflater;
+
+/**
+ * Opt-in compression of request bodies, see HTTPRequest.setRequestCompression():
+ *
+ * HTTPRequest req = new HTTPRequest();
+ * req.setRequestCompression(new RequestCompression());
+ * req.post(url, json);
+ *
+ * Bodies of at least the threshold are sent with a Content-Encoding of gzip or deflate, unless the
+ * request already has a Content-Encoding or compressing does not make the body smaller.  A host
+ * that answers a compressed body with 415 Unsupported Media Type is remembered, the body is sent
+ * again uncompressed, and later bodies for that host are not compressed.
+ *
+ * Deflaters hold native memory, so a few are kept for reuse.  Safe for use from multiple threads.
+ *
+ * @author kgilmer
+ *
+ */
+public class RequestCompression {
+	public static final String GZIP = "gzip";
+	public static final String DEFLATE = "deflate";
+
+	/**
+	 * Default smallest body that is compressed.  Smaller bodies rarely fit in fewer packets.
+	 */
+	public static final int DEFAULT_THRESHOLD = 1024;
+	public static final int DEFAULT_MAX_POOLED = 8;
+
+	private static final int CHUNK = 8192;
+	private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+	private final String encoding;
+	private final int threshold;
+	private final int level;
+	private final int maxPooled;
+	private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+	private final AtomicInteger pooled = new AtomicInteger();
+	private final Map<String, Boolean> rejectingHosts = new ConcurrentHashMap<String, Boolean>();
+
+	/**
+	 * gzip bodies of DEFAULT_THRESHOLD bytes or more.
+	 */
+	public RequestCompression() {
+		this(GZIP, DEFAULT_THRESHOLD, Deflater.DEFAULT_COMPRESSION, DEFAULT_MAX_POOLED);
+	}
+
+	/**
+	 * @param encoding GZIP or DEFLATE
+	 * @param threshold smallest body to compress
+	 * @param level Deflater compression level
+	 * @param maxPooled Deflaters kept for reuse
+	 */
+	public RequestCompression(String encoding, int threshold, int level, int maxPooled) {
+		if (!GZIP.equals(encoding) && !DEFLATE.equals(encoding))
+			throw new IllegalArgumentException("Unsupported encoding " + encoding + ".");
+		if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION))
+			throw new IllegalArgumentException("Invalid level " + level + ".");
+
+		this.encoding = encoding;
+		this.threshold = threshold;
+		this.level = level;
+		this.maxPooled = maxPooled;
+	}
+
+	/**
+	 * @return value of the Content-Encoding header
+	 */
+	public String getEncoding() {
+		return encoding;
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * @param url
+	 * @return false if the host of url has rejected a compressed body
+	 */
+	public boolean isAccepted(String url) {
+		return !rejectingHosts.containsKey(KeyedRateLimiter.host(url));
+	}
+
+	/**
+	 * Stop compressing bodies for the host of url.
+	 */
+	public void setRejected(String url) {
+		rejectingHosts.put(KeyedRateLimiter.host(url), Boolean.TRUE);
+	}
+
+	/**
+	 * Compress bodies for the host of url again, e.g. after the server was upgraded.
+	 */
+	public void clearRejected(String url) {
+		rejectingHosts.remove(KeyedRateLimiter.host(url));
+	}
+
+	/**
+	 * @return true if a body of length bytes for url should be compressed
+	 */
+	boolean shouldCompress(String url, int length) {
+		return length >= threshold && isAccepted(url);
+	}
+
+	/**
+	 * @return body compressed with getEncoding(), or null if that would not make it smaller
+	 */
+	byte[] compress(byte[] body) {
+		Deflater deflater = acquire();
+		try {
+			// The raw deflate stream is framed by hand so that both encodings share one pool.
+			Checksum checksum = GZIP.equals(encoding) ? (Checksum) new CRC32() : new Adler32();
+			checksum.update(body, 0, body.length);
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, body.length / 4));
+			if (GZIP.equals(encoding))
+				out.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+			else
+				out.write(zlibHeader(), 0, 2);
+
+			deflater.setInput(body);
+			deflater.finish();
+			byte[] chunk = new byte[Math.min(CHUNK, body.length + 64)];
+			while (!deflater.finished()) {
+				out.write(chunk, 0, deflater.deflate(chunk));
+				if (out.size() >= body.length)
+					return null;
+			}
+
+			long value = checksum.getValue();
+			if (GZIP.equals(encoding)) {
+				writeInt(out, (int) value, false);
+				writeInt(out, body.length, false);
+			} else {
+				writeInt(out, (int) value, true);
+			}
+
+			return out.size() < body.length ? out.toByteArray() : null;
+		} finally {
+			release(deflater);
+		}
+	}
+
+	private byte[] zlibHeader() {
+		int flevel = level == Deflater.DEFAULT_COMPRESSION ? 2 : level < 2 ? 0 : level < 6 ? 1 : level == 6 ? 2 : 3;
+		int header = (0x78 << 8) | (flevel << 6);
+		if (header % 31 != 0)
+			header += 31 - header % 31;
+		return new byte[] { (byte) (header >> 8), (byte) header };
+	}
+
+	private static void writeInt(ByteArrayOutputStream out, int value, boolean bigEndian) {
+		for (int i = 0; i < 4; ++i)
+			out.write(value >>> (bigEndian ? 24 - 8 * i : 8 * i));
+	}
+
+	private Deflater acquire() {
+		Deflater deflater = deflaters.poll();
+		if (deflater == null)
+			return new Deflater(level, true);
+
+		pooled.decrementAndGet();
+		return deflater;
+	}
+
+	private void release(Deflater deflater) {
+		if (pooled.incrementAndGet() > maxPooled) {
+			pooled.decrementAndGet();
+			deflater.end();
+			return;
+		}
+
+		deflater.reset();
+		deflaters.add(deflater);
+	}
+}
@@ -0,0 +1,254 @@
+package simplerestclient;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Incremental HTTP/1.1 response parser for non-blocking transports.
+ *
+ * Fed with whatever bytes arrive from the channel, it parses the status line, headers
+ * and fixed length, chunked or close delimited body without ever blocking.
+ *
+ * @author kgilmer
+ *
+ */
+class ResponseParser {
+	private static final int STATUS_LINE = 0;
+	private static final int HEADERS = 1;
+	private static final int BODY = 2;
+	private static final int CHUNK_SIZE = 3;
+	private static final int CHUNK_DATA = 4;
+	private static final int CHUNK_END = 5;
+	private static final int TRAILERS = 6;
+	private static final int BODY_UNTIL_CLOSE = 7;
+	private static final int DONE = 8;
+
+	private static final int MAX_LINE_LENGTH = 64 * 1024;
+	private static final int MAX_PREALLOCATE = 8 * 1024 * 1024;
+	/**
+	 * The body is received into one array.
+	 */
+	private static final int MAX_BODY_LENGTH = Integer.MAX_VALUE - 8;
+
+	private final String method;
+	private final Map<String, List<String>> requestProperties;
+	private final StringBuilder line = new StringBuilder(128);
+	private int state = STATUS_LINE;
+	private HeaderList headers;
+	private String lastKey;
+	private int statusCode;
+	private long remaining;
+	private boolean keepAlive;
+	private boolean receivedData;
+
+	private byte[] body = new byte[0];
+	private int bodyLength;
+
+	/**
+	 * @param method request method, HEAD responses have no body
+	 * @param requestProperties request headers, for the keep-alive decision
+	 */
+	ResponseParser(String method, Map<String, List<String>> requestProperties) {
+		this.method = method;
+		this.requestProperties = requestProperties;
+	}
+
+	/**
+	 * Consume bytes from buf.  Bytes following a complete response are left in buf.
+	 *
+	 * @param buf
+	 * @return true when the response is complete
+	 * @throws IOException on a malformed response
+	 */
+	boolean parse(ByteBuffer buf) throws IOException {
+		if (buf.hasRemaining())
+			receivedData = true;
+
+		while (state != DONE && buf.hasRemaining()) {
+			switch (state) {
+			case STATUS_LINE:
+				if (readLine(buf)) {
+					String statusLine = takeLine();
+					statusCode = HTTPProtocol.parseStatusCode(statusLine);
+					headers = new HeaderList();
+					headers.add(null, statusLine);
+					lastKey = null;
+					state = HEADERS;
+				}
+				break;
+			case HEADERS:
+				if (readLine(buf)) {
+					String l = takeLine();
+					if (l.length() > 0)
+						lastKey = HTTPProtocol.parseHeaderLine(l, headers, lastKey);
+					else
+						headersComplete();
+				}
+				break;
+			case BODY:
+			case CHUNK_DATA:
+				int n = (int) Math.min(remaining, buf.remaining());
+				appendBody(buf, n);
+				remaining -= n;
+				if (remaining == 0)
+					state = state == BODY ? DONE : CHUNK_END;
+				break;
+			case BODY_UNTIL_CLOSE:
+				appendBody(buf, buf.remaining());
+				break;
+			case CHUNK_SIZE:
+				if (readLine(buf)) {
+					remaining = HTTPProtocol.parseChunkSize(takeLine());
+					if (bodyLength + remaining > MAX_BODY_LENGTH)
+						throw new ProtocolException("Response body is too large to receive.");
+					state = remaining == 0 ? TRAILERS : CHUNK_DATA;
+				}
+				break;
+			case CHUNK_END:
+				if (readLine(buf)) {
+					takeLine();
+					state = CHUNK_SIZE;
+				}
+				break;
+			case TRAILERS:
+				if (readLine(buf) && takeLine().length() == 0)
+					state = DONE;
+				break;
+			}
+		}
+
+		return state == DONE;
+	}
+
+	/**
+	 * The peer closed the connection.
+	 *
+	 * @return true if this completes a close delimited response
+	 * @throws EOFException if the response is incomplete
+	 */
+	boolean endOfInput() throws EOFException {
+		if (state == BODY_UNTIL_CLOSE) {
+			state = DONE;
+			return true;
+		}
+
+		if (state != DONE)
+			throw new EOFException(receivedData ? "Unexpected end of response." : "Connection closed before a response was received.");
+
+		return true;
+	}
+
+	/**
+	 * @return true once any byte of the response has arrived
+	 */
+	boolean hasReceivedData() {
+		return receivedData;
+	}
+
+	boolean isDone() {
+		return state == DONE;
+	}
+
+	/**
+	 * @return true if the connection can carry another request after this response
+	 */
+	boolean isKeepAlive() {
+		return state == DONE && keepAlive;
+	}
+
+	int getStatusCode() {
+		return statusCode;
+	}
+
+	HeaderList getHeaders() {
+		return headers;
+	}
+
+	/**
+	 * @return the received body
+	 */
+	byte[] getBody() {
+		if (body.length == bodyLength)
+			return body;
+
+		byte[] b = new byte[bodyLength];
+		System.arraycopy(body, 0, b, 0, bodyLength);
+		return b;
+	}
+
+	private void headersComplete() throws IOException {
+		if (statusCode >= 100 && statusCode < 200) {
+			// Interim response, the real one follows.
+			state = STATUS_LINE;
+			return;
+		}
+
+		keepAlive = HTTPProtocol.isKeepAlive(headers, requestProperties);
+		long length = HTTPProtocol.getContentLength(headers);
+
+		if (!HTTPProtocol.hasBody(method, statusCode)) {
+			state = DONE;
+		} else if (headers.containsToken("Transfer-Encoding", "chunked")) {
+			state = CHUNK_SIZE;
+		} else if (length >= 0) {
+			if (length > MAX_BODY_LENGTH)
+				throw new ProtocolException("Response body of " + length + " bytes is too large to receive.");
+			remaining = length;
+			ensureCapacity((int) Math.min(length, MAX_PREALLOCATE));
+			state = length == 0 ? DONE : BODY;
+		} else {
+			keepAlive = false;
+			state = BODY_UNTIL_CLOSE;
+		}
+	}
+
+	/**
+	 * Accumulate a line from buf.
+	 *
+	 * @return true if a whole line is available through takeLine()
+	 */
+	private boolean readLine(ByteBuffer buf) throws ProtocolException {
+		while (buf.hasRemaining()) {
+			char c = (char) (buf.get() & 0xff);
+			if (c == '\n')
+				return true;
+			line.append(c);
+			if (line.length() > MAX_LINE_LENGTH)
+				throw new ProtocolException("Response line too long.");
+		}
+
+		return false;
+	}
+
+	private String takeLine() {
+		int len = line.length();
+		if (len > 0 && line.charAt(len - 1) == '\r')
+			line.setLength(len - 1);
+		String l = line.toString();
+		line.setLength(0);
+		return l;
+	}
+
+	private void appendBody(ByteBuffer buf, int n) throws ProtocolException {
+		if ((long) bodyLength + n > MAX_BODY_LENGTH)
+			throw new ProtocolException("Response body is too large to receive.");
+
+		ensureCapacity(bodyLength + n);
+		buf.get(body, bodyLength, n);
+		bodyLength += n;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= body.length)
+			return;
+
+		int size = (int) Math.min(Math.max(capacity, body.length * 2L), MAX_BODY_LENGTH);
+		byte[] b = new byte[size];
+		System.arraycopy(body, 0, b, 0, bodyLength);
+		body = b;
+	}
+}
@@ -0,0 +1,170 @@
+package simplerestclient;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HttpURLConnection view of a response that was received by another transport, 
+ * so that it can be wrapped by HTTPResponse.
+ * 
+ * @author kgilmer
+ *
+ */
+class ResponseURLConnection extends HttpURLConnection {
+	private HeaderList headers;
+	private InputStream body;
+
+	/**
+	 * @param url
+	 * @param method request method
+	 * @param headers response headers, status line at index 0
+	 * @param body response body
+	 * @throws ProtocolException if the status line is malformed
+	 */
+	ResponseURLConnection(URL url, String method, HeaderList headers, InputStream body) throws ProtocolException {
+		super(url);
+		this.method = method;
+		setResponse(headers, body);
+	}
+
+	/**
+	 * For subclasses that receive the response later, see ensureResponse().
+	 * 
+	 * @param url
+	 */
+	protected ResponseURLConnection(URL url) {
+		super(url);
+	}
+
+	/**
+	 * @param headers response headers, status line at index 0
+	 * @param body response body
+	 * @throws ProtocolException if the status line is malformed
+	 */
+	protected void setResponse(HeaderList headers, InputStream body) throws ProtocolException {
+		this.responseCode = HTTPProtocol.parseStatusCode(headers.getValue(0));
+		this.responseMessage = HTTPProtocol.parseReasonPhrase(headers.getValue(0));
+		this.headers = headers;
+		this.body = body;
+		this.connected = true;
+	}
+
+	/**
+	 * Called before any access to the response.  Subclasses that don't have the response
+	 * yet must obtain it and call setResponse().
+	 * 
+	 * @throws IOException
+	 */
+	protected void ensureResponse() throws IOException {
+	}
+
+	/**
+	 * Header accessors in HttpURLConnection swallow errors and return null.
+	 */
+	private boolean tryEnsureResponse() {
+		try {
+			ensureResponse();
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public void connect() throws IOException {
+	}
+
+	@Override
+	public void disconnect() {
+		if (body == null)
+			return;
+
+		try {
+			body.close();
+		} catch (IOException e) {
+			//Ignore
+		}
+	}
+
+	@Override
+	public boolean usingProxy() {
+		return false;
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		throw new ProtocolException("Cannot write output after reading input.");
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		ensureResponse();
+
+		if (responseCode >= 400) {
+			if (responseCode == HTTP_NOT_FOUND || responseCode == HTTP_GONE)
+				throw new FileNotFoundException(url.toString());
+			throw new IOException("Server returned HTTP response code: " + responseCode + " for URL: " + url);
+		}
+
+		return body;
+	}
+
+	@Override
+	public InputStream getErrorStream() {
+		if (!tryEnsureResponse())
+			return null;
+
+		return responseCode >= 400 ? body : null;
+	}
+
+	@Override
+	public int getResponseCode() throws IOException {
+		ensureResponse();
+		return responseCode;
+	}
+
+	@Override
+	public String getResponseMessage() throws IOException {
+		ensureResponse();
+		return responseMessage;
+	}
+
+	@Override
+	public String getHeaderField(String name) {
+		if (!tryEnsureResponse())
+			return null;
+
+		return headers.get(name);
+	}
+
+	@Override
+	public String getHeaderField(int n) {
+		if (!tryEnsureResponse())
+			return null;
+
+		return headers.getValue(n);
+	}
+
+	@Override
+	public String getHeaderFieldKey(int n) {
+		if (!tryEnsureResponse())
+			return null;
+
+		return headers.getKey(n);
+	}
+
+	@Override
+	public Map<String, List<String>> getHeaderFields() {
+		if (!tryEnsureResponse())
+			return super.getHeaderFields();
+
+		return headers.toMap();
+	}
+}
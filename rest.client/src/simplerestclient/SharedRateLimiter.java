@@ -0,0 +1,230 @@
+package simplerestclient;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A GCRA rate limiter whose state is kept in a small memory-mapped file, so every process on the
+ * host that opens the same file shares one rate:
+ *
+ * IRateLimiter limiter = new SharedRateLimiter(new File("/var/tmp/api.example.com.rate"), 10, 5);
+ * IHTTPRequest req = new RateLimitedHTTPRequest(limiter, new HTTPRequest());
+ *
+ * The file holds the theoretical arrival time of the next permit as wall clock nanos, updated under
+ * an exclusive FileLock; threads in one process take turns for the lock first, since FileLocks are
+ * held per process.  All processes should use the same rate and burst, and the clocks of the host
+ * are assumed not to jump.
+ *
+ * If the file can not be locked, or the limiter was closed, the IRateLimiter methods throw
+ * IllegalStateException.
+ *
+ * @author kgilmer
+ *
+ */
+public class SharedRateLimiter extends AbstractGCRARateLimiter implements Closeable {
+	private static final long MAGIC = 0x5352434C52415445L;
+	private static final int MAGIC_OFFSET = 0;
+	private static final int TAT_OFFSET = 8;
+	private static final int SIZE = 16;
+
+	/**
+	 * Per file monitors, so instances in this process never ask for overlapping FileLocks.
+	 */
+	private static final ConcurrentMap<String, Object> monitors = new ConcurrentHashMap<String, Object>();
+
+	private final File file;
+	private final double permitsPerSecond;
+	private final long interval;
+	private final Object monitor;
+	private final MappedByteBuffer state;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private boolean closed;
+
+	/**
+	 * @param file created if it does not exist
+	 * @param permitsPerSecond long run rate shared by all users of file
+	 * @param burst permits that may be taken at once after an idle period, at least 1
+	 * @throws IOException if file can not be opened and mapped
+	 */
+	public SharedRateLimiter(File file, double permitsPerSecond, int burst) throws IOException {
+		super(burst);
+		if (!(permitsPerSecond > 0))
+			throw new IllegalArgumentException("permitsPerSecond must be positive.");
+
+		this.file = file.getCanonicalFile();
+		this.permitsPerSecond = permitsPerSecond;
+		this.interval = interval(permitsPerSecond);
+
+		Object m = new Object();
+		Object existing = monitors.putIfAbsent(this.file.getPath(), m);
+		this.monitor = existing != null ? existing : m;
+
+		synchronized (monitor) {
+			open();
+			state = channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+			FileLock lock = lock();
+			try {
+				if (state.getLong(MAGIC_OFFSET) != MAGIC) {
+					state.putLong(TAT_OFFSET, 0);
+					state.putLong(MAGIC_OFFSET, MAGIC);
+					state.force();
+				}
+			} finally {
+				release(lock);
+			}
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public double getPermitsPerSecond() {
+		return permitsPerSecond;
+	}
+
+	/**
+	 * Close the file.  Later use of the limiter throws IllegalStateException.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (monitor) {
+			closed = true;
+			raf.close();
+		}
+	}
+
+	/**
+	 * Claim the next permit under the file lock.
+	 */
+	@Override
+	protected long reserve(long maxWait) {
+		synchronized (monitor) {
+			FileLock lock = lockState();
+			try {
+				return super.reserve(maxWait);
+			} finally {
+				release(lock);
+			}
+		}
+	}
+
+	/**
+	 * Pause every user of the file.
+	 */
+	@Override
+	public void pause(long millis) {
+		synchronized (monitor) {
+			FileLock lock = lockState();
+			try {
+				super.pause(millis);
+			} finally {
+				release(lock);
+			}
+		}
+	}
+
+	/**
+	 * Read the TAT every user of the file shares, under the file lock.
+	 */
+	@Override
+	public boolean isAtFullCapacity() {
+		synchronized (monitor) {
+			FileLock lock = lockState();
+			try {
+				return super.isAtFullCapacity();
+			} finally {
+				release(lock);
+			}
+		}
+	}
+
+	/**
+	 * @return wall clock nanos, comparable between processes
+	 */
+	@Override
+	protected long now() {
+		return System.currentTimeMillis() * 1000000L;
+	}
+
+	@Override
+	protected long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Called with the file locked.
+	 */
+	@Override
+	protected long getTAT() {
+		return state.getLong(TAT_OFFSET);
+	}
+
+	/**
+	 * Called with the file locked, so the TAT can not have changed since getTAT().
+	 */
+	@Override
+	protected boolean compareAndSetTAT(long expect, long update) {
+		state.putLong(TAT_OFFSET, update);
+		return true;
+	}
+
+	private FileLock lockState() {
+		if (closed)
+			throw new IllegalStateException(file + " is closed.");
+
+		try {
+			return lock();
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to lock " + file + ".", e);
+		}
+	}
+
+	/**
+	 * Lock the state.  The channel is closed if its thread is interrupted while locking, so the
+	 * interrupt is held back until the lock is taken, reopening the channel if necessary.
+	 */
+	private FileLock lock() throws IOException {
+		boolean interrupted = Thread.interrupted();
+		try {
+			while (true) {
+				if (!channel.isOpen())
+					open();
+
+				try {
+					return channel.lock(0, SIZE, false);
+				} catch (ClosedByInterruptException e) {
+					interrupted |= Thread.interrupted();
+				}
+			}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void release(FileLock lock) {
+		try {
+			lock.release();
+		} catch (IOException e) {
+			//Ignore, the lock went with its channel.
+		}
+	}
+
+	private void open() throws IOException {
+		if (raf != null)
+			raf.close();
+
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+	}
+}
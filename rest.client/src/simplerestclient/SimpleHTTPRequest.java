@@ -27,11 +27,9 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.net.HttpURLConnection;
-import java.net.URLEncoder;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -55,12 +53,13 @@ public class SimpleHTTPRequest {
 	////////////////////////////////////////////////  HTTP REQUEST METHODS	
 	
 	private static final String HEADER_TYPE  = "Content-Type";
-    private static final String HEADER_PARA  = "Content-Disposition: form-data";
     private static final String CONTENT_TYPE = "multipart/form-data";
-    private static final String LINE_ENDING  = "\r\n";
     private static final String BOUNDARY     = "boundary=";
-    private static final String PARA_NAME    = "name";
-    private static final String FILE_NAME    = "filename";
+	
+	/**
+	 * Requests in flight at once for executeBulk() unless otherwise specified.
+	 */
+	public static final int DEFAULT_BULK_CONCURRENCY = 256;
 	
 	private static IConnectionProvider staticProvider;
 
@@ -116,12 +115,7 @@ public class SimpleHTTPRequest {
 			for (Entry<String, String> e: headers.entrySet())
 				conn.setRequestProperty(e.getKey(), e.getValue());
 			
-		conn.setDoOutput(true);
-		OutputStreamWriter osr = new OutputStreamWriter(conn.getOutputStream());
-		osr.write(data);
-		osr.flush();
-		osr.close();
-		return connect(conn);
+		return write(conn, data.getBytes());
 	}
 	
     /**
@@ -164,13 +158,8 @@ public class SimpleHTTPRequest {
 	 */
 	public static HTTPResponse post(String url, byte[] data) throws IOException {
 		HttpURLConnection conn = getDefaultConnectionProvider().getConnection(url);
-		conn.setRequestProperty("Content-Length", String.valueOf(data.length));
 		conn.setRequestMethod("POST");
-		conn.setDoOutput(true);
-		OutputStream os = conn.getOutputStream();
-		os.write(data);
-		os.close();
-		return connect(conn);
+		return write(conn, data);
 	}
 	
 	/**
@@ -183,49 +172,19 @@ public class SimpleHTTPRequest {
 	 * @param properties
 	 * @return
 	 */
-	public static HTTPResponse postMultipart(String url, Map<String, String> parameters) throws IOException {
+	public static HTTPResponse postMultipart(String url, Map<String, ?> parameters) throws IOException {
 		HttpURLConnection conn = getDefaultConnectionProvider().getConnection(url);
 		conn.setRequestMethod("POST");
 		String boundary = createMultipartBoundary();
 		conn.setRequestProperty(HEADER_TYPE, CONTENT_TYPE +"; "+ BOUNDARY + boundary);
         conn.setDoOutput(true);		
 		
-		// write things out to connection
-        OutputStream os = conn.getOutputStream();
-        
-		// add parameters
-        Object [] elems = parameters.keySet().toArray();
-        StringBuffer buf; // lil helper
-        IFormFile file;
-	    for (int i=0; i < elems.length; i++) {
-	    	String key = (String)elems[i];
-	    	Object obj = parameters.get(key);
-	    	//System.out.println("--" + key);
-
-	    	buf = new StringBuffer();
-	    	if (obj instanceof IFormFile) {
-	    		file = (IFormFile)obj;
-	    		buf.append("--"+ boundary+LINE_ENDING);
-	    		buf.append(HEADER_PARA);
-	    		buf.append("; "+ PARA_NAME +"=\""+ key +"\"");
-	    		buf.append("; "+ FILE_NAME +"=\""+ file.getFilename() +"\""+ LINE_ENDING);
-	    		buf.append(HEADER_TYPE + ": " + file.getContentType() + ";");
-	    		buf.append(LINE_ENDING);
-	    		buf.append(LINE_ENDING);
-	    		os.write(buf.toString().getBytes());
-		    	os.write(file.getBytes());	    		
-	    	} else if (obj != null) {
-		    	buf.append("--"+ boundary+LINE_ENDING);
-		    	buf.append(HEADER_PARA);
-		    	buf.append("; "+ PARA_NAME +"=\""+ key +"\"");
-		    	buf.append(LINE_ENDING);
-		    	buf.append(LINE_ENDING);
-		    	buf.append(obj.toString());
-		    	os.write(buf.toString().getBytes());
-	    	}
-	    	os.write(LINE_ENDING.getBytes());
-	    }
-	    os.write(("--"+ boundary+"--"+LINE_ENDING).getBytes());	
+		MultipartEncoder body = new MultipartEncoder(parameters, boundary);
+		HTTPRequest.setStreamingMode(conn, body.getLength());
+		
+		OutputStream os = conn.getOutputStream();
+		body.writeTo(os);
+		os.close();
 		return connect(conn);
 	}
 	
@@ -256,13 +215,8 @@ public class SimpleHTTPRequest {
 			for (Entry<String, String> e: headers.entrySet())
 				connection.setRequestProperty(e.getKey(), e.getValue()); 
 		
-		connection.setDoOutput(true);
 		connection.setRequestMethod("PUT");
-		OutputStreamWriter osr = new OutputStreamWriter(connection.getOutputStream());
-		osr.write(data);
-		osr.flush();
-		osr.close();
-		return connect(connection);		
+		return write(connection, data.getBytes());
 	}
 	
 	/**
@@ -321,6 +275,29 @@ public class SimpleHTTPRequest {
 	}
 	
 	
+	/**
+	 * Run requests concurrently, at most DEFAULT_BULK_CONCURRENCY at once.
+	 * 
+	 * @param requests
+	 * @return execution to take results from as they complete
+	 */
+	public static BulkExecution executeBulk(Collection<BulkRequest> requests) {
+		return executeBulk(requests, DEFAULT_BULK_CONCURRENCY);
+	}
+
+	/**
+	 * Run requests concurrently on the default connection provider.  Each request runs on a virtual thread
+	 * if the JVM supports them, or else on a bounded pool of platform threads.
+	 * 
+	 * @param requests
+	 * @param maxConcurrency maximum number of requests in flight
+	 * @return execution to take results from as they complete
+	 */
+	public static BulkExecution executeBulk(Collection<BulkRequest> requests, int maxConcurrency) {
+		return new BulkExecution(requests, maxConcurrency, getDefaultConnectionProvider());
+	}
+	
+	
 	////////////////////////////////////////////////////////////// THESE HELP
 
     
@@ -334,6 +311,35 @@ public class SimpleHTTPRequest {
 	}
 	
 
+	/**
+	 * Send a BulkRequest on a connection from provider.
+	 */
+	static HTTPResponse execute(IConnectionProvider provider, BulkRequest request) throws IOException {
+		HttpURLConnection conn = provider.getConnection(request.getUrl());
+		if (request.getHeaders() != null)
+			for (Entry<String, String> e : request.getHeaders().entrySet())
+				conn.setRequestProperty(e.getKey(), e.getValue());
+
+		conn.setDoInput(true);
+		conn.setRequestMethod(request.getMethod());
+		byte[] body = request.getBody();
+		if (body != null)
+			return write(conn, body);
+		return connect(conn);
+	}
+	
+	/**
+	 * Send a body of known length, so that HttpURLConnection streams it instead of buffering it.
+	 */
+	private static HTTPResponse write(HttpURLConnection conn, byte[] body) throws IOException {
+		conn.setDoOutput(true);
+		conn.setFixedLengthStreamingMode(body.length);
+		OutputStream os = conn.getOutputStream();
+		os.write(body);
+		os.close();
+		return connect(conn);
+	}
+
     /**
      * A simple helper function
      * 
@@ -358,16 +364,7 @@ public class SimpleHTTPRequest {
 	 *  turns a map into a key=value property string
 	 */
 	public static String propertyString(Map props) throws IOException {
-		String propstr = new String();
-		String key;
-		for (Iterator i = props.keySet().iterator(); i.hasNext();) {
-			key = (String) i.next();
-			propstr = propstr + URLEncoder.encode(key, "UTF-8") + "=" + URLEncoder.encode((String) props.get(key), "UTF-8");
-			if (i.hasNext()) {
-				propstr = propstr + "&";
-			}
-		}
-		return propstr;
+		return new FormEncoder(props).toString();
 	}
 	
 	/**
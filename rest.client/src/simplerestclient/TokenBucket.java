@@ -0,0 +1,125 @@
+package simplerestclient;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket: permits accrue at a fixed rate up to a burst capacity, and each request takes one.
+ *
+ * acquire() reserves a permit under a short lock and then sleeps, without the lock, until the
+ * permit is due.  Callers that arrive while the bucket is empty are given successive slots, so any
+ * number of them can wait, and then run, at the same time while the long run rate stays at
+ * permitsPerSecond.  The bucket starts full.
+ *
+ * Unlike GCRARateLimiter a permit is returned when its caller is interrupted while waiting.
+ *
+ * @author kgilmer
+ *
+ */
+public class TokenBucket implements IRateLimiter {
+	private final double permitsPerSecond;
+	private final int burst;
+	private final double nanosPerPermit;
+	/**
+	 * Permits available at lastRefill, negative when permits have been reserved ahead.
+	 */
+	private double stored;
+	private long lastRefill;
+
+	/**
+	 * @param permitsPerSecond long run rate
+	 * @param burst permits that may be taken at once after an idle period, at least 1
+	 */
+	public TokenBucket(double permitsPerSecond, int burst) {
+		if (!(permitsPerSecond > 0))
+			throw new IllegalArgumentException("permitsPerSecond must be positive.");
+		if (burst < 1)
+			throw new IllegalArgumentException("burst must be at least 1.");
+
+		this.permitsPerSecond = permitsPerSecond;
+		this.burst = burst;
+		this.nanosPerPermit = TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+		this.stored = burst;
+		this.lastRefill = System.nanoTime();
+	}
+
+	public double getPermitsPerSecond() {
+		return permitsPerSecond;
+	}
+
+	public int getBurst() {
+		return burst;
+	}
+
+	@Override
+	public void acquire() throws InterruptedException {
+		sleep(reserve(Long.MAX_VALUE));
+	}
+
+	@Override
+	public boolean tryAcquire() {
+		return reserve(0) == 0;
+	}
+
+	@Override
+	public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+		long wait = reserve(Math.max(0, unit.toNanos(timeout)));
+		if (wait < 0)
+			return false;
+
+		sleep(wait);
+		return true;
+	}
+
+	@Override
+	public long reserve(long timeout, TimeUnit unit) {
+		return reserve(Math.max(0, unit.toNanos(timeout)));
+	}
+
+	/**
+	 * @return permits available now, negative if callers are waiting for permits
+	 */
+	public synchronized double getAvailable() {
+		refill(System.nanoTime());
+		return stored;
+	}
+
+	/**
+	 * Take a permit if it is due within maxWait, going into debt if there is none now.
+	 *
+	 * @return nanos until the permit is due, 0 if now, or -1 if it is not due within maxWait and was not taken
+	 */
+	private synchronized long reserve(long maxWait) {
+		refill(System.nanoTime());
+		long wait = stored >= 1 ? 0 : (long) Math.ceil((1 - stored) * nanosPerPermit);
+		if (wait > maxWait)
+			return -1;
+
+		stored--;
+		return wait;
+	}
+
+	private void sleep(long nanos) throws InterruptedException {
+		if (nanos <= 0)
+			return;
+
+		try {
+			TimeUnit.NANOSECONDS.sleep(nanos);
+		} catch (InterruptedException e) {
+			refund();
+			throw e;
+		}
+	}
+
+	private synchronized void refund() {
+		stored = Math.min(burst, stored + 1);
+	}
+
+	private void refill(long now) {
+		long elapsed = now - lastRefill;
+		if (elapsed <= 0)
+			return;
+
+		stored = Math.min(burst, stored + elapsed / nanosPerPermit);
+		lastRefill = now;
+	}
+}
@@ -0,0 +1,39 @@
+package simplerestclient;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * A connection provider that runs requests on an IHTTPTransport.
+ * 
+ * The connections it returns hand the request to the transport when the response is first accessed.
+ * As with the JDK connection, the request body is buffered in memory unless a fixed-length or chunked
+ * streaming mode is set, which HTTPRequest does for every body.  A streamed body is still buffered up
+ * to 64 KB; a larger one is handed to the transport from a sender thread as it is written, so it is
+ * only held in memory if the transport itself does that, as AsyncHTTPEngine does.
+ * 
+ * @author kgilmer
+ *
+ */
+public class TransportConnectionProvider implements IConnectionProvider {
+	private final IHTTPTransport transport;
+	
+	/**
+	 * @param transport
+	 */
+	public TransportConnectionProvider(IHTTPTransport transport) {
+		this.transport = transport;
+	}
+
+	public HttpURLConnection getConnection(String urlStr) throws IOException {
+		return new TransportURLConnection(new URL(urlStr), transport);
+	}
+	
+	/**
+	 * @return the transport requests are sent on
+	 */
+	public IHTTPTransport getTransport() {
+		return transport;
+	}
+}
@@ -0,0 +1,54 @@
+package simplerestclient;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A response received by an IHTTPTransport.
+ * 
+ * @author kgilmer
+ *
+ */
+public class TransportResponse {
+	private final String protocol;
+	private final int statusCode;
+	private final String reasonPhrase;
+	private final Map<String, List<String>> headers;
+	private final InputStream body;
+	
+	/**
+	 * @param protocol protocol version as in an HTTP/1.1 status line, e.g. "HTTP/1.1" or "HTTP/2"
+	 * @param statusCode
+	 * @param reasonPhrase may be empty, HTTP/2 has none
+	 * @param headers response headers
+	 * @param body response body
+	 */
+	public TransportResponse(String protocol, int statusCode, String reasonPhrase, Map<String, List<String>> headers, InputStream body) {
+		this.protocol = protocol;
+		this.statusCode = statusCode;
+		this.reasonPhrase = reasonPhrase;
+		this.headers = headers;
+		this.body = body;
+	}
+
+	public String getProtocol() {
+		return protocol;
+	}
+
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	public String getReasonPhrase() {
+		return reasonPhrase;
+	}
+
+	public Map<String, List<String>> getHeaders() {
+		return headers;
+	}
+
+	public InputStream getBody() {
+		return body;
+	}
+}
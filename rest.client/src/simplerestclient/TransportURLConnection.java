@@ -0,0 +1,379 @@
+package simplerestclient;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HttpURLConnection that sends the request on an IHTTPTransport.
+ *
+ * Like the JDK connection, it buffers the request body unless a fixed-length or chunked streaming
+ * mode is set.  A streamed body that is still being written once it outgrows STREAM_THRESHOLD is
+ * handed to the transport from a sender thread as it is written, so it is never held in memory;
+ * smaller ones are sent from the calling thread when the response is first accessed.
+ *
+ * @author kgilmer
+ *
+ */
+class TransportURLConnection extends ResponseURLConnection {
+	/**
+	 * Streamed bodies up to this size are sent once complete, without a sender thread.
+	 */
+	static final int STREAM_THRESHOLD = 64 * 1024;
+
+	private static ExecutorService senders;
+
+	private final IHTTPTransport transport;
+	private Map<String, List<String>> requestProperties;
+	private RequestBody requestBody;
+	private long fixedLength = -1;
+	private boolean chunked;
+	private boolean sent;
+	private IOException failure;
+
+	TransportURLConnection(URL url, IHTTPTransport transport) {
+		super(url);
+		this.transport = transport;
+	}
+
+	IHTTPTransport getTransport() {
+		return transport;
+	}
+
+	@Override
+	public void setFixedLengthStreamingMode(int contentLength) {
+		super.setFixedLengthStreamingMode(contentLength);
+		fixedLength = contentLength;
+	}
+
+	/**
+	 * Overrides the long variant on JVMs that have it.
+	 */
+	public void setFixedLengthStreamingMode(long contentLength) {
+		if (connected)
+			throw new IllegalStateException("Already connected");
+		if (contentLength < 0)
+			throw new IllegalArgumentException("invalid content length");
+		if (chunked)
+			throw new IllegalStateException("Chunked encoding streaming mode set");
+		fixedLength = contentLength;
+	}
+
+	@Override
+	public void setChunkedStreamingMode(int chunklen) {
+		super.setChunkedStreamingMode(chunklen);
+		chunked = true;
+	}
+
+	@Override
+	public void connect() throws IOException {
+		if (connected)
+			return;
+
+		// Request properties are only readable before the connection is marked connected.
+		requestProperties = getRequestProperties();
+		connected = true;
+	}
+
+	@Override
+	public void disconnect() {
+		if (requestBody != null)
+			requestBody.abort();
+		super.disconnect();
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		if (!doOutput)
+			throw new ProtocolException("cannot write to a URLConnection if doOutput=false - call setDoOutput(true)");
+		if (sent)
+			throw new ProtocolException("Cannot write output after reading input.");
+
+		if (method.equals("GET"))
+			method = "POST";
+
+		connect();
+		if (requestBody == null)
+			requestBody = new RequestBody(fixedLength != -1 || chunked);
+
+		return requestBody;
+	}
+
+	@Override
+	protected void ensureResponse() throws IOException {
+		if (failure != null)
+			throw failure;
+		if (sent)
+			return;
+
+		connect();
+		sent = true;
+		try {
+			TransportResponse r = requestBody == null ? send(null, -1) : requestBody.finish();
+
+			HeaderList headers = new HeaderList();
+			String reason = r.getReasonPhrase();
+			headers.add(null, r.getProtocol() + " " + r.getStatusCode() + (reason == null || reason.length() == 0 ? "" : " " + reason));
+			if (r.getHeaders() != null)
+				for (Entry<String, List<String>> e : r.getHeaders().entrySet())
+					if (e.getKey() != null)
+						for (String v : e.getValue())
+							headers.add(e.getKey(), v);
+
+			setResponse(headers, r.getBody());
+		} catch (IOException e) {
+			failure = e;
+			throw e;
+		}
+	}
+
+	private TransportResponse send(InputStream body, long length) throws IOException {
+		return transport.send(method, url.toString(), requestProperties, body, length, getConnectTimeout(), getReadTimeout());
+	}
+
+	private static synchronized ExecutorService getSenders() {
+		if (senders == null) {
+			senders = Executors.newCachedThreadPool(new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "TransportURLConnection-sender-" + count.getAndIncrement());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+
+		return senders;
+	}
+
+	/**
+	 * The request body.  It is buffered, and in a streaming mode handed to the transport through a
+	 * Pipe once it outgrows STREAM_THRESHOLD.
+	 */
+	private class RequestBody extends OutputStream {
+		private final boolean streaming;
+		private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		private Pipe pipe;
+		private Future<TransportResponse> response;
+		private long written;
+		private boolean closed;
+
+		RequestBody(boolean streaming) {
+			this.streaming = streaming;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (closed)
+				throw new IOException("Stream is closed");
+			if (len == 0)
+				return;
+			if (fixedLength != -1 && written + len > fixedLength)
+				throw new IOException("too many bytes written");
+
+			written += len;
+			if (pipe != null) {
+				pipe.write(b, off, len);
+				return;
+			}
+
+			buffer.write(b, off, len);
+			if (streaming && buffer.size() > STREAM_THRESHOLD)
+				startSending();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed)
+				return;
+			closed = true;
+
+			if (fixedLength != -1 && written != fixedLength) {
+				abort();
+				throw new IOException("insufficient data written");
+			}
+			if (pipe != null)
+				pipe.closeWrite();
+		}
+
+		/**
+		 * Stop a streamed body that will not be completed, so the sender does not wait for it.
+		 */
+		void abort() {
+			if (pipe != null)
+				pipe.abort(new IOException("Request body was not completed."));
+		}
+
+		/**
+		 * Send the body if that hasn't begun, and wait for the response.
+		 */
+		TransportResponse finish() throws IOException {
+			close();
+			if (response == null) {
+				byte[] body = buffer.toByteArray();
+				buffer = null;
+				return send(new ByteArrayInputStream(body), body.length);
+			}
+
+			try {
+				return response.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				pipe.abort(new InterruptedIOException());
+				throw new InterruptedIOException("Interrupted waiting for response from " + url);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException)
+					throw (IOException) e.getCause();
+				throw new IOException("Request to " + url + " failed.", e.getCause());
+			}
+		}
+
+		/**
+		 * Hand the body to the transport from a sender thread, starting with what was buffered.
+		 */
+		private void startSending() throws IOException {
+			final Pipe p = new Pipe(getReadTimeout());
+			final long length = fixedLength;
+			response = getSenders().submit(new Callable<TransportResponse>() {
+				public TransportResponse call() throws IOException {
+					try {
+						return send(p, length);
+					} finally {
+						p.closeRead();
+					}
+				}
+			});
+			pipe = p;
+			byte[] b = buffer.toByteArray();
+			buffer = null;
+			pipe.write(b, 0, b.length);
+		}
+	}
+
+	/**
+	 * Bounded buffer between the thread writing a body and the sender thread reading it.
+	 */
+	private static class Pipe extends InputStream {
+		private final byte[] buffer = new byte[STREAM_THRESHOLD];
+		private final int readTimeout;
+		private int start;
+		private int count;
+		private boolean writeClosed;
+		private boolean readClosed;
+		private IOException aborted;
+
+		/**
+		 * @param readTimeout millis the reader waits for data, 0 for no timeout
+		 */
+		Pipe(int readTimeout) {
+			this.readTimeout = readTimeout;
+		}
+
+		synchronized void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				while (count == buffer.length && !readClosed && aborted == null)
+					await(0);
+				if (aborted != null)
+					throw aborted;
+				if (readClosed)
+					throw new IOException("The transport stopped reading the request body.");
+
+				int end = (start + count) % buffer.length;
+				int n = Math.min(len, Math.min(buffer.length - count, buffer.length - end));
+				System.arraycopy(b, off, buffer, end, n);
+				count += n;
+				off += n;
+				len -= n;
+				notifyAll();
+			}
+		}
+
+		synchronized void closeWrite() {
+			writeClosed = true;
+			notifyAll();
+		}
+
+		synchronized void abort(IOException cause) {
+			if (aborted == null)
+				aborted = cause;
+			notifyAll();
+		}
+
+		synchronized void closeRead() {
+			readClosed = true;
+			notifyAll();
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public synchronized int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+
+			long deadline = readTimeout > 0 ? System.currentTimeMillis() + readTimeout : 0;
+			while (count == 0 && !writeClosed && aborted == null) {
+				long wait = deadline == 0 ? 0 : deadline - System.currentTimeMillis();
+				if (deadline != 0 && wait <= 0)
+					throw new SocketTimeoutException("Timed out waiting for the request body.");
+				await(wait);
+			}
+			if (aborted != null)
+				throw aborted;
+			if (count == 0)
+				return -1;
+
+			int n = Math.min(len, Math.min(count, buffer.length - start));
+			System.arraycopy(buffer, start, b, off, n);
+			start = (start + n) % buffer.length;
+			count -= n;
+			notifyAll();
+			return n;
+		}
+
+		@Override
+		public synchronized int available() {
+			return count;
+		}
+
+		@Override
+		public void close() {
+			closeRead();
+		}
+
+		private void await(long millis) throws InterruptedIOException {
+			try {
+				wait(millis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+	}
+}
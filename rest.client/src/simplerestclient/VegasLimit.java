@@ -0,0 +1,84 @@
+package simplerestclient;
+
+/**
+ * Delay based limit after TCP Vegas.  The lowest latency seen is taken as the latency with no
+ * queueing, and limit * (1 - minRtt / rtt) estimates how many requests are queued at the
+ * destination.  The limit grows while that is below alpha, shrinks once it passes beta, and is
+ * halved on a drop; alpha and beta scale with log10(limit), as 3 and 6 times it.
+ *
+ * The lowest latency is forgotten every probeInterval samples, so a destination that has become
+ * slower for good is measured afresh.
+ *
+ * @author kgilmer
+ *
+ */
+public class VegasLimit implements IConcurrencyLimit {
+	public static final int DEFAULT_PROBE_INTERVAL = 1000;
+
+	private final int minLimit;
+	private final int maxLimit;
+	private final int probeInterval;
+	private double limit;
+	private long minRtt;
+	private int samples;
+
+	/**
+	 * @param initialLimit
+	 * @param maxLimit
+	 */
+	public VegasLimit(int initialLimit, int maxLimit) {
+		this(initialLimit, 1, maxLimit, DEFAULT_PROBE_INTERVAL);
+	}
+
+	/**
+	 * @param initialLimit
+	 * @param minLimit at least 1
+	 * @param maxLimit
+	 * @param probeInterval samples between resets of the lowest latency
+	 */
+	public VegasLimit(int initialLimit, int minLimit, int maxLimit, int probeInterval) {
+		AIMDLimit.checkLimits(initialLimit, minLimit, maxLimit);
+		if (probeInterval < 1)
+			throw new IllegalArgumentException("probeInterval must be positive.");
+
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.probeInterval = probeInterval;
+		this.limit = initialLimit;
+	}
+
+	@Override
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	@Override
+	public synchronized void onSample(long rttNanos, int inFlight, boolean dropped) {
+		if (++samples >= probeInterval) {
+			samples = 0;
+			minRtt = 0;
+		}
+
+		if (dropped) {
+			limit = Math.max(minLimit, limit / 2);
+			return;
+		}
+
+		if (rttNanos <= 0)
+			return;
+		if (minRtt == 0 || rttNanos < minRtt) {
+			minRtt = rttNanos;
+			return;
+		}
+
+		double log = Math.max(1, Math.log10(limit));
+		double queue = limit * (1 - (double) minRtt / rttNanos);
+		if (queue < 3 * log) {
+			// Only grow when the limit is actually being used.
+			if (inFlight * 2 >= limit)
+				limit = Math.min(maxLimit, limit + log);
+		} else if (queue > 6 * log) {
+			limit = Math.max(minLimit, limit - log);
+		}
+	}
+}